@@ -6,6 +6,7 @@ import com.bericotech.clavin.gazetteer.query.AncestryMode;
 import com.bericotech.clavin.gazetteer.query.Gazetteer;
 import com.bericotech.clavin.resolver.ClavinLocationResolver;
 import com.bericotech.clavin.resolver.ResolvedLocation;
+import com.bericotech.clavin.util.Deadline;
 import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -132,6 +133,24 @@ public class GeoParser {
      * @throws Exception
      */
     public List<ResolvedLocation> parse(String inputText, AncestryMode ancestryMode) throws Exception {
+        return parse(inputText, ancestryMode, null);
+    }
+
+    /**
+     * Takes an unstructured text document (as a String), extracts the
+     * location names contained therein, and resolves them into
+     * geographic entities representing the best match for those
+     * location names, settling for the best matches found so far if
+     * resolution has not finished by the deadline.  Results cut short
+     * by the deadline are reported by {@link Deadline#isTruncated()}.
+     *
+     * @param inputText     unstructured text to be processed
+     * @param ancestryMode  the ancestry load mode
+     * @param deadline      the time by which resolution must complete; null for no limit
+     * @return              list of geo entities resolved from text
+     * @throws Exception
+     */
+    public List<ResolvedLocation> parse(String inputText, AncestryMode ancestryMode, Deadline deadline) throws Exception {
 
         logger.trace("input: {}", inputText);
 
@@ -146,7 +165,7 @@ public class GeoParser {
         // then, resolve the extracted location names against a
         // gazetteer to produce geographic entities representing the
         // locations mentioned in the original text
-        List<ResolvedLocation> resolvedLocations = resolver.resolveLocations(locationNames, maxHitDepth, maxContextWindow, fuzzy, ancestryMode);
+        List<ResolvedLocation> resolvedLocations = resolver.resolveLocations(locationNames, maxHitDepth, maxContextWindow, fuzzy, ancestryMode, deadline);
         long resolveEnd = System.currentTimeMillis();
 
         logger.trace("resolved: {}", resolvedLocations);
@@ -2,10 +2,14 @@ package com.bericotech.clavin;
 
 import com.bericotech.clavin.extractor.ApacheExtractor;
 import com.bericotech.clavin.extractor.LocationExtractor;
+import com.bericotech.clavin.gazetteer.query.DirectoryType;
 import com.bericotech.clavin.gazetteer.query.Gazetteer;
+import com.bericotech.clavin.gazetteer.query.GeoNameCache;
 import com.bericotech.clavin.gazetteer.query.LuceneGazetteer;
+import com.bericotech.clavin.gazetteer.query.SearchExecutor;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 
 /*#####################################################################
  *
@@ -117,8 +121,77 @@ public class GeoParserFactory {
      */
     public static GeoParser getDefault(String pathToLuceneIndex, LocationExtractor extractor, int maxHitDepth,
             int maxContentWindow, boolean fuzzy) throws ClavinException {
+        return getDefault(pathToLuceneIndex, extractor, DirectoryType.DEFAULT, maxHitDepth, maxContentWindow, fuzzy);
+    }
+
+    /**
+     * Get a GeoParser with defined values for maxHitDepth and
+     * maxContentWindow, fuzzy matching explicitly turned on or off,
+     * and a specific method of reading the Lucene index.
+     *
+     * @param pathToLuceneIndex     Path to the local Lucene index.
+     * @param directoryType         How the Lucene index should be read
+     * @param maxHitDepth           Number of candidate matches to consider
+     * @param maxContentWindow      How much context to consider when resolving
+     * @param fuzzy                 Should fuzzy matching be used?
+     * @return                      GeoParser
+     * @throws ClavinException      If the index cannot be created.
+     */
+    public static GeoParser getDefault(String pathToLuceneIndex, DirectoryType directoryType, int maxHitDepth,
+            int maxContentWindow, boolean fuzzy) throws ClavinException {
+        try {
+            // instantiate default LocationExtractor
+            LocationExtractor extractor = new ApacheExtractor();
+            return getDefault(pathToLuceneIndex, extractor, directoryType, maxHitDepth, maxContentWindow, fuzzy);
+        } catch (IOException ioe) {
+            throw new ClavinException("Error creating ApacheExtractor", ioe);
+        }
+    }
+
+    /**
+     * Get a GeoParser with defined values for maxHitDepth and
+     * maxContentWindow, fuzzy matching explicitly turned on or off,
+     * a specific LocationExtractor to use and a specific method of
+     * reading the Lucene index.
+     *
+     * @param pathToLuceneIndex     Path to the local Lucene index.
+     * @param extractor             A specific implementation of LocationExtractor to be used
+     * @param directoryType         How the Lucene index should be read
+     * @param maxHitDepth           Number of candidate matches to consider
+     * @param maxContentWindow      How much context to consider when resolving
+     * @param fuzzy                 Should fuzzy matching be used?
+     * @return                      GeoParser
+     * @throws ClavinException      If the index cannot be created.
+     */
+    public static GeoParser getDefault(String pathToLuceneIndex, LocationExtractor extractor, DirectoryType directoryType,
+            int maxHitDepth, int maxContentWindow, boolean fuzzy) throws ClavinException {
+        return getDefault(pathToLuceneIndex, extractor, directoryType, null, maxHitDepth, maxContentWindow, fuzzy);
+    }
+
+    /**
+     * Get a GeoParser with defined values for maxHitDepth and
+     * maxContentWindow, fuzzy matching explicitly turned on or off,
+     * a specific LocationExtractor to use, a specific method of
+     * reading the Lucene index and an executor used to search the
+     * segments of the index in parallel.
+     *
+     * @param pathToLuceneIndex     Path to the local Lucene index.
+     * @param extractor             A specific implementation of LocationExtractor to be used
+     * @param directoryType         How the Lucene index should be read
+     * @param searchExecutor        Executor used to search index segments in parallel, e.g. a
+     *                              {@link SearchExecutor}, or <code>null</code> to search on the
+     *                              calling thread; the caller is responsible for shutting it down
+     * @param maxHitDepth           Number of candidate matches to consider
+     * @param maxContentWindow      How much context to consider when resolving
+     * @param fuzzy                 Should fuzzy matching be used?
+     * @return                      GeoParser
+     * @throws ClavinException      If the index cannot be created.
+     */
+    public static GeoParser getDefault(String pathToLuceneIndex, LocationExtractor extractor, DirectoryType directoryType,
+            ExecutorService searchExecutor, int maxHitDepth, int maxContentWindow, boolean fuzzy) throws ClavinException {
         // instantiate new LuceneGazetteer
-        Gazetteer gazetteer = new LuceneGazetteer(new File(pathToLuceneIndex));
+        Gazetteer gazetteer = new LuceneGazetteer(new File(pathToLuceneIndex), directoryType, new GeoNameCache(),
+                searchExecutor);
         return new GeoParser(extractor, gazetteer, maxHitDepth, maxContentWindow, fuzzy);
     }
 }
@@ -1,5 +1,6 @@
 package com.bericotech.clavin.gazetteer;
 
+import java.math.BigDecimal;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -12,6 +13,7 @@ import java.util.Set;
 import java.util.TimeZone;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -174,11 +176,19 @@ public class BasicGeoName implements GeoName {
     // the parent of this GeoName
     private GeoName parent;
 
-    // the gazetteer record this GeoName was parsed from
+    // the position of this GeoName in the administrative hierarchy of its gazetteer, if known
+    private HierarchyPosition hierarchyPosition;
+
+    // the gazetteer record this GeoName was parsed from; generated on request for
+    // GeoNames decoded from a binary record
     private String gazetteerRecord;
 
+    // the length and CRC-32 of the binary record entry this GeoName was decoded from,
+    // or 0 if it was not decoded from a binary record
+    private long binaryRecordDigest;
+
     /**
-     * Sole constructor for {@link BasicGeoName} class.
+     * Constructor for {@link BasicGeoName} class.
      *
      * Encapsulates a gazetteer record from the GeoNames database.
      *
@@ -226,6 +236,45 @@ public class BasicGeoName implements GeoName {
             TimeZone timezone,
             Date modificationDate,
             String gazetteerRecord) {
+        this(geonameID, name, asciiName, alternateNames, preferredName, latitude, longitude, featureClass,
+                featureCode, primaryCountryCode, alternateCountryCodes, admin1Code, admin2Code, admin3Code,
+                admin4Code, population, elevation, digitalElevationModel, timezone, modificationDate,
+                gazetteerRecord, true);
+    }
+
+    /**
+     * Creates a BasicGeoName that may share the provided timezone.  TimeZones are
+     * mutable, so the public constructor copies the timezone it is given; callers
+     * that never modify the timezone, such as the binary record decoder, share it
+     * instead of allocating a copy for every GeoName.  The other parameters match
+     * those of the public constructor.
+     *
+     * @param copyTimezone              <code>true</code> to copy the timezone, <code>false</code>
+     *                                  to share it
+     */
+    BasicGeoName(
+            int geonameID,
+            String name,
+            String asciiName,
+            List<String> alternateNames,
+            String preferredName,
+            Double latitude,
+            Double longitude,
+            FeatureClass featureClass,
+            FeatureCode featureCode,
+            CountryCode primaryCountryCode,
+            List<CountryCode> alternateCountryCodes,
+            String admin1Code,
+            String admin2Code,
+            String admin3Code,
+            String admin4Code,
+            Long population,
+            Integer elevation,
+            Integer digitalElevationModel,
+            TimeZone timezone,
+            Date modificationDate,
+            String gazetteerRecord,
+            boolean copyTimezone) {
         this.geonameID = geonameID;
         this.name = name;
         this.asciiName = asciiName;
@@ -257,17 +306,8 @@ public class BasicGeoName implements GeoName {
         } else {
             this.featureCode = featureCode;
         }
-        // if this is a top level division, use the primary country name as the preferred name; otherwise
-        // use the name provided or null
-        boolean usePcc = TOP_LEVEL_FEATURES.contains(featureCode) && !pccName.isEmpty() &&
-                ((this.name != null && !this.name.isEmpty() && this.name.equals(pccName)) ||
-                (this.asciiName != null && !this.asciiName.isEmpty() && this.asciiName.equals(pccName)) ||
-                this.alternateNames.contains(pccName));
-        if (usePcc) {
-            this.preferredName = pccName;
-        } else {
-            this.preferredName = preferredName != null && !preferredName.trim().isEmpty() ? preferredName.trim() : null;
-        }
+        this.preferredName = resolvePreferredName(name, asciiName, this.alternateNames, featureCode, primaryCountryCode,
+                preferredName);
 
         this.admin1Code = admin1Code;
         this.admin2Code = admin2Code;
@@ -276,12 +316,41 @@ public class BasicGeoName implements GeoName {
         this.population = population;
         this.elevation = elevation;
         this.digitalElevationModel = digitalElevationModel;
-        this.timezone = timezone != null ? (TimeZone) timezone.clone() : null;
+        this.timezone = timezone != null && copyTimezone ? (TimeZone) timezone.clone() : timezone;
         this.modificationDate = modificationDate != null ? new Date(modificationDate.getTime()) : null;
         this.gazetteerRecord = gazetteerRecord;
     }
 
 
+    /**
+     * Determines the preferred name of a GeoName.  If the GeoName is a top level
+     * division named for its primary country, the primary country name is
+     * preferred; otherwise the provided preferred name is used, if any.
+     *
+     * @param name                  name of the location
+     * @param asciiName             plain text version of name
+     * @param alternateNames        list of alternate names; must not be <code>null</code>
+     * @param featureCode           the feature code, as read from the gazetteer record
+     * @param primaryCountryCode    ISO country code
+     * @param preferredName         the preferred name, if known
+     * @return                      the preferred name or <code>null</code> if the name of
+     *                              the GeoName should be used
+     */
+    static String resolvePreferredName(final String name, final String asciiName, final List<String> alternateNames,
+            final FeatureCode featureCode, final CountryCode primaryCountryCode, final String preferredName) {
+        String pccName = primaryCountryCode != null ? primaryCountryCode.name : "";
+        // if this is a top level division, use the primary country name as the preferred name; otherwise
+        // use the name provided or null
+        boolean usePcc = TOP_LEVEL_FEATURES.contains(featureCode) && !pccName.isEmpty() &&
+                ((name != null && !name.isEmpty() && name.equals(pccName)) ||
+                (asciiName != null && !asciiName.isEmpty() && asciiName.equals(pccName)) ||
+                alternateNames.contains(pccName));
+        if (usePcc) {
+            return pccName;
+        }
+        return preferredName != null && !preferredName.trim().isEmpty() ? preferredName.trim() : null;
+    }
+
     /**
      * Builds a {@link BasicGeoName} object based on a single gazetteer
      * record in the GeoNames geographical database.
@@ -425,7 +494,7 @@ public class BasicGeoName implements GeoName {
                 primaryCountryCode, alternateCountryCodes, admin1Code,
                 admin2Code, admin3Code, admin4Code, population,
                 elevation, digitalElevationModel, timezone,
-                modificationDate, inputLine);
+                modificationDate, inputLine, false);
     }
 
     private static int getAdminLevel(final FeatureClass fClass, final FeatureCode fCode) {
@@ -464,28 +533,51 @@ public class BasicGeoName implements GeoName {
 
     @Override
     public String getParentAncestryKey() {
-        String key = buildAncestryKey(FeatureCode.ADM4, false);
+        return getParentAncestryKey(this);
+    }
+
+    /**
+     * Gets the parent ancestry key of the provided GeoName.  The ancestry key
+     * methods are shared by all GeoName implementations in this package.
+     * @param geoname the GeoName
+     * @return the parent ancestry key or <code>null</code>
+     * @see GeoName#getParentAncestryKey()
+     */
+    static String getParentAncestryKey(final GeoName geoname) {
+        String key = buildAncestryKey(geoname, FeatureCode.ADM4, false);
         // return null if the key is empty; that means we are a top-level administrative component
         return !key.isEmpty() ? key : null;
     }
 
     @Override
     public String getAncestryKey() {
-        boolean hasKey = featureClass == FeatureClass.A && VALID_ADMIN_ANCESTORS.contains(featureCode);
+        return getAncestryKey(this);
+    }
+
+    /**
+     * Gets the ancestry key of the provided GeoName.
+     * @param geoname the GeoName
+     * @return the ancestry key or <code>null</code>
+     * @see GeoName#getAncestryKey()
+     */
+    static String getAncestryKey(final GeoName geoname) {
+        FeatureCode featureCode = geoname.getFeatureCode();
+        CountryCode primaryCountryCode = geoname.getPrimaryCountryCode();
+        boolean hasKey = geoname.getFeatureClass() == FeatureClass.A && VALID_ADMIN_ANCESTORS.contains(featureCode);
         if (hasKey) {
             String myCode;
             switch (featureCode) {
                 case ADM1:
-                    myCode = admin1Code;
+                    myCode = geoname.getAdmin1Code();
                     break;
                 case ADM2:
-                    myCode = admin2Code;
+                    myCode = geoname.getAdmin2Code();
                     break;
                 case ADM3:
-                    myCode = admin3Code;
+                    myCode = geoname.getAdmin3Code();
                     break;
                 case ADM4:
-                    myCode = admin4Code;
+                    myCode = geoname.getAdmin4Code();
                     break;
                 case PCL:
                 case PCLD:
@@ -502,12 +594,21 @@ public class BasicGeoName implements GeoName {
             }
             hasKey = myCode != null && !myCode.trim().isEmpty();
         }
-        String key = (hasKey ? buildAncestryKey(FeatureCode.ADM4, true) : "").trim();
+        String key = (hasKey ? buildAncestryKey(geoname, FeatureCode.ADM4, true) : "").trim();
         return !key.isEmpty() ? key : null;
     }
 
     @Override
     public boolean isTopLevelAdminDivision() {
+        return isTopLevelAdminDivision(featureCode);
+    }
+
+    /**
+     * Determines whether a feature code identifies a top level administrative division.
+     * @param featureCode the feature code
+     * @return <code>true</code> if the feature code is a top level administrative division
+     */
+    static boolean isTopLevelAdminDivision(final FeatureCode featureCode) {
         return TOP_LEVEL_FEATURES.contains(featureCode);
     }
 
@@ -517,17 +618,18 @@ public class BasicGeoName implements GeoName {
     }
 
     /**
-     * Recursively builds the ancestry key for this GeoName, optionally including the
-     * key for this GeoName's administrative division if requested and applicable. See
+     * Recursively builds the ancestry key for a GeoName, optionally including the
+     * key for the GeoName's administrative division if requested and applicable. See
      * {@link BasicGeoName#getAncestryKey()} for a description of the ancestry key. Only
-     * divisions that have a non-empty code set in this GeoName will be included in the
+     * divisions that have a non-empty code set in the GeoName will be included in the
      * key.
+     * @param geoname the GeoName
      * @param level the administrative division at the end of the key (e.g. ADM2 to build
      *              the key COUNTRY.ADM1.ADM2)
-     * @param includeSelf <code>true</code> to include this GeoName's code in the key
+     * @param includeSelf <code>true</code> to include the GeoName's code in the key
      * @return the generated ancestry key
      */
-    private String buildAncestryKey(final FeatureCode level, final boolean includeSelf) {
+    private static String buildAncestryKey(final GeoName geoname, final FeatureCode level, final boolean includeSelf) {
         // if we have reached the root level, stop
         if (level == null) {
             return "";
@@ -537,15 +639,15 @@ public class BasicGeoName implements GeoName {
         FeatureCode nextLevel;
         switch (level) {
             case ADM4:
-                keyPart = admin4Code;
+                keyPart = geoname.getAdmin4Code();
                 nextLevel = FeatureCode.ADM3;
                 break;
             case ADM3:
-                keyPart = admin3Code;
+                keyPart = geoname.getAdmin3Code();
                 nextLevel = FeatureCode.ADM2;
                 break;
             case ADM2:
-                keyPart = admin2Code;
+                keyPart = geoname.getAdmin2Code();
                 nextLevel = FeatureCode.ADM1;
                 break;
             case ADM1:
@@ -553,10 +655,12 @@ public class BasicGeoName implements GeoName {
                 // parent but cannot contain descendants so there should be no keypart for this level;
                 // all parishes are considered to be direct descendants of their containing country with
                 // no descendants; they should not have a key part at this level
-                keyPart = featureCode != FeatureCode.TERR && featureCode != FeatureCode.PRSH ? admin1Code : "";
+                keyPart = geoname.getFeatureCode() != FeatureCode.TERR && geoname.getFeatureCode() != FeatureCode.PRSH ?
+                        geoname.getAdmin1Code() : "";
                 nextLevel = FeatureCode.PCL;
                 break;
             case PCL:
+                CountryCode primaryCountryCode = geoname.getPrimaryCountryCode();
                 keyPart = primaryCountryCode != null && primaryCountryCode != CountryCode.NULL ? primaryCountryCode.name() : "";
                 nextLevel = null;
                 break;
@@ -568,14 +672,14 @@ public class BasicGeoName implements GeoName {
             keyPart = String.format(".%s", keyPart);
         }
         int keyLevel = getAdminLevel(FeatureClass.A, level);
-        int nameLevel = getAdminLevel(featureClass, featureCode, name, alternateNames, primaryCountryCode.name);
+        int nameLevel = getAdminLevel(geoname.getFeatureClass(), geoname.getFeatureCode());
 
         // if the requested key part is a larger administrative division than the level of the
         // geoname or, if we are including the geoname's key part and it is the requested part,
         // include it in the ancestry key (if not blank); otherwise, move to the next level
         String qualifiedKey = (nameLevel > keyLevel || (includeSelf && keyLevel == nameLevel)) && !keyPart.isEmpty() ?
-                String.format("%s%s", buildAncestryKey(nextLevel, includeSelf), keyPart) :
-                buildAncestryKey(nextLevel, includeSelf);
+                String.format("%s%s", buildAncestryKey(geoname, nextLevel, includeSelf), keyPart) :
+                buildAncestryKey(geoname, nextLevel, includeSelf);
         // if any part of the key is missing once a lower-level component has been specified, we cannot
         // resolve the ancestry path and an empty string should be returned.
         if (qualifiedKey.startsWith(".") || qualifiedKey.contains("..") || qualifiedKey.endsWith(".")) {
@@ -586,11 +690,25 @@ public class BasicGeoName implements GeoName {
 
     @Override
     public boolean isDescendantOf(final GeoName geoname) {
+        return isDescendantOf(this, geoname);
+    }
+
+    /**
+     * Determines whether a GeoName is a descendant of another GeoName.
+     * @param descendant the potential descendant
+     * @param geoname the potential ancestor
+     * @return <code>true</code> if the ancestor is found in the ancestry of the descendant
+     */
+    static boolean isDescendantOf(final GeoName descendant, final GeoName geoname) {
         boolean descended = false;
-        if (geoname != null) {
+        HierarchyPosition position = HierarchyPosition.of(descendant);
+        HierarchyPosition ancestorPosition = HierarchyPosition.of(geoname);
+        if (position != null && position.isComparableTo(ancestorPosition)) {
+            descended = descendant.equals(geoname) || ancestorPosition.contains(position);
+        } else if (geoname != null) {
             GeoName test;
             // empty for loop exits when parent is found or top level is reached
-            for (test = this; test != null && !test.equals(geoname); test = test.getParent());
+            for (test = descendant; test != null && !test.equals(geoname); test = test.getParent());
             descended = test != null;
         }
         return descended;
@@ -606,26 +724,58 @@ public class BasicGeoName implements GeoName {
         return parent;
     }
 
+    /**
+     * Get the position of this GeoName in the administrative hierarchy.
+     * @return the hierarchy position or <code>null</code> if it is not known
+     * @see HierarchyPosition#of(GeoName)
+     */
+    HierarchyPosition getHierarchyPosition() {
+        return hierarchyPosition;
+    }
+
+    /**
+     * Set the position of this GeoName in the administrative hierarchy.
+     * @param position the hierarchy position; <code>null</code> clears the position
+     * @see HierarchyPosition#assign(GeoName, HierarchyPosition)
+     */
+    void setHierarchyPosition(final HierarchyPosition position) {
+        this.hierarchyPosition = position;
+    }
+
     @Override
     public boolean setParent(final GeoName prnt) {
-        String myParentKey = this.getParentAncestryKey();
+        boolean parentSet = isValidParent(this, prnt);
+        if (parentSet) {
+            this.parent = prnt;
+        }
+        return parentSet;
+    }
+
+    /**
+     * Determines whether a GeoName may be set as the parent of another GeoName,
+     * logging the reason if it may not.
+     * @param geoname the child
+     * @param prnt the proposed parent
+     * @return <code>true</code> if the parent is a valid parent of the child
+     */
+    static boolean isValidParent(final GeoName geoname, final GeoName prnt) {
+        String myParentKey = geoname.getParentAncestryKey();
         String parentKey = prnt != null ? prnt.getAncestryKey() : null;
-        boolean parentSet = false;
+        boolean valid = false;
         if (prnt != null) {
             if (prnt.getFeatureClass() != FeatureClass.A || !VALID_ADMIN_ANCESTORS.contains(prnt.getFeatureCode())) {
                 LOG.error(String.format("Invalid administrative parent type [%s:%s] specified for GeoName [%s]; Parent [%s]",
-                        prnt.getFeatureClass(), prnt.getFeatureCode(), this, prnt));
+                        prnt.getFeatureClass(), prnt.getFeatureCode(), geoname, prnt));
             } else if (myParentKey != null && parentKey != null && !myParentKey.startsWith(parentKey)) {
                 LOG.error(String.format("Parent ancestry key [%s] does not match the expected key [%s] for GeoName [%s]; Parent [%s]",
-                        parentKey, myParentKey, this, prnt));
-            } else if (this.equals(prnt)) {
+                        parentKey, myParentKey, geoname, prnt));
+            } else if (geoname.equals(prnt)) {
                 LOG.warn("Attempted to set parent to self: {}", prnt);
             } else {
-                this.parent = prnt;
-                parentSet = true;
+                valid = true;
             }
         }
-        return parentSet;
+        return valid;
     }
 
     @Override
@@ -635,10 +785,20 @@ public class BasicGeoName implements GeoName {
 
     @Override
     public boolean isAncestryResolved() {
-        // this GeoName is considered resolved if it is a top level administrative division,
+        return isAncestryResolved(this, parent);
+    }
+
+    /**
+     * Determines whether the ancestry of a GeoName has been resolved.
+     * @param geoname the GeoName
+     * @param parent the parent of the GeoName, if set
+     * @return <code>true</code> if the ancestry of the GeoName has been resolved
+     */
+    static boolean isAncestryResolved(final GeoName geoname, final GeoName parent) {
+        // a GeoName is considered resolved if it is a top level administrative division,
         // it is unresolvable, or all parents up to a top-level element have been configured
-        return getAdminLevel(featureClass, featureCode, name, alternateNames, primaryCountryCode.name) <= 0 ||
-                getParentAncestryKey() == null || (parent != null && parent.isAncestryResolved());
+        return getAdminLevel(geoname.getFeatureClass(), geoname.getFeatureCode()) <= 0 ||
+                geoname.getParentAncestryKey() == null || (parent != null && parent.isAncestryResolved());
     }
 
     @Override
@@ -745,12 +905,87 @@ public class BasicGeoName implements GeoName {
 
     @Override
     public String getGazetteerRecord() {
+        if (gazetteerRecord == null) {
+            gazetteerRecord = buildGeoNamesRecord();
+        }
         return gazetteerRecord;
     }
 
     @Override
     public String getGazetteerRecordWithAncestry() {
-        return parent != null ? String.format("%s\n%s", gazetteerRecord, parent.getGazetteerRecordWithAncestry()) : gazetteerRecord;
+        return parent != null ? String.format("%s\n%s", getGazetteerRecord(), parent.getGazetteerRecordWithAncestry()) : getGazetteerRecord();
+    }
+
+    /**
+     * Builds a tab-delimited GeoNames gazetteer record from the fields of this
+     * GeoName.  Parsing the generated record results in an identical GeoName,
+     * though the formatting of its numeric fields may differ from the record
+     * originally read from the GeoNames gazetteer.
+     * @return the generated gazetteer record
+     */
+    private String buildGeoNamesRecord() {
+        StringBuilder record = new StringBuilder(256);
+        record.append(geonameID).append('\t')
+                .append(nullToEmpty(name)).append('\t')
+                .append(nullToEmpty(asciiName)).append('\t')
+                .append(StringUtils.join(alternateNames, ',')).append('\t')
+                .append(formatCoordinate(latitude)).append('\t')
+                .append(formatCoordinate(longitude)).append('\t')
+                .append(featureClass != FeatureClass.NULL ? featureClass.name() : "").append('\t');
+        FeatureCode code = featureCode == FeatureCode.TERRI ? FeatureCode.TERR : featureCode;
+        record.append(code != FeatureCode.NULL ? code.name() : "").append('\t')
+                .append(primaryCountryCode != CountryCode.NULL ? primaryCountryCode.name() : "").append('\t')
+                .append(StringUtils.join(alternateCountryCodes, ',')).append('\t')
+                .append(nullToEmpty(admin1Code)).append('\t')
+                .append(nullToEmpty(admin2Code));
+        // records without a timezone were truncated in the source gazetteer and the
+        // remaining fields are not trusted when they are parsed, so the record is
+        // truncated before the timezone; the numeric fields are always written so
+        // the admin codes are not dropped as trailing empty fields
+        if (timezone == null) {
+            record.append('\t')
+                    .append(nullToEmpty(admin3Code)).append('\t')
+                    .append(nullToEmpty(admin4Code)).append('\t')
+                    .append(population).append('\t')
+                    .append(elevation).append('\t')
+                    .append(digitalElevationModel);
+        } else {
+            record.append('\t')
+                    .append(nullToEmpty(admin3Code)).append('\t')
+                    .append(nullToEmpty(admin4Code)).append('\t')
+                    .append(population != OUT_OF_BOUNDS ? String.valueOf(population) : "").append('\t')
+                    .append(elevation != OUT_OF_BOUNDS ? String.valueOf(elevation) : "").append('\t')
+                    .append(digitalElevationModel != OUT_OF_BOUNDS ? String.valueOf(digitalElevationModel) : "").append('\t')
+                    .append(timezone.getID()).append('\t')
+                    .append(modificationDate != null ? new SimpleDateFormat("yyyy-MM-dd").format(modificationDate) : "");
+        }
+        return record.toString();
+    }
+
+    private static String nullToEmpty(final String value) {
+        return value != null ? value : "";
+    }
+
+    private static String formatCoordinate(final double coordinate) {
+        return coordinate != OUT_OF_BOUNDS ? BigDecimal.valueOf(coordinate).toPlainString() : "";
+    }
+
+    /**
+     * Get the digest of the binary record entry this GeoName was decoded from.
+     * @return the length of the entry in the upper 32 bits and its CRC-32 in the
+     *         lower 32 bits, or 0 if this GeoName was not decoded from a binary record
+     */
+    long getBinaryRecordDigest() {
+        return binaryRecordDigest;
+    }
+
+    /**
+     * Set the digest of the binary record entry this GeoName was decoded from.
+     * @param digest the length of the entry in the upper 32 bits and its CRC-32 in
+     *               the lower 32 bits
+     */
+    void setBinaryRecordDigest(final long digest) {
+        this.binaryRecordDigest = digest;
     }
 
     @Override
@@ -0,0 +1,510 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * BinaryGeoNameCodec.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Encodes GeoNames in a compact binary form that can be decoded without
+ * splitting and parsing the text of a GeoNames gazetteer record.
+ *
+ * A binary record begins with a single version byte followed by one
+ * or more GeoName entries.  The first entry is the GeoName itself and
+ * any subsequent entries are its ancestors, starting with its direct
+ * parent.  Each entry contains the following fields, in order:
+ *
+ * <ul>
+ *   <li>geonameID: varint</li>
+ *   <li>flags: byte; see the <code>FLAG_</code> constants</li>
+ *   <li>name and, if it differs from the name, ascii name: strings</li>
+ *   <li>alternate names: varint count followed by the strings</li>
+ *   <li>latitude and longitude: two 4-byte integers in units of 10<sup>-7</sup>
+ *       degrees if they can be exactly represented, otherwise two 8-byte doubles</li>
+ *   <li>feature class: byte ordinal</li>
+ *   <li>feature code: varint ordinal</li>
+ *   <li>primary country code: varint ordinal</li>
+ *   <li>alternate country codes: varint count followed by varint ordinals</li>
+ *   <li>admin1, admin2, admin3 and admin4 codes: strings</li>
+ *   <li>population: zig-zag varlong</li>
+ *   <li>elevation and digital elevation model: zig-zag varints</li>
+ *   <li>timezone: varint; 0 if there is no timezone, 1 if the timezone ID follows as
+ *       a string, otherwise the index of the timezone ID in the dictionary plus 2</li>
+ *   <li>modification date, if present: zig-zag varlong milliseconds since the epoch</li>
+ * </ul>
+ *
+ * Strings are encoded as a varint containing the length of their UTF-8
+ * bytes plus one, followed by the bytes; a length of 0 represents
+ * <code>null</code>.
+ *
+ * Enum values are stored by ordinal and timezones by their position in
+ * the <code>TimeZones.txt</code> dictionary, so the order of the
+ * FeatureClass, FeatureCode and CountryCode constants must not change
+ * and new timezones must be appended to the dictionary unless
+ * {@link #VERSION} is incremented and the gazetteer index is rebuilt.
+ */
+public final class BinaryGeoNameCodec {
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryGeoNameCodec.class);
+
+    /**
+     * The current version of the binary record format.
+     */
+    public static final byte VERSION = 1;
+
+    /**
+     * Set if the ascii name is identical to the name and is not encoded.
+     */
+    private static final int FLAG_ASCII_NAME_IS_NAME = 0x01;
+
+    /**
+     * Set if the coordinates are encoded as 4-byte fixed-point integers.
+     */
+    private static final int FLAG_PACKED_COORDINATES = 0x02;
+
+    /**
+     * Set if the entry contains a modification date.
+     */
+    private static final int FLAG_MODIFICATION_DATE = 0x04;
+
+    /**
+     * The number of fixed-point coordinate units per degree.
+     */
+    private static final double COORDINATE_SCALE = 1e7;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final FeatureClass[] FEATURE_CLASSES = FeatureClass.values();
+    private static final FeatureCode[] FEATURE_CODES = FeatureCode.values();
+    private static final CountryCode[] COUNTRY_CODES = CountryCode.values();
+
+    /**
+     * The dictionary of timezone IDs.
+     */
+    private static final String[] TIMEZONE_IDS = loadTimezoneIds();
+
+    /**
+     * The timezone at each position in the dictionary, so they are only loaded once.
+     * Decoded GeoNames share these zones, which are never modified.
+     */
+    private static final TimeZone[] TIMEZONES = new TimeZone[TIMEZONE_IDS.length];
+
+    /**
+     * The position of each timezone ID in the dictionary.
+     */
+    private static final Map<String, Integer> TIMEZONE_INDEX = new HashMap<String, Integer>();
+
+    static {
+        for (int idx = 0; idx < TIMEZONE_IDS.length; idx++) {
+            TIMEZONES[idx] = TimeZone.getTimeZone(TIMEZONE_IDS[idx]);
+            TIMEZONE_INDEX.put(TIMEZONE_IDS[idx], idx);
+        }
+    }
+
+    private BinaryGeoNameCodec() {
+    }
+
+    /**
+     * Encodes a GeoName as a binary record.
+     * @param geoname the GeoName to encode
+     * @param includeAncestry <code>true</code> to encode all resolved ancestors of the GeoName
+     * @return the binary record
+     */
+    public static byte[] encode(final GeoName geoname, final boolean includeAncestry) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        out.write(VERSION);
+        GeoName current = geoname;
+        while (current != null) {
+            encodeEntry(current, out);
+            current = includeAncestry ? current.getParent() : null;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a binary record, setting the parent of each GeoName to the
+     * next ancestor found in the record.
+     * @param bytes the buffer containing the record
+     * @param offset the offset of the record in the buffer
+     * @param length the length of the record
+     * @param preferredName the preferred name of the GeoName; may be <code>null</code>
+     * @return the decoded GeoName
+     * @throws IllegalArgumentException if the record was written by an unsupported version
+     *                                  of this codec
+     */
+    public static GeoName decode(final byte[] bytes, final int offset, final int length, final String preferredName) {
+        if (length < 1 || bytes[offset] != VERSION) {
+            throw new IllegalArgumentException(String.format("Unsupported binary GeoName record version [%d]",
+                    length < 1 ? -1 : bytes[offset]));
+        }
+        Decoder decoder = new Decoder(bytes, offset + 1, offset + length);
+        BasicGeoName geoname = decoder.decodeEntry(preferredName);
+        // if more entries exist, they are the ancestry of the target GeoName
+        GeoName current = geoname;
+        while (decoder.hasRemaining()) {
+            GeoName parent = decoder.decodeEntry(null);
+            if (!current.setParent(parent)) {
+                LOG.error("Invalid ancestry path for GeoName [{}]", geoname);
+                break;
+            }
+            current = parent;
+        }
+        return geoname;
+    }
+
+    /**
+     * Determines whether a GeoName was decoded from the first entry of the
+     * provided binary record.  This is used to validate that a previously
+     * decoded GeoName is interchangeable with the GeoName stored in a record,
+     * since the same GeoName may be found in more than one gazetteer.
+     * @param geoname the GeoName
+     * @param bytes the buffer containing the record
+     * @param offset the offset of the record in the buffer
+     * @param length the length of the record
+     * @return <code>true</code> if the GeoName was decoded from an identical entry
+     */
+    public static boolean isDecodedFrom(final GeoName geoname, final byte[] bytes, final int offset, final int length) {
+        if (!(geoname instanceof BasicGeoName)) {
+            return false;
+        }
+        long digest = ((BasicGeoName) geoname).getBinaryRecordDigest();
+        int entryLength = (int) (digest >>> 32);
+        if (digest == 0L || length < entryLength + 1 || bytes[offset] != VERSION) {
+            return false;
+        }
+        // entries are self-delimiting, so a matching prefix is a matching entry
+        return digest(bytes, offset + 1, offset + 1 + entryLength) == digest;
+    }
+
+    /**
+     * Computes the digest of a binary record entry: its length in the upper 32 bits
+     * and its CRC-32 in the lower 32 bits.  Decoded GeoNames keep the digest instead
+     * of a copy of their entry.
+     * @param bytes the buffer containing the entry
+     * @param start the offset of the entry in the buffer
+     * @param end the offset following the entry
+     * @return the digest of the entry
+     */
+    private static long digest(final byte[] bytes, final int start, final int end) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, start, end - start);
+        return ((long) (end - start) << 32) | crc.getValue();
+    }
+
+    private static void encodeEntry(final GeoName geoname, final ByteArrayOutputStream out) {
+        String name = geoname.getName();
+        String asciiName = geoname.getAsciiName();
+        double latitude = geoname.getLatitude();
+        double longitude = geoname.getLongitude();
+        Date modificationDate = geoname.getModificationDate();
+        boolean asciiIsName = name != null ? name.equals(asciiName) : asciiName == null;
+        boolean packed = isPackable(latitude) && isPackable(longitude);
+
+        int flags = 0;
+        if (asciiIsName) {
+            flags |= FLAG_ASCII_NAME_IS_NAME;
+        }
+        if (packed) {
+            flags |= FLAG_PACKED_COORDINATES;
+        }
+        if (modificationDate != null) {
+            flags |= FLAG_MODIFICATION_DATE;
+        }
+
+        writeVInt(out, geoname.getGeonameID());
+        out.write(flags);
+        writeString(out, name);
+        if (!asciiIsName) {
+            writeString(out, asciiName);
+        }
+        List<String> altNames = geoname.getAlternateNames();
+        writeVInt(out, altNames.size());
+        for (String altName : altNames) {
+            writeString(out, altName);
+        }
+        if (packed) {
+            writeInt(out, (int) Math.round(latitude * COORDINATE_SCALE));
+            writeInt(out, (int) Math.round(longitude * COORDINATE_SCALE));
+        } else {
+            writeLong(out, Double.doubleToLongBits(latitude));
+            writeLong(out, Double.doubleToLongBits(longitude));
+        }
+        out.write(geoname.getFeatureClass().ordinal());
+        // territories are distinguished when the GeoName is constructed; store the original code
+        FeatureCode featureCode = geoname.getFeatureCode() == FeatureCode.TERRI ? FeatureCode.TERR : geoname.getFeatureCode();
+        writeVInt(out, featureCode.ordinal());
+        writeVInt(out, geoname.getPrimaryCountryCode().ordinal());
+        List<CountryCode> altCodes = geoname.getAlternateCountryCodes();
+        writeVInt(out, altCodes.size());
+        for (CountryCode code : altCodes) {
+            writeVInt(out, code.ordinal());
+        }
+        writeString(out, geoname.getAdmin1Code());
+        writeString(out, geoname.getAdmin2Code());
+        writeString(out, geoname.getAdmin3Code());
+        writeString(out, geoname.getAdmin4Code());
+        writeVLong(out, zigZag(geoname.getPopulation()));
+        writeVInt(out, (int) zigZag(geoname.getElevation()));
+        writeVInt(out, (int) zigZag(geoname.getDigitalElevationModel()));
+        TimeZone timezone = geoname.getTimezone();
+        if (timezone == null) {
+            writeVInt(out, 0);
+        } else {
+            Integer idx = TIMEZONE_INDEX.get(timezone.getID());
+            if (idx != null) {
+                writeVInt(out, idx + 2);
+            } else {
+                writeVInt(out, 1);
+                writeString(out, timezone.getID());
+            }
+        }
+        if (modificationDate != null) {
+            writeVLong(out, zigZag(modificationDate.getTime()));
+        }
+    }
+
+    /**
+     * Coordinates are packed if they survive the round trip through the
+     * fixed-point representation unchanged.
+     */
+    private static boolean isPackable(final double coordinate) {
+        return Math.abs(coordinate) <= 180.0 && Math.round(coordinate * COORDINATE_SCALE) / COORDINATE_SCALE == coordinate;
+    }
+
+    private static long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVInt(final ByteArrayOutputStream out, final int value) {
+        writeVLong(out, value & 0xFFFFFFFFL);
+    }
+
+    private static void writeVLong(final ByteArrayOutputStream out, final long value) {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0L) {
+            out.write((int) ((remaining & 0x7FL) | 0x80L));
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    private static void writeInt(final ByteArrayOutputStream out, final int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeLong(final ByteArrayOutputStream out, final long value) {
+        writeInt(out, (int) (value >>> 32));
+        writeInt(out, (int) value);
+    }
+
+    private static void writeString(final ByteArrayOutputStream out, final String value) {
+        if (value == null) {
+            writeVInt(out, 0);
+        } else {
+            byte[] utf8 = value.getBytes(UTF_8);
+            writeVInt(out, utf8.length + 1);
+            out.write(utf8, 0, utf8.length);
+        }
+    }
+
+    private static String[] loadTimezoneIds() {
+        List<String> ids = new ArrayList<String>();
+        InputStream in = BinaryGeoNameCodec.class.getClassLoader().getResourceAsStream("TimeZones.txt");
+        if (in == null) {
+            throw new IllegalStateException("Unable to find timezone dictionary [TimeZones.txt]");
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.trim().isEmpty()) {
+                        ids.add(line.trim());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Unable to read timezone dictionary [TimeZones.txt]", ioe);
+        }
+        return ids.toArray(new String[ids.size()]);
+    }
+
+    /**
+     * Reads entries directly from the buffer containing a binary record.
+     */
+    private static class Decoder {
+        private final byte[] bytes;
+        private final int end;
+        private int pos;
+
+        public Decoder(final byte[] bytes, final int start, final int end) {
+            this.bytes = bytes;
+            this.pos = start;
+            this.end = end;
+        }
+
+        public boolean hasRemaining() {
+            return pos < end;
+        }
+
+        public BasicGeoName decodeEntry(final String preferredName) {
+            int start = pos;
+            int geonameID = readVInt();
+            int flags = bytes[pos++];
+            String name = readString();
+            String asciiName = (flags & FLAG_ASCII_NAME_IS_NAME) != 0 ? name : readString();
+            int altNameCount = readVInt();
+            List<String> altNames;
+            if (altNameCount > 0) {
+                altNames = new ArrayList<String>(altNameCount);
+                for (int idx = 0; idx < altNameCount; idx++) {
+                    altNames.add(readString());
+                }
+            } else {
+                altNames = Collections.emptyList();
+            }
+            double latitude;
+            double longitude;
+            if ((flags & FLAG_PACKED_COORDINATES) != 0) {
+                latitude = readInt() / COORDINATE_SCALE;
+                longitude = readInt() / COORDINATE_SCALE;
+            } else {
+                latitude = Double.longBitsToDouble(readLong());
+                longitude = Double.longBitsToDouble(readLong());
+            }
+            FeatureClass featureClass = FEATURE_CLASSES[bytes[pos++]];
+            FeatureCode featureCode = FEATURE_CODES[readVInt()];
+            CountryCode primaryCountryCode = COUNTRY_CODES[readVInt()];
+            int altCodeCount = readVInt();
+            List<CountryCode> altCodes;
+            if (altCodeCount > 0) {
+                altCodes = new ArrayList<CountryCode>(altCodeCount);
+                for (int idx = 0; idx < altCodeCount; idx++) {
+                    altCodes.add(COUNTRY_CODES[readVInt()]);
+                }
+            } else {
+                altCodes = Collections.emptyList();
+            }
+            String admin1Code = readString();
+            String admin2Code = readString();
+            String admin3Code = readString();
+            String admin4Code = readString();
+            long population = unZigZag(readVLong());
+            int elevation = (int) unZigZag(readVInt() & 0xFFFFFFFFL);
+            int digitalElevationModel = (int) unZigZag(readVInt() & 0xFFFFFFFFL);
+            TimeZone timezone;
+            int tzCode = readVInt();
+            switch (tzCode) {
+                case 0:
+                    timezone = null;
+                    break;
+                case 1:
+                    timezone = TimeZone.getTimeZone(readString());
+                    break;
+                default:
+                    timezone = TIMEZONES[tzCode - 2];
+                    break;
+            }
+            Date modificationDate = (flags & FLAG_MODIFICATION_DATE) != 0 ? new Date(unZigZag(readVLong())) : null;
+
+            // the gazetteer record will be generated if it is requested
+            BasicGeoName geoname = new BasicGeoName(geonameID, name, asciiName, altNames, preferredName,
+                    latitude, longitude, featureClass, featureCode,
+                    primaryCountryCode, altCodes, admin1Code,
+                    admin2Code, admin3Code, admin4Code, population,
+                    elevation, digitalElevationModel, timezone,
+                    modificationDate, null, false);
+            geoname.setBinaryRecordDigest(digest(bytes, start, pos));
+            return geoname;
+        }
+
+        private int readVInt() {
+            return (int) readVLong();
+        }
+
+        private long readVLong() {
+            long value = 0L;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[pos++];
+                value |= (b & 0x7FL) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        private int readInt() {
+            int value = ((bytes[pos] & 0xFF) << 24) | ((bytes[pos + 1] & 0xFF) << 16)
+                    | ((bytes[pos + 2] & 0xFF) << 8) | (bytes[pos + 3] & 0xFF);
+            pos += 4;
+            return value;
+        }
+
+        private long readLong() {
+            long high = readInt() & 0xFFFFFFFFL;
+            return (high << 32) | (readInt() & 0xFFFFFFFFL);
+        }
+
+        private String readString() {
+            int length = readVInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            String value = new String(bytes, pos, length, UTF_8);
+            pos += length;
+            return value;
+        }
+    }
+}
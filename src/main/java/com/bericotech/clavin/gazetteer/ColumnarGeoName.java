@@ -0,0 +1,278 @@
+package com.bericotech.clavin.gazetteer;
+
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * ColumnarGeoName.java
+ *
+ *###################################################################*/
+
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * A GeoName backed by a row of a {@link ColumnarGeoNameStore}.  Attributes
+ * are read from the store each time they are requested; only the parent
+ * of this GeoName is held on the heap.
+ */
+final class ColumnarGeoName implements GeoName {
+    /** The store containing this GeoName. */
+    private final ColumnarGeoNameStore store;
+
+    /** The row of this GeoName in the store. */
+    private final int row;
+
+    /** The parent of this GeoName. */
+    private GeoName parent;
+
+    /** The position of this GeoName in the administrative hierarchy. */
+    private HierarchyPosition hierarchyPosition;
+
+    ColumnarGeoName(final ColumnarGeoNameStore store, final int row) {
+        this.store = store;
+        this.row = row;
+    }
+
+    /**
+     * Determines whether this GeoName is backed by a row of a store.
+     * @param owner the store
+     * @param index the row
+     * @return <code>true</code> if this GeoName reads its attributes from the row
+     */
+    boolean isRow(final ColumnarGeoNameStore owner, final int index) {
+        return store == owner && row == index;
+    }
+
+    @Override
+    public String getPrimaryCountryName() {
+        return getPrimaryCountryCode().name;
+    }
+
+    @Override
+    public String getParentAncestryKey() {
+        return BasicGeoName.getParentAncestryKey(this);
+    }
+
+    @Override
+    public String getAncestryKey() {
+        return BasicGeoName.getAncestryKey(this);
+    }
+
+    @Override
+    public boolean isTopLevelAdminDivision() {
+        return BasicGeoName.isTopLevelAdminDivision(getFeatureCode());
+    }
+
+    @Override
+    public boolean isTopLevelTerritory() {
+        return getFeatureCode() == FeatureCode.TERRI;
+    }
+
+    @Override
+    public boolean isDescendantOf(final GeoName geoname) {
+        return BasicGeoName.isDescendantOf(this, geoname);
+    }
+
+    @Override
+    public boolean isAncestorOf(final GeoName geoname) {
+        return geoname != null && geoname.isDescendantOf(this);
+    }
+
+    @Override
+    public Integer getParentId() {
+        return parent != null ? parent.getGeonameID() : null;
+    }
+
+    @Override
+    public GeoName getParent() {
+        return parent;
+    }
+
+    @Override
+    public boolean setParent(final GeoName prnt) {
+        boolean parentSet = BasicGeoName.isValidParent(this, prnt);
+        if (parentSet) {
+            this.parent = prnt;
+        }
+        return parentSet;
+    }
+
+    HierarchyPosition getHierarchyPosition() {
+        return hierarchyPosition;
+    }
+
+    void setHierarchyPosition(final HierarchyPosition position) {
+        this.hierarchyPosition = position;
+    }
+
+    @Override
+    public boolean isAncestryResolved() {
+        return BasicGeoName.isAncestryResolved(this, parent);
+    }
+
+    @Override
+    public int getGeonameID() {
+        return store.getGeonameId(row);
+    }
+
+    @Override
+    public String getName() {
+        return store.getName(row);
+    }
+
+    @Override
+    public String getAsciiName() {
+        return store.getAsciiName(row);
+    }
+
+    @Override
+    public List<String> getAlternateNames() {
+        return store.getAlternateNames(row);
+    }
+
+    @Override
+    public String getPreferredName() {
+        String preferredName = store.getPreferredName(row);
+        return preferredName != null ? preferredName : getName();
+    }
+
+    @Override
+    public double getLatitude() {
+        return store.getLatitude(row);
+    }
+
+    @Override
+    public double getLongitude() {
+        return store.getLongitude(row);
+    }
+
+    @Override
+    public FeatureClass getFeatureClass() {
+        return store.getFeatureClass(row);
+    }
+
+    @Override
+    public FeatureCode getFeatureCode() {
+        return store.getFeatureCode(row);
+    }
+
+    @Override
+    public CountryCode getPrimaryCountryCode() {
+        return store.getPrimaryCountryCode(row);
+    }
+
+    @Override
+    public List<CountryCode> getAlternateCountryCodes() {
+        return store.getAlternateCountryCodes(row);
+    }
+
+    @Override
+    public String getAdmin1Code() {
+        return store.getAdmin1Code(row);
+    }
+
+    @Override
+    public String getAdmin2Code() {
+        return store.getAdmin2Code(row);
+    }
+
+    @Override
+    public String getAdmin3Code() {
+        return store.getAdmin3Code(row);
+    }
+
+    @Override
+    public String getAdmin4Code() {
+        return store.getAdmin4Code(row);
+    }
+
+    @Override
+    public long getPopulation() {
+        return store.getPopulation(row);
+    }
+
+    @Override
+    public int getElevation() {
+        return store.getElevation(row);
+    }
+
+    @Override
+    public int getDigitalElevationModel() {
+        return store.getDigitalElevationModel(row);
+    }
+
+    @Override
+    public TimeZone getTimezone() {
+        return store.getTimezone(row);
+    }
+
+    @Override
+    public Date getModificationDate() {
+        return store.getModificationDate(row);
+    }
+
+    /**
+     * The gazetteer record is not stored; it is regenerated from the attributes of
+     * this GeoName on each request.
+     * @return the generated gazetteer record
+     */
+    @Override
+    public String getGazetteerRecord() {
+        return new BasicGeoName(getGeonameID(), getName(), getAsciiName(), getAlternateNames(), null,
+                getLatitude(), getLongitude(), getFeatureClass(), getFeatureCode(), getPrimaryCountryCode(),
+                getAlternateCountryCodes(), getAdmin1Code(), getAdmin2Code(), getAdmin3Code(), getAdmin4Code(),
+                getPopulation(), getElevation(), getDigitalElevationModel(), getTimezone(), getModificationDate(),
+                null).getGazetteerRecord();
+    }
+
+    @Override
+    public String getGazetteerRecordWithAncestry() {
+        return parent != null ? String.format("%s\n%s", getGazetteerRecord(), parent.getGazetteerRecordWithAncestry()) : getGazetteerRecord();
+    }
+
+    @Override
+    public String toString() {
+        return getPreferredName() + " (" + getPrimaryCountryName() + ", " + getAdmin1Code() + ")" + " [pop: " + getPopulation() + "] <" + getGeonameID() + ">";
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 3;
+        hash = 83 * hash + getGeonameID();
+        return hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final ColumnarGeoName other = (ColumnarGeoName) obj;
+        return getGeonameID() == other.getGeonameID();
+    }
+}
@@ -0,0 +1,702 @@
+package com.bericotech.clavin.gazetteer;
+
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * ColumnarGeoNameStore.java
+ *
+ *###################################################################*/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * A read-only, memory-mapped store of GeoName attributes laid out in
+ * columns.  Each GeoName occupies one row of the store; the fixed-width
+ * attributes of all rows are stored together in a column per attribute
+ * and the variable-length attributes of each row are stored in a string
+ * heap that follows the columns.  GeoNames returned by the store read
+ * their attributes lazily from the mapped file, so the attributes of the
+ * gazetteer are held in the operating system's page cache rather than
+ * on the Java heap.
+ *
+ * The store is written by the {@link Writer} alongside a gazetteer index
+ * and begins with a 24-byte header containing a magic number, the
+ * {@link #VERSION} of the format, the number of rows and the length of
+ * the string heap.  The columns follow the header in the order of
+ * {@link Column}, each beginning on an 8-byte boundary, and contain:
+ *
+ * <ul>
+ *   <li>latitude and longitude: 8-byte doubles</li>
+ *   <li>population: 8-byte long</li>
+ *   <li>modification date: 8-byte milliseconds since the epoch;
+ *       <code>Long.MIN_VALUE</code> if there is no modification date</li>
+ *   <li>string offset: 8-byte offset of the row's entry in the string heap</li>
+ *   <li>geonameID and parent ID: 4-byte integers; the parent ID is -1 if
+ *       the GeoName has no parent</li>
+ *   <li>elevation and digital elevation model: 4-byte integers</li>
+ *   <li>feature code and primary country code: 2-byte ordinals</li>
+ *   <li>feature class: 1-byte ordinal</li>
+ * </ul>
+ *
+ * Ordinals of -1 represent <code>null</code>.  The string heap entry of
+ * each row contains, in order, the name, ascii name, preferred name,
+ * admin1, admin2, admin3 and admin4 codes and timezone ID as strings, a
+ * varint count of alternate country codes followed by their varint
+ * ordinals, and a varint count of alternate names followed by the names.
+ * Strings are encoded as in {@link BinaryGeoNameCodec}: a varint containing
+ * the length of their UTF-8 bytes plus one, followed by the bytes.  All
+ * multi-byte values are big-endian.
+ *
+ * The mapped buffers are released when the store is garbage collected;
+ * since a mapped file cannot be replaced on all platforms while it is
+ * mapped, the Writer replaces an existing store by renaming its output
+ * over the previous file.
+ */
+public final class ColumnarGeoNameStore {
+    /**
+     * The name of the store file in a gazetteer index directory.
+     */
+    public static final String FILE_NAME = "geonames.col";
+
+    /**
+     * The current version of the store format.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Identifies a columnar GeoName store ("CLVC").
+     */
+    private static final int MAGIC = 0x434C5643;
+
+    /**
+     * The length of the header in bytes.
+     */
+    private static final int HEADER_LENGTH = 24;
+
+    /**
+     * The number of bits addressed by each mapped buffer; files larger than a single
+     * buffer can address are mapped in multiple chunks.
+     */
+    private static final int DEFAULT_CHUNK_BITS = 30;
+
+    /**
+     * The value stored in the parent ID column for GeoNames without a parent.
+     */
+    private static final int NO_PARENT = -1;
+
+    /**
+     * The value stored in the modification date column for GeoNames without a modification date.
+     */
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    /**
+     * The number of strings at the start of each string heap entry.
+     */
+    private static final int STRING_COUNT = 8;
+
+    private static final int NAME = 0;
+    private static final int ASCII_NAME = 1;
+    private static final int PREFERRED_NAME = 2;
+    private static final int ADMIN1_CODE = 3;
+    private static final int ADMIN2_CODE = 4;
+    private static final int ADMIN3_CODE = 5;
+    private static final int ADMIN4_CODE = 6;
+    private static final int TIMEZONE_ID = 7;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final FeatureClass[] FEATURE_CLASSES = FeatureClass.values();
+    private static final FeatureCode[] FEATURE_CODES = FeatureCode.values();
+    private static final CountryCode[] COUNTRY_CODES = CountryCode.values();
+
+    /**
+     * The columns of the store, in the order they are laid out in the file.
+     */
+    private enum Column {
+        LATITUDE(8),
+        LONGITUDE(8),
+        POPULATION(8),
+        MODIFICATION_DATE(8),
+        STRING_OFFSET(8),
+        GEONAME_ID(4),
+        PARENT_ID(4),
+        ELEVATION(4),
+        DEM(4),
+        FEATURE_CODE(2),
+        COUNTRY_CODE(2),
+        FEATURE_CLASS(1);
+
+        private final int width;
+
+        private Column(final int width) {
+            this.width = width;
+        }
+    }
+
+    private static final Column[] COLUMNS = Column.values();
+
+    private final ByteBuffer[] chunks;
+    private final int chunkBits;
+    private final long chunkMask;
+    private final int rowCount;
+    private final long[] columnOffsets;
+    private final long heapOffset;
+
+    private ColumnarGeoNameStore(final ByteBuffer[] chunks, final int chunkBits, final int rowCount, final long heapOffset) {
+        this.chunks = chunks;
+        this.chunkBits = chunkBits;
+        this.chunkMask = (1L << chunkBits) - 1L;
+        this.rowCount = rowCount;
+        this.columnOffsets = getColumnOffsets(rowCount);
+        this.heapOffset = heapOffset;
+    }
+
+    /**
+     * Memory-maps a columnar GeoName store.
+     * @param file the store file
+     * @return the store
+     * @throws IOException if the file cannot be mapped or is not a columnar GeoName store
+     */
+    public static ColumnarGeoNameStore open(final File file) throws IOException {
+        return open(file, DEFAULT_CHUNK_BITS);
+    }
+
+    /**
+     * Memory-maps a columnar GeoName store in chunks of the requested size.
+     * @param file the store file
+     * @param chunkBits the number of bits addressed by each chunk; at least 3 so
+     *                  fixed-width values do not span chunks
+     * @return the store
+     * @throws IOException if the file cannot be mapped or is not a columnar GeoName store
+     */
+    static ColumnarGeoNameStore open(final File file, final int chunkBits) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (length < HEADER_LENGTH) {
+                throw new IOException(String.format("Invalid columnar GeoName store [%s]", file));
+            }
+            long chunkSize = 1L << chunkBits;
+            ByteBuffer[] chunks = new ByteBuffer[(int) ((length + chunkSize - 1L) >>> chunkBits)];
+            for (int idx = 0; idx < chunks.length; idx++) {
+                long start = (long) idx << chunkBits;
+                chunks[idx] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, length - start));
+            }
+            ByteBuffer header = chunks[0];
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(String.format("Invalid columnar GeoName store [%s]", file));
+            }
+            int version = header.getInt(4);
+            if (version != VERSION) {
+                throw new IOException(String.format("Unsupported columnar GeoName store version [%d] in [%s]", version, file));
+            }
+            int rowCount = header.getInt(8);
+            long heapLength = header.getLong(16);
+            long heapOffset = getHeapOffset(rowCount);
+            if (rowCount < 0 || heapOffset + heapLength != length) {
+                throw new IOException(String.format("Truncated columnar GeoName store [%s]", file));
+            }
+            return new ColumnarGeoNameStore(chunks, chunkBits, rowCount, heapOffset);
+        } finally {
+            // the mapped buffers remain valid once the channel is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Get the number of rows in this store.
+     * @return the number of rows
+     */
+    public int size() {
+        return rowCount;
+    }
+
+    /**
+     * Get the GeoName stored in a row.  The returned GeoName reads its attributes
+     * from this store as they are requested; only its parent is held on the heap.
+     * @param row the row
+     * @return the GeoName
+     */
+    public GeoName getGeoName(final int row) {
+        checkRow(row);
+        return new ColumnarGeoName(this, row);
+    }
+
+    /**
+     * Determines whether a GeoName was returned by this store for a row.
+     * @param geoname the GeoName
+     * @param row the row
+     * @return <code>true</code> if the GeoName is backed by the row of this store
+     */
+    public boolean isRecord(final GeoName geoname, final int row) {
+        return geoname instanceof ColumnarGeoName && ((ColumnarGeoName) geoname).isRow(this, row);
+    }
+
+    /**
+     * Get the geonameID stored in a row.
+     * @param row the row
+     * @return the geonameID
+     */
+    public int getGeonameId(final int row) {
+        checkRow(row);
+        return getInt(Column.GEONAME_ID, row);
+    }
+
+    /**
+     * Get the ID of the direct parent of the GeoName stored in a row.
+     * @param row the row
+     * @return the parent ID or <code>null</code> if the GeoName has no parent
+     */
+    public Integer getParentId(final int row) {
+        checkRow(row);
+        int parentId = getInt(Column.PARENT_ID, row);
+        return parentId != NO_PARENT ? parentId : null;
+    }
+
+    double getLatitude(final int row) {
+        return Double.longBitsToDouble(getLong(Column.LATITUDE, row));
+    }
+
+    double getLongitude(final int row) {
+        return Double.longBitsToDouble(getLong(Column.LONGITUDE, row));
+    }
+
+    long getPopulation(final int row) {
+        return getLong(Column.POPULATION, row);
+    }
+
+    Date getModificationDate(final int row) {
+        long time = getLong(Column.MODIFICATION_DATE, row);
+        return time != NO_DATE ? new Date(time) : null;
+    }
+
+    int getElevation(final int row) {
+        return getInt(Column.ELEVATION, row);
+    }
+
+    int getDigitalElevationModel(final int row) {
+        return getInt(Column.DEM, row);
+    }
+
+    FeatureClass getFeatureClass(final int row) {
+        int ordinal = getByte(position(Column.FEATURE_CLASS, row));
+        return ordinal >= 0 ? FEATURE_CLASSES[ordinal] : null;
+    }
+
+    FeatureCode getFeatureCode(final int row) {
+        int ordinal = getShort(position(Column.FEATURE_CODE, row));
+        return ordinal >= 0 ? FEATURE_CODES[ordinal] : null;
+    }
+
+    CountryCode getPrimaryCountryCode(final int row) {
+        int ordinal = getShort(position(Column.COUNTRY_CODE, row));
+        return ordinal >= 0 ? COUNTRY_CODES[ordinal] : null;
+    }
+
+    String getName(final int row) {
+        return getString(row, NAME);
+    }
+
+    String getAsciiName(final int row) {
+        return getString(row, ASCII_NAME);
+    }
+
+    /**
+     * Get the preferred name of the GeoName stored in a row.
+     * @param row the row
+     * @return the preferred name or <code>null</code> if the name should be used
+     */
+    String getPreferredName(final int row) {
+        return getString(row, PREFERRED_NAME);
+    }
+
+    String getAdmin1Code(final int row) {
+        return getString(row, ADMIN1_CODE);
+    }
+
+    String getAdmin2Code(final int row) {
+        return getString(row, ADMIN2_CODE);
+    }
+
+    String getAdmin3Code(final int row) {
+        return getString(row, ADMIN3_CODE);
+    }
+
+    String getAdmin4Code(final int row) {
+        return getString(row, ADMIN4_CODE);
+    }
+
+    TimeZone getTimezone(final int row) {
+        String id = getString(row, TIMEZONE_ID);
+        return id != null ? TimeZone.getTimeZone(id) : null;
+    }
+
+    List<CountryCode> getAlternateCountryCodes(final int row) {
+        HeapReader reader = new HeapReader(row);
+        reader.skipStrings(STRING_COUNT);
+        int count = reader.readVInt();
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        List<CountryCode> codes = new ArrayList<CountryCode>(count);
+        for (int idx = 0; idx < count; idx++) {
+            codes.add(COUNTRY_CODES[reader.readVInt()]);
+        }
+        return Collections.unmodifiableList(codes);
+    }
+
+    List<String> getAlternateNames(final int row) {
+        HeapReader reader = new HeapReader(row);
+        reader.skipStrings(STRING_COUNT);
+        reader.skipVInts(reader.readVInt());
+        int count = reader.readVInt();
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<String>(count);
+        for (int idx = 0; idx < count; idx++) {
+            names.add(reader.readString());
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    private String getString(final int row, final int field) {
+        HeapReader reader = new HeapReader(row);
+        reader.skipStrings(field);
+        return reader.readString();
+    }
+
+    private void checkRow(final int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException(String.format("Row [%d] is not in the range [0, %d)", row, rowCount));
+        }
+    }
+
+    private long position(final Column column, final int row) {
+        return columnOffsets[column.ordinal()] + (long) row * column.width;
+    }
+
+    private long getLong(final Column column, final int row) {
+        long pos = position(column, row);
+        return chunks[(int) (pos >>> chunkBits)].getLong((int) (pos & chunkMask));
+    }
+
+    private int getInt(final Column column, final int row) {
+        long pos = position(column, row);
+        return chunks[(int) (pos >>> chunkBits)].getInt((int) (pos & chunkMask));
+    }
+
+    private short getShort(final long pos) {
+        return chunks[(int) (pos >>> chunkBits)].getShort((int) (pos & chunkMask));
+    }
+
+    private byte getByte(final long pos) {
+        return chunks[(int) (pos >>> chunkBits)].get((int) (pos & chunkMask));
+    }
+
+    /**
+     * Copies bytes that may span more than one chunk.
+     */
+    private void readBytes(final long pos, final byte[] dest, final int length) {
+        int copied = 0;
+        long current = pos;
+        while (copied < length) {
+            ByteBuffer chunk = chunks[(int) (current >>> chunkBits)].duplicate();
+            int offset = (int) (current & chunkMask);
+            int count = Math.min(length - copied, chunk.limit() - offset);
+            chunk.position(offset);
+            chunk.get(dest, copied, count);
+            copied += count;
+            current += count;
+        }
+    }
+
+    /**
+     * Computes the offset of each column in a store with the given number of rows.
+     */
+    private static long[] getColumnOffsets(final int rowCount) {
+        long[] offsets = new long[COLUMNS.length];
+        long offset = HEADER_LENGTH;
+        for (Column column : COLUMNS) {
+            offsets[column.ordinal()] = offset;
+            offset = align(offset + (long) rowCount * column.width);
+        }
+        return offsets;
+    }
+
+    private static long getHeapOffset(final int rowCount) {
+        Column last = COLUMNS[COLUMNS.length - 1];
+        return align(getColumnOffsets(rowCount)[last.ordinal()] + (long) rowCount * last.width);
+    }
+
+    private static long align(final long offset) {
+        return (offset + 7L) & ~7L;
+    }
+
+    /**
+     * Reads the entries of a row in the string heap.
+     */
+    private class HeapReader {
+        private long pos;
+
+        public HeapReader(final int row) {
+            pos = heapOffset + getLong(Column.STRING_OFFSET, row);
+        }
+
+        public int readVInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = getByte(pos++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        public void skipVInts(final int count) {
+            for (int idx = 0; idx < count; idx++) {
+                readVInt();
+            }
+        }
+
+        public void skipStrings(final int count) {
+            for (int idx = 0; idx < count; idx++) {
+                int length = readVInt() - 1;
+                if (length > 0) {
+                    pos += length;
+                }
+            }
+        }
+
+        public String readString() {
+            int length = readVInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            readBytes(pos, bytes, length);
+            pos += length;
+            return new String(bytes, UTF_8);
+        }
+    }
+
+    /**
+     * Writes a columnar GeoName store.  Each column is written to a temporary
+     * file alongside the store as GeoNames are added and the columns are
+     * assembled into the store when the Writer is closed.
+     */
+    public static final class Writer implements Closeable {
+        private final File file;
+        private final File[] columnFiles;
+        private final DataOutputStream[] columns;
+        private final File heapFile;
+        private final OutputStream heap;
+        private final ByteArrayOutputStream entry;
+        private long heapLength;
+        private int rowCount;
+
+        /**
+         * Creates a new Writer.
+         * @param file the store file; an existing store is replaced when the Writer is closed
+         * @throws IOException if the temporary column files cannot be created
+         */
+        public Writer(final File file) throws IOException {
+            this.file = file;
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException(String.format("Unable to create directory [%s]", dir));
+            }
+            columnFiles = new File[COLUMNS.length];
+            columns = new DataOutputStream[COLUMNS.length];
+            for (Column column : COLUMNS) {
+                columnFiles[column.ordinal()] = tempFile(column.name().toLowerCase());
+                columns[column.ordinal()] = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(columnFiles[column.ordinal()])));
+            }
+            heapFile = tempFile("heap");
+            heap = new BufferedOutputStream(new FileOutputStream(heapFile));
+            entry = new ByteArrayOutputStream(256);
+        }
+
+        /**
+         * Adds a GeoName to the store.
+         * @param geoname the GeoName
+         * @param preferredName the preferred name of the GeoName, if known
+         * @return the row of the GeoName in the store
+         * @throws IOException if an error occurs writing the GeoName
+         */
+        public int add(final GeoName geoname, final String preferredName) throws IOException {
+            Integer parentId = geoname.getParentId();
+            Date modificationDate = geoname.getModificationDate();
+            TimeZone timezone = geoname.getTimezone();
+            // top-level territories are stored as TERR in gazetteer records
+            FeatureCode recordCode = geoname.getFeatureCode() == FeatureCode.TERRI ? FeatureCode.TERR : geoname.getFeatureCode();
+            String preferred = BasicGeoName.resolvePreferredName(geoname.getName(), geoname.getAsciiName(),
+                    geoname.getAlternateNames(), recordCode, geoname.getPrimaryCountryCode(), preferredName);
+
+            column(Column.LATITUDE).writeDouble(geoname.getLatitude());
+            column(Column.LONGITUDE).writeDouble(geoname.getLongitude());
+            column(Column.POPULATION).writeLong(geoname.getPopulation());
+            column(Column.MODIFICATION_DATE).writeLong(modificationDate != null ? modificationDate.getTime() : NO_DATE);
+            column(Column.STRING_OFFSET).writeLong(heapLength);
+            column(Column.GEONAME_ID).writeInt(geoname.getGeonameID());
+            column(Column.PARENT_ID).writeInt(parentId != null ? parentId : NO_PARENT);
+            column(Column.ELEVATION).writeInt(geoname.getElevation());
+            column(Column.DEM).writeInt(geoname.getDigitalElevationModel());
+            column(Column.FEATURE_CODE).writeShort(ordinal(geoname.getFeatureCode()));
+            column(Column.COUNTRY_CODE).writeShort(ordinal(geoname.getPrimaryCountryCode()));
+            column(Column.FEATURE_CLASS).writeByte(ordinal(geoname.getFeatureClass()));
+
+            entry.reset();
+            writeString(geoname.getName());
+            writeString(geoname.getAsciiName());
+            writeString(preferred);
+            writeString(geoname.getAdmin1Code());
+            writeString(geoname.getAdmin2Code());
+            writeString(geoname.getAdmin3Code());
+            writeString(geoname.getAdmin4Code());
+            writeString(timezone != null ? timezone.getID() : null);
+            writeVInt(geoname.getAlternateCountryCodes().size());
+            for (CountryCode code : geoname.getAlternateCountryCodes()) {
+                writeVInt(code.ordinal());
+            }
+            writeVInt(geoname.getAlternateNames().size());
+            for (String name : geoname.getAlternateNames()) {
+                writeString(name);
+            }
+            entry.writeTo(heap);
+            heapLength += entry.size();
+            return rowCount++;
+        }
+
+        /**
+         * Assembles the columns into the store file and removes the temporary files.
+         * @throws IOException if an error occurs writing the store
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                for (DataOutputStream column : columns) {
+                    column.close();
+                }
+                heap.close();
+                File output = tempFile("new");
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)));
+                try {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeInt(rowCount);
+                    out.writeInt(0);
+                    out.writeLong(heapLength);
+                    long written = HEADER_LENGTH;
+                    for (Column column : COLUMNS) {
+                        copy(columnFiles[column.ordinal()], out);
+                        written += (long) rowCount * column.width;
+                        for (long end = align(written); written < end; written++) {
+                            out.write(0);
+                        }
+                    }
+                    copy(heapFile, out);
+                } finally {
+                    out.close();
+                }
+                // replace any existing store; readers that have mapped it keep the previous file
+                if (!output.renameTo(file) && !(file.delete() && output.renameTo(file))) {
+                    throw new IOException(String.format("Unable to replace columnar GeoName store [%s]", file));
+                }
+            } finally {
+                for (File columnFile : columnFiles) {
+                    columnFile.delete();
+                }
+                heapFile.delete();
+            }
+        }
+
+        private File tempFile(final String suffix) {
+            return new File(file.getPath() + "." + suffix + ".tmp");
+        }
+
+        private DataOutputStream column(final Column column) {
+            return columns[column.ordinal()];
+        }
+
+        private static int ordinal(final Enum<?> value) {
+            return value != null ? value.ordinal() : -1;
+        }
+
+        private void writeVInt(final int value) {
+            int remaining = value;
+            while ((remaining & ~0x7F) != 0) {
+                entry.write((remaining & 0x7F) | 0x80);
+                remaining >>>= 7;
+            }
+            entry.write(remaining);
+        }
+
+        private void writeString(final String value) {
+            if (value == null) {
+                writeVInt(0);
+            } else {
+                byte[] utf8 = value.getBytes(UTF_8);
+                writeVInt(utf8.length + 1);
+                entry.write(utf8, 0, utf8.length);
+            }
+        }
+
+        private static void copy(final File source, final DataOutputStream out) throws IOException {
+            InputStream in = new BufferedInputStream(new FileInputStream(source));
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -137,7 +137,9 @@ public interface GeoName {
     boolean isTopLevelTerritory();
 
     /**
-     * Is this GeoName a descendant of the provided GeoName?
+     * Is this GeoName a descendant of the provided GeoName?  If both GeoNames have
+     * comparable hierarchy positions, this is determined from the positions without
+     * walking the ancestry of this GeoName.
      * @param geoname the GeoName to test
      * @return <code>true</code> if the provided GeoName is hierarchically an ancestor of this GeoName
      */
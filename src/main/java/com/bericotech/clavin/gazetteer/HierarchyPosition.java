@@ -0,0 +1,153 @@
+package com.bericotech.clavin.gazetteer;
+
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * HierarchyPosition.java
+ *
+ *###################################################################*/
+
+/**
+ * The position of a GeoName in a nested-set encoding of the administrative
+ * hierarchy.  Every ancestor in the hierarchy is assigned a contiguous range
+ * of positions and every GeoName is assigned a position inside the range of
+ * its parent, so a GeoName descends from an ancestor if and only if its
+ * position falls within the range of the ancestor.  Top-level GeoNames have
+ * position 0, which is outside all ranges.
+ *
+ * Positions are assigned when a gazetteer index is built and are only
+ * comparable with positions assigned from the same hierarchy.  They are an
+ * index detail, so they are not part of the GeoName interface; gazetteers
+ * attach them to the GeoNames they load with {@link #assign}.
+ */
+public final class HierarchyPosition {
+    /**
+     * The hierarchy this position was assigned from.
+     */
+    private final Object hierarchy;
+
+    /**
+     * The position of the GeoName; 0 if it has no parent.
+     */
+    private final int position;
+
+    /**
+     * The first position assigned to descendants of the GeoName.
+     */
+    private final int descendantStart;
+
+    /**
+     * The last position assigned to descendants of the GeoName; less than
+     * descendantStart if the GeoName has no descendants.
+     */
+    private final int descendantEnd;
+
+    /**
+     * Create a new HierarchyPosition.
+     * @param hierarchy the hierarchy the position was assigned from; positions
+     *                  from different hierarchies are never compared
+     * @param position the position of the GeoName; 0 if it has no parent
+     * @param descendantStart the first position of the GeoName's descendants
+     * @param descendantEnd the last position of the GeoName's descendants; less
+     *                      than descendantStart if it has no descendants
+     */
+    public HierarchyPosition(final Object hierarchy, final int position, final int descendantStart,
+            final int descendantEnd) {
+        this.hierarchy = hierarchy;
+        this.position = position;
+        this.descendantStart = descendantStart;
+        this.descendantEnd = descendantEnd;
+    }
+
+    /**
+     * Get the hierarchy position of a GeoName.
+     * @param geoname the GeoName
+     * @return the hierarchy position or <code>null</code> if the GeoName is
+     *         <code>null</code> or its position is not known
+     */
+    public static HierarchyPosition of(final GeoName geoname) {
+        if (geoname instanceof BasicGeoName) {
+            return ((BasicGeoName) geoname).getHierarchyPosition();
+        } else if (geoname instanceof ColumnarGeoName) {
+            return ((ColumnarGeoName) geoname).getHierarchyPosition();
+        } else if (geoname instanceof LazyAncestryGeoName) {
+            return ((LazyAncestryGeoName) geoname).getHierarchyPosition();
+        }
+        return null;
+    }
+
+    /**
+     * Set the hierarchy position of a GeoName loaded by CLAVIN.  Positions are
+     * not recorded for other GeoName implementations.
+     * @param geoname the GeoName
+     * @param position the hierarchy position; <code>null</code> clears the position
+     */
+    public static void assign(final GeoName geoname, final HierarchyPosition position) {
+        if (geoname instanceof BasicGeoName) {
+            ((BasicGeoName) geoname).setHierarchyPosition(position);
+        } else if (geoname instanceof ColumnarGeoName) {
+            ((ColumnarGeoName) geoname).setHierarchyPosition(position);
+        } else if (geoname instanceof LazyAncestryGeoName) {
+            ((LazyAncestryGeoName) geoname).setHierarchyPosition(position);
+        }
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getDescendantStart() {
+        return descendantStart;
+    }
+
+    public int getDescendantEnd() {
+        return descendantEnd;
+    }
+
+    /**
+     * Determines whether this position can be compared with another position.
+     * @param other the other position
+     * @return <code>true</code> if both positions were assigned from the same hierarchy
+     */
+    public boolean isComparableTo(final HierarchyPosition other) {
+        return other != null && hierarchy == other.hierarchy;
+    }
+
+    /**
+     * Determines whether the GeoName at this position is a strict ancestor
+     * of the GeoName at another position.
+     * @param other the other position; it must be comparable to this position
+     * @return <code>true</code> if the other position is within the range of
+     *         this position's descendants
+     */
+    public boolean contains(final HierarchyPosition other) {
+        return other.position >= descendantStart && other.position <= descendantEnd;
+    }
+
+    @Override
+    public String toString() {
+        return descendantEnd >= descendantStart ? String.format("%d [%d, %d]", position, descendantStart, descendantEnd) :
+                String.valueOf(position);
+    }
+}
@@ -102,6 +102,14 @@ public class LazyAncestryGeoName implements GeoName {
         return geoName.isAncestorOf(geoname);
     }
 
+    HierarchyPosition getHierarchyPosition() {
+        return HierarchyPosition.of(geoName);
+    }
+
+    void setHierarchyPosition(final HierarchyPosition position) {
+        HierarchyPosition.assign(geoName, position);
+    }
+
     @Override
     public boolean isAncestryResolved() {
         return geoName.isAncestryResolved();
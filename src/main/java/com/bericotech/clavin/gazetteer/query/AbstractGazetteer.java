@@ -0,0 +1,82 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * AbstractGazetteer.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import com.bericotech.clavin.ClavinException;
+import com.bericotech.clavin.resolver.ResolvedLocation;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A base class for Gazetteers that adds batch execution of queries.  By default,
+ * a batch is executed one query at a time; subclasses that can share work between
+ * the queries in a batch should override {@link #getClosestLocations(List)}.
+ */
+public abstract class AbstractGazetteer implements Gazetteer {
+    /**
+     * Execute a batch of queries against the gazetteer, returning the top matches
+     * for each query as {@link ResolvedLocation}s.  Implementations may share work,
+     * such as ancestry resolution, between the queries in the batch so this method
+     * should be preferred when resolving all of the locations found in a document.
+     *
+     * @param queries            the configuration parameters for each query
+     * @return                   the lists of ResolvedLocations as potential matches for each
+     *                           query, in the same order as the input queries
+     * @throws ClavinException   if an error occurs
+     */
+    public List<List<ResolvedLocation>> getClosestLocations(final List<GazetteerQuery> queries) throws ClavinException {
+        List<List<ResolvedLocation>> results = new ArrayList<List<ResolvedLocation>>(queries.size());
+        for (GazetteerQuery query : queries) {
+            results.add(getClosestLocations(query));
+        }
+        return results;
+    }
+
+    /**
+     * Execute a batch of queries against any Gazetteer.  The batch is executed by the
+     * Gazetteer if it is an AbstractGazetteer and one query at a time otherwise.
+     *
+     * @param gazetteer          the gazetteer to query
+     * @param queries            the configuration parameters for each query
+     * @return                   the lists of ResolvedLocations as potential matches for each
+     *                           query, in the same order as the input queries
+     * @throws ClavinException   if an error occurs
+     */
+    public static List<List<ResolvedLocation>> getClosestLocations(final Gazetteer gazetteer,
+            final List<GazetteerQuery> queries) throws ClavinException {
+        if (gazetteer instanceof AbstractGazetteer) {
+            return ((AbstractGazetteer) gazetteer).getClosestLocations(queries);
+        }
+        List<List<ResolvedLocation>> results = new ArrayList<List<ResolvedLocation>>(queries.size());
+        for (GazetteerQuery query : queries) {
+            results.add(gazetteer.getClosestLocations(query));
+        }
+        return results;
+    }
+}
@@ -47,5 +47,21 @@ public enum AncestryMode {
     /**
      * Do not resolve hierarchy unless manually requested.
      */
-    MANUAL;
+    MANUAL,
+    /**
+     * Resolve the hierarchy when locations are created, walking
+     * the parent table loaded with the gazetteer instead of
+     * searching for each ancestor. Gazetteers without a parent
+     * table resolve the hierarchy as they do for ON_CREATE.
+     */
+    PRECOMPUTED;
+
+    /**
+     * Determines whether the hierarchy is resolved before
+     * locations are returned.
+     * @return <code>true</code> for ON_CREATE and PRECOMPUTED
+     */
+    public boolean isResolvedOnCreate() {
+        return this == ON_CREATE || this == PRECOMPUTED;
+    }
 }
@@ -0,0 +1,76 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * AsyncGazetteer.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import com.bericotech.clavin.gazetteer.GeoName;
+import com.bericotech.clavin.resolver.ResolvedLocation;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The asynchronous companion of {@link Gazetteer}.  Each method returns
+ * immediately with a {@link GazetteerFuture} that completes with the
+ * result of the equivalent synchronous method or fails with the
+ * {@link com.bericotech.clavin.ClavinException} it would have thrown.
+ */
+public interface AsyncGazetteer {
+    /**
+     * Execute a query against the gazetteer.
+     * @param query              the configuration parameters for the query
+     * @return                   the pending list of ResolvedLocations as potential matches
+     * @see Gazetteer#getClosestLocations(GazetteerQuery)
+     */
+    GazetteerFuture<List<ResolvedLocation>> getClosestLocationsAsync(final GazetteerQuery query);
+
+    /**
+     * Execute a batch of queries against the gazetteer.
+     * @param queries            the configuration parameters for each query
+     * @return                   the pending lists of ResolvedLocations for each query, in the
+     *                           same order as the input queries
+     * @see AbstractGazetteer#getClosestLocations(List)
+     */
+    GazetteerFuture<List<List<ResolvedLocation>>> getClosestLocationsAsync(final List<GazetteerQuery> queries);
+
+    /**
+     * Retrieves the GeoName with the provided ID.
+     * @param geonameId           the ID of the requested GeoName
+     * @param ancestryMode        the mode used to load ancestry for the GeoName
+     * @return                    the pending GeoName; the result is <code>null</code> if not found
+     * @see Gazetteer#getGeoName(int, AncestryMode)
+     */
+    GazetteerFuture<GeoName> getGeoNameAsync(final int geonameId, final AncestryMode ancestryMode);
+
+    /**
+     * Retrieve the full ancestry for the provided GeoNames.
+     * @param geoNames            the GeoNames whose ancestry will be loaded
+     * @return                    a future that completes once the ancestry has been loaded
+     * @see Gazetteer#loadAncestry(Collection)
+     */
+    GazetteerFuture<Void> loadAncestryAsync(final Collection<GeoName> geoNames);
+}
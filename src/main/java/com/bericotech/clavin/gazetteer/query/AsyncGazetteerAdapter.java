@@ -0,0 +1,263 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * AsyncGazetteerAdapter.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import com.bericotech.clavin.ClavinException;
+import com.bericotech.clavin.gazetteer.GeoName;
+import com.bericotech.clavin.resolver.ResolvedLocation;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the requests of any synchronous {@link Gazetteer} asynchronously on
+ * an executor.
+ *
+ * At most maxConcurrency requests are run on the executor at once; further
+ * requests wait in an unbounded queue held by this adapter and are
+ * dispatched as running requests complete.  Waiting requests therefore do
+ * not occupy an executor thread, so thousands of requests can be in flight
+ * while the number of threads blocked in the underlying gazetteer stays
+ * bounded.  Requests are dispatched in the order they were submitted.
+ */
+public class AsyncGazetteerAdapter implements AsyncGazetteer {
+    private final Gazetteer gazetteer;
+    private final Executor executor;
+    private final int maxConcurrency;
+
+    /**
+     * The executor created by this adapter, which is shut down by {@link #shutdown()};
+     * <code>null</code> if the executor was provided by the caller.
+     */
+    private final ExecutorService ownedExecutor;
+
+    /**
+     * The requests waiting to be dispatched.
+     */
+    private final Queue<GazetteerFuture<?>> pending = new ConcurrentLinkedQueue<GazetteerFuture<?>>();
+
+    /**
+     * The number of requests that have been dispatched and have not completed.
+     */
+    private final AtomicInteger running = new AtomicInteger();
+
+    /**
+     * Create an adapter that runs one request per available processor on a pool of
+     * daemon threads owned by the adapter.
+     * @param gazetteer the synchronous gazetteer
+     */
+    public AsyncGazetteerAdapter(final Gazetteer gazetteer) {
+        this(gazetteer, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create an adapter that runs requests on a pool of daemon threads owned by the adapter.
+     * @param gazetteer the synchronous gazetteer
+     * @param maxConcurrency the number of threads and the maximum number of requests run at once
+     */
+    public AsyncGazetteerAdapter(final Gazetteer gazetteer, final int maxConcurrency) {
+        this(gazetteer, Executors.newFixedThreadPool(checkConcurrency(maxConcurrency), new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "clavin-gazetteer-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }), maxConcurrency, true);
+    }
+
+    /**
+     * Create an adapter that runs requests on the provided executor.  The executor is not
+     * shut down by this adapter.
+     * @param gazetteer the synchronous gazetteer
+     * @param executor the executor that will run requests
+     * @param maxConcurrency the maximum number of requests run on the executor at once
+     */
+    public AsyncGazetteerAdapter(final Gazetteer gazetteer, final Executor executor, final int maxConcurrency) {
+        this(gazetteer, executor, maxConcurrency, false);
+    }
+
+    private AsyncGazetteerAdapter(final Gazetteer gazetteer, final Executor executor, final int maxConcurrency,
+            final boolean ownsExecutor) {
+        if (gazetteer == null || executor == null) {
+            throw new IllegalArgumentException("gazetteer and executor must not be null");
+        }
+        this.gazetteer = gazetteer;
+        this.executor = executor;
+        this.maxConcurrency = checkConcurrency(maxConcurrency);
+        this.ownedExecutor = ownsExecutor ? (ExecutorService) executor : null;
+    }
+
+    private static int checkConcurrency(final int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException(String.format("Invalid maxConcurrency [%d]", maxConcurrency));
+        }
+        return maxConcurrency;
+    }
+
+    /**
+     * Get the synchronous gazetteer that answers the requests of this adapter.
+     * @return the gazetteer
+     */
+    public Gazetteer getGazetteer() {
+        return gazetteer;
+    }
+
+    /**
+     * Get the number of requests waiting to be dispatched to the executor.
+     * @return the number of waiting requests
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Get the number of requests that are running on the executor.
+     * @return the number of running requests
+     */
+    public int getRunningCount() {
+        return running.get();
+    }
+
+    @Override
+    public GazetteerFuture<List<ResolvedLocation>> getClosestLocationsAsync(final GazetteerQuery query) {
+        return submit(new Callable<List<ResolvedLocation>>() {
+            @Override
+            public List<ResolvedLocation> call() throws ClavinException {
+                return gazetteer.getClosestLocations(query);
+            }
+        });
+    }
+
+    @Override
+    public GazetteerFuture<List<List<ResolvedLocation>>> getClosestLocationsAsync(final List<GazetteerQuery> queries) {
+        final List<GazetteerQuery> batch = new ArrayList<GazetteerQuery>(queries);
+        return submit(new Callable<List<List<ResolvedLocation>>>() {
+            @Override
+            public List<List<ResolvedLocation>> call() throws ClavinException {
+                return AbstractGazetteer.getClosestLocations(gazetteer, batch);
+            }
+        });
+    }
+
+    @Override
+    public GazetteerFuture<GeoName> getGeoNameAsync(final int geonameId, final AncestryMode ancestryMode) {
+        return submit(new Callable<GeoName>() {
+            @Override
+            public GeoName call() throws ClavinException {
+                return gazetteer.getGeoName(geonameId, ancestryMode);
+            }
+        });
+    }
+
+    @Override
+    public GazetteerFuture<Void> loadAncestryAsync(final Collection<GeoName> geoNames) {
+        final List<GeoName> toLoad = new ArrayList<GeoName>(geoNames);
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws ClavinException {
+                gazetteer.loadAncestry(toLoad);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Shuts down the executor if it was created by this adapter.  Requests that have
+     * not been dispatched fail with a {@link ClavinException}.
+     */
+    public void shutdown() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+            dispatch();
+        }
+    }
+
+    /**
+     * Queues a request and dispatches waiting requests while there is spare capacity.
+     * @param <V> the result type
+     * @param request the request
+     * @return the pending result
+     */
+    private <V> GazetteerFuture<V> submit(final Callable<V> request) {
+        GazetteerFuture<V> future = new GazetteerFuture<V>(request) {
+            @Override
+            public void run() {
+                try {
+                    super.run();
+                } finally {
+                    running.decrementAndGet();
+                    dispatch();
+                }
+            }
+        };
+        pending.add(future);
+        dispatch();
+        return future;
+    }
+
+    /**
+     * Dispatches waiting requests to the executor until the queue is empty or
+     * maxConcurrency requests are running.
+     */
+    private void dispatch() {
+        while (!pending.isEmpty()) {
+            int current = running.get();
+            if (current >= maxConcurrency) {
+                // a running request will dispatch the next waiting request when it completes
+                return;
+            }
+            if (!running.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            GazetteerFuture<?> next = pending.poll();
+            if (next == null) {
+                running.decrementAndGet();
+                continue;
+            }
+            try {
+                executor.execute(next);
+            } catch (RejectedExecutionException ree) {
+                running.decrementAndGet();
+                next.fail(new ClavinException("Gazetteer request was rejected by the executor.", ree));
+            }
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * CachingGazetteer.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import com.bericotech.clavin.ClavinException;
+import com.bericotech.clavin.extractor.LocationOccurrence;
+import com.bericotech.clavin.gazetteer.FeatureCode;
+import com.bericotech.clavin.gazetteer.GeoName;
+import com.bericotech.clavin.index.WhitespaceLowerCaseAnalyzer;
+import com.bericotech.clavin.resolver.ResolvedLocation;
+import com.bericotech.clavin.util.Deadline;
+import com.bericotech.clavin.util.LruCache;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Gazetteer that caches the results of getClosestLocations() queries,
+ * delegating to another Gazetteer for any query that has not been seen
+ * recently.  Queries are cached by their normalized location text and all
+ * other configuration parameters, so repeated lookups of common location
+ * names do not search the underlying gazetteer again.
+ *
+ * The GeoName instances found in cached results are shared between all
+ * callers that receive them.  Ancestry loaded for a lazily or manually
+ * resolved GeoName will therefore be visible to later callers.
+ *
+ * All other Gazetteer methods are passed directly to the delegate.
+ */
+public class CachingGazetteer extends AbstractGazetteer {
+    /**
+     * The default maximum number of cached queries.
+     */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /**
+     * The Gazetteer queries are delegated to.
+     */
+    private final Gazetteer delegate;
+
+    /**
+     * The cached query results.
+     */
+    private final LruCache<QueryKey, List<ResolvedLocation>> cache;
+
+    /**
+     * Create a new CachingGazetteer that caches up to {@link #DEFAULT_MAX_SIZE} queries.
+     * @param delegate the Gazetteer to query when results are not cached
+     */
+    public CachingGazetteer(final Gazetteer delegate) {
+        this(delegate, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Create a new CachingGazetteer whose entries never expire.
+     * @param delegate the Gazetteer to query when results are not cached
+     * @param maxSize the maximum number of queries to cache
+     */
+    public CachingGazetteer(final Gazetteer delegate, final int maxSize) {
+        this(delegate, maxSize, 0L, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a new CachingGazetteer whose entries expire after the provided amount of
+     * time has elapsed since they were cached.
+     * @param delegate the Gazetteer to query when results are not cached
+     * @param maxSize the maximum number of queries to cache
+     * @param expireAfterWrite the time after which cached results expire; values less than
+     *                         or equal to 0 indicate results should never expire
+     * @param unit the unit of the expiration time
+     */
+    public CachingGazetteer(final Gazetteer delegate, final int maxSize, final long expireAfterWrite, final TimeUnit unit) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate Gazetteer must not be null");
+        }
+        this.delegate = delegate;
+        this.cache = new LruCache<QueryKey, List<ResolvedLocation>>(maxSize, expireAfterWrite, unit);
+    }
+
+    /**
+     * Get the Gazetteer queries are delegated to.
+     * @return the delegate Gazetteer
+     */
+    public Gazetteer getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public List<ResolvedLocation> getClosestLocations(final GazetteerQuery query) throws ClavinException {
+        return getClosestLocations(Collections.singletonList(query)).get(0);
+    }
+
+    @Override
+    public List<List<ResolvedLocation>> getClosestLocations(final List<GazetteerQuery> queries) throws ClavinException {
+        List<List<ResolvedLocation>> allMatches = new ArrayList<List<ResolvedLocation>>(queries.size());
+        // the queries that could not be answered from the cache, in the order they will be sent
+        // to the delegate; repeated queries within the batch are only sent once
+        List<GazetteerQuery> misses = new ArrayList<GazetteerQuery>();
+        List<QueryKey> missKeys = new ArrayList<QueryKey>();
+        Map<QueryKey, Integer> missIndex = new HashMap<QueryKey, Integer>();
+        // the index in the misses list of the results for each uncached query; -1 for cached queries
+        int[] resultIndex = new int[queries.size()];
+        for (int idx = 0; idx < queries.size(); idx++) {
+            GazetteerQuery query = queries.get(idx);
+            QueryKey key = QueryKey.forQuery(query);
+            List<ResolvedLocation> cached = key != null ? cache.get(key) : null;
+            if (cached != null) {
+                allMatches.add(rebase(cached, query.getOccurrence()));
+                resultIndex[idx] = -1;
+            } else {
+                allMatches.add(null);
+                Integer missIdx = key != null ? missIndex.get(key) : null;
+                if (missIdx == null) {
+                    missIdx = misses.size();
+                    misses.add(query);
+                    missKeys.add(key);
+                    if (key != null) {
+                        missIndex.put(key, missIdx);
+                    }
+                }
+                resultIndex[idx] = missIdx;
+            }
+        }
+
+        if (!misses.isEmpty()) {
+            // a deadline is often shared by a whole batch, so each query is sent with its own fork
+            // of its deadline to tell which queries were cut short
+            List<GazetteerQuery> sentQueries = new ArrayList<GazetteerQuery>(misses.size());
+            for (GazetteerQuery miss : misses) {
+                sentQueries.add(miss.getDeadline() != null ? withDeadline(miss, miss.getDeadline().fork()) : miss);
+            }
+            List<List<ResolvedLocation>> found = getClosestLocations(delegate, sentQueries);
+            for (int idx = 0; idx < misses.size(); idx++) {
+                QueryKey key = missKeys.get(idx);
+                // results cut short by a deadline are incomplete and are not cached
+                Deadline deadline = sentQueries.get(idx).getDeadline();
+                if (key != null && (deadline == null || !deadline.isTruncated())) {
+                    cache.put(key, Collections.unmodifiableList(new ArrayList<ResolvedLocation>(found.get(idx))));
+                }
+            }
+            for (int idx = 0; idx < queries.size(); idx++) {
+                if (resultIndex[idx] >= 0) {
+                    GazetteerQuery query = queries.get(idx);
+                    GazetteerQuery sent = misses.get(resultIndex[idx]);
+                    List<ResolvedLocation> matches = found.get(resultIndex[idx]);
+                    // the first occurrence of each query receives the delegate's results directly
+                    allMatches.set(idx, sent == query ? matches : rebase(matches, query.getOccurrence()));
+                }
+            }
+        }
+        return allMatches;
+    }
+
+    @Override
+    public GeoName getGeoName(final int geonameId) throws ClavinException {
+        return delegate.getGeoName(geonameId);
+    }
+
+    @Override
+    public GeoName getGeoName(final int geonameId, final AncestryMode ancestryMode) throws ClavinException {
+        return delegate.getGeoName(geonameId, ancestryMode);
+    }
+
+    @Override
+    public void loadAncestry(final GeoName... geoNames) throws ClavinException {
+        delegate.loadAncestry(geoNames);
+    }
+
+    @Override
+    public void loadAncestry(final Collection<GeoName> geoNames) throws ClavinException {
+        delegate.loadAncestry(geoNames);
+    }
+
+    /**
+     * Remove all cached query results.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Get the number of queries currently cached.
+     * @return the number of cached queries
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Get the number of queries that were answered from the cache.
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    /**
+     * Get the number of queries that were sent to the delegate Gazetteer.
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    /**
+     * Get the number of cached queries that were evicted because the cache was
+     * full or because they expired.
+     * @return the number of evicted queries
+     */
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    /**
+     * Copies a query, replacing its deadline.
+     * @param query the query to copy
+     * @param deadline the deadline of the copy
+     * @return the copied query
+     */
+    private static GazetteerQuery withDeadline(final GazetteerQuery query, final Deadline deadline) {
+        return new GazetteerQuery(query.getOccurrence(), query.getMaxResults(), query.getFuzzyMode(),
+                query.getAncestryMode(), query.isIncludeHistorical(), query.isFilterDupes(), query.getParentIds(),
+                query.getFeatureCodes(), deadline);
+    }
+
+    /**
+     * Builds a new list of results for the provided occurrence from previously
+     * discovered results, so the returned locations reference the occurrence
+     * that was actually queried.
+     * @param matches the previously discovered results
+     * @param occurrence the queried location occurrence
+     * @return a new, modifiable list of results for the occurrence
+     */
+    private List<ResolvedLocation> rebase(final List<ResolvedLocation> matches, final LocationOccurrence occurrence) {
+        List<ResolvedLocation> rebased = new ArrayList<ResolvedLocation>(matches.size());
+        for (ResolvedLocation loc : matches) {
+            rebased.add(loc.getLocation() == occurrence ? loc :
+                    new ResolvedLocation(occurrence, loc.getGeoname(), loc.getMatchedName(), loc.isFuzzy()));
+        }
+        return rebased;
+    }
+
+    /**
+     * The normalized form of a GazetteerQuery used as a cache key.
+     */
+    private static final class QueryKey {
+        private final String text;
+        private final int maxResults;
+        private final FuzzyMode fuzzyMode;
+        private final AncestryMode ancestryMode;
+        private final boolean includeHistorical;
+        private final boolean filterDupes;
+        private final Set<Integer> parentIds;
+        private final Set<FeatureCode> featureCodes;
+        private final int hash;
+
+        private QueryKey(final String text, final GazetteerQuery query) {
+            this.text = text;
+            this.maxResults = query.getMaxResults();
+            this.fuzzyMode = query.getFuzzyMode();
+            this.ancestryMode = query.getAncestryMode();
+            this.includeHistorical = query.isIncludeHistorical();
+            this.filterDupes = query.isFilterDupes();
+            // the query returns unmodifiable views of its own copies of these sets
+            this.parentIds = query.getParentIds();
+            this.featureCodes = query.getFeatureCodes();
+            int h = text.hashCode();
+            h = 31 * h + maxResults;
+            h = 31 * h + (fuzzyMode != null ? fuzzyMode.hashCode() : 0);
+            h = 31 * h + (ancestryMode != null ? ancestryMode.hashCode() : 0);
+            h = 31 * h + (includeHistorical ? 1 : 0);
+            h = 31 * h + (filterDupes ? 1 : 0);
+            h = 31 * h + parentIds.hashCode();
+            h = 31 * h + featureCodes.hashCode();
+            this.hash = h;
+        }
+
+        /**
+         * Create the key for the provided query.
+         * @param query the query
+         * @return the key for the query or <code>null</code> if the query has no location
+         *         text and should not be cached
+         */
+        public static QueryKey forQuery(final GazetteerQuery query) {
+            LocationOccurrence occurrence = query != null ? query.getOccurrence() : null;
+            // queries for the same tokens search for the same names, however they are spaced
+            String text = occurrence != null && occurrence.getText() != null ?
+                    WhitespaceLowerCaseAnalyzer.normalize(occurrence.getText().toLowerCase()) : "";
+            return !text.isEmpty() ? new QueryKey(text, query) : null;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final QueryKey other = (QueryKey) obj;
+            return hash == other.hash &&
+                    maxResults == other.maxResults &&
+                    includeHistorical == other.includeHistorical &&
+                    filterDupes == other.filterDupes &&
+                    fuzzyMode == other.fuzzyMode &&
+                    ancestryMode == other.ancestryMode &&
+                    text.equals(other.text) &&
+                    parentIds.equals(other.parentIds) &&
+                    featureCodes.equals(other.featureCodes);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * DeletionFuzzyQuery.java
+ *
+ *###################################################################*/
+
+
+package com.bericotech.clavin.gazetteer.query;
+
+import com.bericotech.clavin.index.DeletionIndex;
+import com.bericotech.clavin.util.DamerauLevenshtein;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.apache.lucene.index.FilteredTermsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BoostAttribute;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.util.AttributeSource;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.ToStringUtils;
+
+/**
+ * Matches the terms within an edit distance of a token, finding them with a
+ * {@link DeletionIndex} rather than a Levenshtein automaton.  The candidates
+ * found in the deletion index are verified with their Damerau-Levenshtein
+ * distance from the token, which also counts transpositions as single edits.
+ *
+ * Matching terms are boosted and rewritten exactly as a {@link FuzzyQuery}
+ * boosts and rewrites the terms it matches, so this query ranks matches the
+ * same way as a FuzzyQuery with the same maximum number of edits.
+ */
+final class DeletionFuzzyQuery extends MultiTermQuery {
+    private final Term term;
+    private final int maxEdits;
+
+    /**
+     * The boost of each matching term, in term order.
+     */
+    private final SortedMap<BytesRef, Float> boosts;
+
+    /**
+     * Create a new DeletionFuzzyQuery, finding the terms that match it.
+     * @param termIn the token to match
+     * @param deletions the deletion index of the searched index
+     * @param maxEditsIn the maximum edit distance of matching terms; distances above the
+     *                   distance of the deletion index are treated as its distance
+     * @throws IOException if an error occurs reading the deletion index
+     */
+    DeletionFuzzyQuery(final Term termIn, final DeletionIndex deletions, final int maxEditsIn) throws IOException {
+        super(termIn.field());
+        this.term = termIn;
+        this.maxEdits = Math.min(maxEditsIn, deletions.getDistance());
+        this.boosts = new TreeMap<BytesRef, Float>();
+        String token = termIn.text();
+        int tokenLength = token.codePointCount(0, token.length());
+        for (String candidate : deletions.getCandidates(token, maxEdits)) {
+            int candidateLength = candidate.codePointCount(0, candidate.length());
+            if (Math.abs(candidateLength - tokenLength) > maxEdits) {
+                continue;
+            }
+            int edits = DamerauLevenshtein.damerauLevenshteinDistance(token, candidate);
+            if (edits > maxEdits) {
+                continue;
+            }
+            // the similarity FuzzyQuery boosts its terms by; terms that are no more
+            // similar than a complete rewrite of the shorter term are not matched
+            float similarity = 1.0f - (float) edits / Math.min(candidateLength, tokenLength);
+            if (similarity > 0.0f) {
+                boosts.put(new BytesRef(candidate), similarity);
+            }
+        }
+        setRewriteMethod(new MultiTermQuery.TopTermsScoringBooleanQueryRewrite(FuzzyQuery.defaultMaxExpansions));
+    }
+
+    @Override
+    protected TermsEnum getTermsEnum(final Terms terms, final AttributeSource atts) throws IOException {
+        return boosts.isEmpty() ? TermsEnum.EMPTY : new MatchingTermsEnum(terms.iterator(null));
+    }
+
+    @Override
+    public String toString(final String field) {
+        StringBuilder buffer = new StringBuilder();
+        if (!term.field().equals(field)) {
+            buffer.append(term.field()).append(':');
+        }
+        buffer.append(term.text()).append('~').append(maxEdits);
+        buffer.append(ToStringUtils.boost(getBoost()));
+        return buffer.toString();
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * super.hashCode() + term.hashCode()) + maxEdits;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (!super.equals(obj)) {
+            return false;
+        }
+        DeletionFuzzyQuery other = (DeletionFuzzyQuery) obj;
+        return maxEdits == other.maxEdits && term.equals(other.term);
+    }
+
+    /**
+     * Seeks to each matching term in turn, setting its boost.
+     */
+    private final class MatchingTermsEnum extends FilteredTermsEnum {
+        private final BoostAttribute boostAtt = attributes().addAttribute(BoostAttribute.class);
+        private final Iterator<Map.Entry<BytesRef, Float>> matches = boosts.entrySet().iterator();
+        private Map.Entry<BytesRef, Float> match;
+
+        MatchingTermsEnum(final TermsEnum termsEnum) {
+            super(termsEnum, true);
+        }
+
+        @Override
+        protected BytesRef nextSeekTerm(final BytesRef currentTerm) {
+            // skip any matches the enum has already passed
+            do {
+                match = matches.hasNext() ? matches.next() : null;
+            } while (match != null && currentTerm != null && match.getKey().compareTo(currentTerm) <= 0);
+            return match != null ? match.getKey() : null;
+        }
+
+        @Override
+        protected AcceptStatus accept(final BytesRef currentTerm) {
+            if (currentTerm.bytesEquals(match.getKey())) {
+                boostAtt.setBoost(match.getValue());
+                return AcceptStatus.YES_AND_SEEK;
+            }
+            return AcceptStatus.NO_AND_SEEK;
+        }
+    }
+}
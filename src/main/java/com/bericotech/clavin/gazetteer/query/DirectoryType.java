@@ -0,0 +1,139 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * DirectoryType.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import java.io.File;
+import java.io.IOException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This enum is used to select how the Lucene gazetteer index is
+ * read from disk.
+ */
+public enum DirectoryType {
+    /**
+     * Let Lucene select the best implementation for the current
+     * platform.  This is the original behavior of CLAVIN.
+     */
+    DEFAULT,
+    /**
+     * Memory map the index files.
+     */
+    MMAP,
+    /**
+     * Memory map the index files and read every page of the index
+     * when it is opened so the operating system page cache is warm
+     * before the first query is executed.
+     */
+    MMAP_PRELOAD,
+    /**
+     * Read the index files using NIO positional reads.
+     */
+    NIO,
+    /**
+     * Copy the entire index into the Java heap.  This should only be
+     * used for small indexes, such as those restricted to a few countries.
+     * Indexes held in memory do not change if the index on disk is
+     * rebuilt so they will never be reopened by {@link LuceneGazetteer#refresh()}.
+     */
+    RAM;
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(DirectoryType.class);
+
+    /**
+     * The interval, in bytes, at which index files are read when they are
+     * preloaded; this should not exceed the size of a memory page.
+     */
+    private static final int PRELOAD_STRIDE = 4096;
+
+    /**
+     * Opens the index directory using this implementation.
+     * @param indexDir the index directory
+     * @return the Lucene Directory
+     * @throws IOException if an error occurs opening the directory
+     */
+    public Directory open(final File indexDir) throws IOException {
+        switch (this) {
+            case DEFAULT:
+                return FSDirectory.open(indexDir);
+            case MMAP:
+                return new MMapDirectory(indexDir);
+            case MMAP_PRELOAD:
+                MMapDirectory mmapDir = new MMapDirectory(indexDir);
+                preload(mmapDir);
+                return mmapDir;
+            case NIO:
+                return new NIOFSDirectory(indexDir);
+            case RAM:
+                FSDirectory fsDir = FSDirectory.open(indexDir);
+                try {
+                    return new RAMDirectory(fsDir, IOContext.READONCE);
+                } finally {
+                    fsDir.close();
+                }
+            default:
+                throw new IllegalStateException("Unknown DirectoryType: " + this.name());
+        }
+    }
+
+    /**
+     * Reads one byte from every page of every file in the directory.
+     * @param dir the directory to preload
+     * @throws IOException if an error occurs reading the directory
+     */
+    private static void preload(final Directory dir) throws IOException {
+        long start = System.currentTimeMillis();
+        long bytes = 0L;
+        for (String file : dir.listAll()) {
+            IndexInput input = dir.openInput(file, IOContext.READONCE);
+            try {
+                long length = input.length();
+                for (long pos = 0L; pos < length; pos += PRELOAD_STRIDE) {
+                    input.seek(pos);
+                    input.readByte();
+                }
+                bytes += length;
+            } finally {
+                input.close();
+            }
+        }
+        LOG.info("Preloaded {} bytes of gazetteer index in {} ms", bytes, System.currentTimeMillis() - start);
+    }
+}
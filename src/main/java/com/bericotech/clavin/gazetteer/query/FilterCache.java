@@ -0,0 +1,238 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * FilterCache.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import static com.bericotech.clavin.index.IndexField.*;
+
+import com.bericotech.clavin.gazetteer.FeatureCode;
+import com.bericotech.clavin.gazetteer.HierarchyPosition;
+import com.bericotech.clavin.index.IndexField;
+import com.bericotech.clavin.index.ParentIdTable;
+import com.bericotech.clavin.util.LruCache;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.CachingWrapperFilter;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.TermQuery;
+
+/**
+ * Builds and caches the Lucene filters used to restrict gazetteer
+ * searches to the historical, feature code and ancestor criteria of a
+ * {@link GazetteerQuery}.
+ *
+ * Each restriction is cached as a separate {@link CachingWrapperFilter}
+ * so the matching documents are only computed once per index segment.
+ * Cached document sets are keyed on the segment, so segments added by
+ * a reopened reader are computed on first use and the sets for segments
+ * that are no longer in use are released along with the segment.
+ * Feature code and ancestor restrictions are held in small LRU caches
+ * since they vary between queries.
+ *
+ * When the index stores the hierarchy position of each document, the
+ * descendants of ancestors found in the parent table are matched with a
+ * single {@link HierarchyRangeFilter} over the nested hierarchy intervals
+ * instead of a disjunction of ancestor ID terms.  Positions are only valid
+ * for the parent table they were assigned from, so cached ancestor filters
+ * are rebuilt when the parent table changes.
+ */
+class FilterCache {
+    /**
+     * The default maximum number of cached feature code filters.
+     */
+    private static final int DEFAULT_MAX_FEATURE_CODE_FILTERS = 64;
+
+    /**
+     * The default maximum number of cached ancestor filters.
+     */
+    private static final int DEFAULT_MAX_ANCESTOR_FILTERS = 256;
+
+    /**
+     * The set of all FeatureCodes.
+     */
+    private static final Set<FeatureCode> ALL_CODES = Collections.unmodifiableSet(EnumSet.allOf(FeatureCode.class));
+
+    /**
+     * Restricts results to non-historical locations.
+     */
+    private final Filter activeOnlyFilter;
+
+    /**
+     * The cached feature code filters.
+     */
+    private final LruCache<Set<FeatureCode>, Filter> featureCodeFilters;
+
+    /**
+     * The cached ancestor filters.
+     */
+    private final LruCache<Set<Integer>, AncestorFilter> ancestorFilters;
+
+    /**
+     * Create a new FilterCache.
+     */
+    FilterCache() {
+        int val = IndexField.getBooleanIndexValue(false);
+        activeOnlyFilter = new CachingWrapperFilter(new QueryWrapperFilter(
+                NumericRangeQuery.newIntRange(HISTORICAL.key(), val, val, true, true)));
+        featureCodeFilters = new LruCache<Set<FeatureCode>, Filter>(DEFAULT_MAX_FEATURE_CODE_FILTERS);
+        ancestorFilters = new LruCache<Set<Integer>, AncestorFilter>(DEFAULT_MAX_ANCESTOR_FILTERS);
+    }
+
+    /**
+     * Gets a Lucene search filter based on the provided parameters.
+     * @param params the query configuration parameters
+     * @return a Lucene search filter that will restrict the returned documents to the criteria provided or <code>null</code>
+     *         if no filtering is necessary
+     */
+    Filter getFilter(final GazetteerQuery params) {
+        return getFilter(params, null);
+    }
+
+    /**
+     * Gets a Lucene search filter based on the provided parameters.
+     * @param params the query configuration parameters
+     * @param parentTable the parent table that assigned the hierarchy positions of the searched
+     *                    documents or <code>null</code> if the documents have no hierarchy positions
+     * @return a Lucene search filter that will restrict the returned documents to the criteria provided or <code>null</code>
+     *         if no filtering is necessary
+     */
+    Filter getFilter(final GazetteerQuery params, final ParentIdTable parentTable) {
+        List<Filter> filters = new ArrayList<Filter>();
+
+        // restrict to active locations if we are not including historical locations
+        if (!params.isIncludeHistorical()) {
+            filters.add(activeOnlyFilter);
+        }
+
+        // restrict to descendants of the parent IDs if we were provided at least one parent ID
+        Set<Integer> parentIds = params.getParentIds();
+        if (!parentIds.isEmpty()) {
+            AncestorFilter cached = ancestorFilters.get(parentIds);
+            if (cached == null || cached.parentTable != parentTable) {
+                cached = new AncestorFilter(buildAncestorFilter(parentIds, parentTable), parentTable);
+                ancestorFilters.put(new HashSet<Integer>(parentIds), cached);
+            }
+            filters.add(cached.filter);
+        }
+
+        // restrict to the feature codes if we were provided some, but not all, feature codes
+        Set<FeatureCode> codes = params.getFeatureCodes();
+        if (!(codes.isEmpty() || ALL_CODES.equals(codes))) {
+            Filter filter = featureCodeFilters.get(codes);
+            if (filter == null) {
+                BooleanQuery codeQuery = new BooleanQuery();
+                // locations must be one of the specified feature codes (OR)
+                for (FeatureCode code : codes) {
+                    codeQuery.add(new TermQuery(new Term(FEATURE_CODE.key(), code.name())), Occur.SHOULD);
+                }
+                filter = new CachingWrapperFilter(new QueryWrapperFilter(codeQuery));
+                featureCodeFilters.put(EnumSet.copyOf(codes), filter);
+            }
+            filters.add(filter);
+        }
+
+        Filter filter = null;
+        if (filters.size() == 1) {
+            filter = filters.get(0);
+        } else if (filters.size() > 1) {
+            // intersect the cached document sets of each restriction
+            BooleanQuery bq = new BooleanQuery();
+            for (Filter part : filters) {
+                bq.add(new ConstantScoreQuery(part), Occur.MUST);
+            }
+            filter = new QueryWrapperFilter(bq);
+        }
+        return filter;
+    }
+
+    /**
+     * Builds the filter restricting results to the descendants of a set of ancestors.
+     * @param parentIds the geonameIDs of the ancestors
+     * @param parentTable the parent table that assigned the hierarchy positions of the
+     *                    searched documents or <code>null</code>
+     * @return the filter
+     */
+    private static Filter buildAncestorFilter(final Set<Integer> parentIds, final ParentIdTable parentTable) {
+        List<HierarchyPosition> ranges = new ArrayList<HierarchyPosition>();
+        BooleanQuery parentQuery = new BooleanQuery();
+        // locations must descend from at least one of the specified parents (OR)
+        for (Integer id : parentIds) {
+            if (parentTable != null && parentTable.contains(id)) {
+                ranges.add(parentTable.getHierarchyPosition(id, ParentIdTable.NO_PARENT));
+            } else {
+                parentQuery.add(NumericRangeQuery.newIntRange(ANCESTOR_IDS.key(), id, id, true, true), Occur.SHOULD);
+            }
+        }
+        if (!ranges.isEmpty()) {
+            int[] starts = new int[ranges.size()];
+            int[] ends = new int[ranges.size()];
+            for (int idx = 0; idx < starts.length; idx++) {
+                starts[idx] = ranges.get(idx).getDescendantStart();
+                ends[idx] = ranges.get(idx).getDescendantEnd();
+            }
+            Filter rangeFilter = new HierarchyRangeFilter(HIERARCHY_POS.key(), starts, ends);
+            if (parentQuery.clauses().isEmpty()) {
+                return new CachingWrapperFilter(rangeFilter);
+            }
+            parentQuery.add(new ConstantScoreQuery(rangeFilter), Occur.SHOULD);
+        }
+        return new CachingWrapperFilter(new QueryWrapperFilter(parentQuery));
+    }
+
+    /**
+     * Removes all cached feature code and ancestor filters, releasing the
+     * document sets they have cached.
+     */
+    void clear() {
+        featureCodeFilters.clear();
+        ancestorFilters.clear();
+    }
+
+    /**
+     * A cached ancestor filter and the parent table whose hierarchy positions it matches.
+     */
+    private static final class AncestorFilter {
+        private final Filter filter;
+        private final ParentIdTable parentTable;
+
+        AncestorFilter(final Filter filter, final ParentIdTable parentTable) {
+            this.filter = filter;
+            this.parentTable = parentTable;
+        }
+    }
+}
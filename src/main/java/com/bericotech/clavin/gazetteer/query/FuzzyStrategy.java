@@ -0,0 +1,54 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * FuzzyStrategy.java
+ *
+ *###################################################################*/
+
+
+package com.bericotech.clavin.gazetteer.query;
+
+/**
+ * This enum is used to select how a {@link LuceneGazetteer} finds the
+ * indexed names within the edit budget of a fuzzy query.
+ */
+public enum FuzzyStrategy {
+    /**
+     * Intersect a Levenshtein automaton with the names in the index.  This
+     * is the original behavior of CLAVIN and requires no additional index
+     * files, but the cost of each query grows with the size of the index.
+     * The edit budget is limited to 2 edits.
+     */
+    AUTOMATON,
+    /**
+     * Look up candidate names in the deletion index written by the
+     * IndexDirectoryBuilder when it is run with --fuzzy-distance, then keep
+     * the candidates within the edit budget of the query by their
+     * Damerau-Levenshtein distance.  Matches are ranked as they are by
+     * AUTOMATON.  Indexes without a deletion index and sharded gazetteers,
+     * which must expand fuzzy queries against every shard, fall back to
+     * AUTOMATON.
+     */
+    DELETION_INDEX
+}
@@ -0,0 +1,52 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * GazetteerCallback.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+/**
+ * Receives the outcome of an asynchronous gazetteer request.  Callbacks
+ * are invoked on the thread that completed the request or, if the request
+ * had already completed when the callback was registered, on the
+ * registering thread, so they should return quickly and must not block.
+ *
+ * @param <V> the result type of the request
+ */
+public interface GazetteerCallback<V> {
+    /**
+     * Invoked when the request completes successfully.
+     * @param result the result of the request
+     */
+    void onSuccess(V result);
+
+    /**
+     * Invoked when the request fails or is cancelled.
+     * @param cause the exception thrown by the request; usually a
+     *              {@link com.bericotech.clavin.ClavinException}
+     */
+    void onFailure(Throwable cause);
+}
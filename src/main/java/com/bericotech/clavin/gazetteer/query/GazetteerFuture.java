@@ -0,0 +1,279 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * GazetteerFuture.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import com.bericotech.clavin.ClavinException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The pending result of an asynchronous gazetteer request.  In addition to
+ * the blocking {@link java.util.concurrent.Future} methods, callbacks can be
+ * registered to handle the result as soon as it is available and derived
+ * futures can be created with {@link #transform(Function)}, so requests can
+ * be chained without dedicating a thread to waiting for each result.
+ *
+ * @param <V> the result type of the request
+ */
+public class GazetteerFuture<V> extends FutureTask<V> {
+    /**
+     * The class logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(GazetteerFuture.class);
+
+    /**
+     * Converts the result of one request into the result of a derived future.
+     *
+     * @param <F> the input type
+     * @param <T> the output type
+     */
+    public interface Function<F, T> {
+        /**
+         * Converts a result.
+         * @param input the result of the source future
+         * @return the result of the derived future
+         * @throws ClavinException if the result cannot be converted; the derived
+         *                         future will fail with this exception
+         */
+        T apply(F input) throws ClavinException;
+    }
+
+    private final Object lock = new Object();
+
+    /**
+     * The callbacks waiting for this request to complete; <code>null</code>
+     * once the callbacks have been invoked.
+     */
+    private List<GazetteerCallback<? super V>> callbacks = new ArrayList<GazetteerCallback<? super V>>();
+
+    /**
+     * Create a future that will be completed by running a request.
+     * @param request the request
+     */
+    public GazetteerFuture(final Callable<V> request) {
+        super(request);
+    }
+
+    /**
+     * Create a future that is completed by {@link #complete(Object)} or {@link #fail(Throwable)}.
+     */
+    GazetteerFuture() {
+        super(new Callable<V>() {
+            @Override
+            public V call() {
+                throw new IllegalStateException("GazetteerFuture must be completed explicitly.");
+            }
+        });
+    }
+
+    /**
+     * Create a future that has already completed.
+     * @param <V> the result type
+     * @param result the result
+     * @return the completed future
+     */
+    public static <V> GazetteerFuture<V> completed(final V result) {
+        GazetteerFuture<V> future = new GazetteerFuture<V>();
+        future.complete(result);
+        return future;
+    }
+
+    /**
+     * Completes this future with a result if it has not already completed.
+     * @param result the result
+     */
+    void complete(final V result) {
+        set(result);
+    }
+
+    /**
+     * Fails this future if it has not already completed.
+     * @param cause the cause of the failure
+     */
+    void fail(final Throwable cause) {
+        setException(cause);
+    }
+
+    /**
+     * Registers a callback that will be invoked when this request completes.  If it has
+     * already completed, the callback is invoked immediately on the calling thread.
+     * @param callback the callback
+     * @return this future
+     */
+    public GazetteerFuture<V> addCallback(final GazetteerCallback<? super V> callback) {
+        synchronized (lock) {
+            if (callbacks != null) {
+                callbacks.add(callback);
+                return this;
+            }
+        }
+        invoke(callback);
+        return this;
+    }
+
+    /**
+     * Creates a future that completes with the converted result of this request.  The
+     * conversion runs on the thread that completes this request.  If this request fails,
+     * the derived future fails with the same cause.
+     * @param <T> the result type of the derived future
+     * @param function the conversion
+     * @return the derived future
+     */
+    public <T> GazetteerFuture<T> transform(final Function<? super V, T> function) {
+        final GazetteerFuture<T> derived = new GazetteerFuture<T>();
+        addCallback(new GazetteerCallback<V>() {
+            @Override
+            public void onSuccess(final V result) {
+                try {
+                    derived.complete(function.apply(result));
+                } catch (ClavinException ce) {
+                    derived.fail(ce);
+                } catch (RuntimeException re) {
+                    derived.fail(re);
+                }
+            }
+
+            @Override
+            public void onFailure(final Throwable cause) {
+                derived.fail(cause);
+            }
+        });
+        return derived;
+    }
+
+    /**
+     * Waits for the result of this request, reporting failures as they would be
+     * reported by the synchronous {@link Gazetteer} methods.
+     * @return the result
+     * @throws ClavinException if the request failed, was cancelled or the calling
+     *                         thread was interrupted while waiting
+     */
+    public V getResult() throws ClavinException {
+        try {
+            return get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ClavinException("Interrupted while waiting for gazetteer request.", ie);
+        } catch (CancellationException ce) {
+            throw new ClavinException("Gazetteer request was cancelled.", ce);
+        } catch (ExecutionException ee) {
+            throw unwrap(ee);
+        }
+    }
+
+    /**
+     * Waits at most the provided time for the result of this request, reporting failures
+     * as they would be reported by the synchronous {@link Gazetteer} methods.
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return the result
+     * @throws ClavinException if the request failed, was cancelled or the calling
+     *                         thread was interrupted while waiting
+     * @throws TimeoutException if the request did not complete in time
+     */
+    public V getResult(final long timeout, final TimeUnit unit) throws ClavinException, TimeoutException {
+        try {
+            return get(timeout, unit);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ClavinException("Interrupted while waiting for gazetteer request.", ie);
+        } catch (CancellationException ce) {
+            throw new ClavinException("Gazetteer request was cancelled.", ce);
+        } catch (ExecutionException ee) {
+            throw unwrap(ee);
+        }
+    }
+
+    private static ClavinException unwrap(final ExecutionException ee) {
+        Throwable cause = ee.getCause();
+        if (cause instanceof ClavinException) {
+            return (ClavinException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new ClavinException("Error executing gazetteer request.", cause);
+    }
+
+    @Override
+    protected void done() {
+        List<GazetteerCallback<? super V>> waiting;
+        synchronized (lock) {
+            waiting = callbacks;
+            callbacks = null;
+        }
+        for (GazetteerCallback<? super V> callback : waiting) {
+            invoke(callback);
+        }
+    }
+
+    /**
+     * Invokes a callback with the outcome of this completed request.
+     * @param callback the callback
+     */
+    private void invoke(final GazetteerCallback<? super V> callback) {
+        V result;
+        try {
+            result = get();
+        } catch (ExecutionException ee) {
+            notifyFailure(callback, ee.getCause());
+            return;
+        } catch (CancellationException ce) {
+            notifyFailure(callback, ce);
+            return;
+        } catch (InterruptedException ie) {
+            // the request has completed so get() does not wait
+            Thread.currentThread().interrupt();
+            notifyFailure(callback, ie);
+            return;
+        }
+        try {
+            callback.onSuccess(result);
+        } catch (RuntimeException re) {
+            LOG.error("Error in gazetteer callback.", re);
+        }
+    }
+
+    private static void notifyFailure(final GazetteerCallback<?> callback, final Throwable cause) {
+        try {
+            callback.onFailure(cause);
+        } catch (RuntimeException re) {
+            LOG.error("Error in gazetteer callback.", re);
+        }
+    }
+}
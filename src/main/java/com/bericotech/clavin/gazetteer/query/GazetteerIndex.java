@@ -0,0 +1,460 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * GazetteerIndex.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import static com.bericotech.clavin.index.IndexField.*;
+
+import com.bericotech.clavin.gazetteer.ColumnarGeoNameStore;
+import com.bericotech.clavin.index.DeletionIndex;
+import com.bericotech.clavin.index.ExactNameTable;
+import com.bericotech.clavin.index.IndexField;
+import com.bericotech.clavin.index.NameBloomFilter;
+import com.bericotech.clavin.index.ParentIdTable;
+import com.bericotech.clavin.util.LruCache;
+import java.io.IOException;
+import java.util.List;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReader.ReaderClosedListener;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A point-in-time view of a gazetteer index: the reader and searcher
+ * used to query the index and the structures derived from that reader.
+ * Everything held by a GazetteerIndex is consistent for the lifetime of
+ * the reader, so a query should acquire a single GazetteerIndex and use
+ * it until the query completes.
+ *
+ * GazetteerIndex instances are reference counted through their reader.
+ * Callers must successfully call {@link #tryIncRef()} before using an
+ * instance and must call {@link #decRef()} when they are finished with it.
+ */
+final class GazetteerIndex {
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(GazetteerIndex.class);
+
+    /**
+     * The number of names whose failed searches are remembered.
+     */
+    static final int MISS_CACHE_SIZE = 10000;
+
+    /**
+     * Marks a name that has no exact matches.
+     */
+    static final int EXACT_MISS = 1;
+
+    /**
+     * Marks a name that has no fuzzy matches.
+     */
+    static final int FUZZY_MISS = 2;
+
+    private final Directory directory;
+    private final IndexSearcher searcher;
+    private final ParentDocIndex parentDocs;
+    private final boolean exactNameIndexed;
+    private final boolean docValuesIndexed;
+    private final ColumnarGeoNameStore geonameStore;
+    private final ParentIdTable parentTable;
+    private final boolean hierarchyIndexed;
+    private final boolean sortPopulationIndexed;
+    private final boolean[] populationSorted;
+    private final ExactNameTable exactNameTable;
+    private final NameBloomFilter nameFilter;
+    private final DeletionIndex deletionIndex;
+    private final LruCache<String, Integer> misses;
+
+    /**
+     * Create a new GazetteerIndex without a columnar GeoName store.
+     * @param directory the directory containing the index
+     * @param searcher the searcher; its reader must be a DirectoryReader opened from the directory
+     * @param parentDocs the parent document map for the reader
+     * @param exactNameIndexed <code>true</code> if the index contains the normalized exact name field
+     */
+    GazetteerIndex(final Directory directory, final IndexSearcher searcher, final ParentDocIndex parentDocs,
+            final boolean exactNameIndexed) {
+        this(directory, searcher, parentDocs, exactNameIndexed, null, null);
+    }
+
+    /**
+     * Create a new GazetteerIndex.
+     * @param directory the directory containing the index
+     * @param searcher the searcher; its reader must be a DirectoryReader opened from the directory
+     * @param parentDocs the parent document map for the reader
+     * @param exactNameIndexed <code>true</code> if the index contains the normalized exact name field
+     * @param geonameStore the columnar store written with the index, if any; it is only used if
+     *                     every document of the index references a row of the store
+     * @param parentTable the parent table written with the index, if any
+     */
+    GazetteerIndex(final Directory directory, final IndexSearcher searcher, final ParentDocIndex parentDocs,
+            final boolean exactNameIndexed, final ColumnarGeoNameStore geonameStore, final ParentIdTable parentTable) {
+        this(directory, searcher, parentDocs, exactNameIndexed, geonameStore, parentTable, null, null, null);
+    }
+
+    /**
+     * Create a new GazetteerIndex.
+     * @param directory the directory containing the index
+     * @param searcher the searcher; its reader must be a DirectoryReader opened from the directory
+     * @param parentDocs the parent document map for the reader
+     * @param exactNameIndexed <code>true</code> if the index contains the normalized exact name field
+     * @param geonameStore the columnar store written with the index, if any; it is only used if
+     *                     every document of the index references a row of the store
+     * @param parentTable the parent table written with the index, if any
+     * @param exactNameTable the exact name table built from the commit of the reader, if any; it
+     *                       is closed when the reader is closed
+     * @param nameFilter the name Bloom filter built from the commit of the reader, if any
+     * @param deletionIndex the deletion index built from the commit of the reader, if any; it
+     *                      is closed when the reader is closed
+     */
+    GazetteerIndex(final Directory directory, final IndexSearcher searcher, final ParentDocIndex parentDocs,
+            final boolean exactNameIndexed, final ColumnarGeoNameStore geonameStore, final ParentIdTable parentTable,
+            final ExactNameTable exactNameTable, final NameBloomFilter nameFilter, final DeletionIndex deletionIndex) {
+        this.directory = directory;
+        this.searcher = searcher;
+        this.parentDocs = parentDocs;
+        this.exactNameIndexed = exactNameIndexed;
+        this.docValuesIndexed = hasNumericDocValues(searcher.getIndexReader(), GEONAME_ID);
+        this.geonameStore = geonameStore != null && docValuesIndexed
+                && hasNumericDocValues(searcher.getIndexReader(), RECORD_ID) ? geonameStore : null;
+        this.parentTable = parentTable;
+        this.hierarchyIndexed = parentTable != null && parentTable.hasIntervals()
+                && hasNumericDocValues(searcher.getIndexReader(), HIERARCHY_POS);
+        this.sortPopulationIndexed = hasNumericDocValues(searcher.getIndexReader(), SORT_POP);
+        this.populationSorted = findPopulationSortedLeaves(searcher.getIndexReader(), sortPopulationIndexed);
+        this.exactNameTable = exactNameTable;
+        this.nameFilter = nameFilter;
+        this.deletionIndex = deletionIndex;
+        this.misses = new LruCache<String, Integer>(MISS_CACHE_SIZE);
+        if (exactNameTable != null) {
+            searcher.getIndexReader().addReaderClosedListener(new ReaderClosedListener() {
+                @Override
+                public void onClose(final IndexReader reader) {
+                    try {
+                        exactNameTable.close();
+                    } catch (IOException ioe) {
+                        LOG.error("Error closing exact name table.", ioe);
+                    }
+                }
+            });
+        }
+        if (deletionIndex != null) {
+            searcher.getIndexReader().addReaderClosedListener(new ReaderClosedListener() {
+                @Override
+                public void onClose(final IndexReader reader) {
+                    try {
+                        deletionIndex.close();
+                    } catch (IOException ioe) {
+                        LOG.error("Error closing deletion index.", ioe);
+                    }
+                }
+            });
+        }
+    }
+
+    Directory getDirectory() {
+        return directory;
+    }
+
+    DirectoryReader getReader() {
+        return (DirectoryReader) searcher.getIndexReader();
+    }
+
+    IndexSearcher getSearcher() {
+        return searcher;
+    }
+
+    ParentDocIndex getParentDocs() {
+        return parentDocs;
+    }
+
+    boolean isExactNameIndexed() {
+        return exactNameIndexed;
+    }
+
+    /**
+     * Indexes built before the ID fields were stored as DocValues must read
+     * them from the stored documents.
+     * @return <code>true</code> if {@link #getGeonameId(int)} and {@link #getParentId(int)}
+     *         can be used to read IDs without loading stored documents
+     */
+    boolean isDocValuesIndexed() {
+        return docValuesIndexed;
+    }
+
+    /**
+     * Reads the geonameID of a document from its DocValues.
+     * @param docId the document ID
+     * @return the geonameID of the document
+     * @throws IOException if an error occurs reading the index
+     */
+    int getGeonameId(final int docId) throws IOException {
+        return getIntValue(GEONAME_ID, docId);
+    }
+
+    /**
+     * Reads the ID of the direct parent of a document from its DocValues.
+     * @param docId the document ID
+     * @return the parent ID or <code>null</code> if the document has no parent
+     * @throws IOException if an error occurs reading the index
+     */
+    Integer getParentId(final int docId) throws IOException {
+        return getIntValue(PARENT_ID, docId);
+    }
+
+    /**
+     * Get the table used to walk the ancestry of GeoNames without searching the index.
+     * @return the parent table or <code>null</code> if the index was built without one
+     */
+    ParentIdTable getParentTable() {
+        return parentTable;
+    }
+
+    /**
+     * Indexes built before hierarchy positions were introduced must restrict searches
+     * to the descendants of an ancestor using the ancestor ID terms.
+     * @return <code>true</code> if every document stores its position in the hierarchy
+     *         intervals of the parent table
+     */
+    boolean isHierarchyIndexed() {
+        return hierarchyIndexed;
+    }
+
+    /**
+     * Get the columnar store GeoNames should be read from.
+     * @return the store or <code>null</code> if GeoNames must be built from the stored documents
+     */
+    ColumnarGeoNameStore getGeoNameStore() {
+        return geonameStore;
+    }
+
+    /**
+     * Reads the row of a document's GeoName in the columnar store from its DocValues.
+     * @param docId the document ID
+     * @return the row of the GeoName
+     * @throws IOException if an error occurs reading the index
+     */
+    int getRecordId(final int docId) throws IOException {
+        return getIntValue(RECORD_ID, docId);
+    }
+
+    /**
+     * Indexes built before the sort population was stored as DocValues cannot be
+     * ranked without sorting the hits of a query.
+     * @return <code>true</code> if every segment stores the sort population as DocValues
+     */
+    boolean isSortPopulationIndexed() {
+        return sortPopulationIndexed;
+    }
+
+    /**
+     * Determines whether the documents of a segment were written in descending order
+     * of sort population, so a search ranking its hits by population can stop reading
+     * the segment once it has found enough hits.
+     * @param leafOrd the ordinal of the segment in the reader
+     * @return <code>true</code> if the segment is sorted by descending sort population
+     */
+    boolean isPopulationSorted(final int leafOrd) {
+        return populationSorted[leafOrd];
+    }
+
+    /**
+     * Get the table used to answer exact name lookups without searching the index.
+     * @return the exact name table or <code>null</code> if the index has no table
+     *         for the commit being searched
+     */
+    ExactNameTable getExactNameTable() {
+        return exactNameTable;
+    }
+
+    /**
+     * Get the index used to find the names within a few edits of a fuzzy query.
+     * @return the deletion index or <code>null</code> if the index has no deletion
+     *         index for the commit being searched
+     */
+    DeletionIndex getDeletionIndex() {
+        return deletionIndex;
+    }
+
+    /**
+     * Determines whether a name may match any indexed name, exactly or as part of
+     * a longer name.
+     * @param nameTokens the normalized tokens of the name
+     * @return <code>false</code> if a token of the name is definitely not indexed
+     */
+    boolean mayMatch(final List<String> nameTokens) {
+        return nameFilter == null || nameFilter.mayContainAll(nameTokens);
+    }
+
+    /**
+     * Get the searches known to find no matches for an unfiltered query.  Misses are
+     * remembered for the lifetime of this index, since they only change when the
+     * index does.
+     * @param name the normalized name
+     * @return the {@link #EXACT_MISS} and {@link #FUZZY_MISS} flags recorded for the name
+     */
+    int getMisses(final String name) {
+        Integer flags = misses.get(name);
+        return flags != null ? flags : 0;
+    }
+
+    /**
+     * Records searches that found no matches for an unfiltered query.
+     * @param name the normalized name
+     * @param flags the {@link #EXACT_MISS} and {@link #FUZZY_MISS} flags of the searches
+     */
+    void addMisses(final String name, final int flags) {
+        misses.put(name, getMisses(name) | flags);
+    }
+
+    /**
+     * Forgets all recorded misses, e.g. when the way names are matched changes.
+     */
+    void clearMisses() {
+        misses.clear();
+    }
+
+    /**
+     * Reads an integer DocValue for a document.  The per-segment DocValues are
+     * retrieved on each call since AtomicReaders cache them per thread.
+     * @param field the field to read
+     * @param docId the top-level document ID
+     * @return the value or <code>null</code> if the document has no value for the field
+     * @throws IOException if an error occurs reading the index
+     */
+    private Integer getIntValue(final IndexField field, final int docId) throws IOException {
+        List<AtomicReaderContext> leaves = searcher.getIndexReader().leaves();
+        AtomicReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+        int segmentDoc = docId - leaf.docBase;
+        AtomicReader reader = leaf.reader();
+        NumericDocValues values = reader.getNumericDocValues(field.key());
+        if (values == null || !reader.getDocsWithField(field.key()).get(segmentDoc)) {
+            return null;
+        }
+        return (int) values.get(segmentDoc);
+    }
+
+    /**
+     * Finds the segments whose documents are in descending order of sort population.
+     * Documents without a sort population sort as if it were 0.  Segments are checked
+     * once per reader, rather than trusting how the index was built, since merging
+     * segments that were written out of order can leave a segment unsorted.
+     * @param reader the index reader
+     * @param sortPopulationIndexed <code>true</code> if every segment stores the sort population as DocValues
+     * @return whether each segment is sorted, indexed by segment ordinal
+     */
+    private static boolean[] findPopulationSortedLeaves(final IndexReader reader, final boolean sortPopulationIndexed) {
+        List<AtomicReaderContext> leaves = reader.leaves();
+        boolean[] sorted = new boolean[leaves.size()];
+        if (!sortPopulationIndexed) {
+            return sorted;
+        }
+        int sortedCount = 0;
+        for (AtomicReaderContext leaf : leaves) {
+            try {
+                NumericDocValues values = leaf.reader().getNumericDocValues(SORT_POP.key());
+                boolean inOrder = true;
+                long previous = Long.MAX_VALUE;
+                for (int doc = 0; inOrder && doc < leaf.reader().maxDoc(); doc++) {
+                    long value = values.get(doc);
+                    inOrder = value <= previous;
+                    previous = value;
+                }
+                sorted[leaf.ord] = inOrder;
+            } catch (IOException ioe) {
+                LOG.warn("Unable to read the sort population of segment {}", leaf.ord, ioe);
+            }
+            if (sorted[leaf.ord]) {
+                sortedCount++;
+            }
+        }
+        LOG.debug("{} of {} segments are sorted by population.", sortedCount, leaves.size());
+        return sorted;
+    }
+
+    /**
+     * Determines whether every segment of an index stores numeric DocValues for a field.
+     * @param reader the index reader
+     * @param field the field
+     * @return <code>true</code> if DocValues are available for the field in all segments
+     */
+    private static boolean hasNumericDocValues(final IndexReader reader, final IndexField field) {
+        for (AtomicReaderContext leaf : reader.leaves()) {
+            FieldInfo info = leaf.reader().getFieldInfos().fieldInfo(field.key());
+            if (info == null || info.getDocValuesType() != FieldInfo.DocValuesType.NUMERIC) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Attempts to acquire a reference to this index.
+     * @return <code>true</code> if the reference was acquired; <code>false</code> if
+     *         the index has already been released
+     */
+    boolean tryIncRef() {
+        return searcher.getIndexReader().tryIncRef();
+    }
+
+    /**
+     * Releases a reference to this index.  The reader is closed when the last
+     * reference is released.
+     * @throws IOException if an error occurs closing the reader
+     */
+    void decRef() throws IOException {
+        searcher.getIndexReader().decRef();
+    }
+
+    /**
+     * Closes the directory once the reader of this index has been closed.  This
+     * should be called when this index is retired and no newer index will be
+     * opened from the same directory.
+     */
+    void closeDirectoryOnRelease() {
+        searcher.getIndexReader().addReaderClosedListener(new ReaderClosedListener() {
+            @Override
+            public void onClose(final IndexReader reader) {
+                try {
+                    directory.close();
+                } catch (IOException ioe) {
+                    LOG.error("Error closing gazetteer index directory.", ioe);
+                }
+            }
+        });
+    }
+}
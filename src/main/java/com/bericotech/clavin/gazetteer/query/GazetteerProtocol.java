@@ -0,0 +1,337 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * GazetteerProtocol.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import com.bericotech.clavin.extractor.LocationOccurrence;
+import com.bericotech.clavin.gazetteer.BinaryGeoNameCodec;
+import com.bericotech.clavin.gazetteer.FeatureCode;
+import com.bericotech.clavin.gazetteer.GeoName;
+import com.bericotech.clavin.gazetteer.LazyAncestryGeoName;
+import com.bericotech.clavin.resolver.ResolvedLocation;
+import com.bericotech.clavin.util.Deadline;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The binary protocol spoken by the {@link GazetteerServer} and the
+ * {@link RemoteGazetteer}.
+ *
+ * A connection begins with the client sending {@link #MAGIC} and
+ * {@link #VERSION}, which the server echoes before reading requests.  Each
+ * request is framed as an int request ID, a byte opcode and the request
+ * payload; each response as the int request ID, a byte status and either
+ * the response payload or an error message.  The server answers the
+ * requests of a connection in order, so a client may write any number of
+ * requests before reading their responses.
+ *
+ * Strings are written as an int length of their UTF-8 bytes followed by
+ * the bytes, with a length of -1 representing <code>null</code>.  GeoNames
+ * are written as a chain of {@link BinaryGeoNameCodec} entries, starting
+ * with the GeoName itself and followed by each of its resolved ancestors,
+ * and the ID of the parent of the last GeoName in the chain if its
+ * ancestry has not been resolved.  Enum values are written by ordinal, so
+ * the client and server must use the same version of CLAVIN.
+ *
+ * The deadline of a query is written as the milliseconds remaining when the
+ * request is sent, so the server enforces it from the time it reads the
+ * request.  The matches of each query are followed by a flag reporting
+ * whether its search was cut short by its deadline.
+ */
+final class GazetteerProtocol {
+    /** The first int written by both ends of a connection. */
+    static final int MAGIC = 0x434C4156;
+
+    /** The protocol version. */
+    static final byte VERSION = 2;
+
+    /** Executes a batch of queries. */
+    static final byte OP_CLOSEST_LOCATIONS = 1;
+
+    /** Retrieves a GeoName by ID. */
+    static final byte OP_GET_GEONAME = 2;
+
+    /** Retrieves the ancestry-resolved GeoNames for a set of parent IDs. */
+    static final byte OP_LOAD_ANCESTRY = 3;
+
+    /** The request succeeded and the response payload follows. */
+    static final byte STATUS_OK = 0;
+
+    /** The request failed and an error message follows. */
+    static final byte STATUS_ERROR = 1;
+
+    /** The maximum length of a string or binary record, used to detect corrupt streams. */
+    private static final int MAX_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * The maximum number of queries, matches, IDs or feature codes in a list, used to
+     * reject corrupt or hostile streams before allocating space for the list.
+     */
+    static final int MAX_COUNT = 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private GazetteerProtocol() {
+    }
+
+    static void writeString(final DataOutput out, final String str) throws IOException {
+        if (str == null) {
+            out.writeInt(-1);
+        } else {
+            writeBytes(out, str.getBytes(UTF8));
+        }
+    }
+
+    static String readString(final DataInput in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes != null ? new String(bytes, UTF8) : null;
+    }
+
+    /**
+     * Writes the number of elements in a list.
+     * @throws IOException if the list is larger than {@link #MAX_COUNT}
+     */
+    static void writeCount(final DataOutput out, final int count) throws IOException {
+        if (count > MAX_COUNT) {
+            throw new IOException(String.format("Cannot send %d elements in one gazetteer request; the limit is %d",
+                    count, MAX_COUNT));
+        }
+        out.writeInt(count);
+    }
+
+    /**
+     * Reads the number of elements in a list.
+     * @throws IOException if the count is negative or larger than {@link #MAX_COUNT}
+     */
+    static int readCount(final DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_COUNT) {
+            throw new IOException(String.format("Invalid count [%d] in gazetteer protocol stream", count));
+        }
+        return count;
+    }
+
+    private static void writeBytes(final DataOutput out, final byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(final DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < -1 || length > MAX_LENGTH) {
+            throw new IOException(String.format("Invalid length [%d] in gazetteer protocol stream", length));
+        }
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static <E extends Enum<E>> E readEnum(final DataInput in, final E[] values) throws IOException {
+        int ordinal = in.readByte();
+        if (ordinal < 0 || ordinal >= values.length) {
+            throw new IOException(String.format("Invalid %s [%d] in gazetteer protocol stream",
+                    values.getClass().getComponentType().getSimpleName(), ordinal));
+        }
+        return values[ordinal];
+    }
+
+    /**
+     * Writes a query.  Queries for LAZY ancestry are answered as MANUAL queries by the server
+     * so it does not load ancestry on behalf of the client.
+     */
+    static void writeQuery(final DataOutput out, final GazetteerQuery query) throws IOException {
+        LocationOccurrence occurrence = query.getOccurrence();
+        out.writeBoolean(occurrence != null);
+        if (occurrence != null) {
+            writeString(out, occurrence.getText());
+            out.writeInt(occurrence.getPosition());
+        }
+        out.writeInt(query.getMaxResults());
+        out.writeByte(query.getFuzzyMode().ordinal());
+        out.writeByte(query.getAncestryMode().ordinal());
+        out.writeBoolean(query.isIncludeHistorical());
+        out.writeBoolean(query.isFilterDupes());
+        Set<Integer> parentIds = query.getParentIds() != null ? query.getParentIds() : Collections.<Integer>emptySet();
+        writeCount(out, parentIds.size());
+        for (Integer id : parentIds) {
+            out.writeInt(id);
+        }
+        Set<FeatureCode> featureCodes = query.getFeatureCodes() != null ?
+                query.getFeatureCodes() : Collections.<FeatureCode>emptySet();
+        writeCount(out, featureCodes.size());
+        for (FeatureCode code : featureCodes) {
+            out.writeShort(code.ordinal());
+        }
+        Deadline deadline = query.getDeadline();
+        out.writeLong(deadline != null ? deadline.remaining(TimeUnit.MILLISECONDS) : -1L);
+    }
+
+    static GazetteerQuery readQuery(final DataInput in) throws IOException {
+        LocationOccurrence occurrence = null;
+        if (in.readBoolean()) {
+            String text = readString(in);
+            occurrence = new LocationOccurrence(text, in.readInt());
+        }
+        int maxResults = in.readInt();
+        FuzzyMode fuzzyMode = readEnum(in, FuzzyMode.values());
+        AncestryMode ancestryMode = readEnum(in, AncestryMode.values());
+        boolean includeHistorical = in.readBoolean();
+        boolean filterDupes = in.readBoolean();
+        int parentCount = readCount(in);
+        Set<Integer> parentIds = new HashSet<Integer>();
+        for (int idx = 0; idx < parentCount; idx++) {
+            parentIds.add(in.readInt());
+        }
+        int codeCount = readCount(in);
+        FeatureCode[] codes = FeatureCode.values();
+        Set<FeatureCode> featureCodes = EnumSet.noneOf(FeatureCode.class);
+        for (int idx = 0; idx < codeCount; idx++) {
+            int ordinal = in.readShort();
+            if (ordinal < 0 || ordinal >= codes.length) {
+                throw new IOException(String.format("Invalid FeatureCode [%d] in gazetteer protocol stream", ordinal));
+            }
+            featureCodes.add(codes[ordinal]);
+        }
+        long remaining = in.readLong();
+        Deadline deadline = remaining >= 0L ? Deadline.after(remaining, TimeUnit.MILLISECONDS) : null;
+        return new GazetteerQuery(occurrence, maxResults, fuzzyMode, serverAncestryMode(ancestryMode), includeHistorical,
+                filterDupes, parentIds, featureCodes, deadline);
+    }
+
+    /**
+     * Get the ancestry mode used by the server to answer a request.
+     * @param mode the ancestry mode requested by the client
+     * @return the ancestry mode used by the server
+     */
+    static AncestryMode serverAncestryMode(final AncestryMode mode) {
+        return mode == AncestryMode.LAZY ? AncestryMode.MANUAL : mode;
+    }
+
+    /**
+     * Writes the matches of a query.  The location occurrence of each match is the
+     * occurrence of the query and is not written.
+     */
+    static void writeMatches(final DataOutput out, final List<ResolvedLocation> matches, final boolean truncated)
+            throws IOException {
+        writeCount(out, matches.size());
+        for (ResolvedLocation match : matches) {
+            writeString(out, match.getMatchedName());
+            out.writeBoolean(match.isFuzzy());
+            writeGeoName(out, match.getGeoname());
+        }
+        out.writeBoolean(truncated);
+    }
+
+    static List<ResolvedLocation> readMatches(final DataInput in, final GazetteerQuery query, final Gazetteer gazetteer)
+            throws IOException {
+        int count = readCount(in);
+        List<ResolvedLocation> matches = new ArrayList<ResolvedLocation>(count);
+        for (int idx = 0; idx < count; idx++) {
+            String matchedName = readString(in);
+            boolean fuzzy = in.readBoolean();
+            GeoName geoname = readGeoName(in, query.getAncestryMode(), gazetteer);
+            matches.add(new ResolvedLocation(query.getOccurrence(), geoname, matchedName, fuzzy));
+        }
+        // report a search the server cut short through the deadline of the client's query
+        if (in.readBoolean() && query.getDeadline() != null) {
+            query.getDeadline().markTruncated();
+        }
+        return matches;
+    }
+
+    /**
+     * Writes a GeoName and its resolved ancestors; <code>null</code> is written as an empty chain.
+     */
+    static void writeGeoName(final DataOutput out, final GeoName geoname) throws IOException {
+        List<GeoName> chain = new ArrayList<GeoName>();
+        for (GeoName current = geoname; current != null; current = current.getParent()) {
+            chain.add(current);
+        }
+        writeCount(out, chain.size());
+        for (GeoName current : chain) {
+            String preferredName = current.getPreferredName();
+            writeString(out, preferredName != null && !preferredName.equals(current.getName()) ? preferredName : null);
+            writeBytes(out, BinaryGeoNameCodec.encode(current, false));
+        }
+        Integer parentId = chain.isEmpty() ? null : chain.get(chain.size() - 1).getParentId();
+        out.writeBoolean(parentId != null);
+        if (parentId != null) {
+            out.writeInt(parentId);
+        }
+    }
+
+    /**
+     * Reads a GeoName and its ancestors.  If the ancestry of the GeoName has not been
+     * resolved, the last GeoName in the chain is wrapped in a {@link LazyAncestryGeoName}
+     * that loads its ancestry from the provided gazetteer when the ancestry mode is LAZY.
+     * @return the GeoName or <code>null</code> if an empty chain was written
+     */
+    static GeoName readGeoName(final DataInput in, final AncestryMode ancestryMode, final Gazetteer gazetteer)
+            throws IOException {
+        int count = readCount(in);
+        GeoName[] chain = new GeoName[count];
+        for (int idx = 0; idx < count; idx++) {
+            String preferredName = readString(in);
+            byte[] record = readBytes(in);
+            if (record == null) {
+                throw new IOException("Missing GeoName record in gazetteer protocol stream");
+            }
+            try {
+                chain[idx] = BinaryGeoNameCodec.decode(record, 0, record.length, preferredName);
+            } catch (IllegalArgumentException iae) {
+                throw new IOException("Invalid GeoName record in gazetteer protocol stream", iae);
+            } catch (IndexOutOfBoundsException ioobe) {
+                throw new IOException("Invalid GeoName record in gazetteer protocol stream", ioobe);
+            }
+        }
+        Integer parentId = in.readBoolean() ? in.readInt() : null;
+        if (count == 0) {
+            return null;
+        }
+        if (parentId != null) {
+            chain[count - 1] = new LazyAncestryGeoName(chain[count - 1], parentId,
+                    ancestryMode == AncestryMode.LAZY ? gazetteer : null);
+        }
+        for (int idx = count - 2; idx >= 0; idx--) {
+            chain[idx].setParent(chain[idx + 1]);
+        }
+        return chain[0];
+    }
+}
@@ -30,6 +30,7 @@ package com.bericotech.clavin.gazetteer.query;
 
 import com.bericotech.clavin.extractor.LocationOccurrence;
 import com.bericotech.clavin.gazetteer.FeatureCode;
+import com.bericotech.clavin.util.Deadline;
 
 import java.util.Collections;
 import java.util.EnumSet;
@@ -86,6 +87,12 @@ public class GazetteerQuery {
      */
     private final Set<FeatureCode> featureCodes;
 
+    /**
+     * The time by which this query must complete, or <code>null</code> if it
+     * may run to completion.
+     */
+    private final Deadline deadline;
+
     /**
      * Create a new GazetteerQuery.
      * @param occurrence the location occurrence
@@ -97,10 +104,28 @@ public class GazetteerQuery {
      * @param parentIds the set of parent IDs to restrict the search to; these will be OR'ed
      * @param featureCodes the set of feature codes to restrict the search to; these will be OR'ed
      */
-    @SuppressWarnings("unchecked")
     public GazetteerQuery(final LocationOccurrence occurrence, final int maxResults, final FuzzyMode fuzzyMode,
             final AncestryMode ancestryMode, final boolean includeHistorical, final boolean filterDupes,
             final Set<Integer> parentIds, final Set<FeatureCode> featureCodes) {
+        this(occurrence, maxResults, fuzzyMode, ancestryMode, includeHistorical, filterDupes, parentIds, featureCodes, null);
+    }
+
+    /**
+     * Create a new GazetteerQuery that must complete by a deadline.
+     * @param occurrence the location occurrence
+     * @param maxResults the maximum number of results
+     * @param fuzzyMode the fuzzy mode for this query
+     * @param ancestryMode the ancestry loading mode for this query
+     * @param includeHistorical <code>true</code> to include historical locations
+     * @param filterDupes <code>true</code> to return only the highest scoring match for each individual location
+     * @param parentIds the set of parent IDs to restrict the search to; these will be OR'ed
+     * @param featureCodes the set of feature codes to restrict the search to; these will be OR'ed
+     * @param deadline the time by which the query must complete; <code>null</code> for no limit
+     */
+    @SuppressWarnings("unchecked")
+    public GazetteerQuery(final LocationOccurrence occurrence, final int maxResults, final FuzzyMode fuzzyMode,
+            final AncestryMode ancestryMode, final boolean includeHistorical, final boolean filterDupes,
+            final Set<Integer> parentIds, final Set<FeatureCode> featureCodes, final Deadline deadline) {
         this.occurrence = occurrence;
         this.maxResults = maxResults;
         this.fuzzyMode = fuzzyMode;
@@ -109,6 +134,7 @@ public class GazetteerQuery {
         this.filterDupes = filterDupes;
         this.parentIds = parentIds != null ? new HashSet<Integer>(parentIds) : Collections.EMPTY_SET;
         this.featureCodes = featureCodes != null ? EnumSet.copyOf(featureCodes) : EnumSet.noneOf(FeatureCode.class);
+        this.deadline = deadline;
     }
 
     /**
@@ -176,4 +202,14 @@ public class GazetteerQuery {
     public Set<FeatureCode> getFeatureCodes() {
         return Collections.unmodifiableSet(featureCodes);
     }
+
+    /**
+     * Get the time by which this query must complete.  A gazetteer that reaches
+     * the deadline stops searching, returns the matches it has found and marks
+     * the deadline as truncated.
+     * @return the deadline, or <code>null</code> if the query may run to completion
+     */
+    public Deadline getDeadline() {
+        return deadline;
+    }
 }
@@ -0,0 +1,459 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * GazetteerServer.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import static com.bericotech.clavin.gazetteer.query.GazetteerProtocol.*;
+
+import com.bericotech.clavin.ClavinException;
+import com.bericotech.clavin.gazetteer.GeoName;
+import com.bericotech.clavin.index.ShardManifest;
+import com.bericotech.clavin.resolver.ResolvedLocation;
+import com.bericotech.clavin.util.Deadline;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the requests of {@link RemoteGazetteer} clients from any
+ * {@link Gazetteer}, so many processes can share a single warmed index.
+ *
+ * Each client connection is served by its own thread, which answers the
+ * requests of that connection in the order they are received.  Responses
+ * are buffered until no further requests are waiting to be read, so a
+ * client that pipelines requests receives their responses in as few
+ * writes as possible.  By default the server only accepts connections on
+ * the loopback interface.
+ */
+public class GazetteerServer {
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(GazetteerServer.class);
+
+    /**
+     * The default port.
+     */
+    public static final int DEFAULT_PORT = 2743;
+
+    /**
+     * The first and longest waits before accepting connections again after accept() fails.
+     */
+    private static final long MIN_ACCEPT_BACKOFF_MILLIS = 10L;
+    private static final long MAX_ACCEPT_BACKOFF_MILLIS = 1000L;
+
+    private static final String HELP_OPTION = "help";
+    private static final String INDEX_PATH_OPTION = "index-path";
+    private static final String PORT_OPTION = "port";
+    private static final String BIND_ADDRESS_OPTION = "bind-address";
+    private static final String DEFAULT_INDEX_DIRECTORY = "./IndexDirectory";
+
+    private final Gazetteer gazetteer;
+    private final InetSocketAddress bindAddress;
+
+    /**
+     * The open client connections.
+     */
+    private final Set<Socket> connections = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+    private final AtomicLong requestCount = new AtomicLong();
+
+    private ServerSocket serverSocket;
+    private ExecutorService connectionExecutor;
+
+    /**
+     * Create a server that accepts connections on the loopback interface.
+     * @param gazetteer the gazetteer that answers requests
+     * @param port the port or 0 to listen on any free port
+     */
+    public GazetteerServer(final Gazetteer gazetteer, final int port) {
+        this(gazetteer, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Create a server.
+     * @param gazetteer the gazetteer that answers requests
+     * @param bindAddress the address the server listens on
+     */
+    public GazetteerServer(final Gazetteer gazetteer, final InetSocketAddress bindAddress) {
+        if (gazetteer == null || bindAddress == null) {
+            throw new IllegalArgumentException("gazetteer and bindAddress must not be null");
+        }
+        this.gazetteer = gazetteer;
+        this.bindAddress = bindAddress;
+    }
+
+    /**
+     * Starts listening for connections.
+     * @throws ClavinException if the server cannot listen on its address
+     */
+    public synchronized void start() throws ClavinException {
+        if (serverSocket != null) {
+            throw new IllegalStateException("GazetteerServer has already been started.");
+        }
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(bindAddress);
+        } catch (IOException ioe) {
+            serverSocket = null;
+            throw new ClavinException(String.format("Unable to listen on %s.", bindAddress), ioe);
+        }
+        final AtomicInteger threadNumber = new AtomicInteger();
+        connectionExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "clavin-server-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final ServerSocket listener = serverSocket;
+        connectionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections(listener);
+            }
+        });
+        LOG.info("Gazetteer server listening on {}", listener.getLocalSocketAddress());
+    }
+
+    /**
+     * Get the port the server is listening on.
+     * @return the port or -1 if the server has not been started
+     */
+    public synchronized int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : -1;
+    }
+
+    /**
+     * Get the number of open client connections.
+     * @return the number of connections
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Get the number of requests that have been answered.
+     * @return the number of requests
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Stops listening for connections and closes all client connections.  The gazetteer
+     * is not closed.
+     */
+    public synchronized void close() {
+        if (serverSocket == null) {
+            return;
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException ioe) {
+            LOG.warn("Error closing gazetteer server socket.", ioe);
+        }
+        for (Socket socket : connections) {
+            closeQuietly(socket);
+        }
+        connectionExecutor.shutdown();
+        serverSocket = null;
+    }
+
+    private void acceptConnections(final ServerSocket listener) {
+        long backoffMillis = 0L;
+        while (!listener.isClosed()) {
+            final Socket socket;
+            try {
+                socket = listener.accept();
+            } catch (IOException ioe) {
+                if (listener.isClosed()) {
+                    break;
+                }
+                // failures such as running out of file descriptors tend to persist, so wait
+                // longer after each consecutive failure instead of spinning on accept()
+                backoffMillis = Math.min(Math.max(2 * backoffMillis, MIN_ACCEPT_BACKOFF_MILLIS), MAX_ACCEPT_BACKOFF_MILLIS);
+                LOG.error(String.format("Error accepting gazetteer connection; retrying in %d ms.", backoffMillis), ioe);
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                continue;
+            }
+            backoffMillis = 0L;
+            connections.add(socket);
+            try {
+                connectionExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (RuntimeException re) {
+                // the server was closed while accepting the connection
+                connections.remove(socket);
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    /**
+     * Answers the requests of a client connection until it is closed.
+     * @param socket the client connection
+     */
+    private void serve(final Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                LOG.warn("Rejecting gazetteer connection from {}: unsupported protocol", socket.getRemoteSocketAddress());
+                return;
+            }
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.flush();
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream payloadOut = new DataOutputStream(payload);
+            while (true) {
+                int requestId;
+                try {
+                    requestId = in.readInt();
+                } catch (EOFException eof) {
+                    // the client closed the connection
+                    break;
+                }
+                byte opcode = in.readByte();
+                payload.reset();
+                String error = null;
+                try {
+                    handleRequest(opcode, in, payloadOut);
+                } catch (ClavinException ce) {
+                    error = ce.getMessage();
+                } catch (RuntimeException re) {
+                    LOG.error("Error answering gazetteer request.", re);
+                    error = re.toString();
+                }
+                requestCount.incrementAndGet();
+                out.writeInt(requestId);
+                if (error == null) {
+                    out.writeByte(STATUS_OK);
+                    payload.writeTo(out);
+                } else {
+                    out.writeByte(STATUS_ERROR);
+                    writeString(out, error);
+                }
+                // pipelined requests are answered together
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (SocketException se) {
+            LOG.debug("Gazetteer connection from {} closed: {}", socket.getRemoteSocketAddress(), se.getMessage());
+        } catch (IOException ioe) {
+            LOG.warn(String.format("Error serving gazetteer connection from %s.", socket.getRemoteSocketAddress()), ioe);
+        } finally {
+            connections.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Reads a request and writes its response payload.
+     * @param opcode the request opcode
+     * @param in the request stream, positioned at the request payload
+     * @param out the response payload
+     * @throws IOException if an error occurs reading the request
+     * @throws ClavinException if the gazetteer fails to answer the request
+     */
+    private void handleRequest(final byte opcode, final DataInputStream in, final DataOutputStream out)
+            throws IOException, ClavinException {
+        switch (opcode) {
+            case OP_CLOSEST_LOCATIONS:
+                // an invalid count closes the connection, since the rest of the stream cannot be trusted
+                int queryCount = readCount(in);
+                List<GazetteerQuery> queries = new ArrayList<GazetteerQuery>(queryCount);
+                for (int idx = 0; idx < queryCount; idx++) {
+                    queries.add(readQuery(in));
+                }
+                List<List<ResolvedLocation>> allMatches = AbstractGazetteer.getClosestLocations(gazetteer, queries);
+                for (int idx = 0; idx < allMatches.size(); idx++) {
+                    // each query read from the request has its own deadline
+                    Deadline deadline = queries.get(idx).getDeadline();
+                    writeMatches(out, allMatches.get(idx), deadline != null && deadline.isTruncated());
+                }
+                break;
+            case OP_GET_GEONAME:
+                int geonameId = in.readInt();
+                AncestryMode mode = readEnum(in, AncestryMode.values());
+                writeGeoName(out, gazetteer.getGeoName(geonameId, serverAncestryMode(mode)));
+                break;
+            case OP_LOAD_ANCESTRY:
+                int parentCount = readCount(in);
+                List<Integer> parentIds = new ArrayList<Integer>(parentCount);
+                for (int idx = 0; idx < parentCount; idx++) {
+                    parentIds.add(in.readInt());
+                }
+                for (Integer parentId : parentIds) {
+                    GeoName parent = gazetteer.getGeoName(parentId, AncestryMode.ON_CREATE);
+                    writeGeoName(out, parent);
+                }
+                break;
+            default:
+                throw new IOException(String.format("Unknown gazetteer request opcode [%d]", opcode));
+        }
+    }
+
+    private static void closeQuietly(final Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ioe) {
+            LOG.debug("Error closing gazetteer connection.", ioe);
+        }
+    }
+
+    /**
+     * Serves the gazetteer index found at the provided path until the process is
+     * terminated.  Sharded indexes are served by a {@link ShardedGazetteer}.
+     *
+     * @param args the command line arguments
+     * @throws ClavinException if the index cannot be opened or the server cannot be started
+     */
+    public static void main(String[] args) throws ClavinException {
+        Options options = getOptions();
+        CommandLine cmd = null;
+        CommandLineParser parser = new GnuParser();
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException pe) {
+            LOG.error(pe.getMessage());
+            printHelp(options);
+            System.exit(-1);
+        }
+
+        if (cmd.hasOption(HELP_OPTION)) {
+            printHelp(options);
+            System.exit(0);
+        }
+
+        File indexDir = new File(cmd.getOptionValue(INDEX_PATH_OPTION, DEFAULT_INDEX_DIRECTORY));
+        int port = DEFAULT_PORT;
+        InetAddress address = InetAddress.getLoopbackAddress();
+        try {
+            if (cmd.hasOption(PORT_OPTION)) {
+                port = Integer.parseInt(cmd.getOptionValue(PORT_OPTION));
+            }
+            if (cmd.hasOption(BIND_ADDRESS_OPTION)) {
+                address = InetAddress.getByName(cmd.getOptionValue(BIND_ADDRESS_OPTION));
+            }
+        } catch (NumberFormatException nfe) {
+            LOG.error("Invalid port: {}", cmd.getOptionValue(PORT_OPTION));
+            System.exit(-1);
+        } catch (IOException ioe) {
+            LOG.error("Invalid bind address: {}", cmd.getOptionValue(BIND_ADDRESS_OPTION));
+            System.exit(-1);
+        }
+
+        Gazetteer gazetteer = ShardManifest.exists(indexDir) ? new ShardedGazetteer(indexDir) : new LuceneGazetteer(indexDir);
+        new GazetteerServer(gazetteer, new InetSocketAddress(address, port)).start();
+        // the connection threads are daemons, so keep the process alive
+        try {
+            Thread.currentThread().join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Options getOptions() {
+        Options options = new Options();
+
+        options.addOption(OptionBuilder
+                .withLongOpt(HELP_OPTION)
+                .withDescription("Print help")
+                .create('?'));
+
+        options.addOption(OptionBuilder
+                .withLongOpt(INDEX_PATH_OPTION)
+                .withDescription(String.format("The path to the gazetteer index. Default: %s", DEFAULT_INDEX_DIRECTORY))
+                .hasArg()
+                .create('i'));
+
+        options.addOption(OptionBuilder
+                .withLongOpt(PORT_OPTION)
+                .withDescription(String.format("The port to listen on. Default: %d", DEFAULT_PORT))
+                .hasArg()
+                .create('p'));
+
+        options.addOption(OptionBuilder
+                .withLongOpt(BIND_ADDRESS_OPTION)
+                .withDescription("The address to listen on. Default: the loopback address")
+                .hasArg()
+                .create('b'));
+
+        return options;
+    }
+
+    private static void printHelp(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("run", options, true);
+    }
+}
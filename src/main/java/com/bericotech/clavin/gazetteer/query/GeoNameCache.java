@@ -0,0 +1,175 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * GeoNameCache.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import com.bericotech.clavin.gazetteer.FeatureCode;
+import com.bericotech.clavin.gazetteer.GeoName;
+import com.bericotech.clavin.util.LruCache;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A memory-bounded cache of GeoNames whose ancestry has been fully
+ * resolved, keyed by geonameID.  A single cache may be shared by
+ * all queries executed against a Gazetteer so the same parent
+ * records do not have to be retrieved and parsed repeatedly.
+ *
+ * GeoNames are only cached once their ancestry has been resolved and
+ * the cached instances are shared with every caller that retrieves
+ * them; they should be treated as immutable.
+ *
+ * Countries, top-level territories and first-order administrative
+ * divisions may optionally be pinned in the cache.  Pinned GeoNames
+ * are never evicted and do not count against the maximum size of
+ * the cache.
+ */
+public class GeoNameCache {
+    /**
+     * The default maximum number of unpinned GeoNames to cache.
+     */
+    public static final int DEFAULT_MAX_SIZE = 50000;
+
+    /**
+     * The recently used, unpinned GeoNames.
+     */
+    private final LruCache<Integer, GeoName> cache;
+
+    /**
+     * The pinned GeoNames or <code>null</code> if pinning is disabled.
+     */
+    private final ConcurrentMap<Integer, GeoName> pinned;
+
+    /**
+     * Create a new GeoNameCache holding up to {@link #DEFAULT_MAX_SIZE} unpinned
+     * GeoNames that pins all top-level and first-order administrative GeoNames.
+     */
+    public GeoNameCache() {
+        this(DEFAULT_MAX_SIZE, true);
+    }
+
+    /**
+     * Create a new GeoNameCache.
+     * @param maxSize the maximum number of unpinned GeoNames to cache
+     * @param pinTopLevel <code>true</code> to pin countries, top-level territories
+     *                    and first-order administrative divisions in the cache
+     */
+    public GeoNameCache(final int maxSize, final boolean pinTopLevel) {
+        this.cache = new LruCache<Integer, GeoName>(maxSize);
+        this.pinned = pinTopLevel ? new ConcurrentHashMap<Integer, GeoName>() : null;
+    }
+
+    /**
+     * Get the cached GeoName with the provided ID.
+     * @param geonameId the ID of the GeoName
+     * @return the cached GeoName or <code>null</code> if it is not cached
+     */
+    public GeoName get(final int geonameId) {
+        GeoName geoname = pinned != null ? pinned.get(geonameId) : null;
+        return geoname != null ? geoname : cache.get(geonameId);
+    }
+
+    /**
+     * Add a GeoName to the cache.  GeoNames whose ancestry has not been
+     * fully resolved will not be cached.
+     * @param geoname the GeoName to cache
+     * @return <code>true</code> if the GeoName was cached
+     */
+    public boolean put(final GeoName geoname) {
+        if (geoname == null || !geoname.isAncestryResolved()) {
+            return false;
+        }
+        if (pinned != null && isPinnable(geoname)) {
+            pinned.putIfAbsent(geoname.getGeonameID(), geoname);
+        } else {
+            cache.put(geoname.getGeonameID(), geoname);
+        }
+        return true;
+    }
+
+    /**
+     * Remove all GeoNames, including pinned GeoNames, from the cache.
+     */
+    public void clear() {
+        cache.clear();
+        if (pinned != null) {
+            pinned.clear();
+        }
+    }
+
+    /**
+     * Get the number of cached GeoNames, including pinned GeoNames.
+     * @return the number of cached GeoNames
+     */
+    public int size() {
+        return cache.size() + getPinnedCount();
+    }
+
+    /**
+     * Get the number of pinned GeoNames.
+     * @return the number of pinned GeoNames
+     */
+    public int getPinnedCount() {
+        return pinned != null ? pinned.size() : 0;
+    }
+
+    /**
+     * Get the number of lookups of unpinned GeoNames that found a cached value.
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    /**
+     * Get the number of lookups that did not find a cached value.
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    /**
+     * Get the number of unpinned GeoNames evicted from the cache.
+     * @return the number of evicted GeoNames
+     */
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    /**
+     * Should the provided GeoName be pinned?
+     * @param geoname the GeoName
+     * @return <code>true</code> if the GeoName is a country, top-level territory
+     *         or first-order administrative division
+     */
+    private boolean isPinnable(final GeoName geoname) {
+        return geoname.isTopLevelAdminDivision() || geoname.isTopLevelTerritory() ||
+                geoname.getFeatureCode() == FeatureCode.ADM1;
+    }
+}
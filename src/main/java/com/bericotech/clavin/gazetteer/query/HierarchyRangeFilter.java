@@ -0,0 +1,158 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * HierarchyRangeFilter.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.FieldCacheDocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.Bits;
+
+/**
+ * Restricts search results to documents whose numeric DocValue falls within
+ * any of a set of ranges.  This is used to match all descendants of one or
+ * more ancestors by the hierarchy positions of the documents; overlapping
+ * ranges, such as those of an ancestor and one of its descendants, are
+ * merged so each document is tested with a single binary search.
+ *
+ * Documents without a value for the field are treated as having the value 0.
+ */
+final class HierarchyRangeFilter extends Filter {
+    /**
+     * The DocValues field.
+     */
+    private final String field;
+
+    /**
+     * The inclusive lower bounds of the disjoint ranges, in ascending order.
+     */
+    private final int[] starts;
+
+    /**
+     * The inclusive upper bounds of the ranges.
+     */
+    private final int[] ends;
+
+    /**
+     * Create a new HierarchyRangeFilter.
+     * @param field the numeric DocValues field
+     * @param rangeStarts the inclusive lower bound of each range
+     * @param rangeEnds the inclusive upper bound of each range
+     */
+    HierarchyRangeFilter(final String field, final int[] rangeStarts, final int[] rangeEnds) {
+        if (rangeStarts.length != rangeEnds.length) {
+            throw new IllegalArgumentException("Each range must have a start and an end.");
+        }
+        this.field = field;
+        // sort the ranges by start position and merge any that overlap
+        long[] ranges = new long[rangeStarts.length];
+        for (int idx = 0; idx < ranges.length; idx++) {
+            ranges[idx] = ((long) rangeStarts[idx] << 32) | (rangeEnds[idx] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(ranges);
+        int[] mergedStarts = new int[ranges.length];
+        int[] mergedEnds = new int[ranges.length];
+        int count = 0;
+        for (long range : ranges) {
+            int start = (int) (range >>> 32);
+            int end = (int) range;
+            if (end < start) {
+                continue;
+            }
+            if (count > 0 && start <= mergedEnds[count - 1] + 1) {
+                mergedEnds[count - 1] = Math.max(mergedEnds[count - 1], end);
+            } else {
+                mergedStarts[count] = start;
+                mergedEnds[count] = end;
+                count++;
+            }
+        }
+        this.starts = Arrays.copyOf(mergedStarts, count);
+        this.ends = Arrays.copyOf(mergedEnds, count);
+    }
+
+    /**
+     * Determines whether a value falls within one of the ranges of this filter.
+     * @param value the value
+     * @return <code>true</code> if the value is within a range
+     */
+    boolean matches(final int value) {
+        int idx = Arrays.binarySearch(starts, value);
+        // if the value is not a start position, test the range starting before it
+        idx = idx >= 0 ? idx : -idx - 2;
+        return idx >= 0 && value <= ends[idx];
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(final AtomicReaderContext context, final Bits acceptDocs) throws IOException {
+        final NumericDocValues values = context.reader().getNumericDocValues(field);
+        if (values == null || starts.length == 0) {
+            return null;
+        }
+        return new FieldCacheDocIdSet(context.reader().maxDoc(), acceptDocs) {
+            @Override
+            protected boolean matchDoc(final int doc) {
+                return matches((int) values.get(doc));
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(field).append(":");
+        for (int idx = 0; idx < starts.length; idx++) {
+            builder.append(idx > 0 ? " " : "").append("[").append(starts[idx]).append(" TO ").append(ends[idx]).append("]");
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 31 * hash + field.hashCode();
+        hash = 31 * hash + Arrays.hashCode(starts);
+        hash = 31 * hash + Arrays.hashCode(ends);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final HierarchyRangeFilter other = (HierarchyRangeFilter) obj;
+        return field.equals(other.field) && Arrays.equals(starts, other.starts) && Arrays.equals(ends, other.ends);
+    }
+}
@@ -0,0 +1,800 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * InMemoryGazetteer.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import com.bericotech.clavin.ClavinException;
+import com.bericotech.clavin.extractor.LocationOccurrence;
+import com.bericotech.clavin.gazetteer.FeatureCode;
+import com.bericotech.clavin.gazetteer.GeoName;
+import com.bericotech.clavin.gazetteer.LazyAncestryGeoName;
+import com.bericotech.clavin.index.BinarySimilarity;
+import com.bericotech.clavin.index.WhitespaceLowerCaseAnalyzer;
+import com.bericotech.clavin.resolver.ResolvedLocation;
+import com.bericotech.clavin.util.Deadline;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntroSorter;
+import org.apache.lucene.util.UnicodeUtil;
+import org.apache.lucene.util.automaton.ByteRunAutomaton;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
+import org.apache.lucene.util.fst.FST;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An implementation of Gazetteer that loads a gazetteer index into memory
+ * when it is created and answers queries without searching the index.
+ *
+ * Names are looked up in finite-state transducers and matches are read
+ * directly from posting lists that are already sorted in rank order, so
+ * exact and partial name queries are answered without scoring or sorting.
+ * Results are ranked in the same order as {@link LuceneGazetteer}; fuzzy
+ * matches are scored with the same term weights as a Lucene fuzzy query,
+ * although scores that differ only by rounding may be ordered differently.
+ *
+ * The index is only read while this gazetteer is being created.  The
+ * whole gazetteer is held in memory, so the JVM must be configured with
+ * a heap large enough for the index; GeoNames are decoded from their
+ * binary records when they are returned and are not cached.
+ */
+public class InMemoryGazetteer extends AbstractGazetteer {
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(InMemoryGazetteer.class);
+
+    /**
+     * The default number of results to return.
+     */
+    private static final int DEFAULT_MAX_RESULTS = 5;
+
+    /**
+     * The maximum number of edits allowed by fuzzy queries.
+     */
+    private static final int FUZZY_MAX_EDITS = 2;
+
+    /**
+     * The maximum number of terms a fuzzy query is expanded to.
+     */
+    private static final int FUZZY_MAX_EXPANSIONS = 50;
+
+    /**
+     * The set of all FeatureCodes.
+     */
+    private static final Set<FeatureCode> ALL_CODES = Collections.unmodifiableSet(EnumSet.allOf(FeatureCode.class));
+
+    /**
+     * Orders fuzzy terms by descending similarity, then by term.
+     */
+    private static final Comparator<FuzzyTerm> BY_BOOST = new Comparator<FuzzyTerm>() {
+        @Override
+        public int compare(final FuzzyTerm t1, final FuzzyTerm t2) {
+            int cmp = Float.compare(t2.boost, t1.boost);
+            return cmp != 0 ? cmp : t1.term.compareTo(t2.term);
+        }
+    };
+
+    /**
+     * Orders fuzzy terms by term.
+     */
+    private static final Comparator<FuzzyTerm> BY_TERM = new Comparator<FuzzyTerm>() {
+        @Override
+        public int compare(final FuzzyTerm t1, final FuzzyTerm t2) {
+            return t1.term.compareTo(t2.term);
+        }
+    };
+
+    /**
+     * The in-memory index.
+     */
+    private final InMemoryIndex index;
+
+    /**
+     * The similarity used to weight fuzzy matches, matching the similarity
+     * used by {@link LuceneGazetteer}.
+     */
+    private final BinarySimilarity similarity = new BinarySimilarity();
+
+    /**
+     * Builds an {@link InMemoryGazetteer} by loading a pre-built Lucene
+     * index from disk into memory.
+     *
+     * @param indexDir              Lucene index directory to be loaded
+     * @throws ClavinException      if an error occurs loading the index
+     */
+    public InMemoryGazetteer(final File indexDir) throws ClavinException {
+        Directory directory = null;
+        try {
+            directory = DirectoryType.DEFAULT.open(indexDir);
+            DirectoryReader reader = DirectoryReader.open(directory);
+            try {
+                index = new InMemoryIndex(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ioe) {
+            throw new ClavinException("Error loading gazetteer index.", ioe);
+        } finally {
+            if (directory != null) {
+                try {
+                    directory.close();
+                } catch (IOException e) {
+                    LOG.warn("Error closing gazetteer index directory.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Execute a query against the in-memory gazetteer using the provided configuration,
+     * returning the top matches as {@link ResolvedLocation}s.
+     *
+     * @param query              the configuration parameters for the query
+     * @return                   the list of ResolvedLocations as potential matches
+     * @throws ClavinException   if an error occurs
+     */
+    @Override
+    public List<ResolvedLocation> getClosestLocations(final GazetteerQuery query) throws ClavinException {
+        return getClosestLocations(Collections.singletonList(query)).get(0);
+    }
+
+    /**
+     * Execute a batch of queries against the in-memory gazetteer using the provided
+     * configurations, returning the top matches for each query as {@link ResolvedLocation}s.
+     * GeoName instances are shared by all queries in the batch and the parents of all
+     * matches loaded with {@link AncestryMode#ON_CREATE} are resolved together once all
+     * queries have completed.
+     *
+     * @param queries            the configuration parameters for each query
+     * @return                   the lists of ResolvedLocations as potential matches for each
+     *                           query, in the same order as the input queries
+     * @throws ClavinException   if an error occurs
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<List<ResolvedLocation>> getClosestLocations(final List<GazetteerQuery> queries) throws ClavinException {
+        List<List<ResolvedLocation>> allMatches = new ArrayList<List<ResolvedLocation>>(queries.size());
+
+        // reuse GeoName instances across all ON_CREATE queries in the batch so all ancestry is
+        // correctly resolved if multiple names for the same GeoName match one or more queries
+        Map<Integer, GeoName> geonameMap = new HashMap<Integer, GeoName>();
+        // the parents of all GeoNames requiring ON_CREATE ancestry resolution in this batch
+        Map<Integer, Set<GeoName>> parentMap = new HashMap<Integer, Set<GeoName>>();
+
+        for (GazetteerQuery query : queries) {
+            List<String> nameTokens = tokenizeQueryText(query);
+
+            // if there is no location to query, return no results; once the deadline of a
+            // query has passed, it is not searched and returns no results
+            Deadline deadline = query.getDeadline();
+            if (nameTokens.isEmpty() || (deadline != null && deadline.checkExpired())) {
+                allMatches.add(Collections.EMPTY_LIST);
+                continue;
+            }
+
+            LocationOccurrence location = query.getOccurrence();
+            int maxResults = query.getMaxResults() > 0 ? query.getMaxResults() : DEFAULT_MAX_RESULTS;
+            // lazily and manually resolved GeoNames are not shared with other queries so
+            // loading the ancestry of one result does not affect the results of other queries
+            Map<Integer, GeoName> queryGeonames = query.getAncestryMode().isResolvedOnCreate() ?
+                    geonameMap : new HashMap<Integer, GeoName>();
+            List<ResolvedLocation> matches;
+            try {
+                MatchCollector exact = new MatchCollector(query, location, maxResults, false, null, queryGeonames, parentMap);
+                if (!exact.isFull()) {
+                    findExactMatches(nameTokens, exact);
+                }
+                matches = exact.getMatches();
+                // a deadline that passes during the exact search skips the fuzzy search
+                if (query.getFuzzyMode().useFuzzyMatching(maxResults, matches.size()) &&
+                        (deadline == null || !deadline.checkExpired())) {
+                    // provide any exact matches so they can be considered for deduplication and result count
+                    MatchCollector fuzzy = new MatchCollector(query, location, maxResults, true, matches, queryGeonames,
+                            parentMap);
+                    if (!fuzzy.isFull()) {
+                        findFuzzyMatches(nameTokens, fuzzy, deadline);
+                    }
+                    matches = fuzzy.getMatches();
+                }
+                if (matches.isEmpty()) {
+                    LOG.debug("No match found for: '{}'", location.getText());
+                }
+            } catch (IOException ioe) {
+                throw new ClavinException(String.format("Error executing query for: '%s'", location.getText()), ioe);
+            }
+            allMatches.add(matches);
+        }
+
+        // if any results need ancestry resolution, resolve parents for the entire batch;
+        // this map should only contain GeoNames if ancestryMode == ON_CREATE
+        if (!parentMap.isEmpty()) {
+            resolveParents(parentMap, geonameMap);
+        }
+        return allMatches;
+    }
+
+    /**
+     * Splits the text of the LocationOccurrence in the query parameters into the
+     * lower-cased tokens used to search the index, returning an empty list if no
+     * text is found.
+     * @param query the query configuration
+     * @return the tokens of the query text or an empty list if there is no query text
+     */
+    private List<String> tokenizeQueryText(final GazetteerQuery query) {
+        List<String> tokens = Collections.emptyList();
+        if (query != null && query.getOccurrence() != null) {
+            String text = query.getOccurrence().getText();
+            if (text != null) {
+                tokens = WhitespaceLowerCaseAnalyzer.tokenize(text.trim().toLowerCase());
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Collects the names that are identical to the search name followed by the
+     * names containing all tokens of the search name, in order.  Entries are
+     * posted in rank order so the first matches found are the best.
+     * @param nameTokens the normalized tokens of the search name
+     * @param collector the collector
+     * @throws IOException if an error occurs reading the name dictionary
+     */
+    private void findExactMatches(final List<String> nameTokens, final MatchCollector collector) throws IOException {
+        int exactName = index.findName(StringUtils.join(nameTokens, ' '));
+        if (exactName >= 0) {
+            int end = index.getNamePostingEnd(exactName);
+            for (int idx = index.getNamePostingStart(exactName); idx < end && !collector.isFull(); idx++) {
+                collector.collect(index.getNamePosting(idx));
+            }
+        }
+
+        int[] tokens = new int[nameTokens.size()];
+        int rarest = -1;
+        for (int pos = 0; pos < tokens.length; pos++) {
+            tokens[pos] = index.findToken(nameTokens.get(pos));
+            if (tokens[pos] < 0) {
+                // no name contains every token
+                return;
+            }
+            if (rarest < 0 || index.getTokenFrequency(tokens[pos]) < index.getTokenFrequency(rarest)) {
+                rarest = tokens[pos];
+            }
+        }
+        // every entry containing the search name is found in the postings of its rarest token
+        int end = index.getTokenPostingEnd(rarest);
+        for (int idx = index.getTokenPostingStart(rarest); idx < end && !collector.isFull(); idx++) {
+            int entry = index.getTokenPosting(idx);
+            int name = index.getEntryName(entry);
+            if (name != exactName && (tokens.length == 1 || index.containsPhrase(name, tokens))) {
+                collector.collect(entry);
+            }
+        }
+    }
+
+    /**
+     * Collects the names matching any leading token of the search name or any
+     * of the terms within two edits of its last token, ranked as they would be
+     * by the fuzzy query executed by {@link LuceneGazetteer}: each term is
+     * weighted by its inverse document frequency and similarity to the last
+     * token, and names matching only some of the leading tokens are penalized.
+     * @param nameTokens the normalized tokens of the search name
+     * @param collector the collector
+     * @param deadline the time by which the search must complete; if it passes before every
+     *                 term has been read, no fuzzy matches are collected and the deadline is
+     *                 marked truncated.  May be <code>null</code>
+     * @throws IOException if an error occurs reading the name dictionary
+     */
+    private void findFuzzyMatches(final List<String> nameTokens, final MatchCollector collector, final Deadline deadline)
+            throws IOException {
+        int last = nameTokens.size() - 1;
+        List<FuzzyTerm> fuzzyTerms = findFuzzyTerms(nameTokens.get(last));
+
+        // the leading tokens are followed by the fuzzy terms, in term order
+        int clauseCount = last + fuzzyTerms.size();
+        int[] clauseTokens = new int[clauseCount];
+        float[] clauseIdfs = new float[clauseCount];
+        float[] clauseBoosts = new float[clauseCount];
+        float leadingSum = 0.0f;
+        float fuzzySum = 0.0f;
+        for (int clause = 0; clause < clauseCount; clause++) {
+            int token;
+            if (clause < last) {
+                token = index.findToken(nameTokens.get(clause));
+                clauseBoosts[clause] = 1.0f;
+            } else {
+                FuzzyTerm term = fuzzyTerms.get(clause - last);
+                token = term.token;
+                clauseBoosts[clause] = term.boost;
+            }
+            clauseTokens[clause] = token;
+            clauseIdfs[clause] = similarity.idf(token >= 0 ? index.getTokenFrequency(token) : 0, index.getMaxDoc());
+            float weight = clauseIdfs[clause] * clauseBoosts[clause];
+            if (clause < last) {
+                leadingSum += weight * weight;
+            } else {
+                fuzzySum += weight * weight;
+            }
+        }
+        float queryNorm = similarity.queryNorm(leadingSum + fuzzySum);
+        float[] clauseWeights = new float[clauseCount];
+        for (int clause = 0; clause < clauseCount; clause++) {
+            clauseWeights[clause] = clauseIdfs[clause] * clauseBoosts[clause] * queryNorm * clauseIdfs[clause];
+        }
+
+        // find every entry matching a clause; the keys sort by entry, then by clause
+        int postingCount = 0;
+        for (int clause = 0; clause < clauseCount; clause++) {
+            if (clauseTokens[clause] >= 0) {
+                postingCount += index.getTokenFrequency(clauseTokens[clause]);
+            }
+        }
+        long[] keys = new long[postingCount];
+        int keyCount = 0;
+        for (int clause = 0; clause < clauseCount; clause++) {
+            // entries are only scored once the postings of every term are known
+            if (deadline != null && deadline.checkExpired()) {
+                return;
+            }
+            int token = clauseTokens[clause];
+            if (token >= 0) {
+                int end = index.getTokenPostingEnd(token);
+                for (int idx = index.getTokenPostingStart(token); idx < end; idx++) {
+                    keys[keyCount++] = (long) index.getTokenPosting(idx) * clauseCount + clause;
+                }
+            }
+        }
+        Arrays.sort(keys);
+
+        // score each entry; the fuzzy terms form a single clause of the search name
+        int maxOverlap = last + 1;
+        final int[] entries = new int[keyCount];
+        final float[] scores = new float[keyCount];
+        int entryCount = 0;
+        int idx = 0;
+        while (idx < keyCount) {
+            int entry = (int) (keys[idx] / clauseCount);
+            float norm = similarity.decodeNormValue(index.getEntryNorm(entry));
+            double score = 0.0;
+            double fuzzyScore = 0.0;
+            boolean fuzzyMatch = false;
+            int overlap = 0;
+            for (; idx < keyCount && keys[idx] / clauseCount == entry; idx++) {
+                int clause = (int) (keys[idx] % clauseCount);
+                float clauseScore = clauseWeights[clause] * norm;
+                if (clause < last) {
+                    score += clauseScore;
+                    overlap++;
+                } else {
+                    fuzzyScore += clauseScore;
+                    fuzzyMatch = true;
+                }
+            }
+            if (fuzzyMatch) {
+                score += (float) fuzzyScore;
+                overlap++;
+            }
+            entries[entryCount] = entry;
+            scores[entryCount] = (float) (score * similarity.coord(overlap, maxOverlap));
+            entryCount++;
+        }
+
+        // rank by score, then by sort population and finally by index order
+        new IntroSorter() {
+            private int pivotEntry;
+            private float pivotScore;
+
+            @Override
+            protected void setPivot(final int i) {
+                pivotEntry = entries[i];
+                pivotScore = scores[i];
+            }
+
+            @Override
+            protected int comparePivot(final int j) {
+                return compareMatches(pivotEntry, pivotScore, entries[j], scores[j]);
+            }
+
+            @Override
+            protected int compare(final int i, final int j) {
+                return compareMatches(entries[i], scores[i], entries[j], scores[j]);
+            }
+
+            @Override
+            protected void swap(final int i, final int j) {
+                int entry = entries[i];
+                entries[i] = entries[j];
+                entries[j] = entry;
+                float score = scores[i];
+                scores[i] = scores[j];
+                scores[j] = score;
+            }
+        }.sort(0, entryCount);
+
+        for (int pos = 0; pos < entryCount && !collector.isFull(); pos++) {
+            collector.collect(entries[pos]);
+        }
+    }
+
+    private int compareMatches(final int entry1, final float score1, final int entry2, final float score2) {
+        int cmp = Float.compare(score2, score1);
+        if (cmp == 0) {
+            long pop1 = index.getSortPop(index.getEntryRecord(entry1));
+            long pop2 = index.getSortPop(index.getEntryRecord(entry2));
+            cmp = pop1 > pop2 ? -1 : (pop1 == pop2 ? 0 : 1);
+        }
+        if (cmp == 0) {
+            int doc1 = index.getEntryDoc(entry1);
+            int doc2 = index.getEntryDoc(entry2);
+            cmp = doc1 < doc2 ? -1 : (doc1 == doc2 ? 0 : 1);
+        }
+        return cmp;
+    }
+
+    /**
+     * Finds the indexed tokens within two edits of the provided token, keeping the
+     * most similar tokens up to the fuzzy expansion limit.
+     * @param token the token
+     * @return the matching tokens, in term order
+     * @throws IOException if an error occurs reading the token dictionary
+     */
+    private List<FuzzyTerm> findFuzzyTerms(final String token) throws IOException {
+        LevenshteinAutomata automata = new LevenshteinAutomata(token, true);
+        ByteRunAutomaton[] matchers = new ByteRunAutomaton[FUZZY_MAX_EDITS + 1];
+        for (int edits = 0; edits <= FUZZY_MAX_EDITS; edits++) {
+            // compiled automata are determinized after conversion to UTF-8
+            matchers[edits] = new CompiledAutomaton(automata.toAutomaton(edits), true, false).runAutomaton;
+        }
+        FST<Long> fst = index.getTokenFst();
+        List<FuzzyTerm> terms = new ArrayList<FuzzyTerm>();
+        FST.Arc<Long> root = fst.getFirstArc(new FST.Arc<Long>());
+        collectFuzzyTerms(fst, fst.getBytesReader(), root, matchers, matchers[FUZZY_MAX_EDITS].getInitialState(),
+                0L, new BytesRef(), token.codePointCount(0, token.length()), terms);
+
+        Collections.sort(terms, BY_BOOST);
+        if (terms.size() > FUZZY_MAX_EXPANSIONS) {
+            terms = new ArrayList<FuzzyTerm>(terms.subList(0, FUZZY_MAX_EXPANSIONS));
+        }
+        Collections.sort(terms, BY_TERM);
+        return terms;
+    }
+
+    /**
+     * Walks the token transducer below the provided arc, following only the
+     * paths accepted by the automaton for the maximum number of edits.
+     * @param fst the token transducer
+     * @param reader the transducer reader
+     * @param arc the arc leading to the current node
+     * @param matchers the automata accepting terms within 0, 1 and 2 edits
+     * @param state the state of the automaton for the maximum number of edits
+     * @param output the accumulated transducer output
+     * @param prefix the bytes of the current path
+     * @param tokenLength the length of the search token, in code points
+     * @param terms the list the matching terms are added to
+     * @throws IOException if an error occurs reading the transducer
+     */
+    private void collectFuzzyTerms(final FST<Long> fst, final FST.BytesReader reader, final FST.Arc<Long> arc,
+            final ByteRunAutomaton[] matchers, final int state, final long output, final BytesRef prefix,
+            final int tokenLength, final List<FuzzyTerm> terms) throws IOException {
+        if (arc.isFinal() && matchers[FUZZY_MAX_EDITS].isAccept(state)) {
+            int edits = 0;
+            while (!matchers[edits].run(prefix.bytes, prefix.offset, prefix.length)) {
+                edits++;
+            }
+            // exact matches are not penalized; other terms must be similar relative to their length
+            float boost = 1.0f;
+            if (edits > 0) {
+                int length = Math.min(UnicodeUtil.codePointCount(prefix), tokenLength);
+                boost = 1.0f - ((float) edits / (float) length);
+            }
+            if (boost > 0.0f) {
+                terms.add(new FuzzyTerm(BytesRef.deepCopyOf(prefix), (int) (output + arc.nextFinalOutput), boost));
+            }
+        }
+        if (!FST.targetHasArcs(arc)) {
+            return;
+        }
+        FST.Arc<Long> child = fst.readFirstTargetArc(arc, new FST.Arc<Long>(), reader);
+        while (true) {
+            // the end label marks a final node, which has already been handled
+            int next = child.label == FST.END_LABEL ? -1 : matchers[FUZZY_MAX_EDITS].step(state, child.label);
+            if (next != -1) {
+                prefix.grow(prefix.length + 1);
+                prefix.bytes[prefix.length++] = (byte) child.label;
+                collectFuzzyTerms(fst, reader, child, matchers, next, output + child.output, prefix, tokenLength, terms);
+                prefix.length--;
+            }
+            if (child.isLast()) {
+                break;
+            }
+            fst.readNextArc(child, reader);
+        }
+    }
+
+    /**
+     * Retrieves and sets the parents of the provided children.
+     * @param childMap the map of parent geonameID to the set of children that belong to it
+     * @param geonameMap the GeoName instances that have already been loaded, keyed by geonameID; these
+     *                   will be reused if they are found in the ancestry of the children and any
+     *                   newly loaded parents will be added to this map
+     */
+    private void resolveParents(final Map<Integer, Set<GeoName>> childMap, final Map<Integer, GeoName> geonameMap) {
+        Map<Integer, GeoName> parentMap = new HashMap<Integer, GeoName>();
+        Map<Integer, Set<GeoName>> grandParentMap = new HashMap<Integer, Set<GeoName>>();
+        for (Integer parentId : childMap.keySet()) {
+            GeoName parent = geonameMap.get(parentId);
+            // only load the parent if we have not already loaded it or if its
+            // ancestry must also be resolved
+            if (parent == null || !parent.isAncestryResolved()) {
+                int record = index.getPrimaryRecord(parentId);
+                if (record >= 0) {
+                    if (parent == null) {
+                        parent = index.buildGeoName(record);
+                        geonameMap.put(parentId, parent);
+                    }
+                    int grandParentId = index.getParentId(record);
+                    if (!parent.isAncestryResolved() && grandParentId != InMemoryIndex.NO_PARENT) {
+                        Set<GeoName> geos = grandParentMap.get(grandParentId);
+                        if (geos == null) {
+                            geos = new HashSet<GeoName>();
+                            grandParentMap.put(grandParentId, geos);
+                        }
+                        geos.add(parent);
+                    }
+                } else {
+                    LOG.error("Unable to find parent GeoName [{}]", parentId);
+                }
+            }
+            if (parent != null) {
+                parentMap.put(parentId, parent);
+            }
+        }
+
+        // find all parents of the parents
+        if (!grandParentMap.isEmpty()) {
+            resolveParents(grandParentMap, geonameMap);
+        }
+
+        // set parents of children
+        for (Integer parentId : childMap.keySet()) {
+            GeoName parent = parentMap.get(parentId);
+            if (parent == null) {
+                LOG.info("Unable to find parent with ID [{}]", parentId);
+                continue;
+            }
+            for (GeoName child : childMap.get(parentId)) {
+                child.setParent(parent);
+            }
+        }
+    }
+
+    @Override
+    public GeoName getGeoName(final int geonameId) throws ClavinException {
+        return getGeoName(geonameId, AncestryMode.LAZY);
+    }
+
+    @Override
+    public GeoName getGeoName(final int geonameId, final AncestryMode ancestryMode) throws ClavinException {
+        int record = index.getFirstRecord(geonameId);
+        if (record < 0) {
+            LOG.debug("No geoname found for ID: {}", geonameId);
+            return null;
+        }
+        GeoName geoName = index.buildGeoName(record);
+        int parentId = index.getParentId(record);
+        if (!geoName.isAncestryResolved() && parentId != InMemoryIndex.NO_PARENT) {
+            switch (ancestryMode) {
+                case ON_CREATE:
+                case PRECOMPUTED:
+                    // parent IDs are always held in memory
+                    Map<Integer, Set<GeoName>> childMap = new HashMap<Integer, Set<GeoName>>();
+                    childMap.put(parentId, Collections.singleton(geoName));
+                    resolveParents(childMap, new HashMap<Integer, GeoName>());
+                    break;
+                case LAZY:
+                    // ancestry will be loaded on request
+                    geoName = new LazyAncestryGeoName(geoName, parentId, this);
+                    break;
+                case MANUAL:
+                    // ancestry must be loaded manually
+                    geoName = new LazyAncestryGeoName(geoName, parentId);
+                    break;
+            }
+        }
+        return geoName;
+    }
+
+    @Override
+    public void loadAncestry(final GeoName... geoNames) throws ClavinException {
+        loadAncestry(Arrays.asList(geoNames));
+    }
+
+    @Override
+    public void loadAncestry(final Collection<GeoName> geoNames) throws ClavinException {
+        Map<Integer, Set<GeoName>> parentMap = new HashMap<Integer, Set<GeoName>>();
+        for (GeoName geoName : geoNames) {
+            Integer parentId = geoName.getParentId();
+            if (!geoName.isAncestryResolved() && parentId != null) {
+                Set<GeoName> geos = parentMap.get(parentId);
+                if (geos == null) {
+                    geos = new HashSet<GeoName>();
+                    parentMap.put(parentId, geos);
+                }
+                geos.add(geoName);
+            }
+        }
+        if (!parentMap.isEmpty()) {
+            resolveParents(parentMap, new HashMap<Integer, GeoName>());
+        }
+    }
+
+    /**
+     * Applies the restrictions of a query to matching entries and builds the
+     * ResolvedLocations for the entries that are accepted.
+     */
+    private final class MatchCollector {
+        private final LocationOccurrence location;
+        private final int maxResults;
+        private final boolean fuzzy;
+        private final boolean dedupe;
+        private final boolean activeOnly;
+        private final Set<FeatureCode> featureCodes;
+        private final Set<Integer> parentIds;
+        private final AncestryMode ancestryMode;
+        private final Map<Integer, GeoName> geonameMap;
+        private final Map<Integer, Set<GeoName>> parentMap;
+        private final List<ResolvedLocation> matches;
+        private final Set<Integer> foundIds = new HashSet<Integer>();
+
+        /**
+         * Create a new MatchCollector.
+         * @param query the query configuration
+         * @param location the location occurrence
+         * @param maxResults the maximum number of results
+         * @param fuzzy are the collected entries fuzzy matches
+         * @param previousResults the results of a previous query that should be used for duplicate filtering and
+         *                        appended to; the input list will not be modified and may be <code>null</code>
+         * @param geonameMap the GeoName instances discovered so far, keyed by geonameID; new GeoNames will be
+         *                   added to this map
+         * @param parentMap the map of parent geonameID to the set of children awaiting resolution; GeoNames that
+         *                  should have their ancestry resolved on creation will be added to this map
+         */
+        MatchCollector(final GazetteerQuery query, final LocationOccurrence location, final int maxResults,
+                final boolean fuzzy, final List<ResolvedLocation> previousResults, final Map<Integer, GeoName> geonameMap,
+                final Map<Integer, Set<GeoName>> parentMap) {
+            this.location = location;
+            this.maxResults = maxResults;
+            this.fuzzy = fuzzy;
+            this.dedupe = query.isFilterDupes();
+            this.activeOnly = !query.isIncludeHistorical();
+            Set<FeatureCode> codes = query.getFeatureCodes();
+            this.featureCodes = codes.isEmpty() || ALL_CODES.equals(codes) ? null : codes;
+            this.parentIds = query.getParentIds().isEmpty() ? null : query.getParentIds();
+            this.ancestryMode = query.getAncestryMode();
+            this.geonameMap = geonameMap;
+            this.parentMap = parentMap;
+            this.matches = new ArrayList<ResolvedLocation>(maxResults);
+            if (previousResults != null) {
+                matches.addAll(previousResults);
+                for (ResolvedLocation loc : previousResults) {
+                    foundIds.add(loc.getGeoname().getGeonameID());
+                }
+            }
+        }
+
+        boolean isFull() {
+            return matches.size() >= maxResults;
+        }
+
+        List<ResolvedLocation> getMatches() {
+            return matches;
+        }
+
+        /**
+         * Adds the GeoName of an entry to the matches if it satisfies the
+         * restrictions of the query.
+         * @param entry the entry
+         */
+        void collect(final int entry) {
+            int record = index.getEntryRecord(entry);
+            if (activeOnly && index.getFeatureCode(record).isHistorical()) {
+                return;
+            }
+            if (featureCodes != null && !featureCodes.contains(index.getFeatureCode(record))) {
+                return;
+            }
+            if (parentIds != null && !index.hasAncestor(record, parentIds)) {
+                return;
+            }
+            int geonameID = index.getGeonameId(record);
+            // if we have already seen this GeoName and we are removing duplicates, skip it
+            if (!foundIds.add(geonameID) && dedupe) {
+                return;
+            }
+            // reuse GeoName instances so all ancestry is correctly resolved if multiple names for
+            // the same GeoName match the query
+            GeoName geoname = geonameMap.get(geonameID);
+            if (geoname == null) {
+                geoname = index.buildGeoName(record);
+                geonameMap.put(geonameID, geoname);
+            }
+            int parentId = index.getParentId(record);
+            if (!geoname.isAncestryResolved() && parentId != InMemoryIndex.NO_PARENT) {
+                switch (ancestryMode) {
+                    case LAZY:
+                        geoname = new LazyAncestryGeoName(geoname, parentId, InMemoryGazetteer.this);
+                        break;
+                    case MANUAL:
+                        geoname = new LazyAncestryGeoName(geoname, parentId);
+                        break;
+                    case ON_CREATE:
+                    case PRECOMPUTED:
+                        Set<GeoName> geos = parentMap.get(parentId);
+                        if (geos == null) {
+                            geos = new HashSet<GeoName>();
+                            parentMap.put(parentId, geos);
+                        }
+                        geos.add(geoname);
+                        break;
+                }
+            }
+            matches.add(new ResolvedLocation(location, geoname, index.getMatchedName(entry), fuzzy));
+        }
+    }
+
+    /**
+     * An indexed token matched by a fuzzy query.
+     */
+    private static final class FuzzyTerm {
+        private final BytesRef term;
+        private final int token;
+        private final float boost;
+
+        FuzzyTerm(final BytesRef term, final int token, final float boost) {
+            this.term = term;
+            this.token = token;
+            this.boost = boost;
+        }
+    }
+}
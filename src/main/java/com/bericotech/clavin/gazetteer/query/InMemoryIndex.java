@@ -0,0 +1,743 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * InMemoryIndex.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import static com.bericotech.clavin.index.IndexField.*;
+
+import com.bericotech.clavin.gazetteer.BasicGeoName;
+import com.bericotech.clavin.gazetteer.BinaryGeoNameCodec;
+import com.bericotech.clavin.gazetteer.FeatureCode;
+import com.bericotech.clavin.gazetteer.GeoName;
+import com.bericotech.clavin.index.WhitespaceLowerCaseAnalyzer;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+import org.apache.lucene.util.IntroSorter;
+import org.apache.lucene.util.IntsRef;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An immutable, in-memory copy of a gazetteer index.
+ *
+ * Each indexed name of a GeoName is an <em>entry</em>.  Entries are numbered
+ * in the order LuceneGazetteer ranks partial name matches: by the length norm
+ * of the name, then by sort population and finally by the order of the
+ * documents in the source index.  Every posting list is sorted by entry number
+ * so matches can be read in rank order without scoring or sorting.
+ *
+ * Normalized names and their tokens are mapped to posting lists by finite-state
+ * transducers.  The attributes used to filter and resolve matches are held in
+ * primitive arrays indexed by entry or by <em>record</em>, the distinct gazetteer
+ * records of the source index, and the records themselves are held in their
+ * binary form until a GeoName must be built.
+ */
+final class InMemoryIndex {
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(InMemoryIndex.class);
+
+    /**
+     * The value used for records that have no parent.
+     */
+    static final int NO_PARENT = -1;
+
+    /**
+     * The maximum depth of an ancestry path, used to guard against cycles.
+     */
+    static final int MAX_ANCESTRY_DEPTH = 32;
+
+    /**
+     * The stored fields read from each document.
+     */
+    private static final Set<String> LOAD_FIELDS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            GEONAME.key(), GEONAME_ID.key(), PARENT_ID.key(), PREFERRED_NAME.key(), INDEX_NAME.key())));
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final FeatureCode[] FEATURE_CODES = FeatureCode.values();
+
+    /**
+     * The maximum document number of the source index, used when weighting terms.
+     */
+    private final int maxDoc;
+
+    // entries, in rank order
+    private final int[] entryRecord;
+    private final int[] entryDoc;
+    private final int[] entryName;
+    private final byte[] entryNorm;
+    private final long[] entryMatchedName;
+    private final int[] entryMatchedNameLength;
+    private final BlockStore matchedNames;
+
+    // normalized names
+    private final FST<Long> nameFst;
+    private final int[] namePostingStart;
+    private final int[] namePostings;
+    private final int[] nameTokenStart;
+    private final int[] nameTokens;
+
+    // name tokens
+    private final FST<Long> tokenFst;
+    private final int[] tokenPostingStart;
+    private final int[] tokenPostings;
+
+    // distinct gazetteer records
+    private final int[] recordGeonameId;
+    private final int[] recordParentId;
+    private final short[] recordFeatureCode;
+    private final long[] recordSortPop;
+    private final String[] recordPreferredName;
+    private final long[] recordPointer;
+    private final int[] recordLength;
+    private final BlockStore records;
+
+    // geonameID lookup
+    private final int[] geonameIds;
+    private final int[] firstRecord;
+    private final int[] primaryRecord;
+
+    /**
+     * Loads every live document of the provided index into memory.  The
+     * reader is not used after this constructor returns.
+     * @param reader the index reader
+     * @throws IOException if an error occurs reading the index
+     */
+    InMemoryIndex(final IndexReader reader) throws IOException {
+        long start = System.currentTimeMillis();
+        maxDoc = reader.maxDoc();
+
+        // per-document values, in index order
+        int docCount = 0;
+        int[] docRecord = new int[Math.max(reader.numDocs(), 1)];
+        int[] docName = new int[docRecord.length];
+        byte[] docNorm = new byte[docRecord.length];
+        long[] docMatchedName = new long[docRecord.length];
+        int[] docMatchedNameLength = new int[docRecord.length];
+
+        // distinct records
+        int recCount = 0;
+        int[] recGeonameId = new int[16];
+        int[] recParentId = new int[16];
+        short[] recFeatureCode = new short[16];
+        long[] recSortPop = new long[16];
+        int[] recFirstDoc = new int[16];
+        String[] recPreferredName = new String[16];
+        long[] recPointer = new long[16];
+        int[] recLength = new int[16];
+        BlockStore recordStore = new BlockStore();
+        BlockStore nameStore = new BlockStore();
+
+        // normalized names and tokens
+        BytesRefHash nameHash = new BytesRefHash();
+        BytesRefHash tokenHash = new BytesRefHash();
+        int[] nameTokenStarts = new int[16];
+        int[] allNameTokens = new int[16];
+        int nameTokenCount = 0;
+        BytesRef scratch = new BytesRef();
+
+        byte[] prevRecord = null;
+        long[] docSortPop = new long[docRecord.length];
+        for (AtomicReaderContext leaf : reader.leaves()) {
+            AtomicReader leafReader = leaf.reader();
+            Bits liveDocs = leafReader.getLiveDocs();
+            FieldCache.Longs sortPops = FieldCache.DEFAULT.getLongs(leafReader, SORT_POP.key(), false);
+            NumericDocValues norms = leafReader.getNormValues(INDEX_NAME.key());
+            for (int doc = 0; doc < leafReader.maxDoc(); doc++) {
+                if (liveDocs != null && !liveDocs.get(doc)) {
+                    continue;
+                }
+                Document document = leafReader.document(doc, LOAD_FIELDS);
+                String indexName = document.get(INDEX_NAME.key());
+                List<String> tokens = indexName != null ? WhitespaceLowerCaseAnalyzer.tokenize(indexName) :
+                        Collections.<String>emptyList();
+                int geonameId = GEONAME_ID.getValue(document);
+                long sortPop = sortPops.get(doc);
+                byte[] record = getBinaryRecord(document);
+
+                // documents for the same GeoName are consecutive, so only the previous record is compared
+                if (prevRecord == null || recGeonameId[recCount - 1] != geonameId || !Arrays.equals(prevRecord, record)) {
+                    if (recCount == recGeonameId.length) {
+                        int size = ArrayUtil.oversize(recCount + 1, 8);
+                        recGeonameId = Arrays.copyOf(recGeonameId, size);
+                        recParentId = Arrays.copyOf(recParentId, size);
+                        recFeatureCode = Arrays.copyOf(recFeatureCode, size);
+                        recSortPop = Arrays.copyOf(recSortPop, size);
+                        recFirstDoc = Arrays.copyOf(recFirstDoc, size);
+                        recPreferredName = Arrays.copyOf(recPreferredName, size);
+                        recPointer = Arrays.copyOf(recPointer, size);
+                        recLength = Arrays.copyOf(recLength, size);
+                    }
+                    Integer parentId = PARENT_ID.getValue(document);
+                    GeoName geoname = BinaryGeoNameCodec.decode(record, 0, record.length, null);
+                    recGeonameId[recCount] = geonameId;
+                    recParentId[recCount] = parentId != null ? parentId : NO_PARENT;
+                    recFeatureCode[recCount] = (short) geoname.getFeatureCode().ordinal();
+                    recSortPop[recCount] = sortPop;
+                    recFirstDoc[recCount] = leaf.docBase + doc;
+                    recPreferredName[recCount] = document.get(PREFERRED_NAME.key());
+                    recPointer[recCount] = recordStore.append(record, 0, record.length);
+                    recLength[recCount] = record.length;
+                    recCount++;
+                    prevRecord = record;
+                }
+
+                if (tokens.isEmpty()) {
+                    // names without tokens can never be matched
+                    continue;
+                }
+                scratch.copyChars(StringUtils.join(tokens, ' '));
+                int nameId = nameHash.add(scratch);
+                if (nameId >= 0) {
+                    // a new name; record its tokens
+                    nameTokenStarts = ArrayUtil.grow(nameTokenStarts, nameId + 2);
+                    nameTokenStarts[nameId] = nameTokenCount;
+                    allNameTokens = ArrayUtil.grow(allNameTokens, nameTokenCount + tokens.size());
+                    for (String token : tokens) {
+                        scratch.copyChars(token);
+                        int tokenId = tokenHash.add(scratch);
+                        allNameTokens[nameTokenCount++] = tokenId >= 0 ? tokenId : -tokenId - 1;
+                    }
+                    nameTokenStarts[nameId + 1] = nameTokenCount;
+                } else {
+                    nameId = -nameId - 1;
+                }
+
+                byte[] matchedName = indexName.getBytes(UTF_8);
+                docRecord[docCount] = recCount - 1;
+                docName[docCount] = nameId;
+                docNorm[docCount] = norms != null ? (byte) norms.get(doc) : 0;
+                docSortPop[docCount] = sortPop;
+                docMatchedName[docCount] = nameStore.append(matchedName, 0, matchedName.length);
+                docMatchedNameLength[docCount] = matchedName.length;
+                docCount++;
+            }
+        }
+
+        // number the entries in rank order
+        final int[] rank = sortedIndexes(docCount, docNorm, docSortPop);
+        entryRecord = new int[docCount];
+        entryDoc = rank;
+        entryName = new int[docCount];
+        entryNorm = new byte[docCount];
+        entryMatchedName = new long[docCount];
+        entryMatchedNameLength = new int[docCount];
+        for (int entry = 0; entry < docCount; entry++) {
+            int doc = rank[entry];
+            entryRecord[entry] = docRecord[doc];
+            entryName[entry] = docName[doc];
+            entryNorm[entry] = docNorm[doc];
+            entryMatchedName[entry] = docMatchedName[doc];
+            entryMatchedNameLength[entry] = docMatchedNameLength[doc];
+        }
+        matchedNames = nameStore;
+
+        // build the name and token postings
+        int nameCount = nameHash.size();
+        int tokenCount = tokenHash.size();
+        nameTokenStart = Arrays.copyOf(nameTokenStarts, nameCount + 1);
+        nameTokens = Arrays.copyOf(allNameTokens, nameTokenCount);
+        namePostingStart = new int[nameCount + 1];
+        tokenPostingStart = new int[tokenCount + 1];
+        for (int entry = 0; entry < docCount; entry++) {
+            int name = entryName[entry];
+            namePostingStart[name + 1]++;
+            for (int idx = nameTokenStart[name]; idx < nameTokenStart[name + 1]; idx++) {
+                if (isFirstOccurrence(idx, nameTokenStart[name])) {
+                    tokenPostingStart[nameTokens[idx] + 1]++;
+                }
+            }
+        }
+        toOffsets(namePostingStart);
+        toOffsets(tokenPostingStart);
+        namePostings = new int[namePostingStart[nameCount]];
+        tokenPostings = new int[tokenPostingStart[tokenCount]];
+        int[] nameFill = Arrays.copyOf(namePostingStart, nameCount);
+        int[] tokenFill = Arrays.copyOf(tokenPostingStart, tokenCount);
+        for (int entry = 0; entry < docCount; entry++) {
+            int name = entryName[entry];
+            namePostings[nameFill[name]++] = entry;
+            for (int idx = nameTokenStart[name]; idx < nameTokenStart[name + 1]; idx++) {
+                if (isFirstOccurrence(idx, nameTokenStart[name])) {
+                    tokenPostings[tokenFill[nameTokens[idx]]++] = entry;
+                }
+            }
+        }
+        nameFst = buildFst(nameHash);
+        tokenFst = buildFst(tokenHash);
+
+        recordGeonameId = Arrays.copyOf(recGeonameId, recCount);
+        recordParentId = Arrays.copyOf(recParentId, recCount);
+        recordFeatureCode = Arrays.copyOf(recFeatureCode, recCount);
+        recordSortPop = Arrays.copyOf(recSortPop, recCount);
+        recordPreferredName = Arrays.copyOf(recPreferredName, recCount);
+        recordPointer = Arrays.copyOf(recPointer, recCount);
+        recordLength = Arrays.copyOf(recLength, recCount);
+        records = recordStore;
+
+        // map each geonameID to the record found first in the index, used when retrieving by
+        // ID, and to the record with the highest sort population, used when resolving ancestry
+        final int[] byId = new int[recCount];
+        for (int rec = 0; rec < recCount; rec++) {
+            byId[rec] = rec;
+        }
+        final int[] firstDocs = recFirstDoc;
+        new IntroSorter() {
+            private int pivot;
+
+            @Override
+            protected void setPivot(final int i) {
+                pivot = byId[i];
+            }
+
+            @Override
+            protected int comparePivot(final int j) {
+                return compareRecords(pivot, byId[j], firstDocs);
+            }
+
+            @Override
+            protected int compare(final int i, final int j) {
+                return compareRecords(byId[i], byId[j], firstDocs);
+            }
+
+            @Override
+            protected void swap(final int i, final int j) {
+                int tmp = byId[i];
+                byId[i] = byId[j];
+                byId[j] = tmp;
+            }
+        }.sort(0, recCount);
+        int idCount = 0;
+        int[] ids = new int[recCount];
+        int[] first = new int[recCount];
+        int[] primary = new int[recCount];
+        for (int idx = 0; idx < recCount; idx++) {
+            int rec = byId[idx];
+            if (idCount == 0 || ids[idCount - 1] != recordGeonameId[rec]) {
+                ids[idCount] = recordGeonameId[rec];
+                first[idCount] = rec;
+                primary[idCount] = rec;
+                idCount++;
+            } else if (firstDocs[rec] < firstDocs[first[idCount - 1]]) {
+                first[idCount - 1] = rec;
+            }
+        }
+        geonameIds = Arrays.copyOf(ids, idCount);
+        firstRecord = Arrays.copyOf(first, idCount);
+        primaryRecord = Arrays.copyOf(primary, idCount);
+
+        LOG.info("Loaded {} names of {} GeoNames into memory in {} ms", docCount, idCount, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Orders records by geonameID, then by descending sort population and
+     * finally by their first document.
+     */
+    private int compareRecords(final int rec1, final int rec2, final int[] firstDocs) {
+        int cmp = compareInts(recordGeonameId[rec1], recordGeonameId[rec2]);
+        if (cmp == 0) {
+            cmp = compareLongs(recordSortPop[rec2], recordSortPop[rec1]);
+        }
+        if (cmp == 0) {
+            cmp = compareInts(firstDocs[rec1], firstDocs[rec2]);
+        }
+        return cmp;
+    }
+
+    /**
+     * Sorts document indexes by descending length norm, then by descending sort
+     * population and finally by index order.
+     */
+    private static int[] sortedIndexes(final int count, final byte[] norms, final long[] sortPops) {
+        final int[] order = new int[count];
+        for (int idx = 0; idx < count; idx++) {
+            order[idx] = idx;
+        }
+        new IntroSorter() {
+            private int pivot;
+
+            @Override
+            protected void setPivot(final int i) {
+                pivot = order[i];
+            }
+
+            @Override
+            protected int comparePivot(final int j) {
+                return compareDocs(pivot, order[j]);
+            }
+
+            @Override
+            protected int compare(final int i, final int j) {
+                return compareDocs(order[i], order[j]);
+            }
+
+            @Override
+            protected void swap(final int i, final int j) {
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+
+            private int compareDocs(final int doc1, final int doc2) {
+                int cmp = compareInts(norms[doc2] & 0xFF, norms[doc1] & 0xFF);
+                if (cmp == 0) {
+                    cmp = compareLongs(sortPops[doc2], sortPops[doc1]);
+                }
+                return cmp != 0 ? cmp : compareInts(doc1, doc2);
+            }
+        }.sort(0, count);
+        return order;
+    }
+
+    private static int compareInts(final int a, final int b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    private static int compareLongs(final long a, final long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    /**
+     * Determines whether the token at the provided position of a name does not
+     * appear earlier in the same name, so each entry is only posted once per token.
+     */
+    private boolean isFirstOccurrence(final int idx, final int nameStart) {
+        for (int prev = nameStart; prev < idx; prev++) {
+            if (nameTokens[prev] == nameTokens[idx]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void toOffsets(final int[] counts) {
+        for (int idx = 1; idx < counts.length; idx++) {
+            counts[idx] += counts[idx - 1];
+        }
+    }
+
+    /**
+     * Builds a transducer mapping each key in the hash to its ID.  The hash
+     * cannot be used to add or find keys once this method returns.
+     */
+    private static FST<Long> buildFst(final BytesRefHash hash) throws IOException {
+        int size = hash.size();
+        int[] sorted = hash.sort(BytesRef.getUTF8SortedAsUnicodeComparator());
+        Builder<Long> builder = new Builder<Long>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+        BytesRef key = new BytesRef();
+        IntsRef ints = new IntsRef();
+        for (int idx = 0; idx < size; idx++) {
+            hash.get(sorted[idx], key);
+            builder.add(Util.toIntsRef(key, ints), (long) sorted[idx]);
+        }
+        FST<Long> fst = builder.finish();
+        hash.close();
+        return fst;
+    }
+
+    /**
+     * Gets the binary record stored in a document, encoding the GeoNames
+     * gazetteer record stored by indexes built before binary records were
+     * introduced.
+     */
+    private static byte[] getBinaryRecord(final Document doc) {
+        IndexableField field = doc.getField(GEONAME.key());
+        BytesRef binary = field.binaryValue();
+        if (binary != null) {
+            return Arrays.copyOfRange(binary.bytes, binary.offset, binary.offset + binary.length);
+        }
+        return BinaryGeoNameCodec.encode(BasicGeoName.parseFromGeoNamesRecord(field.stringValue()), true);
+    }
+
+    /**
+     * @return the maximum document number of the source index
+     */
+    int getMaxDoc() {
+        return maxDoc;
+    }
+
+    /**
+     * @return the number of entries
+     */
+    int size() {
+        return entryRecord.length;
+    }
+
+    /**
+     * Finds the ID of a normalized name.
+     * @param name the normalized name
+     * @return the name ID or -1 if the name is not found
+     * @throws IOException if an error occurs reading the transducer
+     */
+    int findName(final String name) throws IOException {
+        return lookup(nameFst, name);
+    }
+
+    /**
+     * Finds the ID of a name token.
+     * @param token the token
+     * @return the token ID or -1 if the token is not found
+     * @throws IOException if an error occurs reading the transducer
+     */
+    int findToken(final String token) throws IOException {
+        return lookup(tokenFst, token);
+    }
+
+    private static int lookup(final FST<Long> fst, final String key) throws IOException {
+        Long output = Util.get(fst, new BytesRef(key));
+        return output != null ? output.intValue() : -1;
+    }
+
+    /**
+     * @return the token transducer, mapping each token to its ID
+     */
+    FST<Long> getTokenFst() {
+        return tokenFst;
+    }
+
+    int getNamePostingStart(final int name) {
+        return namePostingStart[name];
+    }
+
+    int getNamePostingEnd(final int name) {
+        return namePostingStart[name + 1];
+    }
+
+    int getNamePosting(final int idx) {
+        return namePostings[idx];
+    }
+
+    int getTokenPostingStart(final int token) {
+        return tokenPostingStart[token];
+    }
+
+    int getTokenPostingEnd(final int token) {
+        return tokenPostingStart[token + 1];
+    }
+
+    int getTokenPosting(final int idx) {
+        return tokenPostings[idx];
+    }
+
+    /**
+     * @param token the token ID
+     * @return the number of entries containing the token
+     */
+    int getTokenFrequency(final int token) {
+        return tokenPostingStart[token + 1] - tokenPostingStart[token];
+    }
+
+    int getEntryName(final int entry) {
+        return entryName[entry];
+    }
+
+    int getEntryRecord(final int entry) {
+        return entryRecord[entry];
+    }
+
+    /**
+     * @param entry the entry
+     * @return the position of the entry's document among the loaded documents of the
+     *         source index, used to break ties in the same way as the source index
+     */
+    int getEntryDoc(final int entry) {
+        return entryDoc[entry];
+    }
+
+    /**
+     * @param entry the entry
+     * @return the encoded length norm of the indexed name
+     */
+    byte getEntryNorm(final int entry) {
+        return entryNorm[entry];
+    }
+
+    /**
+     * @param entry the entry
+     * @return the name of the entry as it was indexed
+     */
+    String getMatchedName(final int entry) {
+        return matchedNames.getString(entryMatchedName[entry], entryMatchedNameLength[entry]);
+    }
+
+    /**
+     * Determines whether the tokens of a name contain the provided token
+     * sequence.
+     * @param name the name ID
+     * @param tokens the token IDs
+     * @return <code>true</code> if the name contains the tokens, in order
+     */
+    boolean containsPhrase(final int name, final int[] tokens) {
+        int start = nameTokenStart[name];
+        int last = nameTokenStart[name + 1] - tokens.length;
+        for (int pos = start; pos <= last; pos++) {
+            int idx = 0;
+            while (idx < tokens.length && nameTokens[pos + idx] == tokens[idx]) {
+                idx++;
+            }
+            if (idx == tokens.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int getGeonameId(final int record) {
+        return recordGeonameId[record];
+    }
+
+    /**
+     * @param record the record
+     * @return the geonameID of the parent of the record or {@link #NO_PARENT}
+     */
+    int getParentId(final int record) {
+        return recordParentId[record];
+    }
+
+    FeatureCode getFeatureCode(final int record) {
+        return FEATURE_CODES[recordFeatureCode[record]];
+    }
+
+    long getSortPop(final int record) {
+        return recordSortPop[record];
+    }
+
+    /**
+     * Decodes the GeoName stored in a record.  Ancestry is only resolved if
+     * the source index stored the full ancestry of each GeoName.
+     * @param record the record
+     * @return a new GeoName
+     */
+    GeoName buildGeoName(final int record) {
+        return records.decode(recordPointer[record], recordLength[record], recordPreferredName[record]);
+    }
+
+    /**
+     * Finds the record found first in the source index for a geonameID.
+     * @param geonameId the geonameID
+     * @return the record or -1 if the ID is not found
+     */
+    int getFirstRecord(final int geonameId) {
+        int idx = Arrays.binarySearch(geonameIds, geonameId);
+        return idx >= 0 ? firstRecord[idx] : -1;
+    }
+
+    /**
+     * Finds the record with the highest sort population for a geonameID; this
+     * is the record used to resolve ancestry.
+     * @param geonameId the geonameID
+     * @return the record or -1 if the ID is not found
+     */
+    int getPrimaryRecord(final int geonameId) {
+        int idx = Arrays.binarySearch(geonameIds, geonameId);
+        return idx >= 0 ? primaryRecord[idx] : -1;
+    }
+
+    /**
+     * Determines whether a record descends from any of the provided GeoNames.
+     * @param record the record
+     * @param ancestorIds the geonameIDs of the ancestors
+     * @return <code>true</code> if one of the ancestors of the record is found in the set
+     */
+    boolean hasAncestor(final int record, final Set<Integer> ancestorIds) {
+        int parentId = recordParentId[record];
+        for (int depth = 0; parentId != NO_PARENT && depth < MAX_ANCESTRY_DEPTH; depth++) {
+            if (ancestorIds.contains(parentId)) {
+                return true;
+            }
+            int parent = getPrimaryRecord(parentId);
+            parentId = parent >= 0 ? recordParentId[parent] : NO_PARENT;
+        }
+        return false;
+    }
+
+    /**
+     * Stores variable length byte sequences in large blocks so millions of
+     * short values do not each require their own array.
+     */
+    private static final class BlockStore {
+        private static final int BLOCK_BITS = 20;
+        private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+
+        private final List<byte[]> blocks = new ArrayList<byte[]>();
+        private byte[] current;
+        private int upto = BLOCK_SIZE;
+
+        /**
+         * Appends a value; values larger than a block are stored in their own block.
+         * @return the pointer to the value
+         */
+        long append(final byte[] bytes, final int offset, final int length) {
+            if (length > BLOCK_SIZE - upto) {
+                current = new byte[Math.max(BLOCK_SIZE, length)];
+                blocks.add(current);
+                upto = 0;
+            }
+            long pointer = ((long) (blocks.size() - 1) << 32) | upto;
+            System.arraycopy(bytes, offset, current, upto, length);
+            upto += length;
+            if (length >= BLOCK_SIZE) {
+                // force a new block for the next value
+                upto = BLOCK_SIZE;
+            }
+            return pointer;
+        }
+
+        String getString(final long pointer, final int length) {
+            return new String(blocks.get((int) (pointer >>> 32)), (int) pointer, length, UTF_8);
+        }
+
+        GeoName decode(final long pointer, final int length, final String preferredName) {
+            return BinaryGeoNameCodec.decode(blocks.get((int) (pointer >>> 32)), (int) pointer, length, preferredName);
+        }
+    }
+}
@@ -29,51 +29,79 @@
 package com.bericotech.clavin.gazetteer.query;
 
 import static com.bericotech.clavin.index.IndexField.*;
-import static org.apache.lucene.queryparser.classic.QueryParserBase.escape;
 
 import com.bericotech.clavin.ClavinException;
 import com.bericotech.clavin.extractor.LocationOccurrence;
 import com.bericotech.clavin.gazetteer.BasicGeoName;
-import com.bericotech.clavin.gazetteer.FeatureCode;
+import com.bericotech.clavin.gazetteer.BinaryGeoNameCodec;
+import com.bericotech.clavin.gazetteer.ColumnarGeoNameStore;
 import com.bericotech.clavin.gazetteer.GeoName;
+import com.bericotech.clavin.gazetteer.HierarchyPosition;
 import com.bericotech.clavin.gazetteer.LazyAncestryGeoName;
 import com.bericotech.clavin.index.BinarySimilarity;
+import com.bericotech.clavin.index.DeletionIndex;
+import com.bericotech.clavin.index.ExactNameTable;
 import com.bericotech.clavin.index.IndexField;
+import com.bericotech.clavin.index.NameBloomFilter;
+import com.bericotech.clavin.index.ParentIdTable;
 import com.bericotech.clavin.index.WhitespaceLowerCaseAnalyzer;
 import com.bericotech.clavin.resolver.ResolvedLocation;
+import com.bericotech.clavin.util.Deadline;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import org.apache.lucene.analysis.Analyzer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.commons.lang.StringUtils;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.queryparser.analyzing.AnalyzingQueryParser;
-import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.Terms;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BulkScorer;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.FilteredQuery;
+import org.apache.lucene.search.FuzzyQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.PhraseQuery;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.QueryWrapperFilter;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.TimeLimitingCollector;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.util.Version;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -81,17 +109,12 @@ import org.slf4j.LoggerFactory;
  * An implementation of Gazetteer that uses Lucene to rapidly search
  * known locations.
  */
-public class LuceneGazetteer implements Gazetteer {
+public class LuceneGazetteer extends AbstractGazetteer {
     /**
      * The logger.
      */
     private static final Logger LOG = LoggerFactory.getLogger(LuceneGazetteer.class);
 
-    /**
-     * Index employs simple lower-casing & tokenizing on whitespace.
-     */
-    private static final Analyzer INDEX_ANALYZER = new WhitespaceLowerCaseAnalyzer();
-
     /**
      * Custom Lucene sorting based on Lucene match score and the
      * population of the GeoNames gazetteer entry represented by the
@@ -103,60 +126,482 @@ public class LuceneGazetteer implements Gazetteer {
         new SortField(SORT_POP.key(), SortField.Type.LONG, true)
     });
 
+    /**
+     * The stored fields read for every search hit that is returned.
+     */
+    private static final Set<String> MATCH_FIELDS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            GEONAME_ID.key(), PARENT_ID.key(), INDEX_NAME.key())));
+
+    /**
+     * The stored fields read to build a GeoName and resolve its parent; the gazetteer record
+     * may contain the full ancestry of the GeoName so it is only loaded when it will be parsed.
+     */
+    private static final Set<String> RECORD_FIELDS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            GEONAME.key(), PREFERRED_NAME.key(), PARENT_ID.key())));
+
     /**
      * The default number of results to return.
      */
-    private static final int DEFAULT_MAX_RESULTS = 5;
+    static final int DEFAULT_MAX_RESULTS = 5;
+
+    /**
+     * The default maximum number of edits allowed by fuzzy queries.
+     */
+    private static final int FUZZY_MAX_EDITS = 2;
 
     /**
-     * The set of all FeatureCodes.
+     * The index currently used to answer queries; <code>null</code> once this gazetteer has been closed.
      */
-    private static final Set<FeatureCode> ALL_CODES = Collections.unmodifiableSet(EnumSet.allOf(FeatureCode.class));
+    private final AtomicReference<GazetteerIndex> currentIndex = new AtomicReference<GazetteerIndex>();
 
     /**
-     * The format string for exact match queries.
+     * Serializes index refreshes and swaps.
      */
-    private static final String EXACT_MATCH_FMT = "\"%s\"";
+    private final Object swapLock = new Object();
 
     /**
-     * The format string for fuzzy queries.
+     * The cache of ancestry-resolved GeoNames shared by all queries; <code>null</code>
+     * if GeoNames should not be cached.
      */
-    private static final String FUZZY_FMT = "%s~";
+    private final GeoNameCache geonameCache;
 
-    // Lucene index built from GeoNames gazetteer
-    private final FSDirectory index;
-    private final IndexSearcher indexSearcher;
+    /**
+     * The method used to read index directories.
+     */
+    private final DirectoryType directoryType;
+
+    /**
+     * The cached filters used to restrict search results.
+     */
+    private final FilterCache filterCache = new FilterCache();
+
+    /**
+     * The executor used to search index segments in parallel; <code>null</code>
+     * if segments are searched on the querying thread.
+     */
+    private final ExecutorService searchExecutor;
+
+    /**
+     * The statistics used to score matches when this gazetteer searches one shard of a
+     * larger index; <code>null</code> if matches are scored using the statistics of this index.
+     */
+    private final ShardStatistics shardStatistics;
+
+    /**
+     * The method used to find the names matching fuzzy queries.
+     */
+    private volatile FuzzyStrategy fuzzyStrategy = FuzzyStrategy.AUTOMATON;
+
+    /**
+     * The maximum number of edits allowed by fuzzy queries.
+     */
+    private volatile int fuzzyMaxEdits = FUZZY_MAX_EDITS;
 
     /**
      * Builds a {@link LuceneGazetteer} by loading a pre-built Lucene
      * index from disk and setting configuration parameters for
-     * resolving location names to GeoName objects.
+     * resolving location names to GeoName objects.  Resolved GeoNames
+     * will be cached in a default {@link GeoNameCache}.
      *
      * @param indexDir              Lucene index directory to be loaded
      * @throws ClavinException      if an error occurs opening the index
      */
     public LuceneGazetteer(final File indexDir) throws ClavinException {
-        try {
-        // load the Lucene index directory from disk
-        index = FSDirectory.open(indexDir);
+        this(indexDir, new GeoNameCache());
+    }
 
-        indexSearcher = new IndexSearcher(DirectoryReader.open(index));
+    /**
+     * Builds a {@link LuceneGazetteer} by loading a pre-built Lucene
+     * index from disk and setting configuration parameters for
+     * resolving location names to GeoName objects.
+     *
+     * @param indexDir              Lucene index directory to be loaded
+     * @param geonameCache          the cache of ancestry-resolved GeoNames; may be shared by
+     *                              multiple gazetteers opened on the same index or
+     *                              <code>null</code> to disable caching
+     * @throws ClavinException      if an error occurs opening the index
+     */
+    public LuceneGazetteer(final File indexDir, final GeoNameCache geonameCache) throws ClavinException {
+        this(indexDir, DirectoryType.DEFAULT, geonameCache);
+    }
 
-        // override default TF/IDF score to ignore multiple appearances
-        indexSearcher.setSimilarity(new BinarySimilarity());
+    /**
+     * Builds a {@link LuceneGazetteer} by loading a pre-built Lucene
+     * index from disk and setting configuration parameters for
+     * resolving location names to GeoName objects.
+     *
+     * @param indexDir              Lucene index directory to be loaded
+     * @param directoryType         the method used to read the index; this is also used
+     *                              for any index opened by {@link #switchIndex(File)}
+     * @param geonameCache          the cache of ancestry-resolved GeoNames; may be shared by
+     *                              multiple gazetteers opened on the same index or
+     *                              <code>null</code> to disable caching
+     * @throws ClavinException      if an error occurs opening the index
+     */
+    public LuceneGazetteer(final File indexDir, final DirectoryType directoryType, final GeoNameCache geonameCache)
+            throws ClavinException {
+        this(indexDir, directoryType, geonameCache, null);
+    }
+
+    /**
+     * Builds a {@link LuceneGazetteer} by loading a pre-built Lucene
+     * index from disk and setting configuration parameters for
+     * resolving location names to GeoName objects.
+     *
+     * If a search executor is provided, each query searches the segments of the
+     * index in parallel on the executor, reducing the latency of individual queries
+     * on multi-core hosts at the cost of additional threads.  A {@link SearchExecutor}
+     * reports queue metrics that can be used to size the pool.  The executor is not
+     * shut down when this gazetteer is closed and may be shared by several gazetteers.
+     * Queries with a deadline are also searched in parallel; the deadline is checked
+     * by the search of each segment and the hits found in every segment before it
+     * passed are returned.
+     *
+     * @param indexDir              Lucene index directory to be loaded
+     * @param directoryType         the method used to read the index; this is also used
+     *                              for any index opened by {@link #switchIndex(File)}
+     * @param geonameCache          the cache of ancestry-resolved GeoNames; may be shared by
+     *                              multiple gazetteers opened on the same index or
+     *                              <code>null</code> to disable caching
+     * @param searchExecutor        the executor used to search index segments in parallel
+     *                              or <code>null</code> to search all segments on the
+     *                              querying thread
+     * @throws ClavinException      if an error occurs opening the index
+     */
+    public LuceneGazetteer(final File indexDir, final DirectoryType directoryType, final GeoNameCache geonameCache,
+            final ExecutorService searchExecutor) throws ClavinException {
+        this(indexDir, directoryType, geonameCache, searchExecutor, null);
+    }
+
+    /**
+     * Builds a {@link LuceneGazetteer} that searches one shard of an index, scoring
+     * matches with the statistics of all shards so scores can be compared across shards.
+     *
+     * @param indexDir              the shard directory to be loaded
+     * @param directoryType         the method used to read the index
+     * @param geonameCache          the cache of ancestry-resolved GeoNames or <code>null</code>
+     * @param searchExecutor        the executor used to search index segments in parallel
+     *                              or <code>null</code>
+     * @param shardStatistics       the statistics of all shards or <code>null</code> to score
+     *                              matches with the statistics of this index
+     * @throws ClavinException      if an error occurs opening the index
+     */
+    LuceneGazetteer(final File indexDir, final DirectoryType directoryType, final GeoNameCache geonameCache,
+            final ExecutorService searchExecutor, final ShardStatistics shardStatistics) throws ClavinException {
+        if (directoryType == null) {
+            throw new IllegalArgumentException("directoryType must not be null");
+        }
+        this.directoryType = directoryType;
+        this.geonameCache = geonameCache;
+        this.searchExecutor = searchExecutor;
+        this.shardStatistics = shardStatistics;
+        currentIndex.set(openIndex(indexDir));
+    }
+
+    /**
+     * Selects how the names matching fuzzy queries are found.  The default strategy is
+     * {@link FuzzyStrategy#AUTOMATON}.
+     *
+     * @param strategy              the fuzzy strategy
+     */
+    public void setFuzzyStrategy(final FuzzyStrategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("strategy must not be null");
+        }
+        fuzzyStrategy = strategy;
+        GazetteerIndex index = currentIndex.get();
+        if (strategy == FuzzyStrategy.DELETION_INDEX && index != null && index.getDeletionIndex() == null) {
+            LOG.info("Gazetteer index does not contain a deletion index; fuzzy queries will use Levenshtein automata. "
+                    + "Rebuild the index with --fuzzy-distance to use the deletion index.");
+        }
+        clearMisses();
+    }
+
+    /**
+     * Sets the maximum number of edits between the name of a fuzzy query and the names
+     * it matches.  The budget is limited to 2 edits by {@link FuzzyStrategy#AUTOMATON}
+     * and to the distance the deletion index was built with by
+     * {@link FuzzyStrategy#DELETION_INDEX}.  The default budget is 2 edits.
+     *
+     * @param maxEdits              the maximum number of edits
+     */
+    public void setFuzzyMaxEdits(final int maxEdits) {
+        if (maxEdits < 1) {
+            throw new IllegalArgumentException("maxEdits must be at least 1");
+        }
+        fuzzyMaxEdits = maxEdits;
+        clearMisses();
+    }
 
-        // run an initial throw-away query just to "prime the pump" for
-        // the cache, so we can accurately measure performance speed
-        // per: http://wiki.apache.org/lucene-java/ImproveSearchingSpeed
-        indexSearcher.search(new AnalyzingQueryParser(Version.LUCENE_4_9, INDEX_NAME.key(),
-                INDEX_ANALYZER).parse("Reston"), null, DEFAULT_MAX_RESULTS, POPULATION_SORT);
-        } catch (ParseException pe) {
-            throw new ClavinException("Error executing priming query.", pe);
+    /**
+     * Forgets the fuzzy searches that found no matches, since they may match with a
+     * different fuzzy configuration.
+     */
+    private void clearMisses() {
+        GazetteerIndex index = currentIndex.get();
+        if (index != null) {
+            index.clearMisses();
+        }
+    }
+
+    /**
+     * Opens the Lucene index in the provided directory.
+     * @param indexDir the index directory
+     * @return the opened index
+     * @throws ClavinException if an error occurs opening the index
+     */
+    private GazetteerIndex openIndex(final File indexDir) throws ClavinException {
+        Directory index = null;
+        try {
+            // load the Lucene index directory from disk
+            index = directoryType.open(indexDir);
+            return openIndex(index, DirectoryReader.open(index), openGeoNameStore(index));
         } catch (IOException ioe) {
+            if (index != null) {
+                try {
+                    index.close();
+                } catch (IOException e) {
+                    LOG.warn("Error closing gazetteer index directory.", e);
+                }
+            }
             throw new ClavinException("Error opening gazetteer index.", ioe);
         }
     }
 
+    /**
+     * Memory-maps the columnar GeoName store written alongside an index.  Indexes loaded
+     * into memory read GeoNames from their stored documents rather than the store.
+     * @param index the directory containing the index
+     * @return the store or <code>null</code> if the index has no store or it cannot be opened
+     */
+    private static ColumnarGeoNameStore openGeoNameStore(final Directory index) {
+        if (!(index instanceof FSDirectory)) {
+            return null;
+        }
+        File storeFile = new File(((FSDirectory) index).getDirectory(), ColumnarGeoNameStore.FILE_NAME);
+        if (!storeFile.isFile()) {
+            LOG.info("Gazetteer index does not contain a columnar GeoName store; GeoNames will be read from stored "
+                    + "documents. Rebuild the index to reduce heap usage.");
+            return null;
+        }
+        try {
+            return ColumnarGeoNameStore.open(storeFile);
+        } catch (IOException ioe) {
+            LOG.warn(String.format("Unable to open columnar GeoName store [%s]; GeoNames will be read from stored documents.",
+                    storeFile.getAbsolutePath()), ioe);
+            return null;
+        }
+    }
+
+    /**
+     * Prepares a newly opened reader for searching.
+     * @param index the directory containing the index
+     * @param reader the reader, which will be closed if an error occurs
+     * @param geonameStore the columnar GeoName store written with the index, if any
+     * @return the prepared index
+     * @throws IOException if an error occurs reading the index
+     */
+    private GazetteerIndex openIndex(final Directory index, final DirectoryReader reader,
+            final ColumnarGeoNameStore geonameStore) throws IOException {
+        try {
+            // segments are searched in parallel if an executor was configured
+            IndexSearcher indexSearcher = shardStatistics != null ?
+                    shardStatistics.newSearcher(reader, searchExecutor) : new IndexSearcher(reader, searchExecutor);
+
+            // override default TF/IDF score to ignore multiple appearances
+            indexSearcher.setSimilarity(new BinarySimilarity());
+
+            // run an initial throw-away query just to "prime the pump" for
+            // the cache, so we can accurately measure performance speed
+            // per: http://wiki.apache.org/lucene-java/ImproveSearchingSpeed
+            indexSearcher.search(new TermQuery(new Term(INDEX_NAME.key(), "reston")), null, DEFAULT_MAX_RESULTS, POPULATION_SORT);
+
+            boolean exactNameIndexed = MultiFields.getTerms(reader, EXACT_NAME.key()) != null;
+            if (!exactNameIndexed) {
+                LOG.info("Gazetteer index does not contain the [{}] field; exact matches will use phrase queries. "
+                        + "Rebuild the index to enable faster exact matching.", EXACT_NAME.key());
+            }
+
+            // map the IDs of all parent GeoNames to their documents so ancestry can be loaded directly
+            ParentDocIndex parentDocs = ParentDocIndex.build(reader);
+            LOG.debug("Mapped {} parent GeoNames to documents", parentDocs.size());
+
+            // load the parents of all ancestors so PRECOMPUTED ancestry can be resolved without searching
+            ParentIdTable parentTable = null;
+            if (ParentIdTable.exists(index)) {
+                parentTable = ParentIdTable.read(index);
+                LOG.debug("Loaded parents of {} ancestor GeoNames", parentTable.size());
+            } else {
+                LOG.info("Gazetteer index does not contain a parent table; PRECOMPUTED ancestry will be resolved "
+                        + "as ON_CREATE. Rebuild the index to resolve ancestry without searching.");
+            }
+
+            // the exact name table lists document IDs, so it is only used with the commit it was built from
+            ExactNameTable exactNameTable = null;
+            if (exactNameIndexed && ExactNameTable.exists(index)) {
+                exactNameTable = ExactNameTable.open(index);
+                if (exactNameTable.getGeneration() != reader.getIndexCommit().getGeneration()) {
+                    LOG.info("Gazetteer exact name table was built from a different commit of the index; exact names "
+                            + "will be searched. Rebuild the index to answer exact lookups from the table.");
+                    exactNameTable.close();
+                    exactNameTable = null;
+                }
+            }
+
+            // the name filter is also built from a single commit, since later commits may add tokens
+            NameBloomFilter nameFilter = null;
+            if (NameBloomFilter.exists(index)) {
+                nameFilter = NameBloomFilter.read(index);
+                if (nameFilter.getGeneration() != reader.getIndexCommit().getGeneration()) {
+                    LOG.info("Gazetteer name filter was built from a different commit of the index; names will "
+                            + "always be searched. Rebuild the index to skip searches for unknown names.");
+                    nameFilter = null;
+                }
+            }
+
+            // the deletion index only finds the tokens of the commit it was built from
+            DeletionIndex deletionIndex = null;
+            if (DeletionIndex.exists(index)) {
+                deletionIndex = DeletionIndex.open(index);
+                if (deletionIndex.getGeneration() != reader.getIndexCommit().getGeneration()) {
+                    LOG.info("Gazetteer deletion index was built from a different commit of the index; fuzzy queries "
+                            + "will use Levenshtein automata. Rebuild the index to use the deletion index.");
+                    deletionIndex.close();
+                    deletionIndex = null;
+                }
+            }
+
+            GazetteerIndex gazetteerIndex = new GazetteerIndex(index, indexSearcher, parentDocs, exactNameIndexed,
+                    geonameStore, parentTable, exactNameTable, nameFilter, deletionIndex);
+            if (!gazetteerIndex.isDocValuesIndexed()) {
+                LOG.info("Gazetteer index does not contain DocValues for [{}]; IDs will be read from stored documents. "
+                        + "Rebuild the index to reduce query overhead.", GEONAME_ID.key());
+            }
+            if (geonameStore != null && gazetteerIndex.getGeoNameStore() == null) {
+                LOG.warn("Gazetteer index documents do not reference the columnar GeoName store; GeoNames will be "
+                        + "read from stored documents.");
+            }
+            return gazetteerIndex;
+        } catch (IOException ioe) {
+            reader.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Reopens the current index if it has changed since it was last opened, switching
+     * all subsequent queries to the new version of the index.  Queries that are in
+     * progress will complete against the version of the index they started with.
+     * Cached GeoNames are discarded if the index has changed; any query results cached
+     * outside of this gazetteer, e.g. by a {@link CachingGazetteer}, should also be
+     * cleared.
+     *
+     * @return                      <code>true</code> if the index had changed and was reopened
+     * @throws ClavinException      if an error occurs reopening the index
+     */
+    public boolean refresh() throws ClavinException {
+        synchronized (swapLock) {
+            GazetteerIndex current = acquireIndex();
+            try {
+                DirectoryReader reader = DirectoryReader.openIfChanged(current.getReader());
+                if (reader == null) {
+                    return false;
+                }
+                swapIndex(openIndex(current.getDirectory(), reader, openGeoNameStore(current.getDirectory())), false);
+                return true;
+            } catch (IOException ioe) {
+                throw new ClavinException("Error reopening gazetteer index.", ioe);
+            } finally {
+                releaseIndex(current);
+            }
+        }
+    }
+
+    /**
+     * Opens the index found in the provided directory and switches all subsequent
+     * queries to it.  Queries that are in progress will complete against the index
+     * they started with and the previous index will be closed once they have completed.
+     * Cached GeoNames are discarded; any query results cached outside of this gazetteer,
+     * e.g. by a {@link CachingGazetteer}, should also be cleared.
+     *
+     * @param indexDir              the directory containing the new index
+     * @throws ClavinException      if an error occurs opening the new index; the current
+     *                              index will continue to be used
+     */
+    public void switchIndex(final File indexDir) throws ClavinException {
+        synchronized (swapLock) {
+            if (currentIndex.get() == null) {
+                throw new ClavinException("Gazetteer has been closed.");
+            }
+            swapIndex(openIndex(indexDir), true);
+        }
+    }
+
+    /**
+     * Closes this gazetteer.  The index will be closed once all queries that are in
+     * progress have completed and any subsequent queries will fail.
+     */
+    public void close() {
+        synchronized (swapLock) {
+            GazetteerIndex retired = currentIndex.getAndSet(null);
+            if (retired != null) {
+                retired.closeDirectoryOnRelease();
+                releaseIndex(retired);
+            }
+        }
+    }
+
+    /**
+     * Replaces the current index, releasing this gazetteer's reference to the
+     * retired index and discarding any cached data derived from it.  Callers must
+     * hold the swap lock.
+     * @param index the new index
+     * @param newDirectory <code>true</code> if the new index was opened from a different
+     *                     directory than the current index
+     */
+    private void swapIndex(final GazetteerIndex index, final boolean newDirectory) {
+        GazetteerIndex retired = currentIndex.getAndSet(index);
+        if (geonameCache != null) {
+            geonameCache.clear();
+        }
+        if (newDirectory) {
+            filterCache.clear();
+            retired.closeDirectoryOnRelease();
+        }
+        releaseIndex(retired);
+    }
+
+    /**
+     * Acquires a reference to the current index.  The reference must be released
+     * with {@link #releaseIndex(GazetteerIndex)} once the caller has finished using
+     * the index.
+     * @return the current index
+     * @throws ClavinException if this gazetteer has been closed
+     */
+    private GazetteerIndex acquireIndex() throws ClavinException {
+        GazetteerIndex index;
+        do {
+            index = currentIndex.get();
+            if (index == null) {
+                throw new ClavinException("Gazetteer has been closed.");
+            }
+            // if the index was retired and released after it was read, try again with its replacement
+        } while (!index.tryIncRef());
+        return index;
+    }
+
+    /**
+     * Releases a reference to an index acquired by {@link #acquireIndex()}.
+     * @param index the index to release
+     */
+    private void releaseIndex(final GazetteerIndex index) {
+        try {
+            index.decRef();
+        } catch (IOException ioe) {
+            LOG.error("Error releasing gazetteer index.", ioe);
+        }
+    }
+
     /**
      * Execute a query against the Lucene gazetteer index using the provided configuration,
      * returning the top matches as {@link ResolvedLocation}s.
@@ -166,55 +611,282 @@ public class LuceneGazetteer implements Gazetteer {
      * @throws ClavinException   if an error occurs
      */
     @Override
-    @SuppressWarnings("unchecked")
     public List<ResolvedLocation> getClosestLocations(final GazetteerQuery query) throws ClavinException {
-        // sanitize the query input
-        String sanitizedLocationName = sanitizeQueryText(query);
+        return getClosestLocations(Collections.singletonList(query)).get(0);
+    }
 
-        // if there is no location to query, return no results
-        if ("".equals(sanitizedLocationName)) {
-            return Collections.EMPTY_LIST;
+    /**
+     * Execute a batch of queries against the Lucene gazetteer index using the provided
+     * configurations, returning the top matches for each query as {@link ResolvedLocation}s.
+     * GeoName instances are shared by all queries in the batch and the parents of all
+     * matches loaded with {@link AncestryMode#ON_CREATE} are resolved together once all
+     * searches have completed.  Matches loaded with {@link AncestryMode#ON_CREATE} are
+     * retrieved from and added to the GeoName cache, if one is configured.
+     *
+     * @param queries            the configuration parameters for each query
+     * @return                   the lists of ResolvedLocations as potential matches for each
+     *                           query, in the same order as the input queries
+     * @throws ClavinException   if an error occurs
+     */
+    @Override
+    public List<List<ResolvedLocation>> getClosestLocations(final List<GazetteerQuery> queries) throws ClavinException {
+        GazetteerIndex index = acquireIndex();
+        try {
+            return getClosestLocations(index, queries, null);
+        } finally {
+            releaseIndex(index);
         }
+    }
 
-        LocationOccurrence location = query.getOccurrence();
-        int maxResults = query.getMaxResults() > 0 ? query.getMaxResults() : DEFAULT_MAX_RESULTS;
-        Filter filter = buildFilter(query);
-        List<ResolvedLocation> matches;
+    /**
+     * Execute a batch of queries, recording the rank of each match so the results can
+     * be merged with the results of other shards of the same index.  Matches are scored
+     * with the statistics of all shards if this gazetteer was opened as a shard.
+     * @param queries the configuration parameters for each query
+     * @param ranks the list that will receive the ranks of the matches for each query,
+     *              in the same order as the matches
+     * @return the lists of ResolvedLocations as potential matches for each query
+     * @throws ClavinException if an error occurs
+     */
+    List<List<ResolvedLocation>> getClosestLocations(final List<GazetteerQuery> queries, final List<List<MatchRank>> ranks)
+            throws ClavinException {
+        GazetteerIndex index = acquireIndex();
+        try {
+            return getClosestLocations(index, queries, ranks);
+        } finally {
+            releaseIndex(index);
+        }
+    }
+
+    /**
+     * Determines whether the index may contain descendants of any of the provided GeoNames.
+     * @param geonameIds the IDs of the ancestors
+     * @return <code>false</code> if the parent table of the index contains none of the
+     *         ancestors; <code>true</code> if it contains any of them or the index has no
+     *         parent table
+     * @throws ClavinException if this gazetteer has been closed
+     */
+    boolean mayContainDescendantsOf(final Set<Integer> geonameIds) throws ClavinException {
+        GazetteerIndex index = acquireIndex();
         try {
-            // attempt to find an exact match for the query
-            matches = executeQuery(location, sanitizedLocationName, filter, maxResults, false, query.isFilterDupes(), query.getAncestryMode(), null);
-            if (LOG.isDebugEnabled()) {
-                for (ResolvedLocation loc : matches) {
-                    LOG.debug("{}", loc);
+            ParentIdTable parentTable = index.getParentTable();
+            if (parentTable == null) {
+                return true;
+            }
+            for (Integer id : geonameIds) {
+                if (parentTable.contains(id)) {
+                    return true;
                 }
             }
-            // check to see if we should run a fuzzy query based on the configured FuzzyMode
-            if (query.getFuzzyMode().useFuzzyMatching(maxResults, matches.size())) {
-                // provide any exact matches if we are running a fuzzy query so they can be considered for deduplication
-                // and result count
-                matches = executeQuery(location, sanitizedLocationName, filter, maxResults, true, query.isFilterDupes(), query.getAncestryMode(), matches);
+            return false;
+        } finally {
+            releaseIndex(index);
+        }
+    }
+
+    /**
+     * Acquires a reference to the reader of the current index.  The caller must release
+     * the reference with {@link IndexReader#decRef()}.
+     * @return the reader
+     * @throws IOException if this gazetteer has been closed
+     */
+    IndexReader acquireReader() throws IOException {
+        GazetteerIndex index;
+        try {
+            index = acquireIndex();
+        } catch (ClavinException ce) {
+            throw new IOException(ce.getMessage(), ce);
+        }
+        try {
+            IndexReader reader = index.getReader();
+            reader.incRef();
+            return reader;
+        } finally {
+            releaseIndex(index);
+        }
+    }
+
+    /**
+     * Get the statistics of a term in this index, ignoring the statistics of any other shards.
+     * @param term the term
+     * @return the term statistics
+     * @throws IOException if an error occurs reading the index
+     */
+    TermStatistics getLocalTermStatistics(final Term term) throws IOException {
+        GazetteerIndex index;
+        try {
+            index = acquireIndex();
+        } catch (ClavinException ce) {
+            throw new IOException(ce.getMessage(), ce);
+        }
+        try {
+            TermContext context = TermContext.build(index.getReader().getContext(), term);
+            return new TermStatistics(term.bytes(), context.docFreq(), context.totalTermFreq());
+        } finally {
+            releaseIndex(index);
+        }
+    }
+
+    /**
+     * Get the statistics of a field in this index, ignoring the statistics of any other shards.
+     * @param field the field
+     * @return the field statistics
+     * @throws IOException if an error occurs reading the index
+     */
+    CollectionStatistics getLocalCollectionStatistics(final String field) throws IOException {
+        GazetteerIndex index;
+        try {
+            index = acquireIndex();
+        } catch (ClavinException ce) {
+            throw new IOException(ce.getMessage(), ce);
+        }
+        try {
+            IndexReader reader = index.getReader();
+            Terms terms = MultiFields.getTerms(reader, field);
+            if (terms == null) {
+                return new CollectionStatistics(field, reader.maxDoc(), 0, 0, 0);
+            }
+            return new CollectionStatistics(field, reader.maxDoc(), terms.getDocCount(), terms.getSumTotalTermFreq(),
+                    terms.getSumDocFreq());
+        } finally {
+            releaseIndex(index);
+        }
+    }
+
+    /**
+     * Execute a batch of queries against the provided index.
+     * @param index the index
+     * @param queries the configuration parameters for each query
+     * @param ranks the list that will receive the ranks of the matches for each query or
+     *              <code>null</code> if ranks should not be recorded
+     * @return the lists of ResolvedLocations as potential matches for each query
+     * @throws ClavinException if an error occurs
+     */
+    @SuppressWarnings("unchecked")
+    private List<List<ResolvedLocation>> getClosestLocations(final GazetteerIndex index, final List<GazetteerQuery> queries,
+            final List<List<MatchRank>> ranks) throws ClavinException {
+        List<List<ResolvedLocation>> allMatches = new ArrayList<List<ResolvedLocation>>(queries.size());
+
+        // reuse GeoName instances across all ON_CREATE and PRECOMPUTED queries in the batch so all ancestry is
+        // correctly resolved if multiple names for the same GeoName match one or more queries
+        Map<Integer, GeoName> geonameMap = new HashMap<Integer, GeoName>();
+        // the parents of all GeoNames requiring ON_CREATE ancestry resolution in this batch
+        Map<Integer, Set<GeoName>> parentMap = new HashMap<Integer, Set<GeoName>>();
+        // the parents of all GeoNames requiring PRECOMPUTED ancestry resolution in this batch
+        Map<Integer, Set<GeoName>> tableParentMap = new HashMap<Integer, Set<GeoName>>();
+
+        for (GazetteerQuery query : queries) {
+            // split the query input into the tokens found in the index
+            List<String> nameTokens = tokenizeQueryText(query);
+
+            List<MatchRank> queryRanks = ranks != null ? new ArrayList<MatchRank>() : null;
+            if (ranks != null) {
+                ranks.add(queryRanks);
+            }
+
+            // if there is no location to query, return no results; once the deadline of a
+            // query has passed, it is not searched and returns no results
+            Deadline deadline = query.getDeadline();
+            if (nameTokens.isEmpty() || (deadline != null && deadline.checkExpired())) {
+                allMatches.add(Collections.EMPTY_LIST);
+                continue;
+            }
+
+            LocationOccurrence location = query.getOccurrence();
+            int maxResults = query.getMaxResults() > 0 ? query.getMaxResults() : DEFAULT_MAX_RESULTS;
+            Filter filter = filterCache.getFilter(query, index.isHierarchyIndexed() ? index.getParentTable() : null);
+            // lazily and manually resolved GeoNames are not shared with other queries so
+            // loading the ancestry of one result does not affect the results of other queries
+            Map<Integer, GeoName> queryGeonames = query.getAncestryMode().isResolvedOnCreate() ?
+                    geonameMap : new HashMap<Integer, GeoName>();
+            Map<Integer, Set<GeoName>> queryParents = query.getAncestryMode() == AncestryMode.PRECOMPUTED ?
+                    tableParentMap : parentMap;
+            // names that found no matches are not searched again; only unfiltered queries are
+            // remembered, and shards are excluded since their fuzzy terms depend on other shards
+            String normalizedName = StringUtils.join(nameTokens, ' ');
+            boolean rememberMisses = filter == null && shardStatistics == null;
+            int misses = rememberMisses ? index.getMisses(normalizedName) : 0;
+            List<ResolvedLocation> matches;
+            try {
+                // attempt to find an exact match for the query; a name with a token that is not
+                // indexed cannot match any name exactly or as part of a longer name
+                if ((misses & GazetteerIndex.EXACT_MISS) != 0 || !index.mayMatch(nameTokens)) {
+                    matches = new ArrayList<ResolvedLocation>();
+                } else {
+                    matches = executeQuery(index, location, nameTokens, filter, maxResults, false, query.isFilterDupes(),
+                            query.getAncestryMode(), null, queryGeonames, queryParents, queryRanks, deadline);
+                }
+                if (matches.isEmpty()) {
+                    misses |= GazetteerIndex.EXACT_MISS;
+                }
                 if (LOG.isDebugEnabled()) {
                     for (ResolvedLocation loc : matches) {
-                        LOG.debug("{}[fuzzy]", loc);
+                        LOG.debug("{}", loc);
                     }
                 }
+                // check to see if we should run a fuzzy query based on the configured FuzzyMode
+                if (query.getFuzzyMode().useFuzzyMatching(maxResults, matches.size())
+                        && !(matches.isEmpty() && (misses & GazetteerIndex.FUZZY_MISS) != 0)) {
+                    // provide any exact matches if we are running a fuzzy query so they can be considered for deduplication
+                    // and result count
+                    matches = executeQuery(index, location, nameTokens, filter, maxResults, true, query.isFilterDupes(),
+                            query.getAncestryMode(), matches, queryGeonames, queryParents, queryRanks, deadline);
+                    if (matches.isEmpty()) {
+                        misses |= GazetteerIndex.FUZZY_MISS;
+                    }
+                    if (LOG.isDebugEnabled()) {
+                        for (ResolvedLocation loc : matches) {
+                            LOG.debug("{}[fuzzy]", loc);
+                        }
+                    }
+                }
+                if (matches.isEmpty()) {
+                    LOG.debug("No match found for: '{}'", location.getText());
+                }
+                // a search cut short by the deadline may have missed matches that exist
+                if (rememberMisses && misses != 0 && (deadline == null || !deadline.isTruncated())) {
+                    index.addMisses(normalizedName, misses);
+                }
+            } catch (IOException ioe) {
+                throw new ClavinException(String.format("Error executing query for: '%s'}", location.getText()), ioe);
             }
-            if (matches.isEmpty()) {
-                LOG.debug("No match found for: '{}'", location.getText());
+            allMatches.add(matches);
+        }
+
+        // if any results need ancestry resolution, resolve parents for the entire batch;
+        // these maps should only contain GeoNames if ancestryMode is ON_CREATE or PRECOMPUTED
+        try {
+            if (!parentMap.isEmpty()) {
+                resolveParents(index, parentMap, geonameMap, false);
+            }
+            if (!tableParentMap.isEmpty()) {
+                resolveParents(index, tableParentMap, geonameMap, true);
             }
-        } catch (ParseException pe) {
-            throw new ClavinException(String.format("Error parsing query for: '%s'}", location.getText()), pe);
         } catch (IOException ioe) {
-            throw new ClavinException(String.format("Error executing query for: '%s'}", location.getText()), ioe);
+            throw new ClavinException("Error resolving ancestry.", ioe);
         }
-        return matches;
+        // geonameMap only contains ON_CREATE and PRECOMPUTED matches and their ancestors; ancestors were cached
+        // during resolution and top-level matches may have been built from an alternate record,
+        // such as the country records in the supplementary gazetteer, so only cache matches that
+        // have a parent
+        if (geonameCache != null) {
+            for (GeoName geoname : geonameMap.values()) {
+                if (geoname.getParentId() != null) {
+                    geonameCache.put(geoname);
+                }
+            }
+        }
+        return allMatches;
     }
 
     /**
      * Executes a query against the Lucene index, processing the results and returning
-     * at most maxResults ResolvedLocations with ancestry resolved.
+     * at most maxResults ResolvedLocations. The ancestry of the results is not resolved
+     * by this method; GeoNames requiring ancestry resolution are added to the provided
+     * parent map and must be resolved by the caller.
+     * @param index the index to search
      * @param location the location occurrence
-     * @param sanitizedName the sanitized name of the search location
+     * @param nameTokens the normalized tokens of the search location name
      * @param filter the filter used to restrict the search results
      * @param maxResults the maximum number of results
      * @param fuzzy is this a fuzzy query
@@ -223,29 +895,33 @@ public class LuceneGazetteer implements Gazetteer {
      * @param previousResults the results of a previous query that should be used for duplicate filtering and appended to until
      *                        no additional matches are found or maxResults has been reached; the input list will not be modified
      *                        and may be <code>null</code>
-     * @return the ResolvedLocations with ancestry resolved matching the query
-     * @throws ParseException if an error occurs generating the query
+     * @param geonameMap the GeoName instances discovered so far, keyed by geonameID; new GeoNames will be added to this map.
+     *                   When ancestryMode is ON_CREATE, cached GeoNames built from the matched record will be reused.
+     * @param parentMap the map of parent geonameID to the set of children awaiting resolution; GeoNames that should have
+     *                  their ancestry resolved on creation will be added to this map
+     * @param ranks the ranks of the previous results; the rank of each new match will be appended
+     *              to this list.  May be <code>null</code> if ranks should not be recorded.
+     * @param deadline the time by which the search must complete; when it passes, the matches
+     *                 found so far are returned and the deadline is marked truncated.  May be
+     *                 <code>null</code> if the search may run to completion.
+     * @return the ResolvedLocations matching the query
      * @throws IOException if an error occurs executing the query
      */
-    private List<ResolvedLocation> executeQuery(final LocationOccurrence location, final String sanitizedName, final Filter filter,
+    private List<ResolvedLocation> executeQuery(final GazetteerIndex index, final LocationOccurrence location, final List<String> nameTokens, final Filter filter,
             final int maxResults, final boolean fuzzy, final boolean dedupe, final AncestryMode ancestryMode,
-            final List<ResolvedLocation> previousResults) throws ParseException, IOException {
-        Query query = new AnalyzingQueryParser(Version.LUCENE_4_9, INDEX_NAME.key(), INDEX_ANALYZER)
-                .parse(String.format(fuzzy ? FUZZY_FMT : EXACT_MATCH_FMT, sanitizedName));
-
+            final List<ResolvedLocation> previousResults, final Map<Integer, GeoName> geonameMap,
+            final Map<Integer, Set<GeoName>> parentMap, final List<MatchRank> ranks, final Deadline deadline)
+            throws IOException {
         List<ResolvedLocation> matches = new ArrayList<ResolvedLocation>(maxResults);
 
-        Map<Integer, Set<GeoName>> parentMap = new HashMap<Integer, Set<GeoName>>();
-
-        // reuse GeoName instances so all ancestry is correctly resolved if multiple names for
-        // the same GeoName match the query
-        Map<Integer, GeoName> geonameMap = new HashMap<Integer, GeoName>();
-        // if we are filling previous results, add them to the match list and the geoname map
-        // so they can be used for deduplication or re-used if additional matches are found
+        // the IDs of the GeoNames found by this query, used for deduplication
+        Set<Integer> foundIds = new HashSet<Integer>();
+        // if we are filling previous results, add them to the match list and the found IDs
+        // so they can be used for deduplication
         if (previousResults != null) {
             matches.addAll(previousResults);
             for (ResolvedLocation loc : previousResults) {
-                geonameMap.put(loc.getGeoname().getGeonameID(), loc.getGeoname());
+                foundIds.add(loc.getGeoname().getGeonameID());
             }
         }
 
@@ -256,173 +932,457 @@ public class LuceneGazetteer implements Gazetteer {
             return matches;
         }
 
-        // track the last discovered hit so we can re-execute the query if we are
-        // deduping and need to fill results
-        ScoreDoc lastDoc = null;
-        do {
-            // collect all the hits up to maxResults, and sort them based
-            // on Lucene match score and population for the associated
-            // GeoNames record
-            TopDocs results = indexSearcher.searchAfter(lastDoc, query, filter, maxResults, POPULATION_SORT);
-            // set lastDoc to null so we don't infinite loop if results is empty
-            lastDoc = null;
-            // populate results if matches were discovered
-            for (ScoreDoc scoreDoc : results.scoreDocs) {
-                lastDoc = scoreDoc;
-                Document doc = indexSearcher.doc(scoreDoc.doc);
-                // reuse GeoName instances so all ancestry is correctly resolved if multiple names for
-                // the same GeoName match the query
-                int geonameID = GEONAME_ID.getValue(doc);
-                GeoName geoname = geonameMap.get(geonameID);
-                if (geoname == null) {
-                    geoname = BasicGeoName.parseFromGeoNamesRecord((String) GEONAME.getValue(doc), (String) PREFERRED_NAME.getValue(doc));
-                    geonameMap.put(geonameID, geoname);
-                } else if (dedupe) {
-                    // if we have already seen this GeoName and we are removing duplicates, skip to the next doc
-                    continue;
+        // run each query in turn until maxResults matches have been found; the results of
+        // each query are ranked below the results of the queries that precede it
+        List<Query> queries = buildQueries(index, nameTokens, fuzzy);
+        for (int phase = 0; phase < queries.size(); phase++) {
+            Query query = queries.get(phase);
+            if (matches.size() >= maxResults || (deadline != null && deadline.checkExpired())) {
+                break;
+            }
+            // when the sort population and IDs are stored as DocValues, the hits are ranked and
+            // collapsed by geonameID in a single pass rather than re-running the query past the
+            // duplicate names of each GeoName.  Every document matching the exact name term has
+            // the same score, so its hits are ranked by population alone.
+            boolean collectByPopulation = index.isSortPopulationIndexed() && index.isDocValuesIndexed();
+            boolean equalScores = phase == 0 && !fuzzy && index.isExactNameIndexed();
+            // unfiltered exact name lookups are answered from the exact name table when it
+            // lists enough matches; a name missing from the table has no exact matches.  Ranks
+            // are only requested by a sharded gazetteer, which needs the scores of a search.
+            ExactNameTable.Entry tableEntry = null;
+            boolean fromTable = false;
+            if (phase == 0 && !fuzzy && filter == null && ranks == null && foundIds.isEmpty()
+                    && index.getExactNameTable() != null) {
+                tableEntry = index.getExactNameTable().lookup(StringUtils.join(nameTokens, ' '));
+                fromTable = tableEntry == null || tableEntry.covers(maxResults, dedupe);
+            }
+            // track the last discovered hit so older indexes can re-execute the query if
+            // we are deduping and need to fill results
+            ScoreDoc lastDoc = null;
+            // set when the deadline passes during a search; the hits collected before then are kept
+            boolean truncated = false;
+            do {
+                ScoreDoc[] hits;
+                if (fromTable) {
+                    hits = new ScoreDoc[tableEntry != null ? tableEntry.size() : 0];
+                    for (int idx = 0; idx < hits.length; idx++) {
+                        hits[idx] = new ScoreDoc(tableEntry.getDoc(idx), Float.NaN);
+                    }
+                } else if (collectByPopulation && searchExecutor != null) {
+                    // collect each segment on the search executor and merge the best hits of the segments
+                    List<PopulationOrderCollector> collectors = new ArrayList<PopulationOrderCollector>();
+                    for (int leaf = 0; leaf < index.getReader().leaves().size(); leaf++) {
+                        collectors.add(new PopulationOrderCollector(index, maxResults - matches.size(), dedupe,
+                                foundIds, equalScores));
+                    }
+                    truncated = !searchLeaves(index, query, filter, collectors, deadline);
+                    hits = PopulationOrderCollector.merge(collectors);
+                } else if (collectByPopulation) {
+                    PopulationOrderCollector collector = new PopulationOrderCollector(index, maxResults - matches.size(),
+                            dedupe, foundIds, equalScores);
+                    truncated = !search(index, query, filter, collector, deadline);
+                    hits = collector.getHits();
+                } else if (searchExecutor != null) {
+                    // collect the hits up to maxResults after lastDoc, sorted by Lucene match score
+                    // and population, from each segment on the search executor and merge them
+                    int numHits = Math.max(1, Math.min(maxResults, index.getReader().maxDoc()));
+                    List<TopFieldCollector> collectors = new ArrayList<TopFieldCollector>();
+                    for (int leaf = 0; leaf < index.getReader().leaves().size(); leaf++) {
+                        collectors.add(TopFieldCollector.create(POPULATION_SORT, numHits, (FieldDoc) lastDoc,
+                                true, false, false, false));
+                    }
+                    truncated = !searchLeaves(index, query, filter, collectors, deadline);
+                    TopDocs[] leafHits = new TopDocs[collectors.size()];
+                    for (int leaf = 0; leaf < leafHits.length; leaf++) {
+                        leafHits[leaf] = collectors.get(leaf).topDocs();
+                    }
+                    hits = TopDocs.merge(POPULATION_SORT, numHits, leafHits).scoreDocs;
+                } else {
+                    // collect the hits up to maxResults after lastDoc, sorted by Lucene match score
+                    // and population for the associated GeoNames record
+                    TopFieldCollector collector = TopFieldCollector.create(POPULATION_SORT,
+                            Math.max(1, Math.min(maxResults, index.getReader().maxDoc())), (FieldDoc) lastDoc,
+                            true, false, false, false);
+                    truncated = !search(index, query, filter, collector, deadline);
+                    hits = collector.topDocs().scoreDocs;
                 }
-                String matchedName = INDEX_NAME.getValue(doc);
-                if (!geoname.isAncestryResolved()) {
-                    IndexableField parentIdField = doc.getField(IndexField.PARENT_ID.key());
-                    Integer parentId = parentIdField != null && parentIdField.numericValue() != null ?
-                            parentIdField.numericValue().intValue() : null;
-                    if (parentId != null) {
-                        // if we are lazily or manually loading ancestry, replace GeoName with a LazyAncestryGeoName
-                        // otherwide, build the parent resolution map
-                        switch (ancestryMode) {
-                            case LAZY:
-                                geoname = new LazyAncestryGeoName(geoname, parentId, this);
-                                break;
-                            case MANUAL:
-                                geoname = new LazyAncestryGeoName(geoname, parentId);
-                                break;
-                            case ON_CREATE:
-                                Set<GeoName> geos = parentMap.get(parentId);
-                                if (geos == null) {
-                                    geos = new HashSet<GeoName>();
-                                    parentMap.put(parentId, geos);
-                                }
-                                geos.add(geoname);
-                                break;
+                // set lastDoc to null so we don't infinite loop if results is empty
+                lastDoc = null;
+                // populate results if matches were discovered
+                for (ScoreDoc scoreDoc : hits) {
+                    lastDoc = scoreDoc;
+                    // read the ID from DocValues when available so duplicates can be skipped
+                    // without loading the stored document; the gazetteer record is only loaded
+                    // for hits that are returned and have not already been parsed
+                    Document doc = null;
+                    int geonameID;
+                    if (index.isDocValuesIndexed()) {
+                        geonameID = index.getGeonameId(scoreDoc.doc);
+                    } else {
+                        doc = index.getSearcher().doc(scoreDoc.doc, MATCH_FIELDS);
+                        geonameID = GEONAME_ID.getValue(doc);
+                    }
+                    // if we have already seen this GeoName and we are removing duplicates, skip to the next doc
+                    if (!foundIds.add(geonameID) && dedupe) {
+                        continue;
+                    }
+                    if (doc == null) {
+                        doc = index.getSearcher().doc(scoreDoc.doc, MATCH_FIELDS);
+                    }
+                    // reuse GeoName instances so all ancestry is correctly resolved if multiple names for
+                    // the same GeoName match the query
+                    GeoName geoname = geonameMap.get(geonameID);
+                    if (geoname == null) {
+                        ColumnarGeoNameStore store = index.getGeoNameStore();
+                        int row = store != null ? index.getRecordId(scoreDoc.doc) : -1;
+                        Document recordDoc = store == null ? index.getSearcher().doc(scoreDoc.doc, RECORD_FIELDS) : null;
+                        // the same GeoName may be indexed from more than one gazetteer record so
+                        // cached instances are only reused if they were built from the matched record
+                        if (ancestryMode.isResolvedOnCreate() && geonameCache != null) {
+                            geoname = geonameCache.get(geonameID);
+                            if (geoname != null && !(store != null ? store.isRecord(geoname, row) : isBuiltFrom(geoname, recordDoc))) {
+                                geoname = null;
+                            }
                         }
+                        if (geoname == null) {
+                            geoname = buildGeoName(index, scoreDoc.doc, recordDoc);
+                        }
+                        geonameMap.put(geonameID, geoname);
+                    }
+                    String matchedName = INDEX_NAME.getValue(doc);
+                    if (!geoname.isAncestryResolved()) {
+                        Integer parentId;
+                        if (index.isDocValuesIndexed()) {
+                            parentId = index.getParentId(scoreDoc.doc);
+                        } else {
+                            IndexableField parentIdField = doc.getField(IndexField.PARENT_ID.key());
+                            parentId = parentIdField != null && parentIdField.numericValue() != null ?
+                                    parentIdField.numericValue().intValue() : null;
+                        }
+                        if (parentId != null) {
+                            // if we are lazily or manually loading ancestry, replace GeoName with a LazyAncestryGeoName
+                            // otherwide, build the parent resolution map
+                            switch (ancestryMode) {
+                                case LAZY:
+                                    geoname = new LazyAncestryGeoName(geoname, parentId, this);
+                                    break;
+                                case MANUAL:
+                                    geoname = new LazyAncestryGeoName(geoname, parentId);
+                                    break;
+                                case ON_CREATE:
+                                case PRECOMPUTED:
+                                    Set<GeoName> geos = parentMap.get(parentId);
+                                    if (geos == null) {
+                                        geos = new HashSet<GeoName>();
+                                        parentMap.put(parentId, geos);
+                                    }
+                                    geos.add(geoname);
+                                    break;
+                            }
+                        }
+                    }
+                    matches.add(new ResolvedLocation(location, geoname, matchedName, fuzzy));
+                    if (ranks != null) {
+                        // the results are sorted by POPULATION_SORT, so the score and sort population are the sort values
+                        Object[] sortValues = ((FieldDoc) scoreDoc).fields;
+                        ranks.add(new MatchRank(fuzzy, phase, (Float) sortValues[0], (Long) sortValues[1]));
+                    }
+                    // stop processing results if we have reached maxResults matches
+                    if (matches.size() >= maxResults) {
+                        break;
                     }
                 }
-                matches.add(new ResolvedLocation(location, geoname, matchedName, fuzzy));
-                // stop processing results if we have reached maxResults matches
-                if (matches.size() >= maxResults) {
-                    break;
-                }
+            } while (dedupe && !collectByPopulation && !fromTable && !truncated && lastDoc != null
+                    && matches.size() < maxResults);
+            if (truncated) {
+                break;
+            }
+            // if no other document contains the name, there are no partial matches to search for
+            if (fromTable && tableEntry != null && tableEntry.isPartialFree()) {
+                break;
             }
-        } while (dedupe && lastDoc != null && matches.size() < maxResults);
-        // if any results need ancestry resolution, resolve parents
-        // this map should only contain GeoNames if ancestryMode == ON_CREATE
-        if (!parentMap.isEmpty()) {
-            resolveParents(parentMap);
         }
 
         return matches;
     }
 
     /**
-     * Sanitizes the text of the LocationOccurrence in the query parameters for
-     * use in a Lucene query, returning an empty string if no text is found.
-     * @param query the query configuration
-     * @return the santitized query text or the empty string if there is no query text
+     * Runs a search, stopping it if the deadline passes before it completes.  The hits
+     * collected before the deadline passed remain in the collector.
+     * @param index the index to search
+     * @param query the query
+     * @param filter the filter used to restrict the search results; may be <code>null</code>
+     * @param collector the collector of the hits
+     * @param deadline the time by which the search must complete; may be <code>null</code>
+     * @return <code>true</code> if the search completed, <code>false</code> if it was stopped
+     *         by the deadline, which is marked truncated
+     * @throws IOException if an error occurs executing the search
      */
-    private String sanitizeQueryText(final GazetteerQuery query) {
-        String sanitized = "";
-        if (query != null && query.getOccurrence() != null) {
-            String text = query.getOccurrence().getText();
-            if (text != null) {
-                sanitized = escape(text.trim().toLowerCase());
-            }
+    private static boolean search(final GazetteerIndex index, final Query query, final Filter filter,
+            final Collector collector, final Deadline deadline) throws IOException {
+        if (deadline == null) {
+            index.getSearcher().search(query, filter, collector);
+            return true;
+        }
+        long remaining = deadline.remaining(TimeUnit.MILLISECONDS);
+        if (remaining <= 0L) {
+            deadline.markTruncated();
+            return false;
+        }
+        TimeLimitingCollector limitedCollector = new TimeLimitingCollector(collector,
+                TimeLimitingCollector.getGlobalCounter(), remaining);
+        try {
+            index.getSearcher().search(query, filter, limitedCollector);
+            return true;
+        } catch (TimeLimitingCollector.TimeExceededException tee) {
+            LOG.debug("Search for '{}' stopped by deadline after {}ms", query, tee.getTimeElapsed());
+            deadline.markTruncated();
+            return false;
         }
-        return sanitized;
     }
 
     /**
-     * Builds a Lucene search filter based on the provided parameters.
-     * @param params the query configuration parameters
-     * @return a Lucene search filter that will restrict the returned documents to the criteria provided or <code>null</code>
-     *         if no filtering is necessary
+     * Runs a search with one collector for each segment of the index, searching the
+     * segments in parallel on the search executor.  The collector of a segment only
+     * sees hits from that segment, with document IDs relative to the whole index.
+     * When a deadline is provided, each segment search is stopped if it passes and
+     * the hits collected before then remain in the collectors.
+     * @param index the index to search
+     * @param query the query
+     * @param filter the filter used to restrict the search results; may be <code>null</code>
+     * @param collectors the collectors of the hits, one for each segment in segment order
+     * @param deadline the time by which the search must complete; may be <code>null</code>
+     * @return <code>true</code> if the search of every segment completed, <code>false</code>
+     *         if any was stopped by the deadline, which is marked truncated
+     * @throws IOException if an error occurs executing the search
      */
-    private Filter buildFilter(final GazetteerQuery params) {
-        List<Query> queryParts = new ArrayList<Query>();
+    private boolean searchLeaves(final GazetteerIndex index, final Query query, final Filter filter,
+            final List<? extends Collector> collectors, final Deadline deadline) throws IOException {
+        if (deadline != null && deadline.remaining(TimeUnit.MILLISECONDS) <= 0L) {
+            deadline.markTruncated();
+            return false;
+        }
+        IndexSearcher searcher = index.getSearcher();
+        final Weight weight = searcher.createNormalizedWeight(filter != null ? new FilteredQuery(query, filter) : query);
+        List<AtomicReaderContext> leaves = index.getReader().leaves();
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(leaves.size());
+        boolean completed = true;
+        try {
+            for (int idx = 0; idx < leaves.size(); idx++) {
+                final AtomicReaderContext leaf = leaves.get(idx);
+                final Collector collector = collectors.get(idx);
+                futures.add(searchExecutor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws IOException {
+                        return searchLeaf(weight, leaf, collector, deadline);
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                completed &= future.get();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while searching index segments.");
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) {
+                throw (IOException) ee.getCause();
+            }
+            throw new IOException("Error searching index segment.", ee.getCause());
+        } finally {
+            for (Future<Boolean> future : futures) {
+                future.cancel(true);
+            }
+        }
+        if (!completed) {
+            LOG.debug("Search for '{}' stopped by deadline", query);
+            deadline.markTruncated();
+        }
+        return completed;
+    }
 
-        // create the historical locations restriction if we are not including historical locations
-        if (!params.isIncludeHistorical()) {
-            int val = IndexField.getBooleanIndexValue(false);
-            queryParts.add(NumericRangeQuery.newIntRange(HISTORICAL.key(), val, val, true, true));
+    /**
+     * Searches a single segment of the index.
+     * @param weight the weight of the query, created by the searcher of the index
+     * @param leaf the segment to search
+     * @param collector the collector of the hits
+     * @param deadline the time by which the search must complete; may be <code>null</code>
+     * @return <code>true</code> if the search completed, <code>false</code> if it was stopped
+     *         by the deadline
+     * @throws IOException if an error occurs executing the search
+     */
+    private static boolean searchLeaf(final Weight weight, final AtomicReaderContext leaf, final Collector collector,
+            final Deadline deadline) throws IOException {
+        Collector leafCollector = collector;
+        if (deadline != null) {
+            long remaining = deadline.remaining(TimeUnit.MILLISECONDS);
+            if (remaining <= 0L) {
+                return false;
+            }
+            leafCollector = new TimeLimitingCollector(collector, TimeLimitingCollector.getGlobalCounter(), remaining);
+        }
+        try {
+            leafCollector.setNextReader(leaf);
+        } catch (CollectionTerminatedException cte) {
+            return true;
+        }
+        BulkScorer scorer = weight.bulkScorer(leaf, !leafCollector.acceptsDocsOutOfOrder(), leaf.reader().getLiveDocs());
+        if (scorer != null) {
+            try {
+                scorer.score(leafCollector);
+            } catch (CollectionTerminatedException cte) {
+                // the collector needs no more hits from this segment
+            } catch (TimeLimitingCollector.TimeExceededException tee) {
+                return false;
+            }
         }
+        return true;
+    }
 
-        // create the parent ID restrictions if we were provided at least one parent ID
-        Set<Integer> parentIds = params.getParentIds();
-        if (!parentIds.isEmpty()) {
-            BooleanQuery parentQuery = new BooleanQuery();
-            // locations must descend from at least one of the specified parents (OR)
-            for (Integer id : parentIds) {
-                parentQuery.add(NumericRangeQuery.newIntRange(ANCESTOR_IDS.key(), id, id, true, true), Occur.SHOULD);
+    /**
+     * Splits the text of the LocationOccurrence in the query parameters into the
+     * lower-cased tokens used to search the index, returning an empty list if no
+     * text is found.
+     * @param query the query configuration
+     * @return the tokens of the query text or an empty list if there is no query text
+     */
+    private List<String> tokenizeQueryText(final GazetteerQuery query) {
+        List<String> tokens = Collections.emptyList();
+        if (query != null && query.getOccurrence() != null) {
+            String text = query.getOccurrence().getText();
+            if (text != null) {
+                tokens = WhitespaceLowerCaseAnalyzer.tokenize(text.trim().toLowerCase());
             }
-            queryParts.add(parentQuery);
         }
+        return tokens;
+    }
 
-        // create the feature code restrictions if we were provided some, but not all, feature codes
-        Set<FeatureCode> codes = params.getFeatureCodes();
-        if (!(codes.isEmpty() || ALL_CODES.equals(codes))) {
-            BooleanQuery codeQuery = new BooleanQuery();
-            // locations must be one of the specified feature codes (OR)
-            for (FeatureCode code : codes) {
-                codeQuery.add(new TermQuery(new Term(FEATURE_CODE.key(), code.name())), Occur.SHOULD);
+    /**
+     * Builds the queries used to find the provided name, in the order they should be
+     * executed.
+     *
+     * A fuzzy query matches names containing all but the last token of the search name
+     * and any term within two edits of the last token; partial names are typically the
+     * result of a misspelling in the last word of a location.
+     *
+     * An exact query matches names containing all tokens of the search name, in order.
+     * If the index contains the normalized exact name field, this is executed as a single
+     * term lookup for names that are identical to the search name followed by a phrase
+     * query for the remaining names containing the search name.  Identical names always
+     * outrank partial matches, so the overall ranking of the results is unchanged.
+     * @param index the index to search
+     * @param nameTokens the normalized tokens of the search name
+     * @param fuzzy should fuzzy queries be built
+     * @return the queries to execute
+     * @throws IOException if an error occurs expanding a fuzzy query
+     */
+    private List<Query> buildQueries(final GazetteerIndex index, final List<String> nameTokens, final boolean fuzzy)
+            throws IOException {
+        int last = nameTokens.size() - 1;
+        if (fuzzy) {
+            Term lastToken = new Term(INDEX_NAME.key(), nameTokens.get(last));
+            Query fuzzyQuery;
+            // shards must match the terms a single index would match so their scores are comparable,
+            // so they always expand the automaton against every shard
+            if (fuzzyStrategy == FuzzyStrategy.DELETION_INDEX && shardStatistics == null
+                    && index.getDeletionIndex() != null) {
+                fuzzyQuery = new DeletionFuzzyQuery(lastToken, index.getDeletionIndex(), fuzzyMaxEdits);
+            } else {
+                FuzzyQuery lastTokenQuery = new FuzzyQuery(lastToken,
+                        Math.min(fuzzyMaxEdits, LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE));
+                fuzzyQuery = shardStatistics != null ? shardStatistics.rewrite(lastTokenQuery) : lastTokenQuery;
             }
-            queryParts.add(codeQuery);
+            if (last > 0) {
+                BooleanQuery bq = new BooleanQuery();
+                for (String token : nameTokens.subList(0, last)) {
+                    bq.add(new TermQuery(new Term(INDEX_NAME.key(), token)), Occur.SHOULD);
+                }
+                bq.add(fuzzyQuery, Occur.SHOULD);
+                fuzzyQuery = bq;
+            }
+            return Collections.singletonList(fuzzyQuery);
         }
 
-        Filter filter = null;
-        if (!queryParts.isEmpty()) {
-            BooleanQuery bq = new BooleanQuery();
-            for (Query part : queryParts) {
-                bq.add(part, Occur.MUST);
+        Query containsQuery;
+        if (last == 0) {
+            containsQuery = new TermQuery(new Term(INDEX_NAME.key(), nameTokens.get(0)));
+        } else {
+            PhraseQuery phrase = new PhraseQuery();
+            for (String token : nameTokens) {
+                phrase.add(new Term(INDEX_NAME.key(), token));
             }
-            filter = new QueryWrapperFilter(bq);
+            containsQuery = phrase;
+        }
+        if (!index.isExactNameIndexed()) {
+            return Collections.singletonList(containsQuery);
         }
-        return filter;
+        Query exactQuery = new TermQuery(new Term(EXACT_NAME.key(), StringUtils.join(nameTokens, ' ')));
+        BooleanQuery partialQuery = new BooleanQuery();
+        partialQuery.add(containsQuery, Occur.MUST);
+        partialQuery.add(exactQuery, Occur.MUST_NOT);
+        return Arrays.asList(exactQuery, partialQuery);
     }
 
     /**
      * Retrieves and sets the parents of the provided children.
+     * @param index the index to search
      * @param childMap the map of parent geonameID to the set of children that belong to it
+     * @param geonameMap the GeoName instances that have already been loaded, keyed by geonameID; these
+     *                   and any cached GeoNames will be reused if they are found in the ancestry of the
+     *                   children and any newly loaded parents will be added to this map
+     * @param useParentTable <code>true</code> to read the parents of ancestors from the parent table
+     *                       of the index, if it has one, rather than their documents
      * @throws IOException if an error occurs during parent resolution
      */
-    private void resolveParents(final Map<Integer, Set<GeoName>> childMap) throws IOException {
+    private void resolveParents(final GazetteerIndex index, final Map<Integer, Set<GeoName>> childMap,
+            final Map<Integer, GeoName> geonameMap, final boolean useParentTable)
+            throws IOException {
+        ParentIdTable parentTable = useParentTable ? index.getParentTable() : null;
         Map<Integer, GeoName> parentMap = new HashMap<Integer, GeoName>();
         Map<Integer, Set<GeoName>> grandParentMap = new HashMap<Integer, Set<GeoName>>();
         for (Integer parentId : childMap.keySet()) {
-            // Lucene query used to look for exact match on the "geonameID" field
-            Query q = NumericRangeQuery.newIntRange(GEONAME_ID.key(), parentId, parentId, true, true);
-            TopDocs results = indexSearcher.search(q, null, 1, POPULATION_SORT);
-            if (results.scoreDocs.length > 0) {
-                Document doc = indexSearcher.doc(results.scoreDocs[0].doc);
-                GeoName parent = BasicGeoName.parseFromGeoNamesRecord(doc.get(GEONAME.key()), doc.get(PREFERRED_NAME.key()));
-                parentMap.put(parent.getGeonameID(), parent);
-                if (!parent.isAncestryResolved()) {
-                    Integer grandParentId = PARENT_ID.getValue(doc);
-                    if (grandParentId != null) {
-                        Set<GeoName> geos = grandParentMap.get(grandParentId);
-                        if (geos == null) {
-                            geos = new HashSet<GeoName>();
-                            grandParentMap.put(grandParentId, geos);
+            GeoName parent = findGeoName(parentId, geonameMap);
+            // only search for the parent if we have not already loaded it or if its
+            // ancestry must also be resolved
+            if (parent != null && parentTable != null && parentTable.contains(parentId)) {
+                // the parent has been loaded; only its own parent ID is needed
+                int grandParentId = parentTable.getParentId(parentId);
+                if (!parent.isAncestryResolved() && grandParentId != ParentIdTable.NO_PARENT) {
+                    addChild(grandParentMap, grandParentId, parent);
+                }
+            } else if (parent == null || !parent.isAncestryResolved()) {
+                int docId = findParentDocument(index, parentId);
+                if (docId >= 0) {
+                    ColumnarGeoNameStore store = index.getGeoNameStore();
+                    Document doc = store == null ? index.getSearcher().doc(docId, RECORD_FIELDS) : null;
+                    if (parent == null) {
+                        parent = buildGeoName(index, docId, doc);
+                        geonameMap.put(parentId, parent);
+                    }
+                    if (!parent.isAncestryResolved()) {
+                        Integer grandParentId;
+                        if (parentTable != null && parentTable.contains(parentId)) {
+                            int tableParentId = parentTable.getParentId(parentId);
+                            grandParentId = tableParentId != ParentIdTable.NO_PARENT ? tableParentId : null;
+                        } else {
+                            grandParentId = store != null ? index.getParentId(docId) : PARENT_ID.<Integer>getValue(doc);
+                        }
+                        if (grandParentId != null) {
+                            addChild(grandParentMap, grandParentId, parent);
                         }
-                        geos.add(parent);
                     }
+                } else {
+                    LOG.error("Unable to find parent GeoName [{}]", parentId);
                 }
-            } else {
-                LOG.error("Unable to find parent GeoName [{}]", parentId);
+            }
+            if (parent != null) {
+                parentMap.put(parentId, parent);
             }
         }
 
         // find all parents of the parents
         if (!grandParentMap.isEmpty()) {
-            resolveParents(grandParentMap);
+            resolveParents(index, grandParentMap, geonameMap, useParentTable);
         }
 
         // set parents of children
@@ -436,6 +1396,126 @@ public class LuceneGazetteer implements Gazetteer {
                 child.setParent(parent);
             }
         }
+        // the parents are always GeoNames loaded by this gazetteer so they can be shared
+        cacheGeoNames(parentMap.values());
+    }
+
+    /**
+     * Adds a GeoName to the set of children awaiting resolution of a parent.
+     * @param childMap the map of parent geonameID to the set of children that belong to it
+     * @param parentId the geonameID of the parent
+     * @param child the child
+     */
+    private static void addChild(final Map<Integer, Set<GeoName>> childMap, final int parentId, final GeoName child) {
+        Set<GeoName> geos = childMap.get(parentId);
+        if (geos == null) {
+            geos = new HashSet<GeoName>();
+            childMap.put(parentId, geos);
+        }
+        geos.add(child);
+    }
+
+    /**
+     * Finds the document for the parent GeoName with the provided ID.
+     * @param index the index to search
+     * @param parentId the geonameID of the parent
+     * @return the document ID of the parent or -1 if it cannot be found
+     * @throws IOException if an error occurs reading the index
+     */
+    private int findParentDocument(final GazetteerIndex index, final int parentId) throws IOException {
+        IndexSearcher indexSearcher = index.getSearcher();
+        int docId = index.getParentDocs().getDocId(parentId);
+        if (docId < 0) {
+            // the ID is not the parent of any indexed GeoName; search for it directly
+            Query q = NumericRangeQuery.newIntRange(GEONAME_ID.key(), parentId, parentId, true, true);
+            TopDocs results = indexSearcher.search(q, null, 1, POPULATION_SORT);
+            docId = results.scoreDocs.length > 0 ? results.scoreDocs[0].doc : -1;
+        }
+        return docId;
+    }
+
+    /**
+     * Builds the GeoName for a document, reading it from the columnar store of the index
+     * if it has one or from the stored document, and assigns its hierarchy position if
+     * the parent table of the index has hierarchy intervals.
+     * @param index the index
+     * @param docId the document ID
+     * @param recordDoc the document with the RECORD_FIELDS loaded; only used if the
+     *                  index has no columnar store
+     * @return the GeoName
+     * @throws IOException if an error occurs reading the index
+     */
+    private static GeoName buildGeoName(final GazetteerIndex index, final int docId, final Document recordDoc)
+            throws IOException {
+        ColumnarGeoNameStore store = index.getGeoNameStore();
+        GeoName geoname = store != null ? store.getGeoName(index.getRecordId(docId)) : buildGeoName(recordDoc);
+        ParentIdTable parentTable = index.getParentTable();
+        if (parentTable != null && parentTable.hasIntervals()) {
+            Integer parentId = store != null ? index.getParentId(docId) : PARENT_ID.<Integer>getValue(recordDoc);
+            HierarchyPosition.assign(geoname, parentTable.getHierarchyPosition(geoname.getGeonameID(),
+                    parentId != null ? parentId : ParentIdTable.NO_PARENT));
+        }
+        return geoname;
+    }
+
+    /**
+     * Builds the GeoName stored in a document, decoding the binary record or, for
+     * indexes built before binary records were introduced, parsing the GeoNames
+     * gazetteer record.
+     * @param doc the document; the GEONAME and PREFERRED_NAME fields must be loaded
+     * @return the GeoName
+     */
+    private static GeoName buildGeoName(final Document doc) {
+        IndexableField field = doc.getField(GEONAME.key());
+        String preferredName = doc.get(PREFERRED_NAME.key());
+        BytesRef binary = field.binaryValue();
+        return binary != null ? BinaryGeoNameCodec.decode(binary.bytes, binary.offset, binary.length, preferredName) :
+                BasicGeoName.parseFromGeoNamesRecord(field.stringValue(), preferredName);
+    }
+
+    /**
+     * Determines whether a previously built GeoName was built from the record stored
+     * in a document.
+     * @param geoname the GeoName
+     * @param doc the document; the GEONAME field must be loaded
+     * @return <code>true</code> if the GeoName was built from the record stored in the document
+     */
+    private static boolean isBuiltFrom(final GeoName geoname, final Document doc) {
+        IndexableField field = doc.getField(GEONAME.key());
+        BytesRef binary = field.binaryValue();
+        return binary != null ? BinaryGeoNameCodec.isDecodedFrom(geoname, binary.bytes, binary.offset, binary.length) :
+                field.stringValue().equals(geoname.getGazetteerRecord());
+    }
+
+    /**
+     * Finds a previously loaded GeoName, first checking the provided map and then
+     * the GeoName cache.  GeoNames found in the cache are added to the map.
+     * @param geonameId the ID of the GeoName
+     * @param geonameMap the GeoName instances that have already been loaded, keyed by geonameID
+     * @return the previously loaded GeoName or <code>null</code> if it has not been loaded
+     */
+    private GeoName findGeoName(final int geonameId, final Map<Integer, GeoName> geonameMap) {
+        GeoName geoname = geonameMap.get(geonameId);
+        if (geoname == null && geonameCache != null) {
+            geoname = geonameCache.get(geonameId);
+            if (geoname != null) {
+                geonameMap.put(geonameId, geoname);
+            }
+        }
+        return geoname;
+    }
+
+    /**
+     * Adds the provided GeoNames to the GeoName cache, if one is configured.  Only
+     * GeoNames whose ancestry has been fully resolved will be cached.
+     * @param geonames the GeoNames to cache
+     */
+    private void cacheGeoNames(final Collection<GeoName> geonames) {
+        if (geonameCache != null) {
+            for (GeoName geoname : geonames) {
+                geonameCache.put(geoname);
+            }
+        }
     }
 
     @Override
@@ -445,23 +1525,40 @@ public class LuceneGazetteer implements Gazetteer {
 
     @Override
     public GeoName getGeoName(final int geonameId, final AncestryMode ancestryMode) throws ClavinException {
+        // ancestry-resolved GeoNames may be returned directly from the cache
+        if (ancestryMode.isResolvedOnCreate() && geonameCache != null) {
+            GeoName cached = geonameCache.get(geonameId);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        GazetteerIndex index = acquireIndex();
         try {
+            IndexSearcher indexSearcher = index.getSearcher();
             GeoName geoName = null;
-            // Lucene query used to look for exact match on the "geonameID" field
-            Query q = NumericRangeQuery.newIntRange(GEONAME_ID.key(), geonameId, geonameId, true, true);
-            // retrieve only one matching document
-            TopDocs results = indexSearcher.search(q, 1);
-            if (results.scoreDocs.length > 0) {
-                Document doc = indexSearcher.doc(results.scoreDocs[0].doc);
-                geoName = BasicGeoName.parseFromGeoNamesRecord(doc.get(GEONAME.key()), doc.get(PREFERRED_NAME.key()));
+            // ancestors in the parent table are mapped directly to their documents
+            boolean useParentTable = ancestryMode == AncestryMode.PRECOMPUTED && index.getParentTable() != null;
+            int docId = useParentTable ? index.getParentDocs().getDocId(geonameId) : -1;
+            if (docId < 0) {
+                // Lucene query used to look for exact match on the "geonameID" field
+                Query q = NumericRangeQuery.newIntRange(GEONAME_ID.key(), geonameId, geonameId, true, true);
+                // retrieve only one matching document
+                TopDocs results = indexSearcher.search(q, 1);
+                docId = results.scoreDocs.length > 0 ? results.scoreDocs[0].doc : -1;
+            }
+            if (docId >= 0) {
+                ColumnarGeoNameStore store = index.getGeoNameStore();
+                Document doc = store == null ? indexSearcher.doc(docId, RECORD_FIELDS) : null;
+                geoName = buildGeoName(index, docId, doc);
                 if (!geoName.isAncestryResolved()) {
-                    Integer parentId = PARENT_ID.getValue(doc);
+                    Integer parentId = store != null ? index.getParentId(docId) : PARENT_ID.<Integer>getValue(doc);
                     if (parentId != null) {
                         switch (ancestryMode) {
                             case ON_CREATE:
+                            case PRECOMPUTED:
                                 Map<Integer, Set<GeoName>> childMap = new HashMap<Integer, Set<GeoName>>();
                                 childMap.put(parentId, Collections.singleton(geoName));
-                                resolveParents(childMap);
+                                resolveParents(index, childMap, new HashMap<Integer, GeoName>(), useParentTable);
                                 break;
                             case LAZY:
                                 // ancestry will be loaded on request
@@ -474,6 +1571,9 @@ public class LuceneGazetteer implements Gazetteer {
                         }
                     }
                 }
+                if (ancestryMode.isResolvedOnCreate()) {
+                    cacheGeoNames(Collections.singleton(geoName));
+                }
             } else {
                 LOG.debug("No geoname found for ID: {}", geonameId);
             }
@@ -482,6 +1582,8 @@ public class LuceneGazetteer implements Gazetteer {
             String msg = String.format("Error retrieving geoname with ID : %d", geonameId);
             LOG.error(msg, e);
             throw new ClavinException(msg, e);
+        } finally {
+            releaseIndex(index);
         }
     }
 
@@ -505,10 +1607,13 @@ public class LuceneGazetteer implements Gazetteer {
             }
         }
         if (!parentMap.isEmpty()) {
+            GazetteerIndex index = acquireIndex();
             try {
-                resolveParents(parentMap);
+                resolveParents(index, parentMap, new HashMap<Integer, GeoName>(), false);
             } catch (IOException ioe) {
                 throw new ClavinException("Error loading ancestry.", ioe);
+            } finally {
+                releaseIndex(index);
             }
         }
     }
@@ -0,0 +1,79 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * MatchRank.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+/**
+ * The position of a match in the ranked results of a gazetteer query.  Exact
+ * matches outrank fuzzy matches; within each pass, the matches of each query
+ * phase outrank those of later phases and are then ordered by descending score
+ * and sort population.  When all shards of an index are scored with the same
+ * statistics, this order is identical to the order in which a single index
+ * would return the matches.
+ */
+final class MatchRank implements Comparable<MatchRank> {
+    /** Was the match found by a fuzzy query. */
+    private final boolean fuzzy;
+
+    /** The index of the query that found the match. */
+    private final int phase;
+
+    /** The score of the match. */
+    private final float score;
+
+    /** The sort population of the matched GeoName. */
+    private final long sortPopulation;
+
+    MatchRank(final boolean fuzzy, final int phase, final Float score, final Long sortPopulation) {
+        this.fuzzy = fuzzy;
+        this.phase = phase;
+        this.score = score != null ? score : 0.0f;
+        this.sortPopulation = sortPopulation != null ? sortPopulation : 0L;
+    }
+
+    boolean isFuzzy() {
+        return fuzzy;
+    }
+
+    @Override
+    public int compareTo(final MatchRank other) {
+        if (fuzzy != other.fuzzy) {
+            return fuzzy ? 1 : -1;
+        }
+        if (phase != other.phase) {
+            return phase < other.phase ? -1 : 1;
+        }
+        int comp = Float.compare(other.score, score);
+        return comp != 0 ? comp : (sortPopulation < other.sortPopulation ? 1 : (sortPopulation == other.sortPopulation ? 0 : -1));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[fuzzy: %b, phase: %d, score: %f, pop: %d]", fuzzy, phase, score, sortPopulation);
+    }
+}
@@ -0,0 +1,171 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * ParentDocIndex.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import static com.bericotech.clavin.index.IndexField.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
+
+/**
+ * Maps the geonameID of every GeoName that is the parent of at least one
+ * indexed document to the ID of the document used to load it.  Ancestry
+ * resolution uses this map to load parent documents directly instead of
+ * executing a search for each parent.
+ *
+ * When a GeoName is indexed in multiple documents, the document with the
+ * highest sort population is used, with ties going to the lowest document
+ * ID.  This is the same document that is returned by a population-sorted
+ * search on the geonameID field.
+ *
+ * The map is built from the terms dictionary of the index when a reader
+ * is opened and is only valid for that reader.
+ */
+final class ParentDocIndex {
+    /**
+     * The sorted geonameIDs of all parent GeoNames.
+     */
+    private final int[] geonameIds;
+
+    /**
+     * The document ID for the GeoName at the corresponding index in geonameIds.
+     */
+    private final int[] docIds;
+
+    private ParentDocIndex(final int[] geonameIds, final int[] docIds) {
+        this.geonameIds = geonameIds;
+        this.docIds = docIds;
+    }
+
+    /**
+     * Builds the parent document map for the provided reader.
+     * @param reader the index reader
+     * @return the parent document map
+     * @throws IOException if an error occurs reading the index
+     */
+    public static ParentDocIndex build(final IndexReader reader) throws IOException {
+        int[] ids = findParentIds(reader);
+        int[] docs = new int[ids.length];
+        long[] pops = new long[ids.length];
+        Arrays.fill(docs, -1);
+
+        BytesRef term = new BytesRef(NumericUtils.BUF_SIZE_INT);
+        for (AtomicReaderContext context : reader.leaves()) {
+            AtomicReader leaf = context.reader();
+            Terms terms = leaf.terms(GEONAME_ID.key());
+            if (terms == null) {
+                continue;
+            }
+            TermsEnum termsEnum = terms.iterator(null);
+            // shares the cached values used when sorting results by population
+            FieldCache.Longs sortPop = FieldCache.DEFAULT.getLongs(leaf, SORT_POP.key(), false);
+            DocsEnum docsEnum = null;
+            for (int idx = 0; idx < ids.length; idx++) {
+                NumericUtils.intToPrefixCoded(ids[idx], 0, term);
+                if (!termsEnum.seekExact(term)) {
+                    continue;
+                }
+                docsEnum = termsEnum.docs(leaf.getLiveDocs(), docsEnum, DocsEnum.FLAG_NONE);
+                int doc;
+                while ((doc = docsEnum.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                    long pop = sortPop.get(doc);
+                    // leaves and documents are visited in order so only replace on a higher population
+                    if (docs[idx] < 0 || pop > pops[idx]) {
+                        docs[idx] = context.docBase + doc;
+                        pops[idx] = pop;
+                    }
+                }
+            }
+        }
+        return new ParentDocIndex(ids, docs);
+    }
+
+    /**
+     * Finds the distinct values of the parent ID field across the index.
+     * @param reader the index reader
+     * @return the sorted parent IDs
+     * @throws IOException if an error occurs reading the index
+     */
+    private static int[] findParentIds(final IndexReader reader) throws IOException {
+        int[] ids = new int[1024];
+        int count = 0;
+        for (AtomicReaderContext context : reader.leaves()) {
+            Terms terms = context.reader().terms(PARENT_ID.key());
+            if (terms == null) {
+                continue;
+            }
+            // only consider full-precision terms; the remaining terms support range queries
+            TermsEnum termsEnum = NumericUtils.filterPrefixCodedInts(terms.iterator(null));
+            BytesRef term;
+            while ((term = termsEnum.next()) != null) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                }
+                ids[count++] = NumericUtils.prefixCodedToInt(term);
+            }
+        }
+        Arrays.sort(ids, 0, count);
+        // remove IDs found in multiple leaves
+        int distinct = 0;
+        for (int idx = 0; idx < count; idx++) {
+            if (distinct == 0 || ids[idx] != ids[distinct - 1]) {
+                ids[distinct++] = ids[idx];
+            }
+        }
+        return Arrays.copyOf(ids, distinct);
+    }
+
+    /**
+     * Get the ID of the document for the parent GeoName with the provided ID.
+     * @param geonameId the geonameID of the parent
+     * @return the document ID or -1 if the ID is not a known parent
+     */
+    public int getDocId(final int geonameId) {
+        int idx = Arrays.binarySearch(geonameIds, geonameId);
+        return idx >= 0 ? docIds[idx] : -1;
+    }
+
+    /**
+     * Get the number of parent GeoNames in this map.
+     * @return the number of parents
+     */
+    public int size() {
+        return geonameIds.length;
+    }
+}
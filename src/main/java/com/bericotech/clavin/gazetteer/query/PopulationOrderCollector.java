@@ -0,0 +1,271 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * PopulationOrderCollector.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import static com.bericotech.clavin.index.IndexField.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+
+/**
+ * Collects the top hits of a query in a single pass, ranking them by
+ * descending score, then by descending sort population and then by document
+ * ID.  This is the order the population sort of {@link LuceneGazetteer}
+ * produces.
+ *
+ * When duplicates are filtered, hits are collapsed by geonameID as they are
+ * collected: only the best hit of each GeoName is kept and GeoNames that
+ * were already found are skipped, so the hits returned are the first
+ * maxResults new GeoNames in ranked order.  A GeoName indexed under many
+ * alternate names is therefore read once per search instead of forcing the
+ * query to be re-run past its duplicate hits.
+ *
+ * When every matching document has the same score, such as a lookup of the
+ * exact name term, and this collector holds maxResults hits, a segment whose
+ * documents are sorted by descending population cannot contain a better hit
+ * than the last one it rejected, so collection of that segment is terminated.
+ *
+ * When segments are searched in parallel, each segment is collected by its
+ * own collector and the results are combined with {@link #merge(List)}.
+ */
+final class PopulationOrderCollector extends Collector {
+    private final GazetteerIndex index;
+    private final int maxResults;
+    private final boolean dedupe;
+    private final Set<Integer> excludedIds;
+    private final boolean equalScores;
+
+    /**
+     * The best hits found so far, with the worst hit at the head of the queue.
+     */
+    private final PriorityQueue<Hit> hits;
+
+    /**
+     * The hits in the queue, keyed by geonameID, when duplicates are filtered.
+     */
+    private final Map<Integer, Hit> hitsById;
+
+    private Scorer scorer;
+    private NumericDocValues sortPops;
+    private NumericDocValues geonameIds;
+    private int docBase;
+    private boolean sortedSegment;
+    private int terminatedCount;
+
+    /**
+     * Create a new PopulationOrderCollector.
+     * @param indexIn the index being searched; it must store the sort population and geonameID as DocValues
+     * @param maxResultsIn the maximum number of hits to collect
+     * @param dedupeIn <code>true</code> to keep only the best hit for each GeoName
+     * @param excludedIdsIn the IDs of GeoNames that have already been found and should
+     *                      be skipped when duplicates are filtered
+     * @param equalScoresIn <code>true</code> if every document matching the query has the
+     *                      same score, allowing population sorted segments to be terminated early
+     */
+    PopulationOrderCollector(final GazetteerIndex indexIn, final int maxResultsIn, final boolean dedupeIn,
+            final Set<Integer> excludedIdsIn, final boolean equalScoresIn) {
+        this.index = indexIn;
+        this.maxResults = maxResultsIn;
+        this.dedupe = dedupeIn;
+        this.excludedIds = excludedIdsIn != null ? excludedIdsIn : Collections.<Integer>emptySet();
+        this.equalScores = equalScoresIn;
+        this.hits = new PriorityQueue<Hit>(Math.max(1, maxResultsIn + 1));
+        this.hitsById = new HashMap<Integer, Hit>();
+    }
+
+    @Override
+    public void setScorer(final Scorer scorerIn) {
+        this.scorer = scorerIn;
+    }
+
+    @Override
+    public void setNextReader(final AtomicReaderContext context) throws IOException {
+        docBase = context.docBase;
+        sortPops = context.reader().getNumericDocValues(SORT_POP.key());
+        geonameIds = dedupe ? context.reader().getNumericDocValues(GEONAME_ID.key()) : null;
+        sortedSegment = index.isPopulationSorted(context.ord);
+    }
+
+    @Override
+    public void collect(final int doc) throws IOException {
+        long sortPop = sortPops.get(doc);
+        int globalDoc = docBase + doc;
+        float score = scorer.score();
+        if (hits.size() >= maxResults && !hits.peek().isWorseThan(score, sortPop, globalDoc)) {
+            if (equalScores && sortedSegment) {
+                // every remaining document of this segment ranks below the worst hit
+                terminatedCount++;
+                throw new CollectionTerminatedException();
+            }
+            return;
+        }
+        Hit hit = new Hit(globalDoc, sortPop, score);
+        if (dedupe) {
+            int geonameId = (int) geonameIds.get(doc);
+            if (excludedIds.contains(geonameId)) {
+                return;
+            }
+            Hit existing = hitsById.get(geonameId);
+            if (existing != null) {
+                // a GeoName is indexed once for each of its names
+                if (!existing.isWorseThan(score, sortPop, globalDoc)) {
+                    return;
+                }
+                hits.remove(existing);
+            }
+            hit.geonameId = geonameId;
+            hitsById.put(geonameId, hit);
+        }
+        hits.add(hit);
+        if (hits.size() > maxResults) {
+            Hit evicted = hits.poll();
+            if (dedupe) {
+                hitsById.remove(evicted.geonameId);
+            }
+        }
+    }
+
+    @Override
+    public boolean acceptsDocsOutOfOrder() {
+        return false;
+    }
+
+    /**
+     * Get the number of segments whose collection was terminated early.
+     * @return the number of terminated segments
+     */
+    int getTerminatedCount() {
+        return terminatedCount;
+    }
+
+    /**
+     * Get the collected hits, best first.  Each hit is a FieldDoc whose sort values
+     * are its score and sort population, matching the results of a search sorted
+     * by score and population.
+     * @return the collected hits
+     */
+    ScoreDoc[] getHits() {
+        ScoreDoc[] docs = new ScoreDoc[hits.size()];
+        for (int idx = docs.length - 1; idx >= 0; idx--) {
+            docs[idx] = hits.poll().toFieldDoc();
+        }
+        hitsById.clear();
+        return docs;
+    }
+
+    /**
+     * Merges the hits of collectors that each collected a different segment of the
+     * same search, returning the hits a single collector of every segment would
+     * have returned.  Each collector holds the best hit of every GeoName it kept,
+     * so a GeoName ranked within the top maxResults of all segments is ranked
+     * within the top maxResults of the segment holding its best hit.
+     * @param collectors the collectors to merge; each must have been created with the
+     *                   same maxResults and duplicate filtering
+     * @return the merged hits, best first
+     */
+    static ScoreDoc[] merge(final List<PopulationOrderCollector> collectors) {
+        if (collectors.isEmpty()) {
+            return new ScoreDoc[0];
+        }
+        int maxResults = collectors.get(0).maxResults;
+        boolean dedupe = collectors.get(0).dedupe;
+        List<Hit> allHits = new ArrayList<Hit>();
+        for (PopulationOrderCollector collector : collectors) {
+            allHits.addAll(collector.hits);
+            collector.hits.clear();
+            collector.hitsById.clear();
+        }
+        Collections.sort(allHits, Collections.reverseOrder());
+        List<ScoreDoc> docs = new ArrayList<ScoreDoc>(Math.min(maxResults, allHits.size()));
+        Set<Integer> mergedIds = new HashSet<Integer>();
+        for (Hit hit : allHits) {
+            if (docs.size() >= maxResults) {
+                break;
+            }
+            // the same GeoName may be kept by the collectors of several segments
+            if (dedupe && !mergedIds.add(hit.geonameId)) {
+                continue;
+            }
+            docs.add(hit.toFieldDoc());
+        }
+        return docs.toArray(new ScoreDoc[docs.size()]);
+    }
+
+    /**
+     * A collected hit, ordered from worst to best.
+     */
+    private static final class Hit implements Comparable<Hit> {
+        private final int doc;
+        private final long sortPop;
+        private final float score;
+        private int geonameId;
+
+        Hit(final int docIn, final long sortPopIn, final float scoreIn) {
+            this.doc = docIn;
+            this.sortPop = sortPopIn;
+            this.score = scoreIn;
+        }
+
+        boolean isWorseThan(final float otherScore, final long otherSortPop, final int otherDoc) {
+            if (score != otherScore) {
+                return score < otherScore;
+            }
+            return sortPop < otherSortPop || (sortPop == otherSortPop && doc > otherDoc);
+        }
+
+        FieldDoc toFieldDoc() {
+            return new FieldDoc(doc, score, new Object[] { score, sortPop });
+        }
+
+        @Override
+        public int compareTo(final Hit other) {
+            if (score != other.score) {
+                return score < other.score ? -1 : 1;
+            }
+            if (sortPop != other.sortPop) {
+                return sortPop < other.sortPop ? -1 : 1;
+            }
+            return doc > other.doc ? -1 : (doc < other.doc ? 1 : 0);
+        }
+    }
+}
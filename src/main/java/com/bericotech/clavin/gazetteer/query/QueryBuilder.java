@@ -30,6 +30,7 @@ package com.bericotech.clavin.gazetteer.query;
 
 import com.bericotech.clavin.extractor.LocationOccurrence;
 import com.bericotech.clavin.gazetteer.FeatureCode;
+import com.bericotech.clavin.util.Deadline;
 
 import java.util.Arrays;
 import java.util.Collection;
@@ -116,13 +117,15 @@ public class QueryBuilder {
     private boolean filterDupes = DEFAULT_FILTER_DUPES;
     private Set<Integer> parentIds = new HashSet<Integer>();
     private Set<FeatureCode> featureCodes = EnumSet.noneOf(FeatureCode.class);
+    private Deadline deadline;
 
     /**
      * Constructs a query from the current configuration of this Builder.
      * @return a {@link GazetteerQuery} configuration object
      */
     public GazetteerQuery build() {
-        return new GazetteerQuery(location, maxResults, fuzzyMode, ancestryMode, includeHistorical, filterDupes, parentIds, featureCodes);
+        return new GazetteerQuery(location, maxResults, fuzzyMode, ancestryMode, includeHistorical, filterDupes, parentIds, featureCodes,
+                deadline);
     }
 
     /**
@@ -190,6 +193,25 @@ public class QueryBuilder {
         return this;
     }
 
+    /**
+     * Get the current deadline.
+     * @return the deadline, or <code>null</code> if queries may run to completion
+     */
+    public Deadline deadline() {
+        return deadline;
+    }
+
+    /**
+     * Set the time by which queries must complete.  The same deadline may be shared
+     * by all queries made for a document.
+     * @param limit the deadline; <code>null</code> for no limit
+     * @return this
+     */
+    public QueryBuilder deadline(final Deadline limit) {
+        deadline = limit;
+        return this;
+    }
+
     /**
      * Get the current ancestry loading mode.
      * @return the ancestry loading mode
@@ -0,0 +1,532 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * RemoteGazetteer.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import static com.bericotech.clavin.gazetteer.query.GazetteerProtocol.*;
+
+import com.bericotech.clavin.ClavinException;
+import com.bericotech.clavin.gazetteer.GeoName;
+import com.bericotech.clavin.resolver.ResolvedLocation;
+import com.bericotech.clavin.util.Deadline;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Gazetteer that sends its requests to a {@link GazetteerServer}, allowing
+ * many small processes to share a gazetteer index that has been opened and
+ * warmed once.
+ *
+ * Requests are written to a small pool of persistent connections and
+ * pipelined: any number of requests may be in flight on a connection and
+ * their responses are matched to them as they arrive.  A batch of queries
+ * is sent as a single request.  Connections that fail are replaced on the
+ * next request; requests in flight on a failed connection fail with a
+ * {@link ClavinException}.
+ *
+ * GeoNames returned with LAZY ancestry load their ancestors from the
+ * server when they are first requested.  This gazetteer is thread-safe.
+ * Callbacks registered on the futures returned by the asynchronous methods
+ * are run on the thread that reads responses from the connection, so they
+ * must not wait for other requests to this gazetteer.
+ */
+public class RemoteGazetteer extends AbstractGazetteer implements AsyncGazetteer {
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(RemoteGazetteer.class);
+
+    /**
+     * The default number of connections to the server.
+     */
+    public static final int DEFAULT_CONNECTIONS = 2;
+
+    /**
+     * The default time to wait for a connection to be established.
+     */
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * The default time to wait for a response before the server is considered stalled.
+     */
+    private static final int DEFAULT_READ_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(60);
+
+    private final InetSocketAddress address;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final Connection[] connections;
+    private final AtomicInteger nextConnection = new AtomicInteger();
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * Create a gazetteer that connects to a server with the default number of connections.
+     * @param host the host of the server
+     * @param port the port of the server
+     */
+    public RemoteGazetteer(final String host, final int port) {
+        this(new InetSocketAddress(host, port), DEFAULT_CONNECTIONS);
+    }
+
+    /**
+     * Create a gazetteer that connects to a server.  Connections are opened when they are
+     * first used.
+     * @param address the address of the server
+     * @param connectionCount the number of connections to the server
+     */
+    public RemoteGazetteer(final InetSocketAddress address, final int connectionCount) {
+        this(address, connectionCount, DEFAULT_CONNECT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Create a gazetteer that connects to a server.  Connections are opened when they are
+     * first used.
+     * @param address the address of the server
+     * @param connectionCount the number of connections to the server
+     * @param connectTimeoutMillis the time to wait for a connection to be established, in milliseconds
+     */
+    public RemoteGazetteer(final InetSocketAddress address, final int connectionCount, final int connectTimeoutMillis) {
+        this(address, connectionCount, connectTimeoutMillis, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Create a gazetteer that connects to a server.  Connections are opened when they are
+     * first used.  If the oldest request in flight on a connection receives no response
+     * within the read timeout, the server is considered stalled and the connection is
+     * closed, failing its requests.
+     * @param address the address of the server
+     * @param connectionCount the number of connections to the server
+     * @param connectTimeoutMillis the time to wait for a connection to be established, in milliseconds
+     * @param readTimeoutMillis the time to wait for a response, in milliseconds; 0 to wait indefinitely
+     */
+    public RemoteGazetteer(final InetSocketAddress address, final int connectionCount, final int connectTimeoutMillis,
+            final int readTimeoutMillis) {
+        if (address == null) {
+            throw new IllegalArgumentException("address must not be null");
+        }
+        if (connectionCount < 1) {
+            throw new IllegalArgumentException(String.format("Invalid connectionCount [%d]", connectionCount));
+        }
+        this.address = address;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.connections = new Connection[connectionCount];
+    }
+
+    /**
+     * Closes all connections to the server.  Requests that are in flight fail and any
+     * subsequent requests will fail.
+     */
+    public void close() {
+        closed = true;
+        synchronized (connections) {
+            for (Connection connection : connections) {
+                if (connection != null) {
+                    connection.close(new ClavinException("Remote gazetteer has been closed."));
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<ResolvedLocation> getClosestLocations(final GazetteerQuery query) throws ClavinException {
+        return getClosestLocations(Collections.singletonList(query)).get(0);
+    }
+
+    /**
+     * Execute a batch of queries on the server.  The server stops each query at its
+     * deadline, but a slow network or server could still hold the caller past it, so
+     * when every query has a deadline, the wait ends at the latest of them.  If no
+     * response has arrived by then, each query returns no results and its deadline is
+     * marked truncated.
+     * @param queries            the configuration parameters for each query
+     * @return                   the lists of ResolvedLocations as potential matches for each
+     *                           query, in the same order as the input queries
+     * @throws ClavinException   if an error occurs
+     */
+    @Override
+    public List<List<ResolvedLocation>> getClosestLocations(final List<GazetteerQuery> queries) throws ClavinException {
+        GazetteerFuture<List<List<ResolvedLocation>>> future = getClosestLocationsAsync(queries);
+        // a negative wait is unbounded
+        long waitNanos = queries.isEmpty() ? -1L : 0L;
+        for (GazetteerQuery query : queries) {
+            Deadline deadline = query.getDeadline();
+            if (deadline == null) {
+                waitNanos = -1L;
+                break;
+            }
+            waitNanos = Math.max(waitNanos, deadline.remaining(TimeUnit.NANOSECONDS));
+        }
+        if (waitNanos < 0L) {
+            return future.getResult();
+        }
+        try {
+            return future.getResult(waitNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException te) {
+            // the response is discarded by the connection when it arrives
+            future.cancel(false);
+            List<List<ResolvedLocation>> allMatches = new ArrayList<List<ResolvedLocation>>(queries.size());
+            for (GazetteerQuery query : queries) {
+                query.getDeadline().markTruncated();
+                allMatches.add(new ArrayList<ResolvedLocation>());
+            }
+            return allMatches;
+        }
+    }
+
+    @Override
+    public GeoName getGeoName(final int geonameId) throws ClavinException {
+        return getGeoName(geonameId, AncestryMode.LAZY);
+    }
+
+    @Override
+    public GeoName getGeoName(final int geonameId, final AncestryMode ancestryMode) throws ClavinException {
+        return getGeoNameAsync(geonameId, ancestryMode).getResult();
+    }
+
+    @Override
+    public void loadAncestry(final GeoName... geoNames) throws ClavinException {
+        loadAncestry(Arrays.asList(geoNames));
+    }
+
+    @Override
+    public void loadAncestry(final Collection<GeoName> geoNames) throws ClavinException {
+        loadAncestryAsync(geoNames).getResult();
+    }
+
+    @Override
+    public GazetteerFuture<List<ResolvedLocation>> getClosestLocationsAsync(final GazetteerQuery query) {
+        return getClosestLocationsAsync(Collections.singletonList(query)).transform(
+                new GazetteerFuture.Function<List<List<ResolvedLocation>>, List<ResolvedLocation>>() {
+                    @Override
+                    public List<ResolvedLocation> apply(final List<List<ResolvedLocation>> input) {
+                        return input.get(0);
+                    }
+                });
+    }
+
+    @Override
+    public GazetteerFuture<List<List<ResolvedLocation>>> getClosestLocationsAsync(final List<GazetteerQuery> queries) {
+        final List<GazetteerQuery> batch = new ArrayList<GazetteerQuery>(queries);
+        Request<List<List<ResolvedLocation>>> request = new Request<List<List<ResolvedLocation>>>(OP_CLOSEST_LOCATIONS) {
+            @Override
+            void writePayload(final DataOutputStream out) throws IOException {
+                writeCount(out, batch.size());
+                for (GazetteerQuery query : batch) {
+                    writeQuery(out, query);
+                }
+            }
+
+            @Override
+            List<List<ResolvedLocation>> readResponse(final DataInputStream in) throws IOException {
+                List<List<ResolvedLocation>> allMatches = new ArrayList<List<ResolvedLocation>>(batch.size());
+                for (GazetteerQuery query : batch) {
+                    allMatches.add(readMatches(in, query, RemoteGazetteer.this));
+                }
+                return allMatches;
+            }
+        };
+        return checkCount(request, batch.size()) ? send(request) : request;
+    }
+
+    @Override
+    public GazetteerFuture<GeoName> getGeoNameAsync(final int geonameId, final AncestryMode ancestryMode) {
+        return send(new Request<GeoName>(OP_GET_GEONAME) {
+            @Override
+            void writePayload(final DataOutputStream out) throws IOException {
+                out.writeInt(geonameId);
+                out.writeByte(ancestryMode.ordinal());
+            }
+
+            @Override
+            GeoName readResponse(final DataInputStream in) throws IOException {
+                return readGeoName(in, ancestryMode, RemoteGazetteer.this);
+            }
+        });
+    }
+
+    @Override
+    public GazetteerFuture<Void> loadAncestryAsync(final Collection<GeoName> geoNames) {
+        // request the ancestry-resolved parent of each GeoName awaiting resolution
+        final Map<Integer, List<GeoName>> children = new HashMap<Integer, List<GeoName>>();
+        for (GeoName geoName : geoNames) {
+            Integer parentId = geoName.getParentId();
+            if (!geoName.isAncestryResolved() && parentId != null) {
+                List<GeoName> geos = children.get(parentId);
+                if (geos == null) {
+                    geos = new ArrayList<GeoName>();
+                    children.put(parentId, geos);
+                }
+                geos.add(geoName);
+            }
+        }
+        if (children.isEmpty()) {
+            return GazetteerFuture.completed(null);
+        }
+        final Set<Integer> parentIds = new LinkedHashSet<Integer>(children.keySet());
+        Request<Void> request = new Request<Void>(OP_LOAD_ANCESTRY) {
+            @Override
+            void writePayload(final DataOutputStream out) throws IOException {
+                writeCount(out, parentIds.size());
+                for (Integer parentId : parentIds) {
+                    out.writeInt(parentId);
+                }
+            }
+
+            @Override
+            Void readResponse(final DataInputStream in) throws IOException {
+                for (Integer parentId : parentIds) {
+                    GeoName parent = readGeoName(in, AncestryMode.ON_CREATE, RemoteGazetteer.this);
+                    if (parent == null) {
+                        LOG.info("Unable to find parent with ID [{}]", parentId);
+                        continue;
+                    }
+                    for (GeoName child : children.get(parentId)) {
+                        child.setParent(parent);
+                    }
+                }
+                return null;
+            }
+        };
+        return checkCount(request, parentIds.size()) ? send(request) : request;
+    }
+
+    /**
+     * Fails a request that lists more elements than the protocol allows before it is
+     * sent.  Once its header has been written, a request that cannot be completed would
+     * leave the connection, and every other request in flight on it, unusable.
+     * @param request the request
+     * @param count the number of elements listed by the request
+     * @return <code>true</code> if the request can be sent
+     */
+    private static boolean checkCount(final Request<?> request, final int count) {
+        if (count > MAX_COUNT) {
+            request.fail(new ClavinException(String.format("Cannot send %d elements in one gazetteer request; the limit is %d",
+                    count, MAX_COUNT)));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sends a request on the next connection of the pool, opening the connection if necessary.
+     * @param request the request
+     * @return the future result of the request
+     */
+    private <V> GazetteerFuture<V> send(final Request<V> request) {
+        if (closed) {
+            request.fail(new ClavinException("Remote gazetteer has been closed."));
+            return request;
+        }
+        int slot = (nextConnection.getAndIncrement() & Integer.MAX_VALUE) % connections.length;
+        Connection connection;
+        synchronized (connections) {
+            connection = connections[slot];
+            if (connection == null || connection.isClosed()) {
+                try {
+                    connection = new Connection(slot);
+                } catch (IOException ioe) {
+                    request.fail(new ClavinException(String.format("Unable to connect to gazetteer server %s.", address), ioe));
+                    return request;
+                }
+                connections[slot] = connection;
+            }
+        }
+        connection.send(request);
+        return request;
+    }
+
+    /**
+     * A pending request.  The response is read by the reader thread of the connection
+     * the request was sent on.
+     */
+    private abstract static class Request<V> extends GazetteerFuture<V> {
+        private final byte opcode;
+        private int requestId;
+        private long sentNanos;
+
+        Request(final byte opcode) {
+            this.opcode = opcode;
+        }
+
+        abstract void writePayload(DataOutputStream out) throws IOException;
+
+        abstract V readResponse(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * A persistent connection to the server.  Requests are written by the calling thread
+     * and responses are read, in order, by a daemon thread owned by the connection.
+     */
+    private final class Connection implements Runnable {
+        /**
+         * The length of the request ID that starts each response.
+         */
+        private static final int RESPONSE_ID_LENGTH = 4;
+
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final Queue<Request<?>> pending = new ConcurrentLinkedQueue<Request<?>>();
+        private final Object writeLock = new Object();
+        private volatile boolean connectionClosed;
+
+        Connection(final int slot) throws IOException {
+            socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                socket.setSoTimeout(readTimeoutMillis);
+                socket.connect(address, connectTimeoutMillis);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.flush();
+                if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                    throw new IOException("Gazetteer server does not support this protocol version.");
+                }
+            } catch (IOException ioe) {
+                socket.close();
+                throw ioe;
+            }
+            Thread reader = new Thread(this, String.format("clavin-remote-%d-%s", slot, address));
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        boolean isClosed() {
+            return connectionClosed;
+        }
+
+        void send(final Request<?> request) {
+            synchronized (writeLock) {
+                if (connectionClosed) {
+                    request.fail(new ClavinException("Connection to gazetteer server was closed."));
+                    return;
+                }
+                request.requestId = nextRequestId.incrementAndGet();
+                request.sentNanos = System.nanoTime();
+                pending.add(request);
+                try {
+                    out.writeInt(request.requestId);
+                    out.writeByte(request.opcode);
+                    request.writePayload(out);
+                    out.flush();
+                } catch (IOException ioe) {
+                    close(new ClavinException("Error sending request to gazetteer server.", ioe));
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!connectionClosed) {
+                    int requestId;
+                    // the connection may be idle between requests, so a timeout before a response
+                    // starts is only an error once the oldest request has waited the full timeout
+                    in.mark(RESPONSE_ID_LENGTH);
+                    try {
+                        requestId = in.readInt();
+                    } catch (SocketTimeoutException ste) {
+                        Request<?> oldest = pending.peek();
+                        if (oldest != null &&
+                                System.nanoTime() - oldest.sentNanos >= TimeUnit.MILLISECONDS.toNanos(readTimeoutMillis)) {
+                            throw new SocketTimeoutException(String.format(
+                                    "No response from gazetteer server in %d ms", readTimeoutMillis));
+                        }
+                        in.reset();
+                        continue;
+                    }
+                    byte status = in.readByte();
+                    Request<?> request = pending.poll();
+                    if (request == null || request.requestId != requestId) {
+                        throw new IOException(String.format("Unexpected response [%d] from gazetteer server", requestId));
+                    }
+                    if (status == STATUS_OK) {
+                        complete(request, in);
+                    } else {
+                        request.fail(new ClavinException(String.format("Gazetteer server error: %s", readString(in))));
+                    }
+                }
+            } catch (IOException ioe) {
+                close(new ClavinException("Connection to gazetteer server failed.", ioe));
+            } catch (RuntimeException re) {
+                close(new ClavinException("Error reading response from gazetteer server.", re));
+            }
+        }
+
+        private <V> void complete(final Request<V> request, final DataInputStream input) throws IOException {
+            request.complete(request.readResponse(input));
+        }
+
+        /**
+         * Closes this connection, failing all pending requests.
+         * @param cause the cause of the failure
+         */
+        void close(final ClavinException cause) {
+            connectionClosed = true;
+            try {
+                socket.close();
+            } catch (IOException ioe) {
+                LOG.debug("Error closing gazetteer connection.", ioe);
+            }
+            // requests are only added while holding the write lock, so none can be added once
+            // the closed flag has been observed and the pending requests have been drained
+            synchronized (writeLock) {
+                Request<?> request;
+                while ((request = pending.poll()) != null) {
+                    request.fail(cause);
+                }
+            }
+        }
+    }
+}
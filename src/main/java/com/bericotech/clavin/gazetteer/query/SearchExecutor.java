@@ -0,0 +1,215 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * SearchExecutor.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread pool for searching the segments of a gazetteer index in
+ * parallel.  When a {@link LuceneGazetteer} is given an executor, each
+ * search is split into one task per index segment and the searching
+ * thread waits for all segments to complete, so the latency of a single
+ * query, particularly a fuzzy query, is bounded by the slowest segment
+ * rather than the sum of all segments.
+ *
+ * The queue of pending segment searches is bounded.  When it is full,
+ * the segment is searched on the thread that submitted it, so a burst of
+ * queries degrades to single-threaded searching instead of failing.  The
+ * pool threads are daemon threads; the pool should be shut down once all
+ * gazetteers using it have been closed.
+ *
+ * Queue metrics are kept so the pool can be sized for the query load:
+ * the number of segment searches submitted, run by the caller because
+ * the queue was full and completed, the current and peak queue length
+ * and the total time searches waited in the queue.
+ */
+public class SearchExecutor extends ThreadPoolExecutor {
+    /**
+     * The default number of queued segment searches per thread.
+     */
+    public static final int DEFAULT_QUEUE_PER_THREAD = 8;
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong callerRunsCount = new AtomicLong();
+    private final AtomicLong queueWaitNanos = new AtomicLong();
+    private final AtomicInteger peakQueueSize = new AtomicInteger();
+
+    /**
+     * Create a new SearchExecutor with one thread per available processor.
+     */
+    public SearchExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a new SearchExecutor queueing up to {@link #DEFAULT_QUEUE_PER_THREAD}
+     * segment searches per thread.
+     * @param threads the number of search threads
+     */
+    public SearchExecutor(final int threads) {
+        this(threads, threads * DEFAULT_QUEUE_PER_THREAD);
+    }
+
+    /**
+     * Create a new SearchExecutor.
+     * @param threads the number of search threads
+     * @param queueCapacity the maximum number of segment searches waiting for a thread;
+     *                      further searches are run by the submitting thread
+     */
+    public SearchExecutor(final int threads, final int queueCapacity) {
+        super(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new SearchThreadFactory(), new CallerRunsHandler());
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        submittedCount.incrementAndGet();
+        super.execute(new QueuedSearch(command));
+        int queued = getQueue().size();
+        int peak = peakQueueSize.get();
+        while (queued > peak && !peakQueueSize.compareAndSet(peak, queued)) {
+            peak = peakQueueSize.get();
+        }
+    }
+
+    @Override
+    protected void beforeExecute(final Thread thread, final Runnable task) {
+        super.beforeExecute(thread, task);
+        if (task instanceof QueuedSearch) {
+            queueWaitNanos.addAndGet(System.nanoTime() - ((QueuedSearch) task).queuedNanos);
+        }
+    }
+
+    /**
+     * Get the number of segment searches submitted to this executor.
+     * @return the number of submitted searches
+     */
+    public long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    /**
+     * Get the number of segment searches run by the submitting thread because
+     * the queue was full.
+     * @return the number of searches run by the caller
+     */
+    public long getCallerRunsCount() {
+        return callerRunsCount.get();
+    }
+
+    /**
+     * Get the number of segment searches waiting for a thread.
+     * @return the current queue length
+     */
+    public int getQueueSize() {
+        return getQueue().size();
+    }
+
+    /**
+     * Get the largest number of segment searches that have waited for a thread at once.
+     * @return the peak queue length
+     */
+    public int getPeakQueueSize() {
+        return peakQueueSize.get();
+    }
+
+    /**
+     * Get the total time segment searches have waited in the queue before a
+     * pool thread started them.
+     * @param unit the unit of the returned time
+     * @return the total queue wait time
+     */
+    public long getQueueWaitTime(final TimeUnit unit) {
+        return unit.convert(queueWaitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SearchExecutor[threads: %d, active: %d, submitted: %d, completed: %d, callerRuns: %d, "
+                + "queued: %d, peakQueued: %d, queueWaitMs: %d]", getPoolSize(), getActiveCount(), getSubmittedCount(),
+                getCompletedTaskCount(), getCallerRunsCount(), getQueueSize(), getPeakQueueSize(),
+                getQueueWaitTime(TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * A segment search and the time it was queued.
+     */
+    private static final class QueuedSearch implements Runnable {
+        private final Runnable search;
+        private final long queuedNanos = System.nanoTime();
+
+        QueuedSearch(final Runnable search) {
+            this.search = search;
+        }
+
+        @Override
+        public void run() {
+            search.run();
+        }
+    }
+
+    /**
+     * Runs searches that cannot be queued on the submitting thread.
+     */
+    private static final class CallerRunsHandler implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(final Runnable task, final ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("SearchExecutor has been shut down.");
+            }
+            ((SearchExecutor) executor).callerRunsCount.incrementAndGet();
+            task.run();
+        }
+    }
+
+    /**
+     * Creates named daemon threads so an unused pool does not prevent the JVM from exiting.
+     */
+    private static final class SearchThreadFactory implements ThreadFactory {
+        private final int poolNumber = POOL_NUMBER.incrementAndGet();
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, String.format("clavin-search-%d-%d", poolNumber,
+                    threadNumber.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * ShardStatistics.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import com.bericotech.clavin.util.LruCache;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * The term and field statistics of all shards of a sharded index.  The idf
+ * component of a match score depends on the number of documents containing
+ * each term, so scores computed with the statistics of a single shard cannot
+ * be compared with those of other shards.  Searchers created by this class
+ * score matches with the combined statistics of all shards, producing the
+ * same scores as a single index containing every shard.  Fuzzy queries are
+ * also expanded to the same terms they would match in a single index; see
+ * {@link #rewrite(FuzzyQuery)}.
+ *
+ * Shards are expected to be read-only; statistics are cached once computed.
+ */
+final class ShardStatistics {
+    /**
+     * The maximum number of term statistics to cache.
+     */
+    private static final int MAX_CACHED_TERMS = 10000;
+
+    /**
+     * The maximum number of expanded fuzzy queries to cache.
+     */
+    private static final int MAX_CACHED_REWRITES = 1000;
+
+    /**
+     * The gazetteers searching each shard.
+     */
+    private final List<LuceneGazetteer> shards = new CopyOnWriteArrayList<LuceneGazetteer>();
+
+    /**
+     * The combined statistics of recently queried terms.
+     */
+    private final LruCache<Term, TermStatistics> termCache = new LruCache<Term, TermStatistics>(MAX_CACHED_TERMS);
+
+    /**
+     * The combined statistics of each field.
+     */
+    private final ConcurrentMap<String, CollectionStatistics> fieldCache =
+            new ConcurrentHashMap<String, CollectionStatistics>();
+
+    /**
+     * The expansions of recently searched fuzzy queries.
+     */
+    private final LruCache<Query, FutureTask<Query>> rewriteCache =
+            new LruCache<Query, FutureTask<Query>>(MAX_CACHED_REWRITES);
+
+    /**
+     * Adds a shard to the statistics.
+     * @param shard the gazetteer searching the shard
+     */
+    void addShard(final LuceneGazetteer shard) {
+        shards.add(shard);
+        termCache.clear();
+        fieldCache.clear();
+        rewriteCache.clear();
+    }
+
+    /**
+     * Creates a searcher that scores matches with the statistics of all shards.
+     * @param reader the reader of a single shard
+     * @param executor the executor used to search index segments in parallel or <code>null</code>
+     * @return the searcher
+     */
+    IndexSearcher newSearcher(final IndexReader reader, final ExecutorService executor) {
+        return new IndexSearcher(reader, executor) {
+            @Override
+            public TermStatistics termStatistics(final Term term, final TermContext context) throws IOException {
+                return shards.isEmpty() ? super.termStatistics(term, context) : getTermStatistics(term);
+            }
+
+            @Override
+            public CollectionStatistics collectionStatistics(final String field) throws IOException {
+                return shards.isEmpty() ? super.collectionStatistics(field) : getCollectionStatistics(field);
+            }
+        };
+    }
+
+    /**
+     * Get the combined statistics of a term in all shards.
+     * @param term the term
+     * @return the statistics
+     * @throws IOException if an error occurs reading a shard
+     */
+    TermStatistics getTermStatistics(final Term term) throws IOException {
+        TermStatistics stats = termCache.get(term);
+        if (stats == null) {
+            long docFreq = 0L;
+            long totalTermFreq = 0L;
+            for (LuceneGazetteer shard : shards) {
+                TermStatistics shardStats = shard.getLocalTermStatistics(term);
+                docFreq += shardStats.docFreq();
+                totalTermFreq = sum(totalTermFreq, shardStats.totalTermFreq());
+            }
+            // the term is copied since the bytes of query terms may be reused
+            Term key = new Term(term.field(), BytesRef.deepCopyOf(term.bytes()));
+            stats = new TermStatistics(key.bytes(), docFreq, totalTermFreq);
+            termCache.put(key, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Get the combined statistics of a field in all shards.
+     * @param field the field
+     * @return the statistics
+     * @throws IOException if an error occurs reading a shard
+     */
+    CollectionStatistics getCollectionStatistics(final String field) throws IOException {
+        CollectionStatistics stats = fieldCache.get(field);
+        if (stats == null) {
+            long maxDoc = 0L;
+            long docCount = 0L;
+            long sumTotalTermFreq = 0L;
+            long sumDocFreq = 0L;
+            for (LuceneGazetteer shard : shards) {
+                CollectionStatistics shardStats = shard.getLocalCollectionStatistics(field);
+                maxDoc += shardStats.maxDoc();
+                docCount = sum(docCount, shardStats.docCount());
+                sumTotalTermFreq = sum(sumTotalTermFreq, shardStats.sumTotalTermFreq());
+                sumDocFreq = sum(sumDocFreq, shardStats.sumDocFreq());
+            }
+            stats = new CollectionStatistics(field, maxDoc, docCount, sumTotalTermFreq, sumDocFreq);
+            fieldCache.put(field, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Expands a fuzzy query to the terms it matches in all shards.  Each shard would
+     * otherwise expand the query to the most similar terms found in that shard alone,
+     * changing the normalization of the scores of its matches.  The query is expanded
+     * once against all shards and the expansion is shared by every shard searching it.
+     * @param query the fuzzy query
+     * @return the expanded query
+     * @throws IOException if an error occurs reading a shard
+     */
+    Query rewrite(final FuzzyQuery query) throws IOException {
+        if (shards.isEmpty()) {
+            return query;
+        }
+        FutureTask<Query> rewrite;
+        boolean owner = false;
+        synchronized (rewriteCache) {
+            rewrite = rewriteCache.get(query);
+            if (rewrite == null) {
+                rewrite = new FutureTask<Query>(new Callable<Query>() {
+                    @Override
+                    public Query call() throws IOException {
+                        return rewriteAll(query);
+                    }
+                });
+                rewriteCache.put(query, rewrite);
+                owner = true;
+            }
+        }
+        if (owner) {
+            rewrite.run();
+        }
+        try {
+            return rewrite.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while expanding fuzzy query.", ie);
+        } catch (ExecutionException ee) {
+            rewriteCache.remove(query);
+            throw ee.getCause() instanceof IOException ? (IOException) ee.getCause() :
+                    new IOException("Error expanding fuzzy query.", ee.getCause());
+        }
+    }
+
+    /**
+     * Rewrites a query against a reader of all shards.
+     * @param query the query
+     * @return the rewritten query
+     * @throws IOException if an error occurs reading a shard
+     */
+    private Query rewriteAll(final Query query) throws IOException {
+        List<IndexReader> readers = new ArrayList<IndexReader>(shards.size());
+        try {
+            for (LuceneGazetteer shard : shards) {
+                readers.add(shard.acquireReader());
+            }
+            // the sub-readers are referenced, not closed, by the MultiReader
+            MultiReader reader = new MultiReader(readers.toArray(new IndexReader[readers.size()]), false);
+            try {
+                return new IndexSearcher(reader).rewrite(query);
+            } finally {
+                reader.close();
+            }
+        } finally {
+            for (IndexReader reader : readers) {
+                reader.decRef();
+            }
+        }
+    }
+
+    /**
+     * Adds two statistics, either of which may be -1 if the statistic is not available.
+     */
+    private static long sum(final long statA, final long statB) {
+        return statA < 0L || statB < 0L ? -1L : statA + statB;
+    }
+}
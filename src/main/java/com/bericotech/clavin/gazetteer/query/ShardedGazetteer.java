@@ -0,0 +1,416 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * ShardedGazetteer.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import com.bericotech.clavin.ClavinException;
+import com.bericotech.clavin.gazetteer.CountryCode;
+import com.bericotech.clavin.gazetteer.GeoName;
+import com.bericotech.clavin.index.ShardManifest;
+import com.bericotech.clavin.resolver.ResolvedLocation;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Gazetteer that searches an index built with one shard per country or group
+ * of countries (see the <code>--shard-by-country</code> option of the
+ * IndexDirectoryBuilder).  Each batch of queries is sent to all shards in
+ * parallel and the top matches of every shard are merged into a single ranked
+ * list per query.
+ *
+ * All shards are scored with their combined term statistics, so the merged
+ * results are ranked exactly as they would be by a {@link LuceneGazetteer}
+ * searching a single index of the same GeoNames.  Queries restricted to the
+ * descendants of specific GeoNames are only sent to the shards containing
+ * those ancestors; other restrictions, such as feature codes, do not identify
+ * a country and are applied by every shard.
+ *
+ * The ancestry of every GeoName is indexed in the shard of its country, so
+ * ancestry is always resolved by a single shard.
+ */
+public class ShardedGazetteer extends AbstractGazetteer {
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(ShardedGazetteer.class);
+
+    /**
+     * The shards of the index.
+     */
+    private final ShardManifest manifest;
+
+    /**
+     * The gazetteers searching each shard, keyed by shard name.
+     */
+    private final Map<String, LuceneGazetteer> shards;
+
+    /**
+     * The gazetteer searching the shard of each country.
+     */
+    private final Map<CountryCode, LuceneGazetteer> countryShards;
+
+    /**
+     * The executor used to search shards in parallel.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * <code>true</code> if the executor was created by this gazetteer and should be
+     * shut down when it is closed.
+     */
+    private final boolean ownsExecutor;
+
+    /**
+     * Opens a sharded index, caching resolved GeoNames in a default {@link GeoNameCache}
+     * and searching shards on a pool of daemon threads owned by this gazetteer.
+     * @param indexDir the root directory of the sharded index
+     * @throws ClavinException if an error occurs opening the index
+     */
+    public ShardedGazetteer(final File indexDir) throws ClavinException {
+        this(indexDir, DirectoryType.DEFAULT, new GeoNameCache(), null);
+    }
+
+    /**
+     * Opens a sharded index.
+     * @param indexDir the root directory of the sharded index
+     * @param directoryType the method used to read each shard
+     * @param geonameCache the cache of ancestry-resolved GeoNames, which is shared by all
+     *                     shards; <code>null</code> to disable caching
+     * @param executor the executor used to search shards in parallel or <code>null</code> to
+     *                 search shards on a pool of daemon threads owned by this gazetteer.  An
+     *                 executor that is provided is not shut down when this gazetteer is closed.
+     * @throws ClavinException if an error occurs opening the index
+     */
+    public ShardedGazetteer(final File indexDir, final DirectoryType directoryType, final GeoNameCache geonameCache,
+            final ExecutorService executor) throws ClavinException {
+        try {
+            manifest = ShardManifest.read(indexDir);
+        } catch (IOException ioe) {
+            throw new ClavinException(String.format("Error reading shard manifest of index [%s].", indexDir), ioe);
+        }
+        if (manifest.getShardNames().isEmpty()) {
+            throw new ClavinException(String.format("Index [%s] contains no shards.", indexDir));
+        }
+
+        ShardStatistics statistics = new ShardStatistics();
+        shards = new LinkedHashMap<String, LuceneGazetteer>();
+        countryShards = new EnumMap<CountryCode, LuceneGazetteer>(CountryCode.class);
+        try {
+            for (String name : manifest.getShardNames()) {
+                LuceneGazetteer shard = new LuceneGazetteer(new File(indexDir, name), directoryType, geonameCache, null,
+                        statistics);
+                shards.put(name, shard);
+                statistics.addShard(shard);
+                for (CountryCode code : manifest.getCountries(name)) {
+                    countryShards.put(code, shard);
+                }
+            }
+        } catch (ClavinException ce) {
+            for (LuceneGazetteer shard : shards.values()) {
+                shard.close();
+            }
+            throw ce;
+        }
+        LOG.debug("Opened {} gazetteer shards", shards.size());
+
+        this.ownsExecutor = executor == null;
+        this.executor = executor != null ? executor : Executors.newFixedThreadPool(
+                Math.min(shards.size(), Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+                    private final AtomicInteger threadNumber = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        Thread thread = new Thread(runnable, "clavin-shard-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Get the manifest describing the shards searched by this gazetteer.
+     * @return the shard manifest
+     */
+    public ShardManifest getManifest() {
+        return manifest;
+    }
+
+    /**
+     * Closes all shards and, if it was created by this gazetteer, shuts down the executor
+     * used to search them.
+     */
+    public void close() {
+        for (LuceneGazetteer shard : shards.values()) {
+            shard.close();
+        }
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public List<ResolvedLocation> getClosestLocations(final GazetteerQuery query) throws ClavinException {
+        return getClosestLocations(Collections.singletonList(query)).get(0);
+    }
+
+    @Override
+    public List<List<ResolvedLocation>> getClosestLocations(final List<GazetteerQuery> queries) throws ClavinException {
+        // send each query to every shard that may contain its results
+        List<ShardSearch> searches = new ArrayList<ShardSearch>();
+        for (LuceneGazetteer shard : shards.values()) {
+            ShardSearch search = new ShardSearch(shard, queries.size());
+            for (int idx = 0; idx < queries.size(); idx++) {
+                Set<Integer> parentIds = queries.get(idx).getParentIds();
+                if (parentIds == null || parentIds.isEmpty() || shard.mayContainDescendantsOf(parentIds)) {
+                    search.add(idx, queries.get(idx));
+                }
+            }
+            if (!search.queries.isEmpty()) {
+                searches.add(search);
+            }
+        }
+
+        // search all but the last shard on the executor and the last on this thread
+        List<Future<?>> futures = new ArrayList<Future<?>>(searches.size());
+        try {
+            for (ShardSearch search : searches.subList(0, Math.max(searches.size() - 1, 0))) {
+                futures.add(executor.submit(search));
+            }
+            if (!searches.isEmpty()) {
+                searches.get(searches.size() - 1).call();
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ClavinException("Interrupted while searching gazetteer shards.", ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof ClavinException) {
+                throw (ClavinException) ee.getCause();
+            }
+            throw new ClavinException("Error searching gazetteer shards.", ee.getCause());
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        List<List<ResolvedLocation>> allMatches = new ArrayList<List<ResolvedLocation>>(queries.size());
+        for (int idx = 0; idx < queries.size(); idx++) {
+            allMatches.add(mergeMatches(queries.get(idx), idx, searches));
+        }
+        return allMatches;
+    }
+
+    /**
+     * Merges the matches found by each shard for a query, returning the top matches in the
+     * order a single index would return them.  Each shard returns at most maxResults exact
+     * matches and only runs a fuzzy query if it found too few exact matches, so the top
+     * matches of the index are always found in the top matches of their shards.
+     * @param query the query
+     * @param queryIdx the index of the query in the batch
+     * @param searches the shard searches
+     * @return the merged matches
+     */
+    private List<ResolvedLocation> mergeMatches(final GazetteerQuery query, final int queryIdx,
+            final List<ShardSearch> searches) {
+        List<RankedMatch> candidates = new ArrayList<RankedMatch>();
+        for (ShardSearch search : searches) {
+            search.addMatches(queryIdx, candidates);
+        }
+        // the sort is stable, so matches with identical ranks keep the shard order
+        Collections.sort(candidates);
+
+        int maxResults = query.getMaxResults() > 0 ? query.getMaxResults() : LuceneGazetteer.DEFAULT_MAX_RESULTS;
+        List<ResolvedLocation> matches = new ArrayList<ResolvedLocation>(Math.min(maxResults, candidates.size()));
+        Set<Integer> foundIds = new HashSet<Integer>();
+        int exactCount = -1;
+        for (RankedMatch candidate : candidates) {
+            if (candidate.rank.isFuzzy() && exactCount < 0) {
+                // fuzzy matches are only included if the index as a whole found too few exact matches
+                exactCount = matches.size();
+                if (!query.getFuzzyMode().useFuzzyMatching(maxResults, exactCount)) {
+                    break;
+                }
+            }
+            if (matches.size() >= maxResults) {
+                break;
+            }
+            if (!foundIds.add(candidate.location.getGeoname().getGeonameID()) && query.isFilterDupes()) {
+                continue;
+            }
+            matches.add(candidate.location);
+        }
+        return matches;
+    }
+
+    @Override
+    public GeoName getGeoName(final int geonameId) throws ClavinException {
+        return getGeoName(geonameId, AncestryMode.LAZY);
+    }
+
+    @Override
+    public GeoName getGeoName(final int geonameId, final AncestryMode ancestryMode) throws ClavinException {
+        // the shard of a GeoName cannot be determined from its ID
+        for (LuceneGazetteer shard : shards.values()) {
+            GeoName geoname = shard.getGeoName(geonameId, ancestryMode);
+            if (geoname != null) {
+                return geoname;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void loadAncestry(final GeoName... geoNames) throws ClavinException {
+        loadAncestry(Arrays.asList(geoNames));
+    }
+
+    @Override
+    public void loadAncestry(final Collection<GeoName> geoNames) throws ClavinException {
+        // the ancestry of each GeoName is found in the shard of its country
+        Map<LuceneGazetteer, List<GeoName>> shardGeoNames = new LinkedHashMap<LuceneGazetteer, List<GeoName>>();
+        List<GeoName> unknown = new ArrayList<GeoName>();
+        for (GeoName geoName : geoNames) {
+            if (geoName.isAncestryResolved()) {
+                continue;
+            }
+            LuceneGazetteer shard = countryShards.get(geoName.getPrimaryCountryCode());
+            if (shard == null) {
+                unknown.add(geoName);
+                continue;
+            }
+            List<GeoName> geos = shardGeoNames.get(shard);
+            if (geos == null) {
+                geos = new ArrayList<GeoName>();
+                shardGeoNames.put(shard, geos);
+            }
+            geos.add(geoName);
+        }
+        for (Map.Entry<LuceneGazetteer, List<GeoName>> entry : shardGeoNames.entrySet()) {
+            entry.getKey().loadAncestry(entry.getValue());
+        }
+        // GeoNames of countries that are not found in the manifest are offered to each shard in turn
+        for (LuceneGazetteer shard : shards.values()) {
+            if (unknown.isEmpty()) {
+                break;
+            }
+            shard.loadAncestry(unknown);
+            List<GeoName> unresolved = new ArrayList<GeoName>();
+            for (GeoName geoName : unknown) {
+                if (!geoName.isAncestryResolved()) {
+                    unresolved.add(geoName);
+                }
+            }
+            unknown = unresolved;
+        }
+    }
+
+    /**
+     * The queries of a batch sent to a single shard and the ranked matches it found.
+     */
+    private static final class ShardSearch implements Callable<Void> {
+        private final LuceneGazetteer shard;
+        /** The position of each query of the batch in the queries sent to this shard, or -1. */
+        private final int[] positions;
+        private final List<GazetteerQuery> queries = new ArrayList<GazetteerQuery>();
+        private final List<List<MatchRank>> ranks = new ArrayList<List<MatchRank>>();
+        private List<List<ResolvedLocation>> matches;
+
+        ShardSearch(final LuceneGazetteer shard, final int batchSize) {
+            this.shard = shard;
+            this.positions = new int[batchSize];
+            Arrays.fill(positions, -1);
+        }
+
+        void add(final int queryIdx, final GazetteerQuery query) {
+            positions[queryIdx] = queries.size();
+            queries.add(query);
+        }
+
+        @Override
+        public Void call() throws ClavinException {
+            matches = shard.getClosestLocations(queries, ranks);
+            return null;
+        }
+
+        /**
+         * Adds the ranked matches this shard found for a query to a list.
+         * @param queryIdx the index of the query in the batch
+         * @param candidates the list of candidate matches
+         */
+        void addMatches(final int queryIdx, final List<RankedMatch> candidates) {
+            int pos = positions[queryIdx];
+            if (pos >= 0) {
+                List<ResolvedLocation> locations = matches.get(pos);
+                List<MatchRank> locationRanks = ranks.get(pos);
+                for (int idx = 0; idx < locations.size(); idx++) {
+                    candidates.add(new RankedMatch(locationRanks.get(idx), locations.get(idx)));
+                }
+            }
+        }
+    }
+
+    /**
+     * A match found by a shard and its rank.
+     */
+    private static final class RankedMatch implements Comparable<RankedMatch> {
+        private final MatchRank rank;
+        private final ResolvedLocation location;
+
+        RankedMatch(final MatchRank rank, final ResolvedLocation location) {
+            this.rank = rank;
+            this.location = location;
+        }
+
+        @Override
+        public int compareTo(final RankedMatch other) {
+            return rank.compareTo(other.rank);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.bericotech.clavin.index;
+
+import static com.bericotech.clavin.index.IndexField.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * DeletionIndex.java
+ *
+ *###################################################################*/
+
+/**
+ * Maps the deletion neighborhood of every token in the
+ * {@link IndexField#INDEX_NAME} field of an index to the tokens it was
+ * generated from, so the tokens within a few edits of a misspelled name can
+ * be found with a handful of hash probes instead of intersecting a
+ * Levenshtein automaton with the whole term dictionary.
+ *
+ * The neighborhood of a token is every string formed by deleting up to the
+ * distance of the index from its first {@link #PREFIX_LENGTH} characters.
+ * Two tokens within that many edits of each other share a string in their
+ * neighborhoods, so looking up the neighborhood of a query token returns a
+ * superset of the tokens within the distance; callers must verify the edit
+ * distance of each candidate.  Limiting deletions to a prefix keeps the
+ * index small for long tokens at the cost of more candidates to verify.
+ *
+ * The index is written to the index directory by the
+ * {@link IndexDirectoryBuilder} and records the generation of the commit it
+ * was built from.  It is read through an {@link IndexInput}, so a
+ * memory-mapped directory does not load it onto the heap.
+ */
+public final class DeletionIndex implements Closeable {
+    /**
+     * The name of the deletion index file in a gazetteer index directory.
+     */
+    public static final String FILE_NAME = "fuzzy.del";
+
+    /**
+     * The default maximum number of deletions indexed for each token.
+     */
+    public static final int DEFAULT_DISTANCE = 2;
+
+    /**
+     * The number of leading characters of each token that deletions are made from.
+     */
+    public static final int PREFIX_LENGTH = 7;
+
+    private static final String CODEC = "ClavinDeletions";
+    private static final int VERSION_START = 0;
+    private static final int VERSION = VERSION_START;
+
+    /**
+     * The size of the fields written at the end of the index.
+     */
+    private static final int TRAILER_SIZE = 40;
+
+    /**
+     * The average number of deletions in each bucket of the hash table.
+     */
+    private static final int BUCKET_LOAD = 4;
+
+    private final IndexInput input;
+    private final long offsetsStart;
+    private final long deletionsStart;
+    private final long bucketsStart;
+    private final int bucketShift;
+    private final long generation;
+    private final int distance;
+
+    private DeletionIndex(final IndexInput input, final long offsetsStart, final long deletionsStart,
+            final long bucketsStart, final int bucketBits, final long generation, final int distance) {
+        this.input = input;
+        this.offsetsStart = offsetsStart;
+        this.deletionsStart = deletionsStart;
+        this.bucketsStart = bucketsStart;
+        this.bucketShift = 31 - bucketBits;
+        this.generation = generation;
+        this.distance = distance;
+    }
+
+    /**
+     * Determines whether an index directory contains a deletion index.
+     * @param dir the index directory
+     * @return <code>true</code> if the directory contains a deletion index
+     * @throws IOException if an error occurs reading the directory
+     */
+    public static boolean exists(final Directory dir) throws IOException {
+        return dir.fileExists(FILE_NAME);
+    }
+
+    /**
+     * Opens the deletion index of an index directory.  The index must be closed
+     * when it is no longer used.
+     * @param dir the index directory
+     * @return the deletion index
+     * @throws IOException if the index cannot be read
+     */
+    public static DeletionIndex open(final Directory dir) throws IOException {
+        IndexInput in = dir.openInput(FILE_NAME, IOContext.DEFAULT);
+        try {
+            CodecUtil.checkHeader(in, CODEC, VERSION_START, VERSION);
+            in.seek(in.length() - TRAILER_SIZE);
+            long offsetsStart = in.readLong();
+            long deletionsStart = in.readLong();
+            long bucketsStart = in.readLong();
+            int bucketBits = in.readInt();
+            long generation = in.readLong();
+            int distance = in.readInt();
+            return new DeletionIndex(in, offsetsStart, deletionsStart, bucketsStart, bucketBits, generation, distance);
+        } catch (IOException ioe) {
+            in.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Get the generation of the index commit this deletion index was built from.
+     * @return the commit generation
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Get the maximum number of deletions indexed for each token.
+     * @return the maximum edit distance of the candidates this index can find
+     */
+    public int getDistance() {
+        return distance;
+    }
+
+    /**
+     * Finds the indexed tokens that may be within an edit distance of a token.  This
+     * method may be called concurrently.
+     * @param token the normalized token
+     * @param maxEdits the maximum edit distance; distances above the distance of this
+     *                 index are treated as the distance of the index
+     * @return the candidate tokens, in term order; every token within the edit distance
+     *         is included, but some candidates may be further away
+     * @throws IOException if an error occurs reading the index
+     */
+    public List<String> getCandidates(final String token, final int maxEdits) throws IOException {
+        IndexInput in = input.clone();
+        Set<Integer> termIds = new TreeSet<Integer>();
+        for (String deletion : deletions(token, Math.min(maxEdits, distance))) {
+            long hash = hash(deletion);
+            int bucket = (int) (hash >>> bucketShift);
+            in.seek(bucketsStart + (long) bucket * 8L);
+            long start = in.readLong();
+            long end = in.readLong();
+            in.seek(deletionsStart + start * 8L);
+            // deletions are sorted by hash within each bucket
+            for (long idx = start; idx < end; idx++) {
+                long entry = in.readLong();
+                long entryHash = entry >>> 32;
+                if (entryHash == hash) {
+                    termIds.add((int) entry);
+                } else if (entryHash > hash) {
+                    break;
+                }
+            }
+        }
+        List<String> candidates = new ArrayList<String>(termIds.size());
+        for (int termId : termIds) {
+            in.seek(offsetsStart + (long) termId * 8L);
+            in.seek(in.readLong());
+            byte[] term = new byte[in.readVInt()];
+            in.readBytes(term, 0, term.length);
+            candidates.add(new BytesRef(term).utf8ToString());
+        }
+        return candidates;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * Builds the deletion index of the {@link IndexField#INDEX_NAME} tokens of an index
+     * and writes it to the index directory, replacing any existing deletion index.  The
+     * hashes of all deletions are sorted in memory, requiring 8 bytes for each.
+     * @param dir the index directory
+     * @param reader a reader of the latest commit of the index
+     * @param distance the maximum number of deletions to index for each token
+     * @throws IOException if an error occurs reading the index or writing the deletion index
+     */
+    public static void write(final Directory dir, final DirectoryReader reader, final int distance) throws IOException {
+        Terms terms = MultiFields.getTerms(reader, INDEX_NAME.key());
+        long[] termOffsets = new long[16];
+        long[] entries = new long[1024];
+        int termCount = 0;
+        int entryCount = 0;
+
+        IndexOutput out = dir.createOutput(FILE_NAME, IOContext.DEFAULT);
+        try {
+            CodecUtil.writeHeader(out, CODEC, VERSION);
+            if (terms != null) {
+                TermsEnum termsEnum = terms.iterator(null);
+                BytesRef term;
+                while ((term = termsEnum.next()) != null) {
+                    termOffsets = ArrayUtil.grow(termOffsets, termCount + 1);
+                    termOffsets[termCount] = out.getFilePointer();
+                    out.writeVInt(term.length);
+                    out.writeBytes(term.bytes, term.offset, term.length);
+                    // each entry holds the hash of a deletion and the ID of its token, so entries
+                    // sort by hash; the hash is 31 bits so the entries are never negative
+                    for (String deletion : deletions(term.utf8ToString(), distance)) {
+                        entries = ArrayUtil.grow(entries, entryCount + 1);
+                        entries[entryCount++] = (hash(deletion) << 32) | termCount;
+                    }
+                    termCount++;
+                }
+            }
+            Arrays.sort(entries, 0, entryCount);
+
+            long offsetsStart = out.getFilePointer();
+            for (int idx = 0; idx < termCount; idx++) {
+                out.writeLong(termOffsets[idx]);
+            }
+            long deletionsStart = out.getFilePointer();
+            for (int idx = 0; idx < entryCount; idx++) {
+                out.writeLong(entries[idx]);
+            }
+            // bucket by the leading bits of the hash; each bucket records the index of its
+            // first entry and is followed by the start of the next bucket
+            int bucketCount = Integer.highestOneBit(Math.max(1, entryCount / BUCKET_LOAD));
+            int bucketBits = Integer.numberOfTrailingZeros(bucketCount);
+            long bucketsStart = out.getFilePointer();
+            int entry = 0;
+            for (int bucket = 0; bucket <= bucketCount; bucket++) {
+                while (entry < entryCount && (entries[entry] >>> 32 >>> (31 - bucketBits)) < bucket) {
+                    entry++;
+                }
+                out.writeLong(entry);
+            }
+
+            out.writeLong(offsetsStart);
+            out.writeLong(deletionsStart);
+            out.writeLong(bucketsStart);
+            out.writeInt(bucketBits);
+            out.writeLong(reader.getIndexCommit().getGeneration());
+            out.writeInt(distance);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Generates the deletion neighborhood of a token's prefix.
+     * @param token the token
+     * @param distance the maximum number of deletions
+     * @return the prefix and every string formed by deleting up to distance of its characters
+     */
+    static Set<String> deletions(final String token, final int distance) {
+        Set<String> deletions = new HashSet<String>();
+        List<String> current = new ArrayList<String>();
+        current.add(token.length() > PREFIX_LENGTH ? token.substring(0, PREFIX_LENGTH) : token);
+        deletions.addAll(current);
+        for (int edits = 0; edits < distance; edits++) {
+            List<String> next = new ArrayList<String>();
+            for (String value : current) {
+                for (int idx = 0; idx < value.length(); idx++) {
+                    String deletion = value.substring(0, idx) + value.substring(idx + 1);
+                    if (deletions.add(deletion)) {
+                        next.add(deletion);
+                    }
+                }
+            }
+            current = next;
+        }
+        return deletions;
+    }
+
+    /**
+     * Hashes a deletion to 31 bits.
+     * @param deletion the deletion
+     * @return the hash
+     */
+    private static long hash(final String deletion) {
+        return StringHelper.murmurhash3_x86_32(new BytesRef(deletion), 0x44454c45) & 0x7fffffffL;
+    }
+}
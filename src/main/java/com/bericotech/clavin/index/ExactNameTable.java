@@ -0,0 +1,428 @@
+package com.bericotech.clavin.index;
+
+import static com.bericotech.clavin.index.IndexField.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * ExactNameTable.java
+ *
+ *###################################################################*/
+
+/**
+ * Maps each normalized name in the {@link IndexField#EXACT_NAME} field of an
+ * index to the documents that match it, in the order a search for the name
+ * would rank them: by descending sort population, then by document ID.  The
+ * table is written to the index directory by the {@link IndexDirectoryBuilder}
+ * once the index has been committed, so the gazetteer can answer the common
+ * exact name lookup with a single hash probe instead of a search.
+ *
+ * Each name lists its documents until the depth of the table, counted in
+ * distinct GeoNames, is reached.  Names also record whether all of their
+ * documents are listed and whether any other document contains the name as
+ * part of a longer name; when it does not, an exact lookup that runs out of
+ * exact matches does not need to search for partial matches either.
+ *
+ * Document IDs are only valid for the commit the table was built from, so
+ * the table records the generation of that commit and must be ignored by
+ * readers of any other commit.  The table is read through an
+ * {@link IndexInput}, so a memory-mapped directory does not load it onto
+ * the heap.
+ */
+public final class ExactNameTable implements Closeable {
+    /**
+     * The name of the table file in a gazetteer index directory.
+     */
+    public static final String FILE_NAME = "names.tbl";
+
+    /**
+     * The default number of distinct GeoNames listed for each name.
+     */
+    public static final int DEFAULT_DEPTH = 10;
+
+    private static final String CODEC = "ClavinExactNames";
+    private static final int VERSION_START = 0;
+    private static final int VERSION = VERSION_START;
+
+    /**
+     * The size of the fields written at the end of the table.
+     */
+    private static final int TRAILER_SIZE = 32;
+
+    /**
+     * The size of each slot of the hash table: the hash of the name and the offset of its entry.
+     */
+    private static final int SLOT_SIZE = 16;
+
+    private static final int COMPLETE_FLAG = 1;
+    private static final int PARTIAL_FREE_FLAG = 2;
+
+    private final IndexInput input;
+    private final long entriesStart;
+    private final long slotsStart;
+    private final int slotMask;
+    private final long generation;
+    private final int depth;
+
+    private ExactNameTable(final IndexInput input, final long entriesStart, final long slotsStart, final int slotCount,
+            final long generation, final int depth) {
+        this.input = input;
+        this.entriesStart = entriesStart;
+        this.slotsStart = slotsStart;
+        this.slotMask = slotCount - 1;
+        this.generation = generation;
+        this.depth = depth;
+    }
+
+    /**
+     * Determines whether an index directory contains an exact name table.
+     * @param dir the index directory
+     * @return <code>true</code> if the directory contains an exact name table
+     * @throws IOException if an error occurs reading the directory
+     */
+    public static boolean exists(final Directory dir) throws IOException {
+        return dir.fileExists(FILE_NAME);
+    }
+
+    /**
+     * Opens the exact name table of an index directory.  The table must be closed
+     * when it is no longer used.
+     * @param dir the index directory
+     * @return the table
+     * @throws IOException if the table cannot be read
+     */
+    public static ExactNameTable open(final Directory dir) throws IOException {
+        IndexInput in = dir.openInput(FILE_NAME, IOContext.DEFAULT);
+        try {
+            CodecUtil.checkHeader(in, CODEC, VERSION_START, VERSION);
+            in.seek(in.length() - TRAILER_SIZE);
+            long entriesStart = in.readLong();
+            long slotsStart = in.readLong();
+            int slotCount = in.readInt();
+            long generation = in.readLong();
+            int depth = in.readInt();
+            return new ExactNameTable(in, entriesStart, slotsStart, slotCount, generation, depth);
+        } catch (IOException ioe) {
+            in.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Get the generation of the index commit this table was built from.
+     * @return the commit generation
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Get the number of distinct GeoNames listed for each name.
+     * @return the depth of the table
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Finds the documents matching a name.  This method may be called concurrently.
+     * @param name the normalized name
+     * @return the matching documents or <code>null</code> if no document of the
+     *         index has the name
+     * @throws IOException if an error occurs reading the table
+     */
+    public Entry lookup(final String name) throws IOException {
+        BytesRef bytes = new BytesRef(name);
+        long hash = hash(bytes);
+        IndexInput in = input.clone();
+        int slot = (int) hash & slotMask;
+        while (true) {
+            in.seek(slotsStart + (long) slot * SLOT_SIZE);
+            long slotHash = in.readLong();
+            if (slotHash == 0L) {
+                return null;
+            }
+            if (slotHash == hash) {
+                in.seek(entriesStart + in.readLong());
+                // verify the name in case of a hash collision
+                byte[] entryName = new byte[in.readVInt()];
+                in.readBytes(entryName, 0, entryName.length);
+                if (bytes.bytesEquals(new BytesRef(entryName))) {
+                    int flags = in.readByte();
+                    int distinct = in.readVInt();
+                    int[] docs = new int[in.readVInt()];
+                    for (int idx = 0; idx < docs.length; idx++) {
+                        docs[idx] = in.readVInt();
+                    }
+                    return new Entry(docs, distinct, (flags & COMPLETE_FLAG) != 0, (flags & PARTIAL_FREE_FLAG) != 0);
+                }
+            }
+            slot = (slot + 1) & slotMask;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * Builds the exact name table of an index and writes it to the index directory,
+     * replacing any existing table.
+     * @param dir the index directory
+     * @param reader a reader of the latest commit of the index
+     * @param depth the number of distinct GeoNames to list for each name
+     * @throws IOException if an error occurs reading the index or writing the table
+     */
+    public static void write(final Directory dir, final DirectoryReader reader, final int depth) throws IOException {
+        Terms terms = MultiFields.getTerms(reader, EXACT_NAME.key());
+        int nameCount = 0;
+        if (terms != null) {
+            TermsEnum termsEnum = terms.iterator(null);
+            while (termsEnum.next() != null) {
+                nameCount++;
+            }
+        }
+        // keep the load factor of the hash table below 0.75
+        int slotCount = Integer.highestOneBit(Math.max(1, nameCount * 4 / 3)) << 1;
+        long[] slotHashes = new long[slotCount];
+        long[] slotOffsets = new long[slotCount];
+
+        NumericDocValues sortPops = MultiDocValues.getNumericValues(reader, SORT_POP.key());
+        NumericDocValues geonameIds = MultiDocValues.getNumericValues(reader, GEONAME_ID.key());
+        if (nameCount > 0 && (sortPops == null || geonameIds == null)) {
+            throw new IllegalStateException("Exact name tables require sort population and geonameID DocValues.");
+        }
+
+        IndexOutput out = dir.createOutput(FILE_NAME, IOContext.DEFAULT);
+        try {
+            CodecUtil.writeHeader(out, CODEC, VERSION);
+            long entriesStart = out.getFilePointer();
+            if (terms != null) {
+                TermsEnum termsEnum = terms.iterator(null);
+                DocsEnum docsEnum = null;
+                List<Hit> hits = new ArrayList<Hit>();
+                BytesRef term;
+                while ((term = termsEnum.next()) != null) {
+                    hits.clear();
+                    docsEnum = termsEnum.docs(MultiFields.getLiveDocs(reader), docsEnum, DocsEnum.FLAG_NONE);
+                    int doc;
+                    while ((doc = docsEnum.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                        hits.add(new Hit(doc, sortPops.get(doc)));
+                    }
+                    if (hits.isEmpty()) {
+                        continue;
+                    }
+                    Collections.sort(hits, HIT_ORDER);
+                    // list hits in ranked order until enough distinct GeoNames have been found
+                    Set<Long> ids = new HashSet<Long>();
+                    int listed = 0;
+                    while (listed < hits.size() && (ids.size() < depth || ids.contains(geonameIds.get(hits.get(listed).doc)))) {
+                        ids.add(geonameIds.get(hits.get(listed).doc));
+                        listed++;
+                    }
+                    int flags = (listed == hits.size() ? COMPLETE_FLAG : 0)
+                            | (isPartialFree(reader, term, termsEnum.docFreq()) ? PARTIAL_FREE_FLAG : 0);
+
+                    long hash = hash(term);
+                    int slot = (int) hash & (slotCount - 1);
+                    while (slotHashes[slot] != 0L) {
+                        slot = (slot + 1) & (slotCount - 1);
+                    }
+                    slotHashes[slot] = hash;
+                    slotOffsets[slot] = out.getFilePointer() - entriesStart;
+
+                    out.writeVInt(term.length);
+                    out.writeBytes(term.bytes, term.offset, term.length);
+                    out.writeByte((byte) flags);
+                    out.writeVInt(ids.size());
+                    out.writeVInt(listed);
+                    for (int idx = 0; idx < listed; idx++) {
+                        out.writeVInt(hits.get(idx).doc);
+                    }
+                }
+            }
+            long slotsStart = out.getFilePointer();
+            for (int slot = 0; slot < slotCount; slot++) {
+                out.writeLong(slotHashes[slot]);
+                out.writeLong(slotOffsets[slot]);
+            }
+            out.writeLong(entriesStart);
+            out.writeLong(slotsStart);
+            out.writeInt(slotCount);
+            out.writeLong(reader.getIndexCommit().getGeneration());
+            out.writeInt(depth);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Determines whether every document containing the tokens of a name is an exact
+     * match for the name.  Each token of the name is found in every exact match, so
+     * if the rarest token is found in no other documents, no document contains the
+     * name as part of a longer name.
+     * @param reader the index reader
+     * @param name the normalized name
+     * @param exactCount the number of documents matching the name exactly
+     * @return <code>true</code> if no document contains the name without matching it exactly
+     * @throws IOException if an error occurs reading the index
+     */
+    private static boolean isPartialFree(final DirectoryReader reader, final BytesRef name, final int exactCount)
+            throws IOException {
+        List<String> tokens = WhitespaceLowerCaseAnalyzer.tokenize(name.utf8ToString());
+        if (tokens.isEmpty()) {
+            return false;
+        }
+        int minCount = Integer.MAX_VALUE;
+        for (String token : tokens) {
+            minCount = Math.min(minCount, reader.docFreq(new Term(INDEX_NAME.key(), token)));
+        }
+        return minCount == exactCount;
+    }
+
+    /**
+     * Hashes a name; 0 marks an empty slot, so it is never returned.
+     * @param bytes the UTF-8 bytes of the name
+     * @return the hash
+     */
+    private static long hash(final BytesRef bytes) {
+        long hash = ((long) StringHelper.murmurhash3_x86_32(bytes, 0x434c4156) << 32)
+                | (StringHelper.murmurhash3_x86_32(bytes, 0x45584143) & 0xffffffffL);
+        return hash != 0L ? hash : 1L;
+    }
+
+    private static final Comparator<Hit> HIT_ORDER = new Comparator<Hit>() {
+        @Override
+        public int compare(final Hit hitA, final Hit hitB) {
+            if (hitA.sortPop != hitB.sortPop) {
+                return hitA.sortPop > hitB.sortPop ? -1 : 1;
+            }
+            return hitA.doc < hitB.doc ? -1 : (hitA.doc > hitB.doc ? 1 : 0);
+        }
+    };
+
+    private static final class Hit {
+        private final int doc;
+        private final long sortPop;
+
+        Hit(final int docIn, final long sortPopIn) {
+            this.doc = docIn;
+            this.sortPop = sortPopIn;
+        }
+    }
+
+    /**
+     * The documents matching a name, in ranked order.
+     */
+    public static final class Entry {
+        private final int[] docs;
+        private final int distinctCount;
+        private final boolean complete;
+        private final boolean partialFree;
+
+        Entry(final int[] docs, final int distinctCount, final boolean complete, final boolean partialFree) {
+            this.docs = docs;
+            this.distinctCount = distinctCount;
+            this.complete = complete;
+            this.partialFree = partialFree;
+        }
+
+        /**
+         * Get the number of listed documents.
+         * @return the number of listed documents
+         */
+        public int size() {
+            return docs.length;
+        }
+
+        /**
+         * Get a listed document.
+         * @param idx the rank of the document, between 0 and size() - 1
+         * @return the document ID
+         */
+        public int getDoc(final int idx) {
+            return docs[idx];
+        }
+
+        /**
+         * Get the number of distinct GeoNames among the listed documents.
+         * @return the number of distinct GeoNames
+         */
+        public int getDistinctCount() {
+            return distinctCount;
+        }
+
+        /**
+         * Determines whether every document matching the name is listed.
+         * @return <code>true</code> if all matching documents are listed
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * Determines whether the name is found in any other document as part of a longer name.
+         * @return <code>true</code> if no document contains the name without matching it exactly
+         */
+        public boolean isPartialFree() {
+            return partialFree;
+        }
+
+        /**
+         * Determines whether the listed documents include the top results of an exact lookup.
+         * @param maxResults the maximum number of results
+         * @param dedupe <code>true</code> if only one result is returned for each GeoName
+         * @return <code>true</code> if the lookup can be answered from this entry
+         */
+        public boolean covers(final int maxResults, final boolean dedupe) {
+            return complete || (dedupe ? distinctCount : docs.length) >= maxResults;
+        }
+    }
+}
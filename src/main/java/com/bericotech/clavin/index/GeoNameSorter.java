@@ -0,0 +1,315 @@
+package com.bericotech.clavin.index;
+
+import com.bericotech.clavin.gazetteer.BinaryGeoNameCodec;
+import com.bericotech.clavin.gazetteer.GeoName;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * GeoNameSorter.java
+ *
+ *###################################################################*/
+
+/**
+ * Sorts GeoNames in descending order of sort population so they can be
+ * indexed with the most populous GeoNames first.  GeoNames with the same
+ * sort population keep the order in which they were added.
+ *
+ * GeoNames are buffered as binary records that include their ancestry.
+ * When the buffer is full, it is sorted and written to a temporary run
+ * file; the runs are merged as the sorted GeoNames are read, so the full
+ * gazetteer never has to be held in memory.
+ */
+final class GeoNameSorter {
+    private final static Logger LOG = LoggerFactory.getLogger(GeoNameSorter.class);
+
+    /**
+     * The default number of bytes of records buffered before a run is written.
+     */
+    static final long DEFAULT_BUFFER_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * The estimated heap overhead of each buffered record.
+     */
+    private static final int RECORD_OVERHEAD = 48;
+
+    private final File tempDir;
+    private final long maxBufferSize;
+    private final List<Record> buffer;
+    private final List<File> runs;
+    private long bufferSize;
+    private long sequence;
+
+    /**
+     * Create a new GeoNameSorter.
+     * @param tempDirIn the directory run files are written to; if <code>null</code>, the
+     *                  default temporary directory is used
+     * @param maxBufferSizeIn the number of bytes of records buffered before a run is written
+     */
+    GeoNameSorter(final File tempDirIn, final long maxBufferSizeIn) {
+        this.tempDir = tempDirIn;
+        this.maxBufferSize = maxBufferSizeIn;
+        this.buffer = new ArrayList<Record>();
+        this.runs = new ArrayList<File>();
+    }
+
+    /**
+     * Adds a GeoName to the sort.
+     * @param geoName the GeoName; it is encoded with all resolved ancestors
+     * @param sortPop the sort population of the GeoName
+     * @throws IOException if an error occurs writing a run
+     */
+    void add(final GeoName geoName, final long sortPop) throws IOException {
+        Record record = new Record(sortPop, sequence++, BinaryGeoNameCodec.encode(geoName, true));
+        buffer.add(record);
+        bufferSize += record.bytes.length + RECORD_OVERHEAD;
+        if (bufferSize >= maxBufferSize) {
+            writeRun();
+        }
+    }
+
+    /**
+     * Get the number of GeoNames added to the sort.
+     * @return the number of GeoNames
+     */
+    long size() {
+        return sequence;
+    }
+
+    /**
+     * Get the number of runs written to disk so far.
+     * @return the number of runs
+     */
+    int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * Reads the sorted GeoNames.  No further GeoNames may be added once the
+     * sorted GeoNames have been read.
+     * @return the reader
+     * @throws IOException if an error occurs reading the runs
+     */
+    Reader sorted() throws IOException {
+        List<Run> sources = new ArrayList<Run>();
+        if (runs.isEmpty()) {
+            Collections.sort(buffer);
+            sources.add(new MemoryRun(buffer.iterator()));
+        } else {
+            // once the buffer has spilled, all records are merged from disk
+            if (!buffer.isEmpty()) {
+                writeRun();
+            }
+            LOG.info("Merging {} sorted runs of {} GeoNames.", runs.size(), sequence);
+            for (File run : runs) {
+                sources.add(new FileRun(run));
+            }
+        }
+        return new Reader(sources);
+    }
+
+    /**
+     * Deletes any run files written by this sorter.
+     */
+    void close() {
+        for (File run : runs) {
+            if (run.exists() && !run.delete()) {
+                LOG.warn("Unable to delete sort run [{}]", run.getAbsolutePath());
+            }
+        }
+        runs.clear();
+        buffer.clear();
+    }
+
+    private void writeRun() throws IOException {
+        Collections.sort(buffer);
+        File run = File.createTempFile("clavin-sort-", ".run", tempDir);
+        runs.add(run);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)));
+        try {
+            for (Record record : buffer) {
+                out.writeLong(record.sortPop);
+                out.writeLong(record.sequence);
+                out.writeInt(record.bytes.length);
+                out.write(record.bytes);
+            }
+        } finally {
+            out.close();
+        }
+        LOG.debug("Wrote sort run {} with {} GeoNames.", runs.size(), buffer.size());
+        buffer.clear();
+        bufferSize = 0L;
+    }
+
+    /**
+     * Reads sorted GeoNames, merging the runs of the sorter.
+     */
+    static final class Reader {
+        private final PriorityQueue<Run> queue;
+
+        private Reader(final List<Run> sources) throws IOException {
+            queue = new PriorityQueue<Run>(Math.max(1, sources.size()));
+            for (Run run : sources) {
+                if (run.advance()) {
+                    queue.add(run);
+                } else {
+                    run.close();
+                }
+            }
+        }
+
+        /**
+         * Reads the next GeoName.
+         * @return the next GeoName, with its ancestry, or <code>null</code> if all GeoNames have been read
+         * @throws IOException if an error occurs reading a run
+         */
+        GeoName next() throws IOException {
+            Run run = queue.poll();
+            if (run == null) {
+                return null;
+            }
+            byte[] bytes = run.current.bytes;
+            if (run.advance()) {
+                queue.add(run);
+            } else {
+                run.close();
+            }
+            return BinaryGeoNameCodec.decode(bytes, 0, bytes.length, null);
+        }
+
+        /**
+         * Closes any runs that have not been read completely.
+         * @throws IOException if an error occurs closing a run
+         */
+        void close() throws IOException {
+            for (Run run : queue) {
+                run.close();
+            }
+            queue.clear();
+        }
+    }
+
+    /**
+     * A buffered GeoName, ordered by descending sort population and then by the
+     * order in which it was added.
+     */
+    private static final class Record implements Comparable<Record> {
+        private final long sortPop;
+        private final long sequence;
+        private final byte[] bytes;
+
+        Record(final long sortPopIn, final long sequenceIn, final byte[] bytesIn) {
+            this.sortPop = sortPopIn;
+            this.sequence = sequenceIn;
+            this.bytes = bytesIn;
+        }
+
+        @Override
+        public int compareTo(final Record other) {
+            int comp = sortPop > other.sortPop ? -1 : (sortPop < other.sortPop ? 1 : 0);
+            return comp != 0 ? comp : (sequence < other.sequence ? -1 : (sequence > other.sequence ? 1 : 0));
+        }
+    }
+
+    /**
+     * A sorted sequence of records being merged.
+     */
+    private abstract static class Run implements Comparable<Run> {
+        protected Record current;
+
+        /**
+         * Moves to the next record of this run.
+         * @return <code>true</code> if a record was read
+         * @throws IOException if an error occurs reading the run
+         */
+        abstract boolean advance() throws IOException;
+
+        void close() throws IOException {
+        }
+
+        @Override
+        public int compareTo(final Run other) {
+            return current.compareTo(other.current);
+        }
+    }
+
+    private static final class MemoryRun extends Run {
+        private final Iterator<Record> records;
+
+        MemoryRun(final Iterator<Record> recordsIn) {
+            this.records = recordsIn;
+        }
+
+        @Override
+        boolean advance() {
+            current = records.hasNext() ? records.next() : null;
+            return current != null;
+        }
+    }
+
+    private static final class FileRun extends Run {
+        private final DataInputStream in;
+
+        FileRun(final File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            long sortPop;
+            try {
+                sortPop = in.readLong();
+            } catch (EOFException eof) {
+                current = null;
+                return false;
+            }
+            long sequence = in.readLong();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            current = new Record(sortPop, sequence, bytes);
+            return true;
+        }
+
+        @Override
+        void close() throws IOException {
+            in.close();
+        }
+    }
+}
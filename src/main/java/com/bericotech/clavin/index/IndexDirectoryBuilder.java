@@ -4,6 +4,8 @@ import static com.bericotech.clavin.index.IndexField.*;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import com.bericotech.clavin.gazetteer.BasicGeoName;
+import com.bericotech.clavin.gazetteer.BinaryGeoNameCodec;
+import com.bericotech.clavin.gazetteer.ColumnarGeoNameStore;
 import com.bericotech.clavin.gazetteer.CountryCode;
 import com.bericotech.clavin.gazetteer.FeatureClass;
 import com.bericotech.clavin.gazetteer.FeatureCode;
@@ -18,9 +20,12 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -40,12 +45,19 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.IntField;
 import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LogByteSizeMergePolicy;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
 import org.apache.lucene.util.Version;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -93,6 +105,11 @@ public class IndexDirectoryBuilder {
     private static final String INDEX_PATH_OPTION = "index-path";
     private static final String REPLACE_INDEX_OPTION = "replace-index";
     private static final String ALTERNATE_NAMES_OPTION = "alt-names-file";
+    private static final String SHARD_BY_COUNTRY_OPTION = "shard-by-country";
+    private static final String SHARD_GROUPS_OPTION = "shard-groups";
+    private static final String NO_POPULATION_SORT_OPTION = "no-population-sort";
+    private static final String EXACT_NAME_DEPTH_OPTION = "exact-name-depth";
+    private static final String FUZZY_DISTANCE_OPTION = "fuzzy-distance";
 
     private static final String[] DEFAULT_GAZETTEER_FILES = new String[] {
         "./allCountries.txt",
@@ -105,30 +122,86 @@ public class IndexDirectoryBuilder {
     private final Map<Integer, AlternateName> alternateNameMap;
     private final boolean fullAncestry;
 
-    private IndexWriter indexWriter;
+    /**
+     * <code>true</code> to build a separate index for the GeoNames of each country
+     * or group of countries.
+     */
+    private final boolean shardByCountry;
+
+    /**
+     * The countries sharing a shard, keyed by each member country.  Countries that
+     * are not found in this map are indexed in a shard of their own.
+     */
+    private final Map<CountryCode, Set<CountryCode>> shardGroups;
+
+    /**
+     * The open shards, keyed by shard name.  An unsharded index is built in a single
+     * shard with an empty name.
+     */
+    private final Map<String, IndexShard> shards;
+
+    /**
+     * <code>true</code> to write the documents of each shard in descending order of
+     * sort population.
+     */
+    private final boolean sortByPopulation;
+
+    /**
+     * Sorts the GeoNames of the current build by sort population before they are written;
+     * <code>null</code> if GeoNames are written in the order they are resolved.
+     */
+    private GeoNameSorter sorter;
+
+    /**
+     * The number of distinct GeoNames listed for each name in the exact name table
+     * of each shard; 0 if no table is written.
+     */
+    private final int exactNameDepth;
+
+    /**
+     * The maximum number of deletions indexed for each token in the deletion index
+     * of each shard; 0 if no deletion index is written.
+     */
+    private final int fuzzyDistance;
+
+    private File indexRoot;
     private int indexCount;
 
-    private IndexDirectoryBuilder(final boolean fullAncestryIn) {
+    private IndexDirectoryBuilder(final boolean fullAncestryIn, final boolean shardByCountryIn,
+            final Map<CountryCode, Set<CountryCode>> shardGroupsIn, final boolean sortByPopulationIn,
+            final int exactNameDepthIn, final int fuzzyDistanceIn) {
         adminMap = new TreeMap<String, GeoName>();
         unresolvedMap = new TreeMap<String, Set<GeoName>>();
         alternateNameMap = new HashMap<Integer, AlternateName>();
+        shards = new LinkedHashMap<String, IndexShard>();
         this.fullAncestry = fullAncestryIn;
+        this.shardByCountry = shardByCountryIn;
+        this.shardGroups = shardGroupsIn;
+        this.sortByPopulation = sortByPopulationIn;
+        this.exactNameDepth = exactNameDepthIn;
+        this.fuzzyDistance = fuzzyDistanceIn;
     }
 
     public void buildIndex(final File indexDir, final List<File> gazetteerFiles, final File altNamesFile) throws IOException {
         LOG.info("Indexing... please wait.");
 
         indexCount = 0;
-
-        // Create a new index file on disk, allowing Lucene to choose
-        // the best FSDirectory implementation given the environment.
-        FSDirectory index = FSDirectory.open(indexDir);
-
-        // indexing by lower-casing & tokenizing on whitespace
-        Analyzer indexAnalyzer = new WhitespaceLowerCaseAnalyzer();
-
-        // create the object that will actually build the Lucene index
-        indexWriter = new IndexWriter(index, new IndexWriterConfig(Version.LUCENE_4_9, indexAnalyzer));
+        indexRoot = indexDir;
+        shards.clear();
+
+        // sharded indexes open the shard of each country as its first GeoName is indexed
+        ShardManifest existingShards = null;
+        if (shardByCountry) {
+            if (!indexDir.isDirectory() && !indexDir.mkdirs()) {
+                throw new IOException(String.format("Unable to create index directory [%s]", indexDir.getAbsolutePath()));
+            }
+            if (ShardManifest.exists(indexDir)) {
+                existingShards = ShardManifest.read(indexDir);
+            }
+        } else {
+            shards.put("", new IndexShard(indexDir, "", sortByPopulation, exactNameDepth, fuzzyDistance));
+        }
+        sorter = sortByPopulation ? new GeoNameSorter(null, GeoNameSorter.DEFAULT_BUFFER_SIZE) : null;
 
         // let's see how long this takes...
         Date start = new Date();
@@ -180,12 +253,35 @@ public class IndexDirectoryBuilder {
             }
         }
 
+        if (sorter != null) {
+            writeSortedGeoNames();
+        }
+
+        int docCount = 0;
+        for (IndexShard shard : shards.values()) {
+            docCount += shard.indexWriter.maxDoc();
+        }
         LOG.info("[DONE]");
-        LOG.info("{} geonames added to index. ({} records)", indexWriter.maxDoc(), indexCount);
+        LOG.info("{} geonames added to index in {} shard(s). ({} records)", docCount, shards.size(), indexCount);
         LOG.info("Merging indices... please wait.");
 
-        indexWriter.close();
-        index.close();
+        for (IndexShard shard : shards.values()) {
+            shard.close();
+        }
+        // the manifest is written last so it only lists shards that are complete
+        if (shardByCountry) {
+            Map<String, Set<CountryCode>> manifest = new TreeMap<String, Set<CountryCode>>();
+            if (existingShards != null) {
+                for (String name : existingShards.getShardNames()) {
+                    manifest.put(name, existingShards.getCountries(name));
+                }
+            }
+            for (IndexShard shard : shards.values()) {
+                Set<CountryCode> codes = manifest.get(shard.name);
+                manifest.put(shard.name, codes != null ? union(codes, shard.countries) : shard.countries);
+            }
+            new ShardManifest(manifest).write(indexDir);
+        }
 
         LOG.info("[DONE]");
 
@@ -195,6 +291,66 @@ public class IndexDirectoryBuilder {
                 + "; elapsed time: " + MILLISECONDS.toSeconds(elapsed_MILLIS) + " seconds.");
     }
 
+    /**
+     * Writes the documents of all GeoNames held by the sorter in descending order
+     * of sort population.  Since each shard receives its documents in order, and log
+     * merge policies only merge adjacent segments, every segment of the index is sorted
+     * by population and exact name searches can stop reading a segment as soon as they
+     * have found enough results.
+     * @throws IOException if an error occurs writing the index
+     */
+    private void writeSortedGeoNames() throws IOException {
+        LOG.info("Writing {} GeoNames in population order.", sorter.size());
+        for (IndexShard shard : shards.values()) {
+            shard.buildHierarchy();
+        }
+        try {
+            GeoNameSorter.Reader reader = sorter.sorted();
+            try {
+                GeoName geoName;
+                while ((geoName = reader.next()) != null) {
+                    writeGeoName(geoName);
+                }
+            } finally {
+                reader.close();
+            }
+        } finally {
+            sorter.close();
+            sorter = null;
+        }
+    }
+
+    private static Set<CountryCode> union(final Set<CountryCode> setA, final Set<CountryCode> setB) {
+        Set<CountryCode> union = EnumSet.copyOf(setA);
+        union.addAll(setB);
+        return union;
+    }
+
+    /**
+     * Get the shard a GeoName is indexed in, opening it if necessary.  GeoNames are
+     * sharded by primary country code; since every administrative ancestor of a GeoName
+     * shares its country, each shard contains the complete ancestry of its GeoNames.
+     * @param geoName the GeoName
+     * @return the shard
+     * @throws IOException if the shard cannot be opened
+     */
+    private IndexShard getShard(final GeoName geoName) throws IOException {
+        if (!shardByCountry) {
+            return shards.get("");
+        }
+        CountryCode code = geoName.getPrimaryCountryCode() != null ? geoName.getPrimaryCountryCode() : CountryCode.NULL;
+        Set<CountryCode> group = shardGroups.get(code);
+        String name = ShardManifest.getShardName(group != null ? group : EnumSet.of(code));
+        IndexShard shard = shards.get(name);
+        if (shard == null) {
+            LOG.info("Opening index shard [{}]", name);
+            shard = new IndexShard(new File(indexRoot, name), name, sortByPopulation, exactNameDepth, fuzzyDistance);
+            shards.put(name, shard);
+        }
+        shard.countries.add(code);
+        return shard;
+    }
+
     private static final int ALT_NAMES_ID_FIELD = 1;
     private static final int ALT_NAMES_LANG_FIELD = 2;
     private static final int ALT_NAMES_NAME_FIELD = 3;
@@ -359,6 +515,48 @@ public class IndexDirectoryBuilder {
         }
     }
 
+    /**
+     * Indexes a GeoName whose ancestry has been resolved as far as possible.  If the
+     * index is sorted by population, the GeoName is held by the sorter until all
+     * GeoNames have been read; otherwise its documents are written immediately.
+     *
+     * @param geoName       the GeoName to index
+     * @throws IOException  if an error occurs while indexing
+     */
+    private void indexGeoName(final GeoName geoName) throws IOException {
+        if (sorter != null) {
+            // the sorter sees every GeoName before any document is written, so the parent table
+            // of each shard is complete and documents can be written with their hierarchy positions
+            getShard(geoName).addAncestors(geoName);
+            Long sortPop = getSortPopulation(geoName);
+            // GeoNames without a sort population sort as if it were 0
+            sorter.add(geoName, sortPop != null ? sortPop : 0L);
+        } else {
+            writeGeoName(geoName);
+        }
+    }
+
+    /**
+     * Get the population used to sort the search results of a GeoName.
+     *
+     * @param geoName       the GeoName
+     * @return the sort population or <code>null</code> if the GeoName should not be sorted by population
+     */
+    private static Long getSortPopulation(final GeoName geoName) {
+        // set up sort field based on population and geographic feature type
+        if (geoName.getFeatureClass().equals(FeatureClass.P) || geoName.getFeatureCode().name().startsWith("PCL")) {
+            if (geoName.getGeonameID() != 2643741) { // todo: temporary hack until GeoNames.org fixes the population for City of London
+                // boost cities and countries when sorting results by population
+                return geoName.getPopulation() * 11;
+            }
+            return null;
+        }
+        // don't boost anything else, because people rarely talk about other stuff
+        // (e.g., Washington State's population is more than 10x that of Washington, DC
+        // but Washington, DC is mentioned far more frequently than Washington State)
+        return geoName.getPopulation();
+    }
+
     /**
      * Builds a set of Lucene documents for the provided GeoName, indexing
      * each using all available names and storing the entire ancestry path
@@ -368,8 +566,9 @@ public class IndexDirectoryBuilder {
      * @param geoName       the GeoName to index
      * @throws IOException  if an error occurs while indexing
      */
-    private void indexGeoName(final GeoName geoName) throws IOException {
+    private void writeGeoName(final GeoName geoName) throws IOException {
         indexCount++;
+        IndexShard shard = getShard(geoName);
         // find all unique names for this GeoName
         String nm = geoName.getName();
         String asciiNm = geoName.getAsciiName();
@@ -397,45 +596,64 @@ public class IndexDirectoryBuilder {
 
         // reuse a single Document and field instances
         Document doc = new Document();
-        doc.add(new StoredField(GEONAME.key(), fullAncestry ? geoName.getGazetteerRecordWithAncestry() : geoName.getGazetteerRecord()));
+        // store the GeoName, and its ancestors if requested, as a binary record that can be decoded without parsing
+        doc.add(new StoredField(GEONAME.key(), BinaryGeoNameCodec.encode(geoName, fullAncestry)));
         doc.add(new IntField(GEONAME_ID.key(), geoName.getGeonameID(), Field.Store.YES));
+        // the numeric IDs and sort population are also stored as DocValues so they can be
+        // read column-wise at query time without loading the stored document
+        doc.add(new NumericDocValuesField(GEONAME_ID.key(), geoName.getGeonameID()));
+        // reference the GeoName's row in the columnar store
+        if (shard.storeWriter != null) {
+            int row = shard.storeWriter.add(geoName, preferredName != null ? preferredName.name : null);
+            doc.add(new NumericDocValuesField(RECORD_ID.key(), row));
+        }
         // if the alternate names file was loaded and we found a preferred name for this GeoName, store it
         if (preferredName != null) {
             doc.add(new StoredField(PREFERRED_NAME.key(), preferredName.name));
         }
-        // index the direct parent ID in the PARENT_ID field
+        // the position of the GeoName in the administrative hierarchy is only known once all
+        // ancestors have been seen; until then, and for top-level GeoNames, it is 0
         GeoName parent = geoName.getParent();
+        doc.add(new NumericDocValuesField(HIERARCHY_POS.key(), shard.hierarchy != null && parent != null ?
+                shard.hierarchy.getChildPosition(parent.getGeonameID()) : 0));
+        if (shard.hierarchy == null) {
+            shard.addAncestors(geoName);
+        }
+        // index the direct parent ID in the PARENT_ID field
         if (parent != null) {
             doc.add(new IntField(PARENT_ID.key(), parent.getGeonameID(), Field.Store.YES));
+            doc.add(new NumericDocValuesField(PARENT_ID.key(), parent.getGeonameID()));
         }
         // index all ancestor IDs in the ANCESTOR_IDS field; this is a secondary field
         // so it can be used to restrict searches and PARENT_ID can be used for ancestor
-        // resolution
+        // resolution.  The DocValues use the same encoding as the indexed terms.  The
+        // parent of each ancestor is recorded so ancestry can be walked without searching.
         while (parent != null) {
             doc.add(new IntField(ANCESTOR_IDS.key(), parent.getGeonameID(), Field.Store.YES));
+            BytesRef ancestorId = new BytesRef(NumericUtils.BUF_SIZE_INT);
+            NumericUtils.intToPrefixCoded(parent.getGeonameID(), 0, ancestorId);
+            doc.add(new SortedSetDocValuesField(ANCESTOR_IDS.key(), ancestorId));
             parent = parent.getParent();
         }
         doc.add(new LongField(POPULATION.key(), geoName.getPopulation(), Field.Store.YES));
-        // set up sort field based on population and geographic feature type
-        if (geoName.getFeatureClass().equals(FeatureClass.P) || geoName.getFeatureCode().name().startsWith("PCL")) {
-            if (geoName.getGeonameID() != 2643741) // todo: temporary hack until GeoNames.org fixes the population for City of London
-                // boost cities and countries when sorting results by population
-                doc.add(new LongField(SORT_POP.key(), geoName.getPopulation() * 11, Field.Store.YES));
-        } else {
-            // don't boost anything else, because people rarely talk about other stuff
-            // (e.g., Washington State's population is more than 10x that of Washington, DC
-            // but Washington, DC is mentioned far more frequently than Washington State)
-            doc.add(new LongField(SORT_POP.key(), geoName.getPopulation(), Field.Store.YES));
+        Long sortPop = getSortPopulation(geoName);
+        if (sortPop != null) {
+            doc.add(new LongField(SORT_POP.key(), sortPop, Field.Store.YES));
+            doc.add(new NumericDocValuesField(SORT_POP.key(), sortPop));
         }
         doc.add(new IntField(HISTORICAL.key(), IndexField.getBooleanIndexValue(geoName.getFeatureCode().isHistorical()), Field.Store.NO));
         doc.add(new StringField(FEATURE_CODE.key(), geoName.getFeatureCode().name(), Field.Store.NO));
 
         // create a unique Document for each name of this GeoName
         TextField nameField = new TextField(INDEX_NAME.key(), "", Field.Store.YES);
+        // the normalized form of the name is indexed as a single term for exact matching
+        StringField exactNameField = new StringField(EXACT_NAME.key(), "", Field.Store.NO);
         doc.add(nameField);
+        doc.add(exactNameField);
         for (String name : names) {
             nameField.setStringValue(name);
-            indexWriter.addDocument(doc);
+            exactNameField.setStringValue(WhitespaceLowerCaseAnalyzer.normalize(name));
+            shard.indexWriter.addDocument(doc);
         }
     }
 
@@ -560,7 +778,63 @@ public class IndexDirectoryBuilder {
             System.exit(-1);
         }
 
-        new IndexDirectoryBuilder(fullAncestry).buildIndex(idir, gazetteerFiles, altNamesFile);
+        Builder builder = new Builder()
+                .fullAncestry(fullAncestry)
+                .shardByCountry(cmd.hasOption(SHARD_BY_COUNTRY_OPTION))
+                .sortByPopulation(!cmd.hasOption(NO_POPULATION_SORT_OPTION));
+        String groupsValue = cmd.getOptionValue(SHARD_GROUPS_OPTION);
+        if (groupsValue != null) {
+            try {
+                builder.shardGroups(groupsValue);
+            } catch (IllegalArgumentException iae) {
+                LOG.error("Invalid shard groups [{}]: {}", groupsValue, iae.getMessage());
+                System.exit(-1);
+            }
+        }
+
+        String depthValue = cmd.getOptionValue(EXACT_NAME_DEPTH_OPTION);
+        if (depthValue != null) {
+            try {
+                builder.exactNameDepth(Integer.parseInt(depthValue));
+            } catch (IllegalArgumentException iae) {
+                LOG.error("Invalid exact name depth [{}]", depthValue);
+                System.exit(-1);
+            }
+        }
+
+        String distanceValue = cmd.getOptionValue(FUZZY_DISTANCE_OPTION);
+        if (distanceValue != null) {
+            try {
+                builder.fuzzyDistance(Integer.parseInt(distanceValue));
+            } catch (IllegalArgumentException iae) {
+                LOG.error("Invalid fuzzy distance [{}]", distanceValue);
+                System.exit(-1);
+            }
+        }
+
+        builder.build().buildIndex(idir, gazetteerFiles, altNamesFile);
+    }
+
+    /**
+     * Parses the countries that share a shard.
+     * @param value the ';'-separated list of groups of ','-separated country codes
+     * @return the group of each country, keyed by member country
+     * @throws IllegalArgumentException if a country code is invalid or belongs to more than one group
+     */
+    private static Map<CountryCode, Set<CountryCode>> parseShardGroups(final String value) {
+        Map<CountryCode, Set<CountryCode>> groups = new EnumMap<CountryCode, Set<CountryCode>>(CountryCode.class);
+        for (String groupValue : StringUtils.split(value, ';')) {
+            Set<CountryCode> group = EnumSet.noneOf(CountryCode.class);
+            for (String code : StringUtils.split(groupValue, ',')) {
+                group.add(CountryCode.valueOf(code.trim().toUpperCase()));
+            }
+            for (CountryCode code : group) {
+                if (groups.put(code, group) != null) {
+                    throw new IllegalArgumentException(String.format("%s is found in more than one group", code));
+                }
+            }
+        }
+        return groups;
     }
 
     private static Options getOptions() {
@@ -604,6 +878,44 @@ public class IndexDirectoryBuilder {
                         + "index processing will fail if an index already exists at the specified location.")
                 .create('r'));
 
+        options.addOption(OptionBuilder
+                .withLongOpt(SHARD_BY_COUNTRY_OPTION)
+                .withDescription("Build a separate index for the GeoNames of each country, so the index can be searched "
+                        + "with a ShardedGazetteer.")
+                .create());
+
+        options.addOption(OptionBuilder
+                .withLongOpt(SHARD_GROUPS_OPTION)
+                .withDescription("The ';'-separated groups of ','-separated country codes that share a shard, e.g. "
+                        + "\"CA,MX;GB,IE\".  Countries not found in a group are indexed in their own shard.  "
+                        + "Implies --" + SHARD_BY_COUNTRY_OPTION + ".")
+                .hasArg()
+                .create());
+
+        options.addOption(OptionBuilder
+                .withLongOpt(NO_POPULATION_SORT_OPTION)
+                .withDescription("Write GeoNames in the order they are read rather than by descending population.  "
+                        + "This avoids the temporary files used to sort the gazetteer, but exact name searches "
+                        + "must then collect every match before ranking the results.")
+                .create());
+
+        options.addOption(OptionBuilder
+                .withLongOpt(EXACT_NAME_DEPTH_OPTION)
+                .withDescription(String.format("The number of distinct GeoNames listed for each name in the exact name "
+                        + "table, which answers unfiltered exact name lookups without searching the index.  Use 0 to omit "
+                        + "the table.  Default: %d", ExactNameTable.DEFAULT_DEPTH))
+                .hasArg()
+                .create());
+
+        options.addOption(OptionBuilder
+                .withLongOpt(FUZZY_DISTANCE_OPTION)
+                .withDescription(String.format("The maximum edit distance of the deletion index, which finds the names "
+                        + "matching fuzzy queries when the gazetteer uses the DELETION_INDEX fuzzy strategy.  Each "
+                        + "additional edit greatly increases the size of the index.  Typically %d; use 0 to omit the "
+                        + "index.  Default: 0", DeletionIndex.DEFAULT_DISTANCE))
+                .hasArg()
+                .create());
+
         return options;
     }
 
@@ -612,6 +924,245 @@ public class IndexDirectoryBuilder {
         formatter.printHelp("run", options, true);
     }
 
+    /**
+     * Configures an IndexDirectoryBuilder.  Each setting matches the command line
+     * option of the same name; unset options take the command line defaults.
+     */
+    public static final class Builder {
+        private boolean fullAncestry = false;
+        private boolean shardByCountry = false;
+        private Map<CountryCode, Set<CountryCode>> shardGroups =
+                new EnumMap<CountryCode, Set<CountryCode>>(CountryCode.class);
+        private boolean sortByPopulation = true;
+        private int exactNameDepth = ExactNameTable.DEFAULT_DEPTH;
+        private int fuzzyDistance = 0;
+
+        /**
+         * Sets whether the full ancestry of each GeoName is stored in the index.
+         * @param fullAncestryIn <code>true</code> to store the full ancestry
+         * @return this Builder
+         */
+        public Builder fullAncestry(final boolean fullAncestryIn) {
+            this.fullAncestry = fullAncestryIn;
+            return this;
+        }
+
+        /**
+         * Sets whether a separate index is built for the GeoNames of each country.
+         * @param shardByCountryIn <code>true</code> to shard the index by country
+         * @return this Builder
+         */
+        public Builder shardByCountry(final boolean shardByCountryIn) {
+            this.shardByCountry = shardByCountryIn;
+            return this;
+        }
+
+        /**
+         * Sets the countries that share a shard, enabling sharding by country.
+         * @param groups the ';'-separated list of groups of ','-separated country codes
+         * @return this Builder
+         * @throws IllegalArgumentException if a country code is invalid or belongs to more than one group
+         */
+        public Builder shardGroups(final String groups) {
+            this.shardGroups = parseShardGroups(groups);
+            this.shardByCountry = true;
+            return this;
+        }
+
+        /**
+         * Sets whether the documents of each shard are written in descending order of
+         * sort population.
+         * @param sortByPopulationIn <code>true</code> to sort documents by population
+         * @return this Builder
+         */
+        public Builder sortByPopulation(final boolean sortByPopulationIn) {
+            this.sortByPopulation = sortByPopulationIn;
+            return this;
+        }
+
+        /**
+         * Sets the number of distinct GeoNames listed for each name in the exact name table.
+         * @param depth the table depth; 0 to write no table
+         * @return this Builder
+         * @throws IllegalArgumentException if the depth is negative
+         */
+        public Builder exactNameDepth(final int depth) {
+            if (depth < 0) {
+                throw new IllegalArgumentException(String.format("Invalid exact name depth [%d]", depth));
+            }
+            this.exactNameDepth = depth;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of deletions indexed for each token in the deletion index.
+         * @param distance the maximum number of deletions; 0 to write no deletion index
+         * @return this Builder
+         * @throws IllegalArgumentException if the distance is negative
+         */
+        public Builder fuzzyDistance(final int distance) {
+            if (distance < 0) {
+                throw new IllegalArgumentException(String.format("Invalid fuzzy distance [%d]", distance));
+            }
+            this.fuzzyDistance = distance;
+            return this;
+        }
+
+        /**
+         * Creates the configured IndexDirectoryBuilder.
+         * @return the IndexDirectoryBuilder
+         */
+        public IndexDirectoryBuilder build() {
+            return new IndexDirectoryBuilder(fullAncestry, shardByCountry, shardGroups, sortByPopulation,
+                    exactNameDepth, fuzzyDistance);
+        }
+    }
+
+    /**
+     * A single Lucene index being built, along with the columnar store and parent table
+     * that accompany it.
+     */
+    private static final class IndexShard {
+        private final String name;
+        private final Set<CountryCode> countries;
+        private final FSDirectory index;
+        private final IndexWriter indexWriter;
+        private final ColumnarGeoNameStore.Writer storeWriter;
+        private final ParentIdTable.Builder parentTable;
+        private final boolean appending;
+        private final int exactNameDepth;
+        private final int fuzzyDistance;
+
+        /**
+         * The parent table, built before any document is written so each document is written
+         * with its hierarchy position; <code>null</code> if the positions are updated after
+         * all documents have been written.
+         */
+        private ParentIdTable hierarchy;
+
+        IndexShard(final File indexDir, final String nameIn, final boolean preserveOrder, final int exactNameDepthIn,
+                final int fuzzyDistanceIn) throws IOException {
+            this.name = nameIn;
+            this.exactNameDepth = exactNameDepthIn;
+            this.fuzzyDistance = fuzzyDistanceIn;
+            this.countries = EnumSet.noneOf(CountryCode.class);
+
+            // Create a new index file on disk, allowing Lucene to choose
+            // the best FSDirectory implementation given the environment.
+            index = FSDirectory.open(indexDir);
+
+            // indexing by lower-casing & tokenizing on whitespace
+            Analyzer indexAnalyzer = new WhitespaceLowerCaseAnalyzer();
+
+            // create the object that will actually build the Lucene index; when documents are
+            // written in population order, a log merge policy keeps each merged segment sorted
+            // since it only merges adjacent segments
+            IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_4_9, indexAnalyzer);
+            if (preserveOrder) {
+                config.setMergePolicy(new LogByteSizeMergePolicy());
+            }
+            indexWriter = new IndexWriter(index, config);
+
+            // write the GeoNames to a columnar store that the gazetteer can memory-map; the rows
+            // of an existing store cannot be extended, so the store is only written for new indexes
+            File storeFile = new File(indexDir, ColumnarGeoNameStore.FILE_NAME);
+            parentTable = new ParentIdTable.Builder();
+            appending = indexWriter.numDocs() > 0;
+            if (!appending) {
+                storeWriter = new ColumnarGeoNameStore.Writer(storeFile);
+            } else {
+                LOG.warn("Adding to an existing index; the columnar GeoName store will not be written.");
+                storeWriter = null;
+                if (storeFile.exists() && !storeFile.delete()) {
+                    LOG.error("Unable to remove columnar GeoName store [{}]", storeFile.getAbsolutePath());
+                }
+                // keep the ancestors of the GeoNames already in the index
+                if (ParentIdTable.exists(index)) {
+                    parentTable.addAll(ParentIdTable.read(index));
+                }
+            }
+        }
+
+        void close() throws IOException {
+            // the store and parent table are written before the index is committed so a
+            // gazetteer opening the new index always finds its rows and ancestors
+            if (storeWriter != null) {
+                storeWriter.close();
+            }
+            ParentIdTable table = hierarchy != null ? hierarchy : parentTable.build();
+            table.write(index);
+            if (hierarchy == null) {
+                writeHierarchyPositions(table);
+            }
+            indexWriter.close();
+            // document IDs are only final once the index is committed, so the exact name
+            // table, name filter and deletion index are built from a reader of the final commit
+            DirectoryReader reader = DirectoryReader.open(index);
+            try {
+                if (exactNameDepth > 0) {
+                    LOG.info("Writing exact name table.");
+                    ExactNameTable.write(index, reader, exactNameDepth);
+                } else if (ExactNameTable.exists(index)) {
+                    index.deleteFile(ExactNameTable.FILE_NAME);
+                }
+                LOG.info("Writing name Bloom filter.");
+                NameBloomFilter.write(index, reader);
+                if (fuzzyDistance > 0) {
+                    LOG.info("Writing deletion index.");
+                    DeletionIndex.write(index, reader, fuzzyDistance);
+                } else if (DeletionIndex.exists(index)) {
+                    index.deleteFile(DeletionIndex.FILE_NAME);
+                }
+            } finally {
+                reader.close();
+            }
+            index.close();
+        }
+
+        /**
+         * Records the parent of each ancestor of a GeoName.
+         * @param geoName the GeoName
+         */
+        void addAncestors(final GeoName geoName) {
+            for (GeoName parent = geoName.getParent(); parent != null; parent = parent.getParent()) {
+                GeoName grandParent = parent.getParent();
+                parentTable.add(parent.getGeonameID(), grandParent != null ? grandParent.getGeonameID() : ParentIdTable.NO_PARENT);
+            }
+        }
+
+        /**
+         * Builds the parent table once the ancestors of every GeoName have been added, so
+         * documents written afterwards carry their hierarchy position.  When adding to an
+         * existing index, the positions of its documents may change, so they are all updated
+         * when the shard is closed instead.
+         */
+        void buildHierarchy() {
+            if (!appending) {
+                hierarchy = parentTable.build();
+            }
+        }
+
+        /**
+         * Sets the hierarchy position of every document with a parent.  All children of an
+         * ancestor share the same position, so the DocValues are updated once per ancestor
+         * for all documents indexed with that parent ID, including those already in the index.
+         * This is only needed when documents are written before the parent table is complete,
+         * as they are without population sorting, or when adding to an existing index.
+         * @param table the parent table of the index
+         * @throws IOException if an error occurs updating the index
+         */
+        private void writeHierarchyPositions(final ParentIdTable table) throws IOException {
+            LOG.info("Updating hierarchy positions of {} ancestors.", table.size());
+            for (int idx = 0; idx < table.size(); idx++) {
+                int parentId = table.getGeonameId(idx);
+                BytesRef term = new BytesRef(NumericUtils.BUF_SIZE_INT);
+                NumericUtils.intToPrefixCoded(parentId, 0, term);
+                indexWriter.updateNumericDocValue(new Term(PARENT_ID.key(), term), HIERARCHY_POS.key(),
+                        (long) table.getChildPosition(parentId));
+            }
+        }
+    }
+
     private static class AlternateName implements Comparable<AlternateName> {
         private final int geonameId;
         private final String name;
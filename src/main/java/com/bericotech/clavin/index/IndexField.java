@@ -38,6 +38,7 @@ import org.slf4j.LoggerFactory;
  */
 public enum IndexField {
     INDEX_NAME("indexName"),
+    EXACT_NAME("exactName"),
     GEONAME("geoname"),
     GEONAME_ID("geonameID"),
     PARENT_ID("parentID"),
@@ -46,7 +47,9 @@ public enum IndexField {
     SORT_POP("sortPopulation"),
     HISTORICAL("historical"),
     FEATURE_CODE("featureCode"),
-    PREFERRED_NAME("preferredName");
+    PREFERRED_NAME("preferredName"),
+    RECORD_ID("recordID"),
+    HIERARCHY_POS("hierarchyPosition");
 
     /**
      * The class logger.
@@ -82,10 +85,13 @@ public enum IndexField {
         if (field != null) {
             switch (this) {
                 case INDEX_NAME:
-                case GEONAME:
                 case PREFERRED_NAME:
                     value = field.stringValue();
                     break;
+                case GEONAME:
+                    // a BytesRef containing the binary record or, in older indexes, the GeoNames record
+                    value = field.binaryValue() != null ? field.binaryValue() : field.stringValue();
+                    break;
                 case GEONAME_ID:
                 case PARENT_ID:
                 case ANCESTOR_IDS:
@@ -97,8 +103,11 @@ public enum IndexField {
                 case SORT_POP:
                     value = field.numericValue().longValue();
                     break;
+                case EXACT_NAME:
                 case HISTORICAL:
                 case FEATURE_CODE:
+                case RECORD_ID:
+                case HIERARCHY_POS:
                     // these fields are not stored
                     LOG.warn("Attempting to retrieve value for an unstored field: [{}]", this);
                     break;
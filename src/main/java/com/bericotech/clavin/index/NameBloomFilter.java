@@ -0,0 +1,221 @@
+package com.bericotech.clavin.index;
+
+import static com.bericotech.clavin.index.IndexField.*;
+
+import java.io.IOException;
+import java.util.List;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * NameBloomFilter.java
+ *
+ *###################################################################*/
+
+/**
+ * A Bloom filter over every token of the {@link IndexField#INDEX_NAME} field
+ * of an index.  The filter is written to the index directory by the
+ * {@link IndexDirectoryBuilder} and loaded in full when the gazetteer is
+ * opened.  A name containing a token the filter has never seen cannot match
+ * any indexed name, either exactly or as part of a longer name, so the
+ * gazetteer can skip its exact search without reading the term dictionary
+ * of every segment.
+ *
+ * The filter uses {@value #BITS_PER_TOKEN} bits per token and
+ * {@value #HASH_COUNT} hash functions, for a false positive rate of about
+ * 1%; false positives only cost the search the filter would have saved.
+ * Like the {@link ExactNameTable}, the filter records the generation of the
+ * commit it was built from, since tokens added by a later commit would be
+ * missing from it.
+ */
+public final class NameBloomFilter {
+    /**
+     * The name of the filter file in a gazetteer index directory.
+     */
+    public static final String FILE_NAME = "tokens.bloom";
+
+    /**
+     * The number of bits allocated for each token.
+     */
+    static final int BITS_PER_TOKEN = 10;
+
+    /**
+     * The number of bits set for each token.
+     */
+    static final int HASH_COUNT = 7;
+
+    private static final String CODEC = "ClavinNameBloom";
+    private static final int VERSION_START = 0;
+    private static final int VERSION = VERSION_START;
+
+    private final long[] bits;
+    private final long bitCount;
+    private final long generation;
+
+    private NameBloomFilter(final long[] bits, final long generation) {
+        this.bits = bits;
+        this.bitCount = (long) bits.length * Long.SIZE;
+        this.generation = generation;
+    }
+
+    /**
+     * Determines whether an index directory contains a name Bloom filter.
+     * @param dir the index directory
+     * @return <code>true</code> if the directory contains a filter
+     * @throws IOException if an error occurs reading the directory
+     */
+    public static boolean exists(final Directory dir) throws IOException {
+        return dir.fileExists(FILE_NAME);
+    }
+
+    /**
+     * Reads the name Bloom filter from an index directory.
+     * @param dir the index directory
+     * @return the filter
+     * @throws IOException if the filter cannot be read
+     */
+    public static NameBloomFilter read(final Directory dir) throws IOException {
+        IndexInput in = dir.openInput(FILE_NAME, IOContext.READONCE);
+        try {
+            CodecUtil.checkHeader(in, CODEC, VERSION_START, VERSION);
+            long generation = in.readLong();
+            long[] bits = new long[in.readVInt()];
+            for (int idx = 0; idx < bits.length; idx++) {
+                bits[idx] = in.readLong();
+            }
+            return new NameBloomFilter(bits, generation);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Builds the name Bloom filter of an index and writes it to the index directory,
+     * replacing any existing filter.
+     * @param dir the index directory
+     * @param reader a reader of the latest commit of the index
+     * @throws IOException if an error occurs reading the index or writing the filter
+     */
+    public static void write(final Directory dir, final DirectoryReader reader) throws IOException {
+        Terms terms = MultiFields.getTerms(reader, INDEX_NAME.key());
+        long tokenCount = 0;
+        if (terms != null) {
+            TermsEnum termsEnum = terms.iterator(null);
+            while (termsEnum.next() != null) {
+                tokenCount++;
+            }
+        }
+        long wordCount = (Math.max(1L, tokenCount) * BITS_PER_TOKEN + Long.SIZE - 1) / Long.SIZE;
+        if (wordCount > Integer.MAX_VALUE) {
+            throw new IllegalStateException(String.format("Too many tokens [%d] for a name Bloom filter", tokenCount));
+        }
+        NameBloomFilter filter = new NameBloomFilter(new long[(int) wordCount], reader.getIndexCommit().getGeneration());
+        if (terms != null) {
+            TermsEnum termsEnum = terms.iterator(null);
+            BytesRef term;
+            while ((term = termsEnum.next()) != null) {
+                filter.add(term);
+            }
+        }
+
+        IndexOutput out = dir.createOutput(FILE_NAME, IOContext.DEFAULT);
+        try {
+            CodecUtil.writeHeader(out, CODEC, VERSION);
+            out.writeLong(filter.generation);
+            out.writeVInt(filter.bits.length);
+            for (long word : filter.bits) {
+                out.writeLong(word);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Get the generation of the index commit this filter was built from.
+     * @return the commit generation
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Determines whether a token may be found in the index.
+     * @param token the lower-cased token
+     * @return <code>false</code> if the token is definitely not indexed
+     */
+    public boolean mayContain(final String token) {
+        return probe(new BytesRef(token), false);
+    }
+
+    /**
+     * Determines whether all tokens of a name may be found in the index.
+     * @param tokens the lower-cased tokens of the name
+     * @return <code>false</code> if any token is definitely not indexed
+     */
+    public boolean mayContainAll(final List<String> tokens) {
+        for (String token : tokens) {
+            if (!mayContain(token)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add(final BytesRef bytes) {
+        probe(bytes, true);
+    }
+
+    /**
+     * Tests or sets the bits of a token, using double hashing to derive the
+     * bit positions from two independent hashes.
+     * @param bytes the UTF-8 bytes of the token
+     * @param set <code>true</code> to set the bits of the token
+     * @return <code>false</code> if any bit of the token was not set
+     */
+    private boolean probe(final BytesRef bytes, final boolean set) {
+        long hashA = StringHelper.murmurhash3_x86_32(bytes, 0x434c4156) & 0xffffffffL;
+        long hashB = StringHelper.murmurhash3_x86_32(bytes, 0x424c4f4f) & 0xffffffffL;
+        for (int idx = 0; idx < HASH_COUNT; idx++) {
+            long bit = (hashA + idx * hashB) % bitCount;
+            if (set) {
+                bits[(int) (bit >>> 6)] |= 1L << bit;
+            } else if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0L) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,358 @@
+package com.bericotech.clavin.index;
+
+import com.bericotech.clavin.gazetteer.HierarchyPosition;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * ParentIdTable.java
+ * 
+ *###################################################################*/
+
+/**
+ * Maps the geonameID of every GeoName that is an ancestor of an indexed
+ * GeoName to the geonameID of its own parent.  The table is written to
+ * the index directory by the {@link IndexDirectoryBuilder} and loaded in
+ * full when the gazetteer is opened, so the complete ancestry of a GeoName
+ * can be walked from its parent ID without searching the index.
+ *
+ * The IDs are held in two parallel arrays sorted by geonameID; lookups
+ * are binary searches, so the table needs 8 bytes per ancestor regardless
+ * of the range of geonameIDs in the gazetteer.
+ *
+ * The table also numbers the ancestors in a pre-order walk of the
+ * administrative hierarchy, assigning each ancestor the interval
+ * [left, right] spanned by the numbers of the ancestors below it.  Every
+ * GeoName is given the position <code>2 * left(parent) + 1</code> and
+ * each ancestor covers the positions <code>[2 * left + 1, 2 * right + 1]</code>,
+ * so a GeoName descends from an ancestor exactly when its position falls
+ * within the ancestor's range (see {@link HierarchyPosition}).  The
+ * positions are also written to the {@link IndexField#HIERARCHY_POS}
+ * DocValues of every document so searches can be restricted to the
+ * descendants of an ancestor with a single range check.  Tables written
+ * before the intervals were introduced are read without them.
+ */
+public final class ParentIdTable {
+    /**
+     * The name of the table file in a gazetteer index directory.
+     */
+    public static final String FILE_NAME = "parents.tbl";
+
+    /**
+     * The parent ID of top-level GeoNames and GeoNames that are not in the table.
+     */
+    public static final int NO_PARENT = -1;
+
+    private static final String CODEC = "ClavinParentIds";
+    private static final int VERSION_START = 0;
+    private static final int VERSION_INTERVALS = 1;
+    private static final int VERSION = VERSION_INTERVALS;
+
+    /**
+     * The sorted geonameIDs of all ancestor GeoNames.
+     */
+    private final int[] geonameIds;
+
+    /**
+     * The parent ID of the GeoName at the corresponding index in geonameIds.
+     */
+    private final int[] parentIds;
+
+    /**
+     * The pre-order number of the GeoName at the corresponding index in geonameIds;
+     * <code>null</code> if the table was written without intervals.
+     */
+    private final int[] lefts;
+
+    /**
+     * The largest pre-order number of the GeoName at the corresponding index in
+     * geonameIds and its descendants; <code>null</code> if the table was written
+     * without intervals.
+     */
+    private final int[] rights;
+
+    private ParentIdTable(final int[] geonameIds, final int[] parentIds, final int[] lefts, final int[] rights) {
+        this.geonameIds = geonameIds;
+        this.parentIds = parentIds;
+        this.lefts = lefts;
+        this.rights = rights;
+    }
+
+    /**
+     * Determines whether an index directory contains a parent table.
+     * @param dir the index directory
+     * @return <code>true</code> if the directory contains a parent table
+     * @throws IOException if an error occurs reading the directory
+     */
+    public static boolean exists(final Directory dir) throws IOException {
+        return dir.fileExists(FILE_NAME);
+    }
+
+    /**
+     * Reads the parent table from an index directory.
+     * @param dir the index directory
+     * @return the parent table
+     * @throws IOException if the table cannot be read
+     */
+    public static ParentIdTable read(final Directory dir) throws IOException {
+        IndexInput in = dir.openInput(FILE_NAME, IOContext.READONCE);
+        try {
+            int version = CodecUtil.checkHeader(in, CODEC, VERSION_START, VERSION);
+            boolean intervals = version >= VERSION_INTERVALS;
+            int size = in.readVInt();
+            int[] ids = new int[size];
+            int[] parents = new int[size];
+            int[] lefts = intervals ? new int[size] : null;
+            int[] rights = intervals ? new int[size] : null;
+            int id = 0;
+            for (int idx = 0; idx < size; idx++) {
+                // IDs are sorted so they are stored as deltas
+                id += in.readVInt();
+                ids[idx] = id;
+                parents[idx] = in.readInt();
+                if (intervals) {
+                    lefts[idx] = in.readVInt();
+                    rights[idx] = lefts[idx] + in.readVInt();
+                }
+            }
+            return new ParentIdTable(ids, parents, lefts, rights);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes this table to an index directory, replacing any existing table.
+     * @param dir the index directory
+     * @throws IOException if an error occurs writing the table
+     */
+    public void write(final Directory dir) throws IOException {
+        if (!hasIntervals()) {
+            throw new IllegalStateException("Parent tables read without hierarchy intervals cannot be written.");
+        }
+        IndexOutput out = dir.createOutput(FILE_NAME, IOContext.DEFAULT);
+        try {
+            CodecUtil.writeHeader(out, CODEC, VERSION);
+            out.writeVInt(geonameIds.length);
+            int previous = 0;
+            for (int idx = 0; idx < geonameIds.length; idx++) {
+                out.writeVInt(geonameIds[idx] - previous);
+                out.writeInt(parentIds[idx]);
+                out.writeVInt(lefts[idx]);
+                out.writeVInt(rights[idx] - lefts[idx]);
+                previous = geonameIds[idx];
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Get the parent ID of an ancestor GeoName.
+     * @param geonameId the geonameID of the ancestor
+     * @return the ID of its parent or {@link #NO_PARENT} if it is a top-level
+     *         GeoName or is not found in this table
+     */
+    public int getParentId(final int geonameId) {
+        int idx = Arrays.binarySearch(geonameIds, geonameId);
+        return idx >= 0 ? parentIds[idx] : NO_PARENT;
+    }
+
+    /**
+     * Determines whether a GeoName is found in this table.
+     * @param geonameId the geonameID
+     * @return <code>true</code> if the GeoName is the ancestor of an indexed GeoName
+     */
+    public boolean contains(final int geonameId) {
+        return Arrays.binarySearch(geonameIds, geonameId) >= 0;
+    }
+
+    /**
+     * Determines whether the hierarchy intervals of this table are available.
+     * @return <code>false</code> if this table was written before the intervals were introduced
+     */
+    public boolean hasIntervals() {
+        return lefts != null;
+    }
+
+    /**
+     * Get the hierarchy position of the children of an ancestor GeoName.
+     * @param parentId the geonameID of the ancestor or {@link #NO_PARENT}
+     * @return the position of all GeoNames with the provided parent or 0 if the
+     *         parent is not found in this table or this table has no intervals
+     */
+    public int getChildPosition(final int parentId) {
+        int idx = hasIntervals() ? Arrays.binarySearch(geonameIds, parentId) : -1;
+        return idx >= 0 ? 2 * lefts[idx] + 1 : 0;
+    }
+
+    /**
+     * Get the hierarchy position of a GeoName.  The position can only be compared
+     * with other positions assigned by this table.
+     * @param geonameId the geonameID of the GeoName
+     * @param parentId the geonameID of its parent or {@link #NO_PARENT}
+     * @return the position of the GeoName and, if it is an ancestor, the range of its
+     *         descendants or <code>null</code> if this table has no intervals
+     */
+    public HierarchyPosition getHierarchyPosition(final int geonameId, final int parentId) {
+        if (!hasIntervals()) {
+            return null;
+        }
+        int idx = Arrays.binarySearch(geonameIds, geonameId);
+        return idx >= 0 ? new HierarchyPosition(this, getChildPosition(parentId), 2 * lefts[idx] + 1, 2 * rights[idx] + 1) :
+                new HierarchyPosition(this, getChildPosition(parentId), 0, -1);
+    }
+
+    /**
+     * Get the geonameID of the ancestor at an index of this table.
+     * @param idx the index, between 0 and size() - 1
+     * @return the geonameID; IDs are in ascending order
+     */
+    int getGeonameId(final int idx) {
+        return geonameIds[idx];
+    }
+
+    /**
+     * Get the number of GeoNames in this table.
+     * @return the number of ancestor GeoNames
+     */
+    public int size() {
+        return geonameIds.length;
+    }
+
+    /**
+     * Collects the parents of ancestor GeoNames as they are indexed.
+     */
+    public static final class Builder {
+        private final Map<Integer, Integer> parents = new HashMap<Integer, Integer>();
+
+        /**
+         * Adds all entries of an existing table.
+         * @param table the table
+         * @return this Builder
+         */
+        public Builder addAll(final ParentIdTable table) {
+            for (int idx = 0; idx < table.geonameIds.length; idx++) {
+                parents.put(table.geonameIds[idx], table.parentIds[idx]);
+            }
+            return this;
+        }
+
+        /**
+         * Sets the parent of an ancestor GeoName.
+         * @param geonameId the geonameID of the ancestor
+         * @param parentId the ID of its parent or {@link #NO_PARENT}
+         * @return this Builder
+         */
+        public Builder add(final int geonameId, final int parentId) {
+            if (geonameId < 0) {
+                throw new IllegalArgumentException(String.format("Invalid geonameID [%d]", geonameId));
+            }
+            parents.put(geonameId, parentId);
+            return this;
+        }
+
+        /**
+         * Builds the table, numbering the ancestors in a pre-order walk of the
+         * hierarchy.  Roots and siblings are visited in geonameID order so the
+         * numbering is deterministic.
+         * @return the table
+         */
+        public ParentIdTable build() {
+            int[] ids = new int[parents.size()];
+            int idx = 0;
+            for (Integer id : parents.keySet()) {
+                ids[idx++] = id;
+            }
+            Arrays.sort(ids);
+            int size = ids.length;
+            int[] parentIds = new int[size];
+            // the index of each GeoName's parent in ids; -1 for roots
+            int[] parentIdx = new int[size];
+            // the children of the GeoName at index i are children[childStart[i]] to children[childStart[i + 1] - 1]
+            int[] childStart = new int[size + 1];
+            for (idx = 0; idx < size; idx++) {
+                parentIds[idx] = parents.get(ids[idx]);
+                parentIdx[idx] = parentIds[idx] != NO_PARENT ? Arrays.binarySearch(ids, parentIds[idx]) : -1;
+                if (parentIdx[idx] < 0) {
+                    parentIdx[idx] = -1;
+                } else {
+                    childStart[parentIdx[idx] + 1]++;
+                }
+            }
+            for (idx = 0; idx < size; idx++) {
+                childStart[idx + 1] += childStart[idx];
+            }
+            int[] children = new int[childStart[size]];
+            int[] fill = Arrays.copyOf(childStart, size);
+            for (idx = 0; idx < size; idx++) {
+                if (parentIdx[idx] >= 0) {
+                    children[fill[parentIdx[idx]]++] = idx;
+                }
+            }
+
+            int[] lefts = new int[size];
+            int[] rights = new int[size];
+            int[] stack = new int[size];
+            int[] cursor = new int[size];
+            int counter = 0;
+            // walk from each root, then from any GeoNames left unnumbered by a cycle in the hierarchy
+            for (int pass = 0; pass < 2; pass++) {
+                for (int root = 0; root < size; root++) {
+                    if (lefts[root] != 0 || (pass == 0 && parentIdx[root] >= 0)) {
+                        continue;
+                    }
+                    int depth = 0;
+                    stack[0] = root;
+                    cursor[root] = childStart[root];
+                    lefts[root] = ++counter;
+                    while (depth >= 0) {
+                        int node = stack[depth];
+                        if (cursor[node] < childStart[node + 1]) {
+                            int child = children[cursor[node]++];
+                            if (lefts[child] == 0) {
+                                cursor[child] = childStart[child];
+                                lefts[child] = ++counter;
+                                stack[++depth] = child;
+                            }
+                        } else {
+                            rights[node] = counter;
+                            depth--;
+                        }
+                    }
+                }
+            }
+            return new ParentIdTable(ids, parentIds, lefts, rights);
+        }
+    }
+}
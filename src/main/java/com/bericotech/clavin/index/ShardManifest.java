@@ -0,0 +1,175 @@
+package com.bericotech.clavin.index;
+
+import com.bericotech.clavin.gazetteer.CountryCode;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import org.apache.commons.lang.StringUtils;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * ShardManifest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Describes a gazetteer index that has been partitioned by primary country
+ * code into separate Lucene indexes, or shards.  Every GeoName is indexed in
+ * the shard of its primary country, along with its entire administrative
+ * ancestry, so each shard can resolve the ancestry of its own GeoNames.
+ *
+ * The manifest is written to the root directory of a sharded index by the
+ * {@link IndexDirectoryBuilder} and maps the name of each shard, which is
+ * also the name of its subdirectory, to the countries it contains.
+ */
+public final class ShardManifest {
+    /**
+     * The name of the manifest file in the root directory of a sharded index.
+     */
+    public static final String FILE_NAME = "shards.properties";
+
+    /**
+     * The countries in each shard, keyed by shard name.
+     */
+    private final Map<String, Set<CountryCode>> shards;
+
+    /**
+     * Create a new ShardManifest.
+     * @param shards the countries in each shard, keyed by shard name
+     */
+    public ShardManifest(final Map<String, Set<CountryCode>> shards) {
+        Map<String, Set<CountryCode>> copy = new TreeMap<String, Set<CountryCode>>();
+        for (Map.Entry<String, Set<CountryCode>> entry : shards.entrySet()) {
+            copy.put(entry.getKey(), Collections.unmodifiableSet(EnumSet.copyOf(entry.getValue())));
+        }
+        this.shards = Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * Determines whether a directory contains a sharded index.
+     * @param dir the index directory
+     * @return <code>true</code> if the directory contains a shard manifest
+     */
+    public static boolean exists(final File dir) {
+        return new File(dir, FILE_NAME).isFile();
+    }
+
+    /**
+     * Reads the manifest of a sharded index.
+     * @param dir the root directory of the sharded index
+     * @return the manifest
+     * @throws IOException if the manifest cannot be read
+     */
+    public static ShardManifest read(final File dir) throws IOException {
+        Properties props = new Properties();
+        InputStream in = new FileInputStream(new File(dir, FILE_NAME));
+        try {
+            props.load(in);
+        } finally {
+            in.close();
+        }
+        Map<String, Set<CountryCode>> shards = new TreeMap<String, Set<CountryCode>>();
+        for (String name : props.stringPropertyNames()) {
+            Set<CountryCode> codes = EnumSet.noneOf(CountryCode.class);
+            for (String code : StringUtils.split(props.getProperty(name), ',')) {
+                try {
+                    codes.add(CountryCode.valueOf(code.trim()));
+                } catch (IllegalArgumentException iae) {
+                    throw new IOException(String.format("Invalid country code [%s] for shard [%s]", code, name), iae);
+                }
+            }
+            shards.put(name, codes);
+        }
+        return new ShardManifest(shards);
+    }
+
+    /**
+     * Writes this manifest to the root directory of a sharded index.
+     * @param dir the root directory
+     * @throws IOException if the manifest cannot be written
+     */
+    public void write(final File dir) throws IOException {
+        Properties props = new Properties();
+        for (Map.Entry<String, Set<CountryCode>> entry : shards.entrySet()) {
+            props.setProperty(entry.getKey(), StringUtils.join(entry.getValue(), ','));
+        }
+        OutputStream out = new FileOutputStream(new File(dir, FILE_NAME));
+        try {
+            props.store(out, "CLAVIN gazetteer shards");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Get the names of all shards.
+     * @return the shard names, in ascending order
+     */
+    public Set<String> getShardNames() {
+        return shards.keySet();
+    }
+
+    /**
+     * Get the countries in a shard.
+     * @param shardName the name of the shard
+     * @return the countries or an empty set if the shard is not found
+     */
+    public Set<CountryCode> getCountries(final String shardName) {
+        Set<CountryCode> codes = shards.get(shardName);
+        return codes != null ? codes : Collections.<CountryCode>emptySet();
+    }
+
+    /**
+     * Finds the shard containing the GeoNames of a country.
+     * @param code the primary country code
+     * @return the name of the shard or <code>null</code> if no shard contains the country
+     */
+    public String getShardName(final CountryCode code) {
+        for (Map.Entry<String, Set<CountryCode>> entry : shards.entrySet()) {
+            if (entry.getValue().contains(code)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Builds the name of the shard containing a group of countries.
+     * @param codes the countries
+     * @return the shard name
+     */
+    public static String getShardName(final Set<CountryCode> codes) {
+        return StringUtils.join(EnumSet.copyOf(codes), '_');
+    }
+}
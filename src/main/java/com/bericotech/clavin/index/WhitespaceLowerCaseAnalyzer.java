@@ -1,6 +1,9 @@
 package com.bericotech.clavin.index;
 
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang.StringUtils;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.util.Version;
@@ -43,6 +46,12 @@ public class WhitespaceLowerCaseAnalyzer extends Analyzer {
     // Lucene v4.0+ offers a nice speed increase over v3.6.1 in
     // terms of fuzzy search
     private final static Version matchVersion = Version.LUCENE_4_9;
+
+    /**
+     * The length at which the CharTokenizer underlying this analyzer
+     * splits a token; the remaining characters start a new token.
+     */
+    static final int MAX_TOKEN_LENGTH = 255;
     
     /**
      * Simple default constructor for
@@ -61,4 +70,53 @@ public class WhitespaceLowerCaseAnalyzer extends Analyzer {
     protected TokenStreamComponents createComponents(final String fieldName, final Reader reader) {
         return new TokenStreamComponents(new WhitespaceLowerCaseTokenizer(matchVersion, reader));
     }
+
+    /**
+     * Splits the provided text into the same lower-cased tokens produced
+     * by this analyzer without constructing a TokenStream, including
+     * the split of tokens longer than {@value #MAX_TOKEN_LENGTH} chars.
+     *
+     * @param text          text to be tokenized
+     * @return              the tokens found in the text
+     */
+    public static List<String> tokenize(final String text) {
+        List<String> tokens = new ArrayList<String>();
+        StringBuilder token = new StringBuilder();
+        int idx = 0;
+        while (idx < text.length()) {
+            int c = text.codePointAt(idx);
+            if (Character.isWhitespace(c)) {
+                if (token.length() > 0) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                }
+            } else {
+                token.appendCodePoint(Character.toLowerCase(c));
+                // split overlong tokens where the tokenizer does so the index
+                // and query tokens match
+                if (token.length() >= MAX_TOKEN_LENGTH) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                }
+            }
+            idx += Character.charCount(c);
+        }
+        if (token.length() > 0) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * Normalizes the provided text to the tokens produced by this
+     * analyzer, separated by single spaces.  Two names are equal
+     * when indexed by this analyzer if their normalized forms are
+     * equal.
+     *
+     * @param text          text to be normalized
+     * @return              the normalized text
+     */
+    public static String normalize(final String text) {
+        return StringUtils.join(tokenize(text), ' ');
+    }
 }
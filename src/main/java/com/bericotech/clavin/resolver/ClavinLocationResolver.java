@@ -31,10 +31,13 @@ package com.bericotech.clavin.resolver;
 import com.bericotech.clavin.ClavinException;
 import com.bericotech.clavin.extractor.LocationOccurrence;
 import com.bericotech.clavin.gazetteer.CountryCode;
+import com.bericotech.clavin.gazetteer.query.AbstractGazetteer;
 import com.bericotech.clavin.gazetteer.query.AncestryMode;
 import com.bericotech.clavin.gazetteer.query.FuzzyMode;
 import com.bericotech.clavin.gazetteer.query.Gazetteer;
+import com.bericotech.clavin.gazetteer.query.GazetteerQuery;
 import com.bericotech.clavin.gazetteer.query.QueryBuilder;
+import com.bericotech.clavin.util.Deadline;
 import com.bericotech.clavin.util.ListUtils;
 
 import java.io.BufferedReader;
@@ -102,8 +105,8 @@ public class ClavinLocationResolver {
      * {@link ResolvedLocation}s containing {@link com.bericotech.clavin.gazetteer.GeoName} objects
      * using the defaults for maxHitDepth and maxContentWindow.
      *
-     * Calls {@link Gazetteer#getClosestLocations} on
-     * each location name to find all possible matches, then uses
+     * Calls {@link Gazetteer#getClosestLocations} with a batch of
+     * queries for the location names to find all possible matches, then uses
      * heuristics to select the best match for each by calling
      * {@link ClavinLocationResolver#pickBestCandidates}.
      *
@@ -121,8 +124,8 @@ public class ClavinLocationResolver {
      * Resolves the supplied list of location names into
      * {@link ResolvedLocation}s containing {@link com.bericotech.clavin.gazetteer.GeoName} objects.
      *
-     * Calls {@link Gazetteer#getClosestLocations} on
-     * each location name to find all possible matches, then uses
+     * Calls {@link Gazetteer#getClosestLocations} with a batch of
+     * queries for the location names to find all possible matches, then uses
      * heuristics to select the best match for each by calling
      * {@link ClavinLocationResolver#pickBestCandidates}.
      *
@@ -143,8 +146,8 @@ public class ClavinLocationResolver {
      * Resolves the supplied list of location names into
      * {@link ResolvedLocation}s containing {@link com.bericotech.clavin.gazetteer.GeoName} objects.
      *
-     * Calls {@link Gazetteer#getClosestLocations} on
-     * each location name to find all possible matches, then uses
+     * Calls {@link Gazetteer#getClosestLocations} with a batch of
+     * queries for the location names to find all possible matches, then uses
      * heuristics to select the best match for each by calling
      * {@link ClavinLocationResolver#pickBestCandidates}.
      *
@@ -156,9 +159,35 @@ public class ClavinLocationResolver {
      * @return                   list of {@link ResolvedLocation} objects
      * @throws ClavinException   if an error occurs parsing the search terms
      **/
-    @SuppressWarnings("unchecked")
     public List<ResolvedLocation> resolveLocations(final List<LocationOccurrence> locations, final int maxHitDepth,
             final int maxContextWindow, final boolean fuzzy, final AncestryMode ancestryMode) throws ClavinException {
+        return resolveLocations(locations, maxHitDepth, maxContextWindow, fuzzy, ancestryMode, null);
+    }
+
+    /**
+     * Resolves the supplied list of location names into
+     * {@link ResolvedLocation}s containing {@link com.bericotech.clavin.gazetteer.GeoName} objects,
+     * stopping early if the deadline passes.
+     *
+     * The deadline is carried on each gazetteer query and checked between each
+     * context window and each round of heuristic matching.  Once it has passed,
+     * the best combination found so far is kept for the current window and the
+     * top-sorted candidate is chosen for each remaining location name, and the
+     * deadline is marked truncated.
+     *
+     * @param locations          list of location names to be resolved
+     * @param maxHitDepth        number of candidate matches to consider
+     * @param maxContextWindow   how much context to consider when resolving
+     * @param fuzzy              switch for turning on/off fuzzy matching
+     * @param ancestryMode       the ancestry loading mode
+     * @param deadline           the time by which resolution must complete; <code>null</code> for no limit
+     * @return                   list of {@link ResolvedLocation} objects
+     * @throws ClavinException   if an error occurs parsing the search terms
+     **/
+    @SuppressWarnings("unchecked")
+    public List<ResolvedLocation> resolveLocations(final List<LocationOccurrence> locations, final int maxHitDepth,
+            final int maxContextWindow, final boolean fuzzy, final AncestryMode ancestryMode, final Deadline deadline)
+            throws ClavinException {
         // are you forgetting something? -- short-circuit if no locations were provided
         if (locations == null || locations.isEmpty()) {
             return Collections.EMPTY_LIST;
@@ -186,17 +215,23 @@ public class ClavinLocationResolver {
                 // necessary, or desirable to support FILL for the CLAVIN resolution algorithm
                 .fuzzyMode(fuzzy ? FuzzyMode.NO_EXACT : FuzzyMode.OFF)
                 .ancestryMode(ancestryMode)
-                .includeHistorical(true);
+                .includeHistorical(true)
+                .deadline(deadline);
+
+        // build a query for each location name so all names in the document
+        // can be resolved against the gazetteer in a single batch
+        List<GazetteerQuery> queries = new ArrayList<GazetteerQuery>(filteredLocations.size());
+        for (LocationOccurrence location : filteredLocations) {
+            queries.add(builder.location(location).build());
+        }
+        List<List<ResolvedLocation>> allMatches = AbstractGazetteer.getClosestLocations(gazetteer, queries);
 
         if (maxHitDepth > 1) { // perform context-based heuristic matching
             // stores all possible matches for each location name
             List<List<ResolvedLocation>> allCandidates = new ArrayList<List<ResolvedLocation>>();
 
-            // loop through all the location names
-            for (LocationOccurrence location : filteredLocations) {
-                // get all possible matches
-                List<ResolvedLocation> candidates = gazetteer.getClosestLocations(builder.location(location).build());
-
+            // loop through the matches for all the location names
+            for (List<ResolvedLocation> candidates : allMatches) {
                 // if we found some possible matches, save them
                 if (candidates.size() > 0) {
                     allCandidates.add(candidates);
@@ -210,9 +245,16 @@ public class ClavinLocationResolver {
             // limit computational load when heuristically selecting
             // the best matches
             for (List<List<ResolvedLocation>> theseCandidates : ListUtils.chunkifyList(allCandidates, maxContextWindow)) {
-                // select the best match for each location name based
-                // based on heuristics
-                bestCandidates.addAll(pickBestCandidates(theseCandidates));
+                if (deadline != null && deadline.checkExpired()) {
+                    // out of time; settle for the top-sorted candidate for each location name
+                    for (List<ResolvedLocation> candidates : theseCandidates) {
+                        bestCandidates.add(candidates.get(0));
+                    }
+                } else {
+                    // select the best match for each location name based
+                    // based on heuristics
+                    bestCandidates.addAll(pickBestCandidates(theseCandidates, deadline));
+                }
             }
 
             return bestCandidates;
@@ -220,16 +262,10 @@ public class ClavinLocationResolver {
             // initialize return object
             List<ResolvedLocation> resolvedLocations = new ArrayList<ResolvedLocation>();
 
-            // stores possible matches for each location name
-            List<ResolvedLocation> candidateLocations;
-
-            // loop through all the location names
-            for (LocationOccurrence location : filteredLocations) {
+            // loop through the matches for all the location names
+            for (List<ResolvedLocation> candidateLocations : allMatches) {
                 // choose the top-sorted candidate for each individual
-                // location name
-                candidateLocations = gazetteer.getClosestLocations(builder.location(location).build());
-
-                // if a match was found, add it to the return list
+                // location name; if a match was found, add it to the return list
                 if (candidateLocations.size() > 0) {
                     resolvedLocations.add(candidateLocations.get(0));
                 }
@@ -259,9 +295,11 @@ public class ClavinLocationResolver {
      *       CountryCodes and Admin1Codes.
      *
      * @param allCandidates list of lists of candidate matches for locations names
+     * @param deadline      the time by which the search must stop going deeper; may be <code>null</code>
      * @return              list of best matches for each location name
      */
-    private List<ResolvedLocation> pickBestCandidates(final List<List<ResolvedLocation>> allCandidates) {
+    private List<ResolvedLocation> pickBestCandidates(final List<List<ResolvedLocation>> allCandidates,
+            final Deadline deadline) {
         // initialize return object
         List<ResolvedLocation> bestCandidates = new ArrayList<ResolvedLocation>();
 
@@ -325,8 +363,8 @@ public class ClavinLocationResolver {
             // search one level deeper in the next loop
             candidateDepth++;
 
-        } while (newMaxScore > oldMaxScore);
-        // keep searching while the scores are monotonically increasing
+        } while (newMaxScore > oldMaxScore && (deadline == null || !deadline.checkExpired()));
+        // keep searching while the scores are monotonically increasing and time remains
 
         return bestCandidates;
     }
@@ -0,0 +1,139 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * Deadline.java
+ *
+ *###################################################################*/
+
+
+package com.bericotech.clavin.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which a unit of work, such as the gazetteer queries and
+ * resolution of a single document, must complete.  Work checks the deadline
+ * between steps and, once it has passed, stops early and returns the best
+ * results it has found so far instead of failing.  Work that stops early
+ * marks the deadline as truncated so the caller can tell complete results
+ * from partial ones.
+ *
+ * A deadline may be shared by work running on several threads.
+ */
+public final class Deadline {
+    /**
+     * The value of {@link System#nanoTime()} at which the deadline passes.
+     */
+    private final long expiresAt;
+
+    /**
+     * The deadline this deadline was forked from, which is also marked truncated when
+     * this deadline is; <code>null</code> if this deadline was not forked.
+     */
+    private final Deadline parent;
+
+    /**
+     * <code>true</code> once any work has been cut short by this deadline.
+     */
+    private volatile boolean truncated;
+
+    private Deadline(final long expiresAtIn, final Deadline parentIn) {
+        this.expiresAt = expiresAtIn;
+        this.parent = parentIn;
+    }
+
+    /**
+     * Create a deadline that passes after the provided amount of time.
+     * @param timeout the time allowed
+     * @param unit the unit of the timeout
+     * @return the deadline
+     */
+    public static Deadline after(final long timeout, final TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(Math.max(timeout, 0L)), null);
+    }
+
+    /**
+     * Create a deadline that passes at the same time as this one but records its own
+     * truncation, so work sharing this deadline can tell which of its parts were cut
+     * short.  Marking the fork truncated also marks this deadline truncated.
+     * @return the forked deadline
+     */
+    public Deadline fork() {
+        return new Deadline(expiresAt, this);
+    }
+
+    /**
+     * Get the time remaining until this deadline passes.
+     * @param unit the unit of the result
+     * @return the time remaining, or 0 if the deadline has passed
+     */
+    public long remaining(final TimeUnit unit) {
+        return unit.convert(Math.max(expiresAt - System.nanoTime(), 0L), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Determines whether this deadline has passed.
+     * @return <code>true</code> if no time remains
+     */
+    public boolean isExpired() {
+        return expiresAt - System.nanoTime() <= 0L;
+    }
+
+    /**
+     * Records that work was cut short because this deadline passed.
+     */
+    public void markTruncated() {
+        truncated = true;
+        if (parent != null) {
+            parent.markTruncated();
+        }
+    }
+
+    /**
+     * Determines whether any work was cut short by this deadline, in which case
+     * the results of that work are incomplete.
+     * @return <code>true</code> if results were truncated
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Checks whether this deadline has passed, marking it truncated if it has.  Work
+     * that would otherwise continue should stop when this returns <code>true</code>.
+     * @return <code>true</code> if the deadline has passed
+     */
+    public boolean checkExpired() {
+        if (isExpired()) {
+            markTruncated();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Deadline[remaining=%dms, truncated=%s]", remaining(TimeUnit.MILLISECONDS), truncated);
+    }
+}
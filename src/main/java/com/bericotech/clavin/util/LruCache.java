@@ -0,0 +1,290 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * LruCache.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread-safe cache that evicts its least recently used entries
+ * once the maximum number of entries has been reached.  Entries may also be
+ * configured to expire a fixed amount of time after they are written.
+ *
+ * The cache is split into independently locked segments, selected by the
+ * hash of the key, so concurrent readers and writers rarely contend for the
+ * same lock.  Recency is tracked per segment, so the entry evicted when a
+ * segment is full is the least recently used entry of that segment.
+ *
+ * @param <K> the type of the cache keys
+ * @param <V> the type of the cached values
+ */
+public class LruCache<K, V> {
+    /**
+     * The maximum number of segments.
+     */
+    private static final int MAX_SEGMENTS = 16;
+
+    /**
+     * The minimum number of entries each segment should hold; small caches
+     * use fewer segments so the eviction order remains meaningful.
+     */
+    private static final int MIN_SEGMENT_SIZE = 16;
+
+    /**
+     * The independently locked segments of this cache.
+     */
+    private final List<Segment> segments;
+
+    /**
+     * The mask used to select a segment from a key hash.
+     */
+    private final int segmentMask;
+
+    /**
+     * The maximum number of entries held by this cache.
+     */
+    private final int maxSize;
+
+    /**
+     * The time, in nanoseconds, after which an entry expires; values less than
+     * or equal to 0 indicate entries never expire.
+     */
+    private final long expireNanos;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Create a new LruCache whose entries never expire.
+     * @param maxSize the maximum number of entries
+     */
+    public LruCache(final int maxSize) {
+        this(maxSize, 0L, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a new LruCache whose entries expire after the provided amount of
+     * time has elapsed since they were written.
+     * @param maxSize the maximum number of entries
+     * @param expireAfterWrite the time after which entries expire; values less than
+     *                         or equal to 0 indicate entries should never expire
+     * @param unit the unit of the expiration time
+     */
+    public LruCache(final int maxSize, final long expireAfterWrite, final TimeUnit unit) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be greater than 0");
+        }
+        int segmentCount = MAX_SEGMENTS;
+        while (segmentCount > 1 && maxSize / segmentCount < MIN_SEGMENT_SIZE) {
+            segmentCount >>= 1;
+        }
+        int segmentSize = maxSize / segmentCount;
+        int remainder = maxSize % segmentCount;
+        segments = new ArrayList<Segment>(segmentCount);
+        for (int idx = 0; idx < segmentCount; idx++) {
+            // distribute any remainder so the segment capacities sum to maxSize
+            segments.add(new Segment(idx < remainder ? segmentSize + 1 : segmentSize));
+        }
+        this.segmentMask = segmentCount - 1;
+        this.maxSize = maxSize;
+        this.expireNanos = expireAfterWrite > 0 ? unit.toNanos(expireAfterWrite) : 0L;
+    }
+
+    /**
+     * Get the value cached for the provided key.
+     * @param key the key
+     * @return the cached value or <code>null</code> if the key is not cached or has expired
+     */
+    public V get(final K key) {
+        Segment segment = segmentFor(key);
+        V value = null;
+        synchronized (segment) {
+            CacheEntry<V> entry = segment.get(key);
+            if (entry != null) {
+                if (isExpired(entry)) {
+                    segment.remove(key);
+                    evictionCount.incrementAndGet();
+                } else {
+                    value = entry.value;
+                }
+            }
+        }
+        if (value != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Cache a value, replacing any value previously cached for the key.
+     * @param key the key
+     * @param value the value; must not be <code>null</code>
+     */
+    public void put(final K key, final V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Cached values must not be null");
+        }
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, new CacheEntry<V>(value, expireNanos > 0 ? System.nanoTime() : 0L));
+        }
+    }
+
+    /**
+     * Remove the value cached for the provided key.
+     * @param key the key
+     * @return the value that was removed or <code>null</code> if the key was not cached
+     */
+    public V remove(final K key) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            CacheEntry<V> entry = segment.remove(key);
+            return entry != null ? entry.value : null;
+        }
+    }
+
+    /**
+     * Remove all entries from this cache.  The hit, miss and eviction counts
+     * are not reset.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Get the number of entries currently in this cache, including any expired
+     * entries that have not yet been removed.
+     * @return the number of cached entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the maximum number of entries held by this cache.
+     * @return the maximum number of entries
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get the number of requests that were answered from the cache.
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Get the number of requests that could not be answered from the cache.
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Get the number of entries that were removed from the cache because it was
+     * full or because they expired.
+     * @return the number of evicted entries
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    private Segment segmentFor(final Object key) {
+        int hash = key != null ? key.hashCode() : 0;
+        // spread the higher bits of the hash so they are used in segment selection
+        hash ^= (hash >>> 16);
+        return segments.get(hash & segmentMask);
+    }
+
+    private boolean isExpired(final CacheEntry<V> entry) {
+        return expireNanos > 0 && System.nanoTime() - entry.written > expireNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LruCache[size: %d/%d, hits: %d, misses: %d, evictions: %d]",
+                size(), maxSize, getHitCount(), getMissCount(), getEvictionCount());
+    }
+
+    /**
+     * A single access-ordered segment of the cache.
+     */
+    private class Segment extends LinkedHashMap<K, CacheEntry<V>> {
+        private final int capacity;
+
+        public Segment(final int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<K, CacheEntry<V>> eldest) {
+            boolean evict = size() > capacity;
+            if (evict) {
+                evictionCount.incrementAndGet();
+            }
+            return evict;
+        }
+    }
+
+    /**
+     * A cached value and the time it was written.
+     * @param <V> the type of the value
+     */
+    private static class CacheEntry<V> {
+        private final V value;
+        private final long written;
+
+        public CacheEntry(final V value, final long written) {
+            this.value = value;
+            this.written = written;
+        }
+    }
+}
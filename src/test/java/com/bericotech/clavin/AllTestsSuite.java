@@ -1,6 +1,7 @@
 package com.bericotech.clavin;
 
 import com.bericotech.clavin.gazetteer.BasicGeoNameTest;
+import com.bericotech.clavin.gazetteer.BinaryGeoNameCodecTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
@@ -43,16 +44,38 @@ import org.junit.runners.Suite.SuiteClasses;
     com.bericotech.clavin.extractor.ApacheExtractorTest.class,
     com.bericotech.clavin.extractor.LocationOccurrenceTest.class,
     BasicGeoNameTest.class,
+    BinaryGeoNameCodecTest.class,
+    com.bericotech.clavin.gazetteer.ColumnarGeoNameStoreTest.class,
     com.bericotech.clavin.index.BinarySimilarityTest.class,
+    com.bericotech.clavin.index.ExactNameTableTest.class,
+    com.bericotech.clavin.index.NameBloomFilterTest.class,
+    com.bericotech.clavin.index.DeletionIndexTest.class,
+    com.bericotech.clavin.index.GeoNameSorterTest.class,
+    com.bericotech.clavin.index.ParentIdTableTest.class,
+    com.bericotech.clavin.index.WhitespaceLowerCaseAnalyzerTest.class,
     com.bericotech.clavin.resolver.ResolvedLocationTest.class,
     com.bericotech.clavin.resolver.ClavinLocationResolverTest.class,
     com.bericotech.clavin.resolver.ClavinLocationResolverHeuristicsTest.class,
     com.bericotech.clavin.resolver.multipart.MultipartLocationResolverTest.class,
     com.bericotech.clavin.resolver.multipart.MultiLevelMultipartLocationResolverTest.class,
+    com.bericotech.clavin.util.DeadlineTest.class,
     com.bericotech.clavin.util.DamerauLevenshteinTest.class,
+    com.bericotech.clavin.util.LruCacheTest.class,
     com.bericotech.clavin.util.ListUtilsTest.class,
     com.bericotech.clavin.util.TextUtilsTest.class,
     com.bericotech.clavin.gazetteer.query.LuceneGazetteerTest.class,
+    com.bericotech.clavin.gazetteer.query.AsyncGazetteerAdapterTest.class,
+    com.bericotech.clavin.gazetteer.query.CachingGazetteerTest.class,
+    com.bericotech.clavin.gazetteer.query.GeoNameCacheTest.class,
+    com.bericotech.clavin.gazetteer.query.ParentDocIndexTest.class,
+    com.bericotech.clavin.gazetteer.query.GazetteerIndexTest.class,
+    com.bericotech.clavin.gazetteer.query.FilterCacheTest.class,
+    com.bericotech.clavin.gazetteer.query.DirectoryTypeTest.class,
+    com.bericotech.clavin.gazetteer.query.InMemoryGazetteerTest.class,
+    com.bericotech.clavin.gazetteer.query.SearchExecutorTest.class,
+    com.bericotech.clavin.gazetteer.query.ShardedGazetteerTest.class,
+    com.bericotech.clavin.gazetteer.query.RemoteGazetteerTest.class,
+    com.bericotech.clavin.gazetteer.query.PopulationOrderCollectorTest.class,
     // this one comes last as it's more of an integration test
     com.bericotech.clavin.GeoParserTest.class
 })
@@ -0,0 +1,155 @@
+package com.bericotech.clavin.gazetteer;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * BinaryGeoNameCodecTest.java
+ *
+ *###################################################################*/
+
+/**
+ * Tests that GeoNames survive encoding and decoding with the
+ * {@link BinaryGeoNameCodec}.
+ */
+public class BinaryGeoNameCodecTest {
+    private List<GeoName> geonames;
+
+    @Before
+    public void setUp() throws IOException {
+        geonames = new ArrayList<GeoName>();
+        for (String file : new String[] { "./src/test/resources/gazetteers/GeoNamesSampleSet.txt",
+                "./src/main/resources/SupplementaryGazetteer.txt" }) {
+            BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(new File(file)), "UTF-8"));
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                    geonames.add(BasicGeoName.parseFromGeoNamesRecord(line));
+                }
+            }
+            r.close();
+        }
+    }
+
+    @Test
+    public void testRoundTrip() {
+        for (GeoName geoname : geonames) {
+            byte[] record = BinaryGeoNameCodec.encode(geoname, false);
+            GeoName decoded = BinaryGeoNameCodec.decode(record, 0, record.length, geoname.getPreferredName());
+            assertGeoNameEquals(geoname, decoded);
+            // the generated gazetteer record must parse to the same GeoName
+            assertGeoNameEquals(geoname, BasicGeoName.parseFromGeoNamesRecord(decoded.getGazetteerRecord(),
+                    geoname.getPreferredName()));
+        }
+    }
+
+    @Test
+    public void testOffsetRecord() {
+        GeoName geoname = geonames.get(0);
+        byte[] record = BinaryGeoNameCodec.encode(geoname, false);
+        byte[] buffer = new byte[record.length + 10];
+        System.arraycopy(record, 0, buffer, 5, record.length);
+        assertGeoNameEquals(geoname, BinaryGeoNameCodec.decode(buffer, 5, record.length, null));
+    }
+
+    @Test
+    public void testAncestry() {
+        // Reston > Fairfax County > Virginia > United States
+        GeoName reston = geonames.get(0);
+        GeoName fairfax = geonames.get(10);
+        GeoName virginia = geonames.get(11);
+        GeoName unitedStates = geonames.get(9);
+        assertTrue(virginia.setParent(unitedStates));
+        assertTrue(fairfax.setParent(virginia));
+        assertTrue(reston.setParent(fairfax));
+
+        byte[] record = BinaryGeoNameCodec.encode(reston, true);
+        GeoName decoded = BinaryGeoNameCodec.decode(record, 0, record.length, null);
+        assertTrue("expected resolved ancestry", decoded.isAncestryResolved());
+        assertEquals(fairfax.getGeonameID(), decoded.getParent().getGeonameID());
+        assertEquals(virginia.getGeonameID(), decoded.getParent().getParent().getGeonameID());
+        assertEquals(unitedStates.getGeonameID(), decoded.getParent().getParent().getParent().getGeonameID());
+        assertGeoNameEquals(virginia, decoded.getParent().getParent());
+
+        byte[] shortRecord = BinaryGeoNameCodec.encode(reston, false);
+        assertTrue("expected shorter record without ancestry", shortRecord.length < record.length);
+        assertNull("expected no parent", BinaryGeoNameCodec.decode(shortRecord, 0, shortRecord.length, null).getParent());
+    }
+
+    @Test
+    public void testIsDecodedFrom() {
+        GeoName reston = geonames.get(0);
+        GeoName boston = geonames.get(7);
+        byte[] restonRecord = BinaryGeoNameCodec.encode(reston, false);
+        byte[] bostonRecord = BinaryGeoNameCodec.encode(boston, false);
+        GeoName decoded = BinaryGeoNameCodec.decode(restonRecord, 0, restonRecord.length, null);
+        assertTrue(BinaryGeoNameCodec.isDecodedFrom(decoded, restonRecord, 0, restonRecord.length));
+        assertFalse(BinaryGeoNameCodec.isDecodedFrom(decoded, bostonRecord, 0, bostonRecord.length));
+        assertFalse("parsed GeoNames are not decoded from binary records",
+                BinaryGeoNameCodec.isDecodedFrom(reston, restonRecord, 0, restonRecord.length));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedVersion() {
+        byte[] record = BinaryGeoNameCodec.encode(geonames.get(0), false);
+        record[0] = BinaryGeoNameCodec.VERSION + 1;
+        BinaryGeoNameCodec.decode(record, 0, record.length, null);
+    }
+
+    private static void assertGeoNameEquals(final GeoName expected, final GeoName actual) {
+        String id = String.valueOf(expected.getGeonameID());
+        assertEquals(id, expected.getGeonameID(), actual.getGeonameID());
+        assertEquals(id, expected.getName(), actual.getName());
+        assertEquals(id, expected.getAsciiName(), actual.getAsciiName());
+        assertEquals(id, expected.getAlternateNames(), actual.getAlternateNames());
+        assertEquals(id, expected.getPreferredName(), actual.getPreferredName());
+        assertEquals(id, expected.getLatitude(), actual.getLatitude(), 0.0);
+        assertEquals(id, expected.getLongitude(), actual.getLongitude(), 0.0);
+        assertEquals(id, expected.getFeatureClass(), actual.getFeatureClass());
+        assertEquals(id, expected.getFeatureCode(), actual.getFeatureCode());
+        assertEquals(id, expected.getPrimaryCountryCode(), actual.getPrimaryCountryCode());
+        assertEquals(id, expected.getAlternateCountryCodes(), actual.getAlternateCountryCodes());
+        assertEquals(id, expected.getAdmin1Code(), actual.getAdmin1Code());
+        assertEquals(id, expected.getAdmin2Code(), actual.getAdmin2Code());
+        assertEquals(id, expected.getAdmin3Code(), actual.getAdmin3Code());
+        assertEquals(id, expected.getAdmin4Code(), actual.getAdmin4Code());
+        assertEquals(id, expected.getPopulation(), actual.getPopulation());
+        assertEquals(id, expected.getElevation(), actual.getElevation());
+        assertEquals(id, expected.getDigitalElevationModel(), actual.getDigitalElevationModel());
+        assertEquals(id, expected.getTimezone(), actual.getTimezone());
+        assertEquals(id, expected.getModificationDate(), actual.getModificationDate());
+        assertEquals(id, expected.getAncestryKey(), actual.getAncestryKey());
+    }
+}
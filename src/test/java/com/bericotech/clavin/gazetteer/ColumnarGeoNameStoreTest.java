@@ -0,0 +1,185 @@
+package com.bericotech.clavin.gazetteer;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * ColumnarGeoNameStoreTest.java
+ *
+ *###################################################################*/
+
+/**
+ * Tests that GeoNames written to a {@link ColumnarGeoNameStore} are
+ * read back unchanged.
+ */
+public class ColumnarGeoNameStoreTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private List<GeoName> geonames;
+    private File storeFile;
+
+    @Before
+    public void setUp() throws IOException {
+        geonames = new ArrayList<GeoName>();
+        for (String file : new String[] { "./src/test/resources/gazetteers/GeoNamesSampleSet.txt",
+                "./src/main/resources/SupplementaryGazetteer.txt" }) {
+            BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(new File(file)), "UTF-8"));
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                    geonames.add(BasicGeoName.parseFromGeoNamesRecord(line));
+                }
+            }
+            r.close();
+        }
+        // Reston > Fairfax County > Virginia > United States
+        assertTrue(geonames.get(11).setParent(geonames.get(9)));
+        assertTrue(geonames.get(10).setParent(geonames.get(11)));
+        assertTrue(geonames.get(0).setParent(geonames.get(10)));
+
+        storeFile = new File(tempFolder.getRoot(), ColumnarGeoNameStore.FILE_NAME);
+        ColumnarGeoNameStore.Writer writer = new ColumnarGeoNameStore.Writer(storeFile);
+        for (int idx = 0; idx < geonames.size(); idx++) {
+            assertEquals(idx, writer.add(geonames.get(idx), idx == 7 ? "Beantown" : null));
+        }
+        writer.close();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        ColumnarGeoNameStore store = ColumnarGeoNameStore.open(storeFile);
+        assertEquals(geonames.size(), store.size());
+        assertEquals("expected only the store file", 1, tempFolder.getRoot().list().length);
+        for (int idx = 0; idx < geonames.size(); idx++) {
+            GeoName geoname = geonames.get(idx);
+            GeoName stored = store.getGeoName(idx);
+            if (idx != 7) {
+                assertGeoNameEquals(geoname, stored);
+                assertEquals(geoname.toString(), stored.toString());
+            }
+            assertEquals(geoname.getGeonameID(), store.getGeonameId(idx));
+            assertEquals(geoname.getParentId(), store.getParentId(idx));
+            // the generated gazetteer record must parse to the same GeoName
+            assertGeoNameEquals(geoname, BasicGeoName.parseFromGeoNamesRecord(stored.getGazetteerRecord(),
+                    geoname.getPreferredName()));
+        }
+        assertEquals("Beantown", store.getGeoName(7).getPreferredName());
+        assertEquals("Boston", store.getGeoName(7).getName());
+    }
+
+    @Test
+    public void testValuesSpanningChunks() throws IOException {
+        // map the store in 64-byte chunks so strings in the heap span chunk boundaries
+        ColumnarGeoNameStore store = ColumnarGeoNameStore.open(storeFile, 6);
+        for (int idx = 0; idx < geonames.size(); idx++) {
+            if (idx != 7) {
+                assertGeoNameEquals(geonames.get(idx), store.getGeoName(idx));
+            }
+        }
+    }
+
+    @Test
+    public void testAncestry() throws IOException {
+        ColumnarGeoNameStore store = ColumnarGeoNameStore.open(storeFile);
+        GeoName reston = store.getGeoName(0);
+        GeoName fairfax = store.getGeoName(10);
+        GeoName virginia = store.getGeoName(11);
+        GeoName unitedStates = store.getGeoName(9);
+        assertNull("parents are not read from the store", reston.getParent());
+        assertFalse(reston.isAncestryResolved());
+        assertTrue(virginia.setParent(unitedStates));
+        assertTrue(fairfax.setParent(virginia));
+        assertTrue(reston.setParent(fairfax));
+        assertTrue(reston.isAncestryResolved());
+        assertTrue(reston.isDescendantOf(unitedStates));
+        assertTrue(virginia.isAncestorOf(reston));
+        assertEquals(Integer.valueOf(fairfax.getGeonameID()), reston.getParentId());
+        String[] records = reston.getGazetteerRecordWithAncestry().split("\n");
+        assertEquals(4, records.length);
+        assertEquals(unitedStates.getGazetteerRecord(), records[3]);
+    }
+
+    @Test
+    public void testIsRecord() throws IOException {
+        ColumnarGeoNameStore store = ColumnarGeoNameStore.open(storeFile);
+        ColumnarGeoNameStore other = ColumnarGeoNameStore.open(storeFile);
+        GeoName reston = store.getGeoName(0);
+        assertTrue(store.isRecord(reston, 0));
+        assertFalse(store.isRecord(reston, 1));
+        assertFalse(other.isRecord(reston, 0));
+        assertFalse("parsed GeoNames are not read from the store", store.isRecord(geonames.get(0), 0));
+        assertEquals(reston, other.getGeoName(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidStore() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(storeFile, "rw");
+        try {
+            raf.writeInt(0);
+        } finally {
+            raf.close();
+        }
+        ColumnarGeoNameStore.open(storeFile);
+    }
+
+    private static void assertGeoNameEquals(final GeoName expected, final GeoName actual) {
+        String id = String.valueOf(expected.getGeonameID());
+        assertEquals(id, expected.getGeonameID(), actual.getGeonameID());
+        assertEquals(id, expected.getName(), actual.getName());
+        assertEquals(id, expected.getAsciiName(), actual.getAsciiName());
+        assertEquals(id, expected.getAlternateNames(), actual.getAlternateNames());
+        assertEquals(id, expected.getPreferredName(), actual.getPreferredName());
+        assertEquals(id, expected.getLatitude(), actual.getLatitude(), 0.0);
+        assertEquals(id, expected.getLongitude(), actual.getLongitude(), 0.0);
+        assertEquals(id, expected.getFeatureClass(), actual.getFeatureClass());
+        assertEquals(id, expected.getFeatureCode(), actual.getFeatureCode());
+        assertEquals(id, expected.getPrimaryCountryCode(), actual.getPrimaryCountryCode());
+        assertEquals(id, expected.getAlternateCountryCodes(), actual.getAlternateCountryCodes());
+        assertEquals(id, expected.getAdmin1Code(), actual.getAdmin1Code());
+        assertEquals(id, expected.getAdmin2Code(), actual.getAdmin2Code());
+        assertEquals(id, expected.getAdmin3Code(), actual.getAdmin3Code());
+        assertEquals(id, expected.getAdmin4Code(), actual.getAdmin4Code());
+        assertEquals(id, expected.getPopulation(), actual.getPopulation());
+        assertEquals(id, expected.getElevation(), actual.getElevation());
+        assertEquals(id, expected.getDigitalElevationModel(), actual.getDigitalElevationModel());
+        assertEquals(id, expected.getTimezone(), actual.getTimezone());
+        assertEquals(id, expected.getModificationDate(), actual.getModificationDate());
+        assertEquals(id, expected.getAncestryKey(), actual.getAncestryKey());
+    }
+}
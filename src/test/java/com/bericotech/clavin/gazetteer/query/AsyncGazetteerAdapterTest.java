@@ -0,0 +1,209 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * AsyncGazetteerAdapterTest.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import static org.junit.Assert.*;
+
+import com.bericotech.clavin.ClavinException;
+import com.bericotech.clavin.gazetteer.BasicGeoName;
+import com.bericotech.clavin.gazetteer.GeoName;
+import com.bericotech.clavin.resolver.ResolvedLocation;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link AsyncGazetteerAdapter} and {@link GazetteerFuture}.
+ */
+public class AsyncGazetteerAdapterTest {
+    private static final String RESTON_RECORD = "4781530\tReston\tReston\tReston,Рестон\t38.96872\t-77.3411\tP\tPPL\tUS\tVA\t059\t58404\t100\t102\tAmerica/New_York\t2011-05-14";
+
+    private ExecutorService executor;
+    private BlockingGazetteer gazetteer;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        gazetteer = new BlockingGazetteer();
+    }
+
+    @After
+    public void tearDown() {
+        gazetteer.release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testBoundedConcurrency() throws Exception {
+        AsyncGazetteerAdapter adapter = new AsyncGazetteerAdapter(gazetteer, executor, 2);
+        List<GazetteerFuture<List<ResolvedLocation>>> futures = new ArrayList<GazetteerFuture<List<ResolvedLocation>>>();
+        for (int idx = 0; idx < 10; idx++) {
+            futures.add(adapter.getClosestLocationsAsync(new QueryBuilder().location("Reston").build()));
+        }
+        assertTrue(gazetteer.started.await(5, TimeUnit.SECONDS));
+        assertEquals(2, adapter.getRunningCount());
+        assertEquals(8, adapter.getPendingCount());
+
+        gazetteer.release.countDown();
+        for (GazetteerFuture<List<ResolvedLocation>> future : futures) {
+            assertEquals(1, future.getResult().size());
+        }
+        assertEquals("at most 2 requests should run at once", 2, gazetteer.maxRunning.get());
+        assertEquals(0, adapter.getPendingCount());
+    }
+
+    @Test
+    public void testCallbacks() throws Exception {
+        gazetteer.release.countDown();
+        AsyncGazetteerAdapter adapter = new AsyncGazetteerAdapter(gazetteer, executor, 1);
+        final CountDownLatch done = new CountDownLatch(2);
+        final AtomicReference<Object> success = new AtomicReference<Object>();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        GazetteerFuture<String> name = adapter.getGeoNameAsync(4781530, AncestryMode.LAZY).transform(
+                new GazetteerFuture.Function<GeoName, String>() {
+                    @Override
+                    public String apply(final GeoName input) {
+                        return input.getName();
+                    }
+                });
+        name.addCallback(new GazetteerCallback<String>() {
+            @Override
+            public void onSuccess(final String result) {
+                success.set(result);
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(final Throwable cause) {
+                done.countDown();
+            }
+        });
+        adapter.loadAncestryAsync(Collections.<GeoName>emptyList()).addCallback(new GazetteerCallback<Void>() {
+            @Override
+            public void onSuccess(final Void result) {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(final Throwable cause) {
+                failure.set(cause);
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("Reston", success.get());
+        assertTrue("expected loadAncestry failure", failure.get() instanceof ClavinException);
+        assertEquals("Reston", name.getResult());
+
+        try {
+            adapter.getGeoNameAsync(1, AncestryMode.LAZY).getResult();
+            fail("expected exception");
+        } catch (ClavinException ce) {
+            assertEquals("Unknown geonameID", ce.getMessage());
+        }
+    }
+
+    @Test
+    public void testOwnedExecutor() throws Exception {
+        gazetteer.release.countDown();
+        AsyncGazetteerAdapter adapter = new AsyncGazetteerAdapter(gazetteer, 2);
+        List<GazetteerQuery> batch = Collections.nCopies(3, new QueryBuilder().location("Reston").build());
+        assertEquals(3, adapter.getClosestLocationsAsync(batch).getResult().size());
+        adapter.shutdown();
+        try {
+            adapter.getGeoNameAsync(4781530, AncestryMode.LAZY).getResult();
+            fail("expected exception after shutdown");
+        } catch (ClavinException ce) {
+            // expected
+        }
+    }
+
+    /**
+     * A Gazetteer whose queries block until released and that records the number
+     * of queries running at once.
+     */
+    private static class BlockingGazetteer extends AbstractGazetteer {
+        private final GeoName geoname = BasicGeoName.parseFromGeoNamesRecord(RESTON_RECORD);
+        private final CountDownLatch started = new CountDownLatch(2);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+
+        @Override
+        public List<ResolvedLocation> getClosestLocations(final GazetteerQuery query) throws ClavinException {
+            int current = running.incrementAndGet();
+            synchronized (maxRunning) {
+                maxRunning.set(Math.max(maxRunning.get(), current));
+            }
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ie) {
+                throw new ClavinException("interrupted", ie);
+            } finally {
+                running.decrementAndGet();
+            }
+            return Collections.singletonList(new ResolvedLocation(query.getOccurrence(), geoname, geoname.getName(), false));
+        }
+
+        @Override
+        public GeoName getGeoName(final int geonameId) throws ClavinException {
+            if (geonameId != geoname.getGeonameID()) {
+                throw new ClavinException("Unknown geonameID");
+            }
+            return geoname;
+        }
+
+        @Override
+        public GeoName getGeoName(final int geonameId, final AncestryMode ancestryMode) throws ClavinException {
+            return getGeoName(geonameId);
+        }
+
+        @Override
+        public void loadAncestry(final GeoName... geoNames) throws ClavinException {
+            throw new ClavinException("Ancestry not available");
+        }
+
+        @Override
+        public void loadAncestry(final Collection<GeoName> geoNames) throws ClavinException {
+            throw new ClavinException("Ancestry not available");
+        }
+    }
+}
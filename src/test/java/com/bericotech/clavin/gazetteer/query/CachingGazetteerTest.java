@@ -0,0 +1,230 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * CachingGazetteerTest.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import static org.junit.Assert.*;
+
+import com.bericotech.clavin.ClavinException;
+import com.bericotech.clavin.extractor.LocationOccurrence;
+import com.bericotech.clavin.gazetteer.BasicGeoName;
+import com.bericotech.clavin.gazetteer.GeoName;
+import com.bericotech.clavin.resolver.ResolvedLocation;
+import com.bericotech.clavin.util.Deadline;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the query result caching provided by {@link CachingGazetteer}.
+ */
+public class CachingGazetteerTest {
+    private static final String RESTON_RECORD = "4781530\tReston\tReston\tReston,Рестон\t38.96872\t-77.3411\tP\tPPL\tUS\tVA\t059\t58404\t100\t102\tAmerica/New_York\t2011-05-14";
+
+    private CountingGazetteer delegate;
+    private CachingGazetteer gazetteer;
+
+    @Before
+    public void setUp() {
+        delegate = new CountingGazetteer();
+        gazetteer = new CachingGazetteer(delegate, 10);
+    }
+
+    /**
+     * Ensure repeated queries are answered from the cache and that the results
+     * reference the queried occurrence.
+     */
+    @Test
+    public void testCachedQuery() throws ClavinException {
+        LocationOccurrence first = new LocationOccurrence("Reston", 0);
+        LocationOccurrence second = new LocationOccurrence(" reston ", 100);
+
+        List<ResolvedLocation> firstResults = gazetteer.getClosestLocations(query(first));
+        List<ResolvedLocation> secondResults = gazetteer.getClosestLocations(query(second));
+
+        assertEquals("expected one delegated query", 1, delegate.queryCount);
+        assertEquals(1, gazetteer.getHitCount());
+        assertEquals(1, gazetteer.getMissCount());
+        assertEquals(1, secondResults.size());
+        assertSame("occurrence not rebased", second, secondResults.get(0).getLocation());
+        assertSame("GeoName not shared", firstResults.get(0).getGeoname(), secondResults.get(0).getGeoname());
+
+        // callers may modify the returned lists without affecting the cache
+        secondResults.clear();
+        assertEquals(1, gazetteer.getClosestLocations(query(second)).size());
+    }
+
+    /**
+     * Ensure names that differ only in the whitespace between their tokens share a cache entry.
+     */
+    @Test
+    public void testNormalizedWhitespace() throws ClavinException {
+        gazetteer.getClosestLocations(query(new LocationOccurrence("United States", 0)));
+        gazetteer.getClosestLocations(query(new LocationOccurrence("united\t States", 20)));
+        gazetteer.getClosestLocations(query(new LocationOccurrence("UNITED  STATES ", 40)));
+        assertEquals("expected one delegated query", 1, delegate.queryCount);
+        assertEquals(2, gazetteer.getHitCount());
+    }
+
+    /**
+     * Ensure queries with different configurations are cached separately.
+     */
+    @Test
+    public void testDistinctConfiguration() throws ClavinException {
+        LocationOccurrence loc = new LocationOccurrence("Reston", 0);
+        gazetteer.getClosestLocations(query(loc));
+        gazetteer.getClosestLocations(new QueryBuilder().location(loc).fuzzyMode(FuzzyMode.FILL).build());
+        gazetteer.getClosestLocations(new QueryBuilder().location(loc).maxResults(1).build());
+        assertEquals("expected three delegated queries", 3, delegate.queryCount);
+    }
+
+    /**
+     * Ensure a batch only sends uncached, distinct queries to the delegate.
+     */
+    @Test
+    public void testBatch() throws ClavinException {
+        gazetteer.getClosestLocations(query(new LocationOccurrence("Reston", 0)));
+        List<GazetteerQuery> batch = Arrays.asList(
+                query(new LocationOccurrence("Reston", 10)),
+                query(new LocationOccurrence("Boston", 20)),
+                query(new LocationOccurrence("", 30)),
+                query(new LocationOccurrence("BOSTON", 40))
+        );
+        List<List<ResolvedLocation>> results = gazetteer.getClosestLocations(batch);
+
+        assertEquals(4, results.size());
+        assertEquals("expected two delegated batches", 2, delegate.batchCount);
+        assertEquals("expected three delegated queries", 3, delegate.queryCount);
+        assertTrue("empty query returned results", results.get(2).isEmpty());
+        for (int i = 0; i < batch.size(); i++) {
+            for (ResolvedLocation loc : results.get(i)) {
+                assertSame("wrong occurrence", batch.get(i).getOccurrence(), loc.getLocation());
+            }
+        }
+        assertEquals(2, gazetteer.size());
+    }
+
+    /**
+     * Ensure results cut short by a deadline are not cached.
+     */
+    @Test
+    public void testTruncatedNotCached() throws ClavinException {
+        Deadline deadline = Deadline.after(1, TimeUnit.MINUTES);
+        GazetteerQuery truncated = new QueryBuilder().location(new LocationOccurrence(CountingGazetteer.TRUNCATE, 0))
+                .deadline(deadline).build();
+        gazetteer.getClosestLocations(truncated);
+        assertEquals("truncated results were cached", 0, gazetteer.size());
+        assertTrue("truncation not reported to the caller", deadline.isTruncated());
+
+        gazetteer.getClosestLocations(truncated);
+        assertEquals("expected truncated query to be repeated", 2, delegate.queryCount);
+    }
+
+    /**
+     * Ensure complete results are cached when another query sharing their deadline
+     * is cut short.
+     */
+    @Test
+    public void testSharedDeadline() throws ClavinException {
+        Deadline deadline = Deadline.after(1, TimeUnit.MINUTES);
+        QueryBuilder builder = new QueryBuilder().deadline(deadline);
+        List<GazetteerQuery> batch = Arrays.asList(
+                builder.location(new LocationOccurrence("Reston", 0)).build(),
+                builder.location(new LocationOccurrence(CountingGazetteer.TRUNCATE, 10)).build(),
+                builder.location(new LocationOccurrence("Boston", 20)).build()
+        );
+        gazetteer.getClosestLocations(batch);
+        assertTrue("truncation not reported to the caller", deadline.isTruncated());
+        assertEquals("expected complete results to be cached", 2, gazetteer.size());
+
+        gazetteer.getClosestLocations(batch);
+        assertEquals("expected only the truncated query to be repeated", 4, delegate.queryCount);
+    }
+
+    private static GazetteerQuery query(final LocationOccurrence loc) {
+        return new QueryBuilder().location(loc).build();
+    }
+
+    /**
+     * A Gazetteer that returns a single fixed result for any non-empty query and
+     * counts the queries it receives.
+     */
+    private static class CountingGazetteer extends AbstractGazetteer {
+        /** Queries for this location are marked truncated by their deadline. */
+        static final String TRUNCATE = "Truncated";
+
+        private final GeoName geoname = BasicGeoName.parseFromGeoNamesRecord(RESTON_RECORD);
+        private int batchCount = 0;
+        private int queryCount = 0;
+
+        @Override
+        public List<ResolvedLocation> getClosestLocations(final GazetteerQuery query) throws ClavinException {
+            return getClosestLocations(Arrays.asList(query)).get(0);
+        }
+
+        @Override
+        public List<List<ResolvedLocation>> getClosestLocations(final List<GazetteerQuery> queries) throws ClavinException {
+            batchCount++;
+            List<List<ResolvedLocation>> results = new ArrayList<List<ResolvedLocation>>();
+            for (GazetteerQuery query : queries) {
+                queryCount++;
+                if (TRUNCATE.equals(query.getOccurrence().getText()) && query.getDeadline() != null) {
+                    query.getDeadline().markTruncated();
+                }
+                List<ResolvedLocation> matches = new ArrayList<ResolvedLocation>();
+                if (!query.getOccurrence().getText().trim().isEmpty()) {
+                    matches.add(new ResolvedLocation(query.getOccurrence(), geoname, geoname.getName(), false));
+                }
+                results.add(matches);
+            }
+            return results;
+        }
+
+        @Override
+        public GeoName getGeoName(final int geonameId) throws ClavinException {
+            return geonameId == geoname.getGeonameID() ? geoname : null;
+        }
+
+        @Override
+        public GeoName getGeoName(final int geonameId, final AncestryMode ancestryMode) throws ClavinException {
+            return getGeoName(geonameId);
+        }
+
+        @Override
+        public void loadAncestry(final GeoName... geoNames) throws ClavinException {
+        }
+
+        @Override
+        public void loadAncestry(final Collection<GeoName> geoNames) throws ClavinException {
+        }
+    }
+}
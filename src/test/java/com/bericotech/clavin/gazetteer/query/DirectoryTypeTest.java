@@ -0,0 +1,91 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * DirectoryTypeTest.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import static org.junit.Assert.*;
+
+import com.bericotech.clavin.index.WhitespaceLowerCaseAnalyzer;
+import java.io.File;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Verifies that an index can be read using each {@link DirectoryType}.
+ */
+public class DirectoryTypeTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File indexDir;
+
+    @Before
+    public void setUp() throws Exception {
+        indexDir = tempFolder.newFolder("index");
+        Directory dir = FSDirectory.open(indexDir);
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_4_9, new WhitespaceLowerCaseAnalyzer()));
+        for (String name : new String[] { "reston", "boston", "springfield" }) {
+            Document doc = new Document();
+            doc.add(new StringField("name", name, Field.Store.YES));
+            writer.addDocument(doc);
+        }
+        writer.close();
+        dir.close();
+    }
+
+    @Test
+    public void testOpen() throws Exception {
+        for (DirectoryType type : DirectoryType.values()) {
+            Directory dir = type.open(indexDir);
+            DirectoryReader reader = DirectoryReader.open(dir);
+            try {
+                assertEquals(String.format("[%s] incorrect document count", type), 3, reader.numDocs());
+                IndexSearcher searcher = new IndexSearcher(reader);
+                assertEquals(String.format("[%s] incorrect search results", type), 1,
+                        searcher.search(new TermQuery(new Term("name", "boston")), 10).totalHits);
+            } finally {
+                reader.close();
+                dir.close();
+            }
+        }
+    }
+}
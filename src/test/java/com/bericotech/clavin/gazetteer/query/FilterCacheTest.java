@@ -0,0 +1,175 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * FilterCacheTest.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import static com.bericotech.clavin.index.IndexField.*;
+import static org.junit.Assert.*;
+
+import com.bericotech.clavin.gazetteer.FeatureCode;
+import com.bericotech.clavin.index.IndexField;
+import com.bericotech.clavin.index.ParentIdTable;
+import com.bericotech.clavin.index.WhitespaceLowerCaseAnalyzer;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the filters built and cached by {@link FilterCache}.
+ */
+public class FilterCacheTest {
+    /**
+     * The hierarchy of the test documents: 2 is a child of 1.
+     */
+    private static final ParentIdTable TABLE = new ParentIdTable.Builder().add(1, ParentIdTable.NO_PARENT).add(2, 1).build();
+
+    private RAMDirectory dir;
+    private IndexWriter writer;
+    private FilterCache filterCache;
+    private QueryBuilder queryBuilder;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = new RAMDirectory();
+        writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_4_9, new WhitespaceLowerCaseAnalyzer()));
+        writer.addDocument(buildDoc(FeatureCode.PCLI, false));
+        writer.addDocument(buildDoc(FeatureCode.ADM1, false, 1));
+        writer.addDocument(buildDoc(FeatureCode.PPL, false, 1, 2));
+        writer.addDocument(buildDoc(FeatureCode.PPLH, true, 1, 2));
+        writer.commit();
+        filterCache = new FilterCache();
+        queryBuilder = new QueryBuilder().location("test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        writer.close();
+        dir.close();
+    }
+
+    @Test
+    public void testNoFilter() throws IOException {
+        assertNull("expected no filter", filterCache.getFilter(queryBuilder.build()));
+        assertNull("expected no filter for all codes", filterCache.getFilter(
+                queryBuilder.addFeatureCodes(new HashSet<FeatureCode>(Arrays.asList(FeatureCode.values()))).build()));
+    }
+
+    @Test
+    public void testRestrictions() throws IOException {
+        assertEquals("non-historical", 3, count(filterCache.getFilter(queryBuilder.includeHistorical(false).build())));
+        queryBuilder.includeHistorical(true);
+        assertEquals("country codes", 1, count(filterCache.getFilter(queryBuilder.clearFeatureCodes().addCountryCodes().build())));
+        assertEquals("city codes", 2, count(filterCache.getFilter(queryBuilder.clearFeatureCodes().addCityCodes().build())));
+        queryBuilder.clearFeatureCodes();
+        assertEquals("descendants of 1", 3, count(filterCache.getFilter(queryBuilder.addParentIds(1).build())));
+        assertEquals("descendants of 1 or 2", 3, count(filterCache.getFilter(queryBuilder.addParentIds(2).build())));
+        assertEquals("non-historical cities descended from 2", 1, count(filterCache.getFilter(
+                queryBuilder.clearParentIds().addParentIds(2).addCityCodes().includeHistorical(false).build())));
+    }
+
+    @Test
+    public void testFiltersReused() throws IOException {
+        Filter first = filterCache.getFilter(queryBuilder.addCountryCodes().build());
+        Filter second = filterCache.getFilter(queryBuilder.build());
+        assertSame("expected cached feature code filter", first, second);
+
+        Filter parents = filterCache.getFilter(queryBuilder.clearFeatureCodes().addParentIds(1).build());
+        assertSame("expected cached ancestor filter", parents, filterCache.getFilter(queryBuilder.build()));
+
+        filterCache.clear();
+        assertNotSame("expected new filter after clear", parents, filterCache.getFilter(queryBuilder.build()));
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        Filter filter = filterCache.getFilter(queryBuilder.addCityCodes().build());
+        assertEquals(2, count(filter));
+        writer.addDocument(buildDoc(FeatureCode.PPLA, false, 1));
+        writer.commit();
+        assertEquals("cached filter does not reflect new segment", 3,
+                count(filterCache.getFilter(queryBuilder.build())));
+    }
+
+    @Test
+    public void testHierarchyRestrictions() throws IOException {
+        assertEquals("descendants of 1", 3, count(filterCache.getFilter(queryBuilder.addParentIds(1).build(), TABLE)));
+        assertEquals("descendants of 1 or 2", 3, count(filterCache.getFilter(queryBuilder.addParentIds(2).build(), TABLE)));
+        assertEquals("descendants of 2", 2, count(filterCache.getFilter(queryBuilder.clearParentIds().addParentIds(2).build(), TABLE)));
+        assertEquals("non-historical cities descended from 2", 1, count(filterCache.getFilter(
+                queryBuilder.addCityCodes().includeHistorical(false).build(), TABLE)));
+        queryBuilder.clearFeatureCodes().includeHistorical(true);
+        // IDs that are not in the table are matched by their ancestor ID terms
+        writer.addDocument(buildDoc(FeatureCode.PPL, false, 3));
+        writer.commit();
+        assertEquals("descendants of 2 or 3", 3, count(filterCache.getFilter(queryBuilder.addParentIds(3).build(), TABLE)));
+
+        Filter ranges = filterCache.getFilter(queryBuilder.clearParentIds().addParentIds(1).build(), TABLE);
+        assertSame("expected cached ancestor filter", ranges, filterCache.getFilter(queryBuilder.build(), TABLE));
+        assertNotSame("expected new filter for a different table", ranges, filterCache.getFilter(queryBuilder.build(),
+                new ParentIdTable.Builder().addAll(TABLE).build()));
+        assertNotSame("expected new filter without a table", ranges, filterCache.getFilter(queryBuilder.build()));
+    }
+
+    private int count(final Filter filter) throws IOException {
+        DirectoryReader reader = DirectoryReader.open(dir);
+        try {
+            return new IndexSearcher(reader).search(new MatchAllDocsQuery(), filter, 100).totalHits;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static Document buildDoc(final FeatureCode code, final boolean historical, final int... ancestorIds) {
+        Document doc = new Document();
+        doc.add(new IntField(HISTORICAL.key(), IndexField.getBooleanIndexValue(historical), Field.Store.NO));
+        doc.add(new StringField(FEATURE_CODE.key(), code.name(), Field.Store.NO));
+        for (int id : ancestorIds) {
+            doc.add(new IntField(ANCESTOR_IDS.key(), id, Field.Store.YES));
+        }
+        // ancestor IDs are listed from the root, so the last is the parent
+        int parentId = ancestorIds.length > 0 ? ancestorIds[ancestorIds.length - 1] : ParentIdTable.NO_PARENT;
+        doc.add(new NumericDocValuesField(HIERARCHY_POS.key(), TABLE.getChildPosition(parentId)));
+        return doc;
+    }
+}
@@ -0,0 +1,141 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * GazetteerIndexTest.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import static com.bericotech.clavin.index.IndexField.*;
+import static org.junit.Assert.*;
+
+import com.bericotech.clavin.index.WhitespaceLowerCaseAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+/**
+ * Tests reading IDs from the DocValues of a {@link GazetteerIndex}.
+ */
+public class GazetteerIndexTest {
+    @Test
+    public void testDocValues() throws Exception {
+        RAMDirectory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_4_9, new WhitespaceLowerCaseAnalyzer()));
+        writer.addDocument(buildDoc(1, null, true));    // doc 0
+        writer.addDocument(buildDoc(2, 1, true));       // doc 1
+        writer.commit();
+        writer.addDocument(buildDoc(3, 2, true));       // doc 2
+        writer.close();
+
+        GazetteerIndex index = openIndex(dir);
+        try {
+            assertTrue("expected DocValues", index.isDocValuesIndexed());
+            assertEquals(1, index.getGeonameId(0));
+            assertNull("expected no parent", index.getParentId(0));
+            assertEquals(2, index.getGeonameId(1));
+            assertEquals(Integer.valueOf(1), index.getParentId(1));
+            assertEquals(3, index.getGeonameId(2));
+            assertEquals(Integer.valueOf(2), index.getParentId(2));
+        } finally {
+            index.decRef();
+        }
+    }
+
+    @Test
+    public void testNoDocValues() throws Exception {
+        RAMDirectory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_4_9, new WhitespaceLowerCaseAnalyzer()));
+        writer.addDocument(buildDoc(1, null, true));
+        writer.commit();
+        // a segment written by an older version of the index builder
+        writer.addDocument(buildDoc(2, 1, false));
+        writer.close();
+
+        GazetteerIndex index = openIndex(dir);
+        try {
+            assertFalse("expected no DocValues", index.isDocValuesIndexed());
+        } finally {
+            index.decRef();
+        }
+    }
+
+    @Test
+    public void testPopulationSorted() throws Exception {
+        RAMDirectory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_4_9, new WhitespaceLowerCaseAnalyzer()));
+        writer.addDocument(withSortPop(buildDoc(1, null, true), 30L));
+        writer.addDocument(withSortPop(buildDoc(2, 1, true), 20L));
+        writer.addDocument(withSortPop(buildDoc(3, 1, true), 20L));
+        // documents without a sort population sort as if it were 0
+        writer.addDocument(buildDoc(4, 1, true));
+        writer.commit();
+        writer.addDocument(withSortPop(buildDoc(5, 1, true), 5L));
+        writer.addDocument(withSortPop(buildDoc(6, 1, true), 10L));
+        writer.close();
+
+        GazetteerIndex index = openIndex(dir);
+        try {
+            assertTrue("expected sort population DocValues", index.isSortPopulationIndexed());
+            assertTrue("first segment is sorted", index.isPopulationSorted(0));
+            assertFalse("second segment is not sorted", index.isPopulationSorted(1));
+        } finally {
+            index.decRef();
+        }
+    }
+
+    private static Document withSortPop(final Document doc, final long sortPop) {
+        doc.add(new NumericDocValuesField(SORT_POP.key(), sortPop));
+        return doc;
+    }
+
+    private static GazetteerIndex openIndex(final RAMDirectory dir) throws Exception {
+        DirectoryReader reader = DirectoryReader.open(dir);
+        return new GazetteerIndex(dir, new IndexSearcher(reader), ParentDocIndex.build(reader), true);
+    }
+
+    private static Document buildDoc(final int geonameId, final Integer parentId, final boolean docValues) {
+        Document doc = new Document();
+        doc.add(new IntField(GEONAME_ID.key(), geonameId, Field.Store.YES));
+        if (docValues) {
+            doc.add(new NumericDocValuesField(GEONAME_ID.key(), geonameId));
+        }
+        if (parentId != null) {
+            doc.add(new IntField(PARENT_ID.key(), parentId, Field.Store.YES));
+            if (docValues) {
+                doc.add(new NumericDocValuesField(PARENT_ID.key(), parentId));
+            }
+        }
+        return doc;
+    }
+}
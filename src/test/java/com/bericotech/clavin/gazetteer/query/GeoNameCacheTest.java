@@ -0,0 +1,122 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * GeoNameCacheTest.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import static org.junit.Assert.*;
+
+import com.bericotech.clavin.gazetteer.BasicGeoName;
+import com.bericotech.clavin.gazetteer.GeoName;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the storage and pinning rules of the {@link GeoNameCache}.
+ */
+public class GeoNameCacheTest {
+    private static final String US_RECORD = "6252001\tUnited States\tUnited States\t\t39.76\t-98.5\tA\tPCLI\tUS\t\t00\t\t\t\t310232863\t\t543\t\t2012-01-30";
+    private static final String VIRGINIA_RECORD = "6254928\tVirginia\tVirginia\t\t37.54812\t-77.44675\tA\tADM1\tUS\t\tVA\t\t\t\t7642884\t\t53\tAmerica/New_York\t2011-12-28";
+    private static final String FAIRFAX_RECORD = "4758041\tFairfax County\tFairfax County\t\t38.83469\t-77.27622\tA\tADM2\tUS\t\tVA\t059\t\t\t1081726\t\t121\tAmerica/New_York\t2011-05-14";
+    private static final String RESTON_RECORD = "4781530\tReston\tReston\tReston,Рестон\t38.96872\t-77.3411\tP\tPPL\tUS\t\tVA\t059\t\t\t58404\t100\t102\tAmerica/New_York\t2011-05-14";
+
+    private GeoName unitedStates;
+    private GeoName virginia;
+    private GeoName fairfax;
+    private GeoName reston;
+
+    @Before
+    public void setUp() {
+        unitedStates = BasicGeoName.parseFromGeoNamesRecord(US_RECORD);
+        virginia = BasicGeoName.parseFromGeoNamesRecord(VIRGINIA_RECORD);
+        fairfax = BasicGeoName.parseFromGeoNamesRecord(FAIRFAX_RECORD);
+        reston = BasicGeoName.parseFromGeoNamesRecord(RESTON_RECORD);
+    }
+
+    /**
+     * Ensure GeoNames are only cached once their ancestry is resolved.
+     */
+    @Test
+    public void testOnlyResolvedCached() {
+        GeoNameCache cache = new GeoNameCache(10, false);
+        assertFalse("unresolved GeoName cached", cache.put(reston));
+        assertNull(cache.get(reston.getGeonameID()));
+
+        resolveAncestry();
+        assertTrue("resolved GeoName not cached", cache.put(reston));
+        assertSame(reston, cache.get(reston.getGeonameID()));
+        assertEquals(1, cache.size());
+        assertEquals(0, cache.getPinnedCount());
+    }
+
+    /**
+     * Ensure top-level and first-order administrative GeoNames are pinned and are
+     * not evicted.
+     */
+    @Test
+    public void testPinning() {
+        resolveAncestry();
+        GeoNameCache cache = new GeoNameCache(1, true);
+        cache.put(unitedStates);
+        cache.put(virginia);
+        cache.put(fairfax);
+        cache.put(reston);
+
+        assertEquals("expected pinned country and ADM1", 2, cache.getPinnedCount());
+        assertEquals(3, cache.size());
+        assertSame(unitedStates, cache.get(unitedStates.getGeonameID()));
+        assertSame(virginia, cache.get(virginia.getGeonameID()));
+        assertNull("unpinned GeoName not evicted", cache.get(fairfax.getGeonameID()));
+        assertSame(reston, cache.get(reston.getGeonameID()));
+        assertEquals(1, cache.getEvictionCount());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Ensure GeoNames are subject to eviction when pinning is disabled.
+     */
+    @Test
+    public void testNoPinning() {
+        resolveAncestry();
+        GeoNameCache cache = new GeoNameCache(1, false);
+        cache.put(unitedStates);
+        cache.put(virginia);
+
+        assertEquals(0, cache.getPinnedCount());
+        assertNull("GeoName pinned", cache.get(unitedStates.getGeonameID()));
+        assertSame(virginia, cache.get(virginia.getGeonameID()));
+    }
+
+    private void resolveAncestry() {
+        assertTrue(virginia.setParent(unitedStates));
+        assertTrue(fairfax.setParent(virginia));
+        assertTrue(reston.setParent(fairfax));
+        assertTrue(reston.isAncestryResolved());
+    }
+}
@@ -0,0 +1,140 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * InMemoryGazetteerTest.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import static com.bericotech.clavin.index.SampleIndex.*;
+import static org.junit.Assert.*;
+
+import com.bericotech.clavin.gazetteer.GeoName;
+import com.bericotech.clavin.index.SampleIndex;
+import com.bericotech.clavin.resolver.ResolvedLocation;
+import com.bericotech.clavin.util.Deadline;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Verifies that an {@link InMemoryGazetteer} returns the same results as a
+ * {@link LuceneGazetteer} opened on the same index.
+ */
+public class InMemoryGazetteerTest {
+    private static final String[] EXTRA_NAMES = { "RESTON", "Рестон", "Bostonn", "Straßenha", "Gun Barrel",
+            "Straßenhaus Airport", "US", "Fairfax", "xyzzy", "AU", "Campo", "" };
+
+    private static LuceneGazetteer luceneGazetteer;
+    private static InMemoryGazetteer memoryGazetteer;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        File indexDir = SampleIndex.get();
+        luceneGazetteer = new LuceneGazetteer(indexDir, null);
+        memoryGazetteer = new InMemoryGazetteer(indexDir);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        luceneGazetteer.close();
+    }
+
+    @Test
+    public void testGetClosestLocations() throws Exception {
+        List<String> names = names(EXTRA_NAMES);
+        for (FuzzyMode fuzzyMode : FuzzyMode.values()) {
+            for (boolean dedupe : new boolean[] { false, true }) {
+                for (int maxResults : new int[] { 1, 5, 200 }) {
+                    for (String name : names) {
+                        QueryBuilder builder = new QueryBuilder().location(name).fuzzyMode(fuzzyMode).filterDupes(dedupe)
+                                .maxResults(maxResults).ancestryMode(AncestryMode.ON_CREATE);
+                        assertSameResults(builder);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testGetClosestLocations_Restricted() throws Exception {
+        assertSameResults(new QueryBuilder().location("Reston").addParentIds(6254928));
+        assertSameResults(new QueryBuilder().location("Reston").addParentIds(2077456));
+        assertSameResults(new QueryBuilder().location("Virginia").addAdminCodes());
+        assertSameResults(new QueryBuilder().location("Virginia").addCityCodes());
+        assertSameResults(new QueryBuilder().location("United States").addCountryCodes().fuzzyMode(FuzzyMode.FILL)
+                .maxResults(20));
+        assertSameResults(new QueryBuilder().location("Boston").includeHistorical(true).maxResults(20));
+    }
+
+    @Test
+    public void testGetGeoName() throws Exception {
+        for (int geonameId : new int[] { 4781530, 6254928, 6252001, 2826158 }) {
+            for (AncestryMode ancestryMode : AncestryMode.values()) {
+                GeoName expected = luceneGazetteer.getGeoName(geonameId, ancestryMode);
+                GeoName actual = memoryGazetteer.getGeoName(geonameId, ancestryMode);
+                assertEquals(String.format("[%d %s] incorrect GeoName", geonameId, ancestryMode),
+                        describe(expected), describe(actual));
+            }
+        }
+        assertNull("expected no GeoName", memoryGazetteer.getGeoName(1));
+    }
+
+    @Test
+    public void testLoadAncestry() throws Exception {
+        List<ResolvedLocation> locations = memoryGazetteer.getClosestLocations(new QueryBuilder().location("Reston")
+                .ancestryMode(AncestryMode.MANUAL).build());
+        assertFalse("expected matches", locations.isEmpty());
+        List<GeoName> geonames = new ArrayList<GeoName>();
+        for (ResolvedLocation location : locations) {
+            assertFalse("expected unresolved ancestry", location.getGeoname().isAncestryResolved());
+            geonames.add(location.getGeoname());
+        }
+        memoryGazetteer.loadAncestry(geonames);
+        assertEquals("4781530>4758041>6254928>6252001", describe(geonames.get(0)));
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        Deadline ample = Deadline.after(1, TimeUnit.MINUTES);
+        assertSameResults(new QueryBuilder().location("Bostn").fuzzyMode(FuzzyMode.FILL).deadline(ample));
+        assertFalse("deadline should not be truncated", ample.isTruncated());
+
+        Deadline expired = Deadline.after(0, TimeUnit.MILLISECONDS);
+        assertTrue("an expired deadline should return no results", memoryGazetteer.getClosestLocations(
+                new QueryBuilder().location("Boston").deadline(expired).build()).isEmpty());
+        assertTrue("deadline should be truncated", expired.isTruncated());
+    }
+
+    private static void assertSameResults(final QueryBuilder builder) throws Exception {
+        GazetteerQuery query = builder.build();
+        SampleIndex.assertSameResults(String.format("incorrect results for [%s]", query),
+                luceneGazetteer.getClosestLocations(query), memoryGazetteer.getClosestLocations(query));
+    }
+}
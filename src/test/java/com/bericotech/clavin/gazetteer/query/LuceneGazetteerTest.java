@@ -35,6 +35,7 @@ import com.bericotech.clavin.extractor.LocationOccurrence;
 import com.bericotech.clavin.gazetteer.FeatureCode;
 import com.bericotech.clavin.gazetteer.GeoName;
 import com.bericotech.clavin.resolver.ResolvedLocation;
+import com.bericotech.clavin.util.Deadline;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -42,6 +43,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -147,6 +149,35 @@ public class LuceneGazetteerTest {
         assertEquals("Expected ancestry path of Reston, Fairfax County, Virginia, United States", expectedAncestryPath, ancestryPath);
     }
 
+    /**
+     * Ensure batch queries return results for each query, in order, and share
+     * GeoName instances between queries.
+     */
+    @Test
+    public void testResolveLocations_Batch() throws ClavinException {
+        queryBuilder.ancestryMode(AncestryMode.ON_CREATE);
+        List<GazetteerQuery> queries = Arrays.asList(
+                queryBuilder.location("Reston").build(),
+                queryBuilder.location("").build(),
+                queryBuilder.location("Fairfax County").build(),
+                queryBuilder.location("Boston").build()
+        );
+        List<List<ResolvedLocation>> results = instance.getClosestLocations(queries);
+        assertEquals("Expected one result list per query", queries.size(), results.size());
+        assertEquals("Expected single result for Reston", 1, results.get(0).size());
+        assertEquals("Expected empty results list for empty input", Collections.EMPTY_LIST, results.get(1));
+        assertEquals("Expected single result for Fairfax County", 1, results.get(2).size());
+        assertEquals("Expected single result for Boston", 1, results.get(3).size());
+
+        GeoName reston = results.get(0).get(0).getGeoname();
+        GeoName fairfax = results.get(2).get(0).getGeoname();
+        assertEquals("Unexpected result for Reston", RESTON_VA, reston.getGeonameID());
+        assertEquals("Unexpected result for Fairfax County", FAIRFAX_COUNTY_VA, fairfax.getGeonameID());
+        assertEquals("Unexpected result for Boston", BOSTON_MA, results.get(3).get(0).getGeoname().getGeonameID());
+        assertTrue("Ancestry should have been resolved for the batch.", reston.isAncestryResolved());
+        assertSame("Expected GeoName instances to be shared across the batch", fairfax, reston.getParent());
+    }
+
     @Test
     public void testResolveLocations_EmptyInput() throws ClavinException {
         List<ResolvedLocation> locs = instance.getClosestLocations(queryBuilder.location("").build());
@@ -447,4 +478,85 @@ public class LuceneGazetteerTest {
         assertEquals("Country should be United States", UNITED_STATES, usa.getGeonameID());
         assertNull("USA has no parent", usa.getParent());
     }
+
+    /**
+     * Ensure ancestry-resolved GeoNames are cached and shared between queries
+     * and GeoName lookups.
+     */
+    @Test
+    public void testGeoNameCache() throws ClavinException {
+        GeoNameCache cache = new GeoNameCache();
+        LuceneGazetteer gazetteer = new LuceneGazetteer(INDEX_DIRECTORY, cache);
+        List<ResolvedLocation> locs = gazetteer.getClosestLocations(
+                queryBuilder.location("Reston").ancestryMode(AncestryMode.ON_CREATE).build());
+        GeoName reston = locs.get(0).getGeoname();
+        assertSame("Expected cached Reston", reston, cache.get(RESTON_VA));
+        assertSame("Expected cached Fairfax County", reston.getParent(), cache.get(FAIRFAX_COUNTY_VA));
+        assertEquals("Expected pinned Virginia and United States", 2, cache.getPinnedCount());
+        assertSame("Expected cached GeoName", reston, gazetteer.getGeoName(RESTON_VA, AncestryMode.ON_CREATE));
+
+        // lazily loaded parents are retrieved from the cache
+        GeoName lazyReston = gazetteer.getGeoName(RESTON_VA, AncestryMode.MANUAL);
+        assertNotSame("Expected new MANUAL GeoName", reston, lazyReston);
+        gazetteer.loadAncestry(lazyReston);
+        assertSame("Expected cached parent", reston.getParent(), lazyReston.getParent());
+    }
+
+    /**
+     * Ensure the index can be refreshed and replaced while the gazetteer is in use.
+     */
+    @Test
+    public void testSwitchIndex() throws ClavinException {
+        LuceneGazetteer gazetteer = new LuceneGazetteer(INDEX_DIRECTORY);
+        assertFalse("Unchanged index should not be reopened", gazetteer.refresh());
+
+        queryBuilder.location("Reston").ancestryMode(AncestryMode.LAZY);
+        GeoName lazyReston = gazetteer.getClosestLocations(queryBuilder.build()).get(0).getGeoname();
+        assertFalse("Ancestry should not be resolved", lazyReston.isAncestryResolved());
+
+        try {
+            gazetteer.switchIndex(new File("./IMAGINARY_FILE"));
+            fail("Expected ClavinException opening non-existent index");
+        } catch (ClavinException expected) {
+            // the current index should still be in use
+        }
+        assertEquals("Expected results from current index", RESTON_VA,
+                gazetteer.getClosestLocations(queryBuilder.build()).get(0).getGeoname().getGeonameID());
+
+        gazetteer.switchIndex(INDEX_DIRECTORY);
+        assertEquals("Expected results from new index", RESTON_VA,
+                gazetteer.getClosestLocations(queryBuilder.build()).get(0).getGeoname().getGeonameID());
+        // GeoNames found before the switch can be resolved against the new index
+        assertNotNull("Expected lazy ancestry to be resolved", lazyReston.getParent());
+        assertEquals(FAIRFAX_COUNTY_VA, lazyReston.getParent().getGeonameID());
+
+        gazetteer.close();
+        try {
+            gazetteer.getClosestLocations(queryBuilder.build());
+            fail("Expected ClavinException querying closed gazetteer");
+        } catch (ClavinException expected) {
+            // expected
+        }
+    }
+
+    /**
+     * Ensure a query whose deadline has passed returns no matches and is marked truncated
+     * without causing later queries for the same name to be skipped.
+     */
+    @Test
+    public void testDeadline() throws ClavinException {
+        Deadline expired = Deadline.after(0, TimeUnit.MILLISECONDS);
+        List<ResolvedLocation> locs = instance.getClosestLocations(queryBuilder.location("Reston").deadline(expired).build());
+        assertTrue("Expected no results after deadline", locs.isEmpty());
+        assertTrue("Expected deadline to be marked truncated", expired.isTruncated());
+
+        Deadline ample = Deadline.after(1, TimeUnit.MINUTES);
+        locs = instance.getClosestLocations(queryBuilder.location("Reston").deadline(ample).build());
+        assertEquals("Expected result within deadline", 1, locs.size());
+        assertEquals(RESTON_VA, locs.get(0).getGeoname().getGeonameID());
+        assertFalse("Deadline should not be truncated", ample.isTruncated());
+
+        locs = instance.getClosestLocations(queryBuilder.location("Reston").deadline(null).build());
+        assertEquals("Expected result without deadline", 1, locs.size());
+    }
 }
@@ -0,0 +1,87 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * ParentDocIndexTest.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import static com.bericotech.clavin.index.IndexField.*;
+import static org.junit.Assert.*;
+
+import com.bericotech.clavin.index.WhitespaceLowerCaseAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+/**
+ * Tests the document selection rules of the {@link ParentDocIndex}.
+ */
+public class ParentDocIndexTest {
+    @Test
+    public void testBuild() throws Exception {
+        RAMDirectory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_4_9, new WhitespaceLowerCaseAnalyzer()));
+        // two parents with multiple documents each and one GeoName that is never a parent
+        writer.addDocument(buildDoc(1, null, 100L));    // doc 0
+        writer.addDocument(buildDoc(1, null, 100L));    // doc 1
+        writer.addDocument(buildDoc(2, 1, 50L));        // doc 2
+        writer.commit();
+        // a second segment containing a more populous record for 2
+        writer.addDocument(buildDoc(2, 1, 500L));       // doc 3
+        writer.addDocument(buildDoc(3, 2, 10L));        // doc 4
+        writer.close();
+
+        DirectoryReader reader = DirectoryReader.open(dir);
+        try {
+            assertEquals("expected multiple segments", 2, reader.leaves().size());
+            ParentDocIndex index = ParentDocIndex.build(reader);
+            assertEquals("expected two parents", 2, index.size());
+            assertEquals("expected lowest document ID for tied population", 0, index.getDocId(1));
+            assertEquals("expected highest population document", 3, index.getDocId(2));
+            assertEquals("expected no document for non-parent", -1, index.getDocId(3));
+            assertEquals("expected no document for unknown ID", -1, index.getDocId(42));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static Document buildDoc(final int geonameId, final Integer parentId, final long sortPop) {
+        Document doc = new Document();
+        doc.add(new IntField(GEONAME_ID.key(), geonameId, Field.Store.YES));
+        if (parentId != null) {
+            doc.add(new IntField(PARENT_ID.key(), parentId, Field.Store.YES));
+        }
+        doc.add(new LongField(SORT_POP.key(), sortPop, Field.Store.YES));
+        return doc;
+    }
+}
@@ -0,0 +1,191 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * PopulationOrderCollectorTest.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import static com.bericotech.clavin.index.IndexField.*;
+import static org.junit.Assert.*;
+
+import com.bericotech.clavin.index.BinarySimilarity;
+import com.bericotech.clavin.index.WhitespaceLowerCaseAnalyzer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link PopulationOrderCollector} ranks and collapses hits
+ * exactly as a search sorted by score and population does.
+ */
+public class PopulationOrderCollectorTest {
+    private static final Sort POPULATION_SORT = new Sort(SortField.FIELD_SCORE,
+            new SortField(SORT_POP.key(), SortField.Type.LONG, true));
+
+    private RAMDirectory dir;
+    private GazetteerIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new RAMDirectory();
+        IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_4_9, new WhitespaceLowerCaseAnalyzer());
+        config.setSimilarity(new BinarySimilarity());
+        IndexWriter writer = new IndexWriter(dir, config);
+        // a segment sorted by population in which GeoName 2 is indexed under two names
+        // and GeoNames 3 and 4 share a population
+        writer.addDocument(buildDoc(1, 900L, "springfield"));
+        writer.addDocument(buildDoc(2, 500L, "springfield"));
+        writer.addDocument(buildDoc(2, 500L, "springfield", "springfield park"));
+        writer.addDocument(buildDoc(3, 400L, "springfield"));
+        writer.addDocument(buildDoc(4, 400L, "springfield"));
+        writer.addDocument(buildDoc(5, 300L, "shelbyville"));
+        writer.addDocument(buildDoc(6, 100L, "springfield", "springfield park"));
+        writer.addDocument(buildDoc(7, 50L, "springfield"));
+        writer.commit();
+        // a segment that is not sorted, containing another record for GeoName 1
+        writer.addDocument(buildDoc(8, 10L, "springfield", "springfield park"));
+        writer.addDocument(buildDoc(9, 450L, "springfield"));
+        writer.addDocument(buildDoc(1, 900L, "springfield"));
+        writer.close();
+
+        DirectoryReader reader = DirectoryReader.open(dir);
+        IndexSearcher searcher = new IndexSearcher(reader);
+        searcher.setSimilarity(new BinarySimilarity());
+        index = new GazetteerIndex(dir, searcher, ParentDocIndex.build(reader), true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        index.decRef();
+        dir.close();
+    }
+
+    @Test
+    public void testMatchesPopulationSort() throws Exception {
+        assertTrue(index.isPopulationSorted(0));
+        assertFalse(index.isPopulationSorted(1));
+        Query query = new TermQuery(new Term(EXACT_NAME.key(), "springfield"));
+        for (int maxResults = 1; maxResults <= 12; maxResults++) {
+            for (boolean dedupe : new boolean[] { false, true }) {
+                PopulationOrderCollector collector = new PopulationOrderCollector(index, maxResults, dedupe, null, true);
+                index.getSearcher().search(query, null, collector);
+                ScoreDoc[] actual = collector.getHits();
+                ScoreDoc[] expected = search(query, maxResults, dedupe);
+                String desc = String.format("maxResults=%d, dedupe=%s", maxResults, dedupe);
+                assertEquals(desc, expected.length, actual.length);
+                for (int idx = 0; idx < expected.length; idx++) {
+                    assertEquals(desc, expected[idx].doc, actual[idx].doc);
+                    assertArrayEquals(desc, ((FieldDoc) expected[idx]).fields, ((FieldDoc) actual[idx]).fields);
+                }
+                if (maxResults < 4) {
+                    assertEquals("the sorted segment is terminated early: " + desc, 1, collector.getTerminatedCount());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCollapsesScoredHits() throws Exception {
+        BooleanQuery query = new BooleanQuery();
+        query.add(new TermQuery(new Term(INDEX_NAME.key(), "springfield")), Occur.SHOULD);
+        query.add(new TermQuery(new Term(INDEX_NAME.key(), "park")), Occur.SHOULD);
+        Set<Integer> excluded = new HashSet<Integer>(Arrays.asList(6, 9));
+        for (int maxResults = 1; maxResults <= 12; maxResults++) {
+            PopulationOrderCollector collector = new PopulationOrderCollector(index, maxResults, true, excluded, false);
+            index.getSearcher().search(query, null, collector);
+            ScoreDoc[] actual = collector.getHits();
+            ScoreDoc[] expected = search(query, maxResults, true, excluded);
+            String desc = String.format("maxResults=%d", maxResults);
+            assertEquals(desc, expected.length, actual.length);
+            for (int idx = 0; idx < expected.length; idx++) {
+                assertEquals(desc, expected[idx].doc, actual[idx].doc);
+                assertArrayEquals(desc, ((FieldDoc) expected[idx]).fields, ((FieldDoc) actual[idx]).fields);
+            }
+            assertEquals("scored hits are never terminated early: " + desc, 0, collector.getTerminatedCount());
+        }
+        // the park record of GeoName 2 outranks its other record and GeoName 8 outranks
+        // more populous GeoNames that only match one term
+        ScoreDoc[] top = search(query, 2, true, excluded);
+        assertEquals(2, index.getGeonameId(top[0].doc));
+        assertEquals(8, index.getGeonameId(top[1].doc));
+    }
+
+    private ScoreDoc[] search(final Query query, final int maxResults, final boolean dedupe) throws Exception {
+        return search(query, maxResults, dedupe, new HashSet<Integer>());
+    }
+
+    private ScoreDoc[] search(final Query query, final int maxResults, final boolean dedupe, final Set<Integer> excluded)
+            throws Exception {
+        ScoreDoc[] all = index.getSearcher().search(query, null, 100, POPULATION_SORT).scoreDocs;
+        Set<Integer> found = new HashSet<Integer>(excluded);
+        ScoreDoc[] hits = new ScoreDoc[Math.min(maxResults, all.length)];
+        int count = 0;
+        for (ScoreDoc doc : all) {
+            if ((found.add(index.getGeonameId(doc.doc)) || !dedupe) && count < hits.length) {
+                hits[count++] = doc;
+            }
+        }
+        ScoreDoc[] result = new ScoreDoc[count];
+        System.arraycopy(hits, 0, result, 0, count);
+        return result;
+    }
+
+    private static Document buildDoc(final int geonameId, final long sortPop, final String name) {
+        return buildDoc(geonameId, sortPop, name, name);
+    }
+
+    private static Document buildDoc(final int geonameId, final long sortPop, final String name, final String indexName) {
+        Document doc = new Document();
+        doc.add(new NumericDocValuesField(GEONAME_ID.key(), geonameId));
+        doc.add(new NumericDocValuesField(SORT_POP.key(), sortPop));
+        doc.add(new StringField(EXACT_NAME.key(), name, Field.Store.NO));
+        doc.add(new TextField(INDEX_NAME.key(), indexName, Field.Store.NO));
+        return doc;
+    }
+}
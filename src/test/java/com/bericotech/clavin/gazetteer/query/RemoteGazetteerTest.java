@@ -0,0 +1,317 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * RemoteGazetteerTest.java
+ *
+ *###################################################################*/
+package com.bericotech.clavin.gazetteer.query;
+
+import static com.bericotech.clavin.index.SampleIndex.*;
+import static org.junit.Assert.*;
+
+import com.bericotech.clavin.ClavinException;
+import com.bericotech.clavin.gazetteer.GeoName;
+import com.bericotech.clavin.index.SampleIndex;
+import com.bericotech.clavin.resolver.ResolvedLocation;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the {@link RemoteGazetteer} against a {@link GazetteerServer} running
+ * on the loopback interface.
+ */
+public class RemoteGazetteerTest {
+    private static final int RESTON = 4781530;
+
+    private static LuceneGazetteer local;
+
+    private GazetteerServer server;
+    private RemoteGazetteer remote;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        local = new LuceneGazetteer(SampleIndex.get(), DirectoryType.DEFAULT, null);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        local.close();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new GazetteerServer(new FailingGazetteer(local), 0);
+        server.start();
+        remote = new RemoteGazetteer(new InetSocketAddress("localhost", server.getPort()), 1);
+    }
+
+    @After
+    public void tearDown() {
+        remote.close();
+        server.close();
+    }
+
+    @Test
+    public void testClosestLocations() throws Exception {
+        for (AncestryMode mode : new AncestryMode[] { AncestryMode.ON_CREATE, AncestryMode.PRECOMPUTED }) {
+            List<GazetteerQuery> queries = new ArrayList<GazetteerQuery>();
+            for (String name : NAMES) {
+                queries.add(new QueryBuilder().location(name).maxResults(5).fuzzyMode(FuzzyMode.FILL)
+                        .ancestryMode(mode).build());
+            }
+            List<List<ResolvedLocation>> expected = local.getClosestLocations(queries);
+            List<List<ResolvedLocation>> actual = remote.getClosestLocations(queries);
+            assertEquals(expected.size(), actual.size());
+            for (int idx = 0; idx < queries.size(); idx++) {
+                assertSameResults(NAMES[idx], expected.get(idx), actual.get(idx));
+                for (int loc = 0; loc < actual.get(idx).size(); loc++) {
+                    ResolvedLocation location = actual.get(idx).get(loc);
+                    assertSame("occurrence should be the query occurrence", queries.get(idx).getOccurrence(),
+                            location.getLocation());
+                    assertTrue("ancestry should be resolved", location.getGeoname().isAncestryResolved());
+                    assertEquals(NAMES[idx], expected.get(idx).get(loc).getGeoname().getGazetteerRecordWithAncestry(),
+                            location.getGeoname().getGazetteerRecordWithAncestry());
+                    assertEquals(NAMES[idx], expected.get(idx).get(loc).getConfidence(), location.getConfidence(), 0.0f);
+                }
+            }
+        }
+        // the batch of queries is sent as a single request
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testPipelinedRequests() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int idx = 0; idx < 200; idx++) {
+                final String name = NAMES[idx % NAMES.length];
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        // ancestry is not loaded, so each query is a single request
+                        GazetteerQuery query = new QueryBuilder().location(name).fuzzyMode(FuzzyMode.FILL)
+                                .ancestryMode(AncestryMode.MANUAL).build();
+                        assertSameResults(name, local.getClosestLocations(query), remote.getClosestLocations(query));
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // all requests share the single connection of the client
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(200, server.getRequestCount());
+    }
+
+    @Test
+    public void testAncestry() throws Exception {
+        GeoName lazy = remote.getGeoName(RESTON, AncestryMode.LAZY);
+        assertEquals(RESTON, lazy.getGeonameID());
+        assertFalse("ancestry should not be loaded", lazy.isAncestryResolved());
+        assertNotNull("parent should be loaded on request", lazy.getParent());
+        assertTrue("ancestry should be resolved", lazy.isAncestryResolved());
+
+        GeoName manual = remote.getGeoName(RESTON, AncestryMode.MANUAL);
+        assertNull("parent should not be loaded", manual.getParent());
+        remote.loadAncestry(manual);
+        assertTrue("ancestry should be loaded", manual.isAncestryResolved());
+        assertEquals(local.getGeoName(RESTON, AncestryMode.ON_CREATE).getGazetteerRecordWithAncestry(),
+                manual.getGazetteerRecordWithAncestry());
+
+        assertNull(remote.getGeoName(-1));
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        try {
+            remote.getClosestLocations(new QueryBuilder().location(FailingGazetteer.FAIL).build());
+            fail("server errors should be reported");
+        } catch (ClavinException ce) {
+            assertTrue(ce.getMessage(), ce.getMessage().contains(FailingGazetteer.FAIL));
+        }
+        // the connection is still usable
+        assertFalse(remote.getClosestLocations(new QueryBuilder().location("Reston").build()).isEmpty());
+
+        server.close();
+        try {
+            remote.getClosestLocations(new QueryBuilder().location("Reston").build());
+            fail("requests should fail once the server is closed");
+        } catch (ClavinException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testInvalidCounts() throws Exception {
+        for (byte opcode : new byte[] { GazetteerProtocol.OP_CLOSEST_LOCATIONS, GazetteerProtocol.OP_LOAD_ANCESTRY }) {
+            for (int count : new int[] { -1, GazetteerProtocol.MAX_COUNT + 1, Integer.MAX_VALUE }) {
+                Socket socket = new Socket("localhost", server.getPort());
+                try {
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    out.writeInt(GazetteerProtocol.MAGIC);
+                    out.writeByte(GazetteerProtocol.VERSION);
+                    out.writeInt(1);
+                    out.writeByte(opcode);
+                    out.writeInt(count);
+                    out.flush();
+                    assertEquals(GazetteerProtocol.MAGIC, in.readInt());
+                    assertEquals(GazetteerProtocol.VERSION, in.readByte());
+                    assertEquals("the server should close the connection for count " + count, -1, in.read());
+                } finally {
+                    socket.close();
+                }
+            }
+        }
+        // other connections are unaffected
+        assertFalse(remote.getClosestLocations(new QueryBuilder().location("Reston").build()).isEmpty());
+    }
+
+    @Test
+    public void testOversizedBatch() throws Exception {
+        GazetteerFuture<List<ResolvedLocation>> inFlight =
+                remote.getClosestLocationsAsync(new QueryBuilder().location("Boston").build());
+        List<GazetteerQuery> batch = Collections.nCopies(GazetteerProtocol.MAX_COUNT + 1,
+                new QueryBuilder().location("Reston").build());
+        try {
+            remote.getClosestLocations(batch);
+            fail("batches larger than the protocol allows should fail");
+        } catch (ClavinException expected) {
+            // expected
+        }
+        // the shared connection, and the requests in flight on it, are unaffected
+        assertFalse(inFlight.getResult().isEmpty());
+        assertFalse(remote.getClosestLocations(new QueryBuilder().location("Reston").build()).isEmpty());
+    }
+
+    @Test
+    public void testStalledServer() throws Exception {
+        // a server that completes the handshake, then never responds
+        final ServerSocket stalled = new ServerSocket(0);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Socket socket = stalled.accept();
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    in.readInt();
+                    in.readByte();
+                    out.writeInt(GazetteerProtocol.MAGIC);
+                    out.writeByte(GazetteerProtocol.VERSION);
+                    out.flush();
+                    // hold the connection open until the client gives up
+                    while (in.read() != -1) {
+                    }
+                    socket.close();
+                    return null;
+                }
+            });
+            RemoteGazetteer client = new RemoteGazetteer(new InetSocketAddress("localhost", stalled.getLocalPort()), 1,
+                    5000, 200);
+            try {
+                client.getGeoName(RESTON, AncestryMode.MANUAL);
+                fail("requests to a stalled server should time out");
+            } catch (ClavinException expected) {
+                assertTrue(expected.getCause() instanceof SocketTimeoutException);
+            } finally {
+                client.close();
+            }
+        } finally {
+            executor.shutdownNow();
+            stalled.close();
+        }
+    }
+
+    /**
+     * Fails any query for the location {@link #FAIL}.
+     */
+    private static class FailingGazetteer extends AbstractGazetteer {
+        static final String FAIL = "Nowhere";
+
+        private final Gazetteer delegate;
+
+        FailingGazetteer(final Gazetteer delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public List<ResolvedLocation> getClosestLocations(final GazetteerQuery query) throws ClavinException {
+            return delegate.getClosestLocations(query);
+        }
+
+        @Override
+        public List<List<ResolvedLocation>> getClosestLocations(final List<GazetteerQuery> queries) throws ClavinException {
+            for (GazetteerQuery query : queries) {
+                if (FAIL.equals(query.getOccurrence().getText())) {
+                    throw new ClavinException("Unable to search for " + FAIL);
+                }
+            }
+            return getClosestLocations(delegate, queries);
+        }
+
+        @Override
+        public GeoName getGeoName(final int geonameId) throws ClavinException {
+            return delegate.getGeoName(geonameId);
+        }
+
+        @Override
+        public GeoName getGeoName(final int geonameId, final AncestryMode ancestryMode) throws ClavinException {
+            return delegate.getGeoName(geonameId, ancestryMode);
+        }
+
+        @Override
+        public void loadAncestry(final GeoName... geoNames) throws ClavinException {
+            delegate.loadAncestry(geoNames);
+        }
+
+        @Override
+        public void loadAncestry(final Collection<GeoName> geoNames) throws ClavinException {
+            delegate.loadAncestry(geoNames);
+        }
+    }
+}
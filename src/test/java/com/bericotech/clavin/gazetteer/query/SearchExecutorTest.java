@@ -0,0 +1,174 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * SearchExecutorTest.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.gazetteer.query;
+
+import static org.junit.Assert.*;
+
+import com.bericotech.clavin.index.SampleIndex;
+import com.bericotech.clavin.resolver.ResolvedLocation;
+import com.bericotech.clavin.util.Deadline;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Tests the {@link SearchExecutor} and parallel segment searches in the
+ * {@link LuceneGazetteer}.
+ */
+public class SearchExecutorTest {
+    @Test
+    public void testQueueMetrics() throws Exception {
+        SearchExecutor executor = new SearchExecutor(1, 1);
+        try {
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final Thread caller = Thread.currentThread();
+            final boolean[] ranOnCaller = new boolean[1];
+            // occupy the only thread, fill the queue and overflow to the caller
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ranOnCaller[0] = Thread.currentThread() == caller;
+                }
+            });
+            assertTrue("overflow should run on the caller", ranOnCaller[0]);
+            assertEquals(3, executor.getSubmittedCount());
+            assertEquals(1, executor.getCallerRunsCount());
+            assertEquals(1, executor.getQueueSize());
+            assertEquals(1, executor.getPeakQueueSize());
+
+            release.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(0, executor.getQueueSize());
+            // searches run by the caller are not counted as completed by the pool
+            assertEquals(2, executor.getCompletedTaskCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testParallelSearch() throws Exception {
+        File indexDir = SampleIndex.get();
+
+        SearchExecutor executor = new SearchExecutor(2);
+        LuceneGazetteer serial = new LuceneGazetteer(indexDir, DirectoryType.DEFAULT, null);
+        LuceneGazetteer parallel = new LuceneGazetteer(indexDir, DirectoryType.DEFAULT, null, executor);
+        try {
+            // opening the index runs a warm-up query, so only count the searches of the queries below
+            long submitted = executor.getSubmittedCount();
+            for (String name : SampleIndex.NAMES) {
+                QueryBuilder builder = new QueryBuilder().location(name).maxResults(10).fuzzyMode(FuzzyMode.FILL);
+                List<ResolvedLocation> expected = serial.getClosestLocations(builder.build());
+                List<ResolvedLocation> actual = parallel.getClosestLocations(builder.build());
+                assertEquals(name, expected, actual);
+            }
+            assertTrue("segments should be searched on the executor", executor.getSubmittedCount() > submitted);
+        } finally {
+            serial.close();
+            parallel.close();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCollapsedSearchUsesExecutor() throws Exception {
+        File indexDir = SampleIndex.get();
+
+        SearchExecutor executor = new SearchExecutor(2);
+        LuceneGazetteer serial = new LuceneGazetteer(indexDir, DirectoryType.DEFAULT, null);
+        LuceneGazetteer parallel = new LuceneGazetteer(indexDir, DirectoryType.DEFAULT, null, executor);
+        try {
+            // fuzzy matches are ranked and collapsed by geonameID in a single pass
+            for (String name : new String[] { "Bostn", "Virgina", "Restn" }) {
+                long submitted = executor.getSubmittedCount();
+                QueryBuilder builder = new QueryBuilder().location(name).maxResults(5).fuzzyMode(FuzzyMode.NO_EXACT)
+                        .filterDupes(true);
+                List<ResolvedLocation> expected = serial.getClosestLocations(builder.build());
+                List<ResolvedLocation> actual = parallel.getClosestLocations(builder.build());
+                assertEquals(name, expected, actual);
+                assertTrue(name + " should be searched on the executor", executor.getSubmittedCount() > submitted);
+            }
+        } finally {
+            serial.close();
+            parallel.close();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDeadlineSearchUsesExecutor() throws Exception {
+        File indexDir = SampleIndex.get();
+
+        SearchExecutor executor = new SearchExecutor(2);
+        LuceneGazetteer serial = new LuceneGazetteer(indexDir, DirectoryType.DEFAULT, null);
+        LuceneGazetteer parallel = new LuceneGazetteer(indexDir, DirectoryType.DEFAULT, null, executor);
+        try {
+            // a deadline is checked by each segment search rather than forcing a serial search
+            Deadline ample = Deadline.after(1, TimeUnit.MINUTES);
+            for (String name : new String[] { "Reston", "Boston", "Bostn" }) {
+                long submitted = executor.getSubmittedCount();
+                QueryBuilder builder = new QueryBuilder().location(name).maxResults(10).fuzzyMode(FuzzyMode.FILL);
+                List<ResolvedLocation> expected = serial.getClosestLocations(builder.build());
+                List<ResolvedLocation> actual = parallel.getClosestLocations(builder.deadline(ample).build());
+                assertEquals(name, expected, actual);
+                assertTrue(name + " should be searched on the executor", executor.getSubmittedCount() > submitted);
+            }
+            assertFalse("Deadline should not be truncated", ample.isTruncated());
+
+            Deadline expired = Deadline.after(0, TimeUnit.MILLISECONDS);
+            assertTrue("an expired deadline should return no results", parallel.getClosestLocations(
+                    new QueryBuilder().location("Boston").deadline(expired).build()).isEmpty());
+        } finally {
+            serial.close();
+            parallel.close();
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * ShardedGazetteerTest.java
+ *
+ *###################################################################*/
+package com.bericotech.clavin.gazetteer.query;
+
+import static com.bericotech.clavin.index.SampleIndex.*;
+import static org.junit.Assert.*;
+
+import com.bericotech.clavin.gazetteer.CountryCode;
+import com.bericotech.clavin.gazetteer.GeoName;
+import com.bericotech.clavin.index.SampleIndex;
+import com.bericotech.clavin.index.ShardManifest;
+import com.bericotech.clavin.resolver.ResolvedLocation;
+import java.io.File;
+import java.util.EnumSet;
+import java.util.List;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Verifies that a {@link ShardedGazetteer} returns the same results as a
+ * {@link LuceneGazetteer} searching a single index of the same GeoNames.
+ */
+public class ShardedGazetteerTest {
+    private static final int VIRGINIA = 6254928;
+
+    private static File shardDir;
+    private static LuceneGazetteer single;
+    private static ShardedGazetteer sharded;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        shardDir = SampleIndex.getSharded("AU,AQ");
+        single = new LuceneGazetteer(SampleIndex.get(), DirectoryType.DEFAULT, null);
+        sharded = new ShardedGazetteer(shardDir, DirectoryType.DEFAULT, null, null);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        single.close();
+        sharded.close();
+    }
+
+    @Test
+    public void testManifest() throws Exception {
+        ShardManifest manifest = ShardManifest.read(shardDir);
+        assertEquals(EnumSet.of(CountryCode.AQ, CountryCode.AU), manifest.getCountries("AQ_AU"));
+        assertEquals("AQ_AU", manifest.getShardName(CountryCode.AU));
+        assertEquals("US", manifest.getShardName(CountryCode.US));
+        for (String name : manifest.getShardNames()) {
+            assertTrue(name, new File(shardDir, name).isDirectory());
+        }
+        assertEquals(manifest.getShardNames(), sharded.getManifest().getShardNames());
+    }
+
+    @Test
+    public void testMergedResults() throws Exception {
+        for (String name : names("Springfield", "Australia", "Antarctica", "Germany", "Nowhereville")) {
+            for (FuzzyMode fuzzyMode : FuzzyMode.values()) {
+                for (int maxResults : new int[] { 1, 3, 10 }) {
+                    for (boolean filterDupes : new boolean[] { true, false }) {
+                        QueryBuilder builder = new QueryBuilder().location(name).maxResults(maxResults)
+                                .fuzzyMode(fuzzyMode).filterDupes(filterDupes).ancestryMode(AncestryMode.ON_CREATE);
+                        String message = String.format("%s [%s, %d, %b]", name, fuzzyMode, maxResults, filterDupes);
+                        assertSameResults(message, single.getClosestLocations(builder.build()),
+                                sharded.getClosestLocations(builder.build()));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRestrictedResults() throws Exception {
+        QueryBuilder builder = new QueryBuilder().location("Reston").maxResults(10).fuzzyMode(FuzzyMode.FILL)
+                .addParentIds(VIRGINIA);
+        List<ResolvedLocation> expected = single.getClosestLocations(builder.build());
+        assertFalse("restricted query should find Reston", expected.isEmpty());
+        assertSameResults("Reston", expected, sharded.getClosestLocations(builder.build()));
+    }
+
+    @Test
+    public void testGeoName() throws Exception {
+        GeoName virginia = sharded.getGeoName(VIRGINIA, AncestryMode.ON_CREATE);
+        assertNotNull(virginia);
+        assertEquals(VIRGINIA, virginia.getGeonameID());
+        assertTrue("ancestry should be resolved", virginia.isAncestryResolved());
+        assertNull(sharded.getGeoName(-1));
+
+        GeoName manual = sharded.getGeoName(VIRGINIA, AncestryMode.MANUAL);
+        assertFalse("ancestry should not be resolved", manual.isAncestryResolved());
+        sharded.loadAncestry(manual);
+        assertTrue("ancestry should be loaded", manual.isAncestryResolved());
+    }
+}
@@ -0,0 +1,177 @@
+package com.bericotech.clavin.index;
+
+import static org.junit.Assert.*;
+
+import com.bericotech.clavin.gazetteer.query.FuzzyMode;
+import com.bericotech.clavin.gazetteer.query.FuzzyStrategy;
+import com.bericotech.clavin.gazetteer.query.LuceneGazetteer;
+import com.bericotech.clavin.gazetteer.query.QueryBuilder;
+import com.bericotech.clavin.resolver.ResolvedLocation;
+import com.bericotech.clavin.util.DamerauLevenshtein;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * DeletionIndexTest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Tests the {@link DeletionIndex} and the fuzzy queries that use it.
+ */
+public class DeletionIndexTest {
+    private static File indexDir;
+
+    @BeforeClass
+    public static void buildIndex() throws Exception {
+        indexDir = SampleIndex.getWithFuzzyDistance(2);
+    }
+
+    @Test
+    public void testCandidates() throws Exception {
+        FSDirectory dir = FSDirectory.open(indexDir);
+        DirectoryReader reader = DirectoryReader.open(dir);
+        try {
+            assertTrue(DeletionIndex.exists(dir));
+            DeletionIndex deletions = DeletionIndex.open(dir);
+            try {
+                assertEquals(reader.getIndexCommit().getGeneration(), deletions.getGeneration());
+                assertEquals(2, deletions.getDistance());
+                List<String> tokens = new ArrayList<String>();
+                TermsEnum termsEnum = MultiFields.getTerms(reader, IndexField.INDEX_NAME.key()).iterator(null);
+                BytesRef term;
+                while ((term = termsEnum.next()) != null) {
+                    tokens.add(term.utf8ToString());
+                }
+                // misspell random tokens and check that every token within the distance is a candidate
+                Random random = new Random(42L);
+                for (int idx = 0; idx < 50; idx++) {
+                    String query = misspell(tokens.get(random.nextInt(tokens.size())), random);
+                    for (int maxEdits = 1; maxEdits <= 2; maxEdits++) {
+                        Set<String> candidates = new HashSet<String>(deletions.getCandidates(query, maxEdits));
+                        for (String token : tokens) {
+                            if (Math.abs(token.length() - query.length()) <= maxEdits
+                                    && DamerauLevenshtein.damerauLevenshteinDistance(query, token) <= maxEdits) {
+                                assertTrue(String.format("%s~%d: %s", query, maxEdits, token), candidates.contains(token));
+                            }
+                        }
+                    }
+                }
+            } finally {
+                deletions.close();
+            }
+        } finally {
+            reader.close();
+            dir.close();
+        }
+    }
+
+    @Test
+    public void testMatchesAutomaton() throws Exception {
+        LuceneGazetteer automaton = new LuceneGazetteer(indexDir);
+        LuceneGazetteer deletions = new LuceneGazetteer(indexDir);
+        deletions.setFuzzyStrategy(FuzzyStrategy.DELETION_INDEX);
+        try {
+            String[] names = { "Bostn", "Bsoton", "Restn", "Virgina", "Fairfx County", "Bstn", "Fairfax Cuonty" };
+            for (int maxEdits = 1; maxEdits <= 2; maxEdits++) {
+                automaton.setFuzzyMaxEdits(maxEdits);
+                deletions.setFuzzyMaxEdits(maxEdits);
+                for (String name : names) {
+                    QueryBuilder query = new QueryBuilder().location(name).maxResults(10).fuzzyMode(FuzzyMode.FILL);
+                    List<ResolvedLocation> expected = automaton.getClosestLocations(query.build());
+                    List<ResolvedLocation> actual = deletions.getClosestLocations(query.build());
+                    String desc = String.format("%s~%d", name, maxEdits);
+                    assertEquals(desc, expected.size(), actual.size());
+                    for (int idx = 0; idx < expected.size(); idx++) {
+                        assertEquals(desc, expected.get(idx).getGeoname().getGeonameID(),
+                                actual.get(idx).getGeoname().getGeonameID());
+                        assertEquals(desc, expected.get(idx).getMatchedName(), actual.get(idx).getMatchedName());
+                    }
+                }
+                // every match contains a token within the edit budget, so Boston is only matched
+                // by two deletions with a budget of two edits
+                List<ResolvedLocation> results = deletions.getClosestLocations(
+                        new QueryBuilder().location("Bstn").maxResults(10).fuzzyMode(FuzzyMode.FILL).build());
+                boolean foundBoston = false;
+                for (ResolvedLocation location : results) {
+                    int minEdits = Integer.MAX_VALUE;
+                    for (String token : WhitespaceLowerCaseAnalyzer.tokenize(location.getMatchedName().toLowerCase())) {
+                        minEdits = Math.min(minEdits, DamerauLevenshtein.damerauLevenshteinDistance("bstn", token));
+                    }
+                    assertTrue(location.getMatchedName(), minEdits <= maxEdits);
+                    foundBoston |= "Boston".equals(location.getMatchedName());
+                }
+                assertEquals("Bstn~" + maxEdits, maxEdits == 2, foundBoston);
+            }
+        } finally {
+            automaton.close();
+            deletions.close();
+        }
+    }
+
+    /**
+     * Applies one or two random edits to a token.
+     */
+    private static String misspell(final String token, final Random random) {
+        StringBuilder misspelled = new StringBuilder(token);
+        int edits = 1 + random.nextInt(2);
+        for (int edit = 0; edit < edits && misspelled.length() > 1; edit++) {
+            int pos = random.nextInt(misspelled.length());
+            char letter = (char) ('a' + random.nextInt(26));
+            switch (random.nextInt(4)) {
+                case 0:
+                    misspelled.deleteCharAt(pos);
+                    break;
+                case 1:
+                    misspelled.insert(pos, letter);
+                    break;
+                case 2:
+                    misspelled.setCharAt(pos, letter);
+                    break;
+                default:
+                    if (pos > 0) {
+                        char prev = misspelled.charAt(pos - 1);
+                        misspelled.setCharAt(pos - 1, misspelled.charAt(pos));
+                        misspelled.setCharAt(pos, prev);
+                    }
+                    break;
+            }
+        }
+        return misspelled.toString();
+    }
+}
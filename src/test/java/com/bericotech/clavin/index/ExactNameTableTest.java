@@ -0,0 +1,126 @@
+package com.bericotech.clavin.index;
+
+import static com.bericotech.clavin.index.SampleIndex.*;
+import static org.junit.Assert.*;
+
+import com.bericotech.clavin.gazetteer.query.FuzzyMode;
+import com.bericotech.clavin.gazetteer.query.LuceneGazetteer;
+import com.bericotech.clavin.gazetteer.query.QueryBuilder;
+import java.io.File;
+import java.util.List;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * ExactNameTableTest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Tests the {@link ExactNameTable} and its use by the gazetteer to answer
+ * exact name lookups without searching the index.
+ */
+public class ExactNameTableTest {
+    private static final List<String> TABLE_NAMES = names("Springfield", "Berlin", "Washington", "Paris", "London",
+            "Fairfax", "York", "New York", "Nowhere at all");
+
+    private static File tableIndex;
+    private static File searchIndex;
+
+    @BeforeClass
+    public static void buildIndexes() throws Exception {
+        tableIndex = SampleIndex.getWithExactNameDepth(3);
+        searchIndex = SampleIndex.getWithExactNameDepth(0);
+    }
+
+    @Test
+    public void testTableMatchesSearch() throws Exception {
+        FSDirectory dir = FSDirectory.open(tableIndex);
+        DirectoryReader reader = DirectoryReader.open(dir);
+        ExactNameTable table = ExactNameTable.open(dir);
+        try {
+            assertEquals(reader.getIndexCommit().getGeneration(), table.getGeneration());
+            assertEquals(3, table.getDepth());
+            IndexSearcher searcher = new IndexSearcher(reader);
+            searcher.setSimilarity(new BinarySimilarity());
+            Sort sort = new Sort(SortField.FIELD_SCORE, new SortField(IndexField.SORT_POP.key(), SortField.Type.LONG, true));
+            for (String name : TABLE_NAMES) {
+                String normalized = WhitespaceLowerCaseAnalyzer.normalize(name);
+                ScoreDoc[] hits = searcher.search(new TermQuery(new Term(IndexField.EXACT_NAME.key(), normalized)),
+                        null, 1000, sort).scoreDocs;
+                ExactNameTable.Entry entry = table.lookup(normalized);
+                if (hits.length == 0) {
+                    assertNull(name, entry);
+                    continue;
+                }
+                assertNotNull(name, entry);
+                assertEquals(name, hits.length <= entry.size(), entry.isComplete());
+                for (int idx = 0; idx < entry.size(); idx++) {
+                    assertEquals(name, hits[idx].doc, entry.getDoc(idx));
+                }
+            }
+            assertFalse("Virginia is part of longer names", table.lookup("virginia").isPartialFree());
+            assertTrue(table.lookup("reston").isPartialFree());
+        } finally {
+            table.close();
+            reader.close();
+            dir.close();
+        }
+    }
+
+    @Test
+    public void testGazetteerResults() throws Exception {
+        LuceneGazetteer withTable = new LuceneGazetteer(tableIndex);
+        LuceneGazetteer withoutTable = new LuceneGazetteer(searchIndex);
+        try {
+            for (String name : TABLE_NAMES) {
+                for (int maxResults : new int[] { 1, 2, 3, 5, 20 }) {
+                    for (boolean dedupe : new boolean[] { true, false }) {
+                        for (FuzzyMode fuzzyMode : new FuzzyMode[] { FuzzyMode.OFF, FuzzyMode.FILL }) {
+                            QueryBuilder query = new QueryBuilder().location(name).maxResults(maxResults)
+                                    .filterDupes(dedupe).fuzzyMode(fuzzyMode).includeHistorical(true);
+                            String desc = String.format("%s, maxResults=%d, dedupe=%s, %s", name, maxResults, dedupe,
+                                    fuzzyMode);
+                            assertSameResults(desc, withoutTable.getClosestLocations(query.build()),
+                                    withTable.getClosestLocations(query.build()));
+                        }
+                    }
+                }
+            }
+        } finally {
+            withTable.close();
+            withoutTable.close();
+        }
+    }
+}
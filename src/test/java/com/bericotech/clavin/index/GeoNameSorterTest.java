@@ -0,0 +1,124 @@
+package com.bericotech.clavin.index;
+
+import static org.junit.Assert.*;
+
+import com.bericotech.clavin.gazetteer.BasicGeoName;
+import com.bericotech.clavin.gazetteer.BinaryGeoNameCodec;
+import com.bericotech.clavin.gazetteer.GeoName;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * GeoNameSorterTest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Tests sorting GeoNames by population with the {@link GeoNameSorter}.
+ */
+public class GeoNameSorterTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testInMemorySort() throws Exception {
+        assertSorted(new GeoNameSorter(tempFolder.getRoot(), GeoNameSorter.DEFAULT_BUFFER_SIZE), false);
+    }
+
+    @Test
+    public void testMergedRuns() throws Exception {
+        // a tiny buffer writes a run for every few GeoNames
+        assertSorted(new GeoNameSorter(tempFolder.getRoot(), 1024L), true);
+    }
+
+    private void assertSorted(final GeoNameSorter sorter, final boolean spilled) throws Exception {
+        List<GeoName> geonames = loadGeoNames();
+        for (GeoName geoname : geonames) {
+            // many GeoNames share a sort population so the order of ties is tested
+            sorter.add(geoname, geoname.getPopulation() / 1000L);
+        }
+        assertEquals(geonames.size(), sorter.size());
+        assertEquals(spilled, sorter.getRunCount() > 1);
+
+        List<GeoName> sorted = new ArrayList<GeoName>();
+        GeoNameSorter.Reader reader = sorter.sorted();
+        GeoName geoname;
+        while ((geoname = reader.next()) != null) {
+            sorted.add(geoname);
+        }
+        reader.close();
+        sorter.close();
+        assertEquals(0, tempFolder.getRoot().list().length);
+
+        assertEquals(geonames.size(), sorted.size());
+        for (int idx = 1; idx < sorted.size(); idx++) {
+            GeoName previous = sorted.get(idx - 1);
+            GeoName current = sorted.get(idx);
+            long prevPop = previous.getPopulation() / 1000L;
+            long curPop = current.getPopulation() / 1000L;
+            assertTrue(current.toString(), prevPop >= curPop);
+            if (prevPop == curPop) {
+                assertTrue("ties keep the order they were added: " + current,
+                        indexOf(geonames, previous) < indexOf(geonames, current));
+            }
+            assertTrue("every GeoName is read exactly as it was added: " + current, indexOf(geonames, current) >= 0);
+        }
+    }
+
+    private static int indexOf(final List<GeoName> geonames, final GeoName geoname) {
+        // the sample contains GeoNames with the same ID in both gazetteers
+        for (int idx = 0; idx < geonames.size(); idx++) {
+            if (Arrays.equals(BinaryGeoNameCodec.encode(geonames.get(idx), true), BinaryGeoNameCodec.encode(geoname, true))) {
+                return idx;
+            }
+        }
+        return -1;
+    }
+
+    private static List<GeoName> loadGeoNames() throws Exception {
+        List<GeoName> geonames = new ArrayList<GeoName>();
+        for (String file : new String[] { "./src/test/resources/gazetteers/GeoNamesSampleSet.txt",
+                "./src/main/resources/SupplementaryGazetteer.txt" }) {
+            BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(new File(file)), "UTF-8"));
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                    geonames.add(BasicGeoName.parseFromGeoNamesRecord(line));
+                }
+            }
+            r.close();
+        }
+        return geonames;
+    }
+}
@@ -0,0 +1,114 @@
+package com.bericotech.clavin.index;
+
+import static org.junit.Assert.*;
+
+import com.bericotech.clavin.gazetteer.query.FuzzyMode;
+import com.bericotech.clavin.gazetteer.query.LuceneGazetteer;
+import com.bericotech.clavin.gazetteer.query.QueryBuilder;
+import com.bericotech.clavin.resolver.ResolvedLocation;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * NameBloomFilterTest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Tests the {@link NameBloomFilter} and the gazetteer's handling of names
+ * that have no matches.
+ */
+public class NameBloomFilterTest {
+    private static File indexDir;
+
+    @BeforeClass
+    public static void buildIndex() throws Exception {
+        indexDir = SampleIndex.get();
+    }
+
+    @Test
+    public void testIndexedTokens() throws Exception {
+        FSDirectory dir = FSDirectory.open(indexDir);
+        DirectoryReader reader = DirectoryReader.open(dir);
+        try {
+            assertTrue(NameBloomFilter.exists(dir));
+            NameBloomFilter filter = NameBloomFilter.read(dir);
+            assertEquals(reader.getIndexCommit().getGeneration(), filter.getGeneration());
+            // every indexed token must be found
+            TermsEnum termsEnum = MultiFields.getTerms(reader, IndexField.INDEX_NAME.key()).iterator(null);
+            BytesRef term;
+            int tokenCount = 0;
+            while ((term = termsEnum.next()) != null) {
+                assertTrue(term.utf8ToString(), filter.mayContain(term.utf8ToString()));
+                tokenCount++;
+            }
+            assertTrue(filter.mayContainAll(Arrays.asList("fairfax", "county")));
+            // random tokens are rejected, apart from the occasional false positive
+            Random random = new Random(42L);
+            int falsePositives = 0;
+            for (int idx = 0; idx < tokenCount; idx++) {
+                if (filter.mayContain("zz" + Long.toString(random.nextLong(), 36))) {
+                    falsePositives++;
+                }
+            }
+            assertTrue("false positives: " + falsePositives, falsePositives < tokenCount / 20);
+            assertFalse(filter.mayContainAll(Arrays.asList("fairfax", "zzqqxyzzy")));
+        } finally {
+            reader.close();
+            dir.close();
+        }
+    }
+
+    @Test
+    public void testRepeatedMisses() throws Exception {
+        LuceneGazetteer gazetteer = new LuceneGazetteer(indexDir);
+        try {
+            QueryBuilder unknown = new QueryBuilder().location("Zzqqxyzzy").includeHistorical(true);
+            QueryBuilder misspelled = new QueryBuilder().location("Bostn").includeHistorical(true);
+            for (int pass = 0; pass < 2; pass++) {
+                assertTrue(gazetteer.getClosestLocations(unknown.fuzzyMode(FuzzyMode.OFF).build()).isEmpty());
+                assertTrue(gazetteer.getClosestLocations(unknown.fuzzyMode(FuzzyMode.FILL).build()).isEmpty());
+                // a name without exact matches must still be searched for fuzzy matches
+                assertTrue(gazetteer.getClosestLocations(misspelled.fuzzyMode(FuzzyMode.OFF).build()).isEmpty());
+                List<ResolvedLocation> fuzzy = gazetteer.getClosestLocations(misspelled.fuzzyMode(FuzzyMode.FILL).build());
+                assertFalse("pass " + pass, fuzzy.isEmpty());
+                assertEquals("Boston", fuzzy.get(0).getGeoname().getName());
+                assertTrue(fuzzy.get(0).isFuzzy());
+            }
+        } finally {
+            gazetteer.close();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.bericotech.clavin.index;
+
+import static com.bericotech.clavin.index.SampleIndex.*;
+import static org.junit.Assert.*;
+
+import com.bericotech.clavin.gazetteer.GeoName;
+import com.bericotech.clavin.gazetteer.HierarchyPosition;
+import com.bericotech.clavin.gazetteer.query.AncestryMode;
+import com.bericotech.clavin.gazetteer.query.GazetteerQuery;
+import com.bericotech.clavin.gazetteer.query.LuceneGazetteer;
+import com.bericotech.clavin.gazetteer.query.QueryBuilder;
+import com.bericotech.clavin.resolver.ResolvedLocation;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+/*#####################################################################
+ * 
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ * 
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ * 
+ * ====================================================================
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ * 
+ * ====================================================================
+ * 
+ * ParentIdTableTest.java
+ * 
+ *###################################################################*/
+
+/**
+ * Tests the {@link ParentIdTable} and its use by the gazetteer to resolve
+ * ancestry without searching the index.
+ */
+public class ParentIdTableTest {
+    @Test
+    public void testRoundTrip() throws Exception {
+        ParentIdTable table = new ParentIdTable.Builder()
+                .add(4758041, 6254928)
+                .add(6252001, ParentIdTable.NO_PARENT)
+                .add(6254928, 6252001)
+                .add(5, 4)
+                .build();
+        RAMDirectory dir = new RAMDirectory();
+        assertFalse(ParentIdTable.exists(dir));
+        table.write(dir);
+        assertTrue(ParentIdTable.exists(dir));
+
+        ParentIdTable read = ParentIdTable.read(dir);
+        assertEquals(4, read.size());
+        assertEquals(6254928, read.getParentId(4758041));
+        assertEquals(6252001, read.getParentId(6254928));
+        assertEquals(4, read.getParentId(5));
+        assertEquals(ParentIdTable.NO_PARENT, read.getParentId(6252001));
+        assertTrue(read.contains(6252001));
+        assertFalse(read.contains(4781530));
+        assertEquals(ParentIdTable.NO_PARENT, read.getParentId(4781530));
+
+        ParentIdTable merged = new ParentIdTable.Builder().addAll(read).add(5, 6).add(4781530, 4758041).build();
+        assertEquals(5, merged.size());
+        assertEquals(6, merged.getParentId(5));
+        assertEquals(4758041, merged.getParentId(4781530));
+    }
+
+    @Test
+    public void testHierarchyIntervals() throws Exception {
+        // 1 > (2 > 4, 3); 5 is a separate root
+        ParentIdTable table = new ParentIdTable.Builder()
+                .add(3, 1)
+                .add(1, ParentIdTable.NO_PARENT)
+                .add(4, 2)
+                .add(2, 1)
+                .add(5, ParentIdTable.NO_PARENT)
+                .build();
+        RAMDirectory dir = new RAMDirectory();
+        table.write(dir);
+        ParentIdTable read = ParentIdTable.read(dir);
+        assertTrue(read.hasIntervals());
+
+        HierarchyPosition one = read.getHierarchyPosition(1, ParentIdTable.NO_PARENT);
+        HierarchyPosition two = read.getHierarchyPosition(2, 1);
+        HierarchyPosition three = read.getHierarchyPosition(3, 1);
+        HierarchyPosition four = read.getHierarchyPosition(4, 2);
+        HierarchyPosition five = read.getHierarchyPosition(5, ParentIdTable.NO_PARENT);
+        // a GeoName that is not an ancestor, under 4
+        HierarchyPosition leaf = read.getHierarchyPosition(6, 4);
+        assertEquals("top-level GeoNames have position 0", 0, one.getPosition());
+        assertEquals(read.getChildPosition(4), leaf.getPosition());
+        assertTrue(leaf.getDescendantEnd() < leaf.getDescendantStart());
+
+        assertTrue(one.contains(two));
+        assertTrue(one.contains(three));
+        assertTrue(one.contains(four));
+        assertTrue(one.contains(leaf));
+        assertTrue(two.contains(four));
+        assertTrue(two.contains(leaf));
+        assertTrue(four.contains(leaf));
+        assertFalse(one.contains(one));
+        assertFalse(two.contains(three));
+        assertFalse(three.contains(leaf));
+        assertFalse(four.contains(two));
+        assertFalse(five.contains(leaf));
+        assertFalse(leaf.contains(four));
+        assertFalse("positions of different tables are not comparable",
+                one.isComparableTo(new ParentIdTable.Builder().addAll(read).build().getHierarchyPosition(2, 1)));
+    }
+
+    @Test
+    public void testPrecomputedAncestry() throws Exception {
+        File indexDir = SampleIndex.get();
+
+        FSDirectory dir = FSDirectory.open(indexDir);
+        try {
+            // Reston > Fairfax County > Virginia > United States
+            ParentIdTable table = ParentIdTable.read(dir);
+            assertEquals(6254928, table.getParentId(4758041));
+            assertEquals(6252001, table.getParentId(6254928));
+            assertEquals(ParentIdTable.NO_PARENT, table.getParentId(6252001));
+            assertFalse("only ancestors are in the table", table.contains(4781530));
+        } finally {
+            dir.close();
+        }
+
+        LuceneGazetteer gazetteer = new LuceneGazetteer(indexDir, null);
+        try {
+            for (String name : new String[] { "Reston", "Fairfax", "Virginia", "Straßenhaus", "Boston" }) {
+                QueryBuilder builder = new QueryBuilder().location(name).maxResults(10);
+                GazetteerQuery onCreate = builder.ancestryMode(AncestryMode.ON_CREATE).build();
+                GazetteerQuery precomputed = builder.ancestryMode(AncestryMode.PRECOMPUTED).build();
+                List<ResolvedLocation> expected = gazetteer.getClosestLocations(onCreate);
+                List<ResolvedLocation> actual = gazetteer.getClosestLocations(precomputed);
+                assertEquals(name, expected.size(), actual.size());
+                for (int idx = 0; idx < expected.size(); idx++) {
+                    assertTrue(name, actual.get(idx).getGeoname().isAncestryResolved());
+                    assertEquals(name, describe(expected.get(idx).getGeoname()), describe(actual.get(idx).getGeoname()));
+                }
+            }
+            assertEquals("4781530>4758041>6254928>6252001",
+                    describe(gazetteer.getGeoName(4781530, AncestryMode.PRECOMPUTED)));
+            assertEquals("6254928>6252001", describe(gazetteer.getGeoName(6254928, AncestryMode.PRECOMPUTED)));
+
+            // hierarchy positions agree with the resolved ancestry
+            List<GeoName> geonames = new ArrayList<GeoName>();
+            for (String name : new String[] { "Reston", "Fairfax", "Virginia", "United States", "Boston", "Berlin" }) {
+                for (ResolvedLocation loc : gazetteer.getClosestLocations(new QueryBuilder().location(name).maxResults(10)
+                        .ancestryMode(AncestryMode.ON_CREATE).build())) {
+                    geonames.add(loc.getGeoname());
+                }
+            }
+            for (GeoName descendant : geonames) {
+                assertNotNull(HierarchyPosition.of(descendant));
+                for (GeoName ancestor : geonames) {
+                    assertEquals(describe(descendant) + " / " + ancestor.getGeonameID(), isAncestor(ancestor, descendant),
+                            descendant.isDescendantOf(ancestor));
+                }
+            }
+            // searches restricted to descendants only return descendants
+            List<ResolvedLocation> restricted = gazetteer.getClosestLocations(new QueryBuilder().location("Reston")
+                    .maxResults(10).ancestryMode(AncestryMode.ON_CREATE).addParentIds(6254928).build());
+            assertFalse(restricted.isEmpty());
+            for (ResolvedLocation loc : restricted) {
+                assertTrue(describe(loc.getGeoname()), describe(loc.getGeoname()).contains(">6254928"));
+            }
+        } finally {
+            gazetteer.close();
+        }
+    }
+
+    private static boolean isAncestor(final GeoName ancestor, final GeoName descendant) {
+        for (GeoName test = descendant; test != null; test = test.getParent()) {
+            if (test.getGeonameID() == ancestor.getGeonameID()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
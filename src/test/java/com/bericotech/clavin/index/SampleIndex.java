@@ -0,0 +1,186 @@
+package com.bericotech.clavin.index;
+
+import static org.junit.Assert.*;
+
+import com.bericotech.clavin.gazetteer.GeoName;
+import com.bericotech.clavin.resolver.ResolvedLocation;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * SampleIndex.java
+ *
+ *###################################################################*/
+
+/**
+ * The gazetteer indexes of the sample GeoNames shared by tests.  Each
+ * configuration is built once per test run, in a temporary directory that
+ * is deleted when the JVM exits, so tests must not modify the indexes.
+ */
+public final class SampleIndex {
+    /**
+     * The gazetteer files indexed: the sample GeoNames and the supplementary gazetteer.
+     */
+    public static final List<File> GAZETTEER_FILES = Collections.unmodifiableList(Arrays.asList(
+            new File("./src/test/resources/gazetteers/GeoNamesSampleSet.txt"),
+            new File("./src/main/resources/SupplementaryGazetteer.txt")));
+
+    /**
+     * Location names used to compare the results of gazetteers searching the sample
+     * index, covering exact, multi-word, non-ASCII and misspelled names.
+     */
+    public static final String[] NAMES = { "Reston", "Virginia", "Boston", "Straßenhaus", "Bostn", "United States" };
+
+    private static final Map<String, File> INDEXES = new HashMap<String, File>();
+
+    private static File root;
+
+    private SampleIndex() {
+    }
+
+    /**
+     * Get {@link #NAMES} followed by additional names.
+     * @param extraNames the additional names
+     * @return the names
+     */
+    public static List<String> names(final String... extraNames) {
+        List<String> names = new ArrayList<String>(Arrays.asList(NAMES));
+        names.addAll(Arrays.asList(extraNames));
+        return names;
+    }
+
+    /**
+     * Get the index built with the default options.
+     * @return the index directory
+     * @throws IOException if an error occurs building the index
+     */
+    public static File get() throws IOException {
+        return get("default", new IndexDirectoryBuilder.Builder());
+    }
+
+    /**
+     * Get the index sharded by country.
+     * @param groups the countries sharing a shard, in the format of the <code>--shard-groups</code> option
+     * @return the directory of the sharded index
+     * @throws IOException if an error occurs building the index
+     */
+    public static File getSharded(final String groups) throws IOException {
+        return get("shards-" + groups, new IndexDirectoryBuilder.Builder().shardGroups(groups));
+    }
+
+    /**
+     * Get the index with an exact name table of the provided depth.
+     * @param depth the depth of the table; 0 for no table
+     * @return the index directory
+     * @throws IOException if an error occurs building the index
+     */
+    public static File getWithExactNameDepth(final int depth) throws IOException {
+        return get("exact-" + depth, new IndexDirectoryBuilder.Builder().exactNameDepth(depth));
+    }
+
+    /**
+     * Get the index with a deletion index of the provided distance.
+     * @param distance the maximum number of deletions indexed for each token
+     * @return the index directory
+     * @throws IOException if an error occurs building the index
+     */
+    public static File getWithFuzzyDistance(final int distance) throws IOException {
+        return get("fuzzy-" + distance, new IndexDirectoryBuilder.Builder().fuzzyDistance(distance));
+    }
+
+    private static synchronized File get(final String name, final IndexDirectoryBuilder.Builder builder)
+            throws IOException {
+        File indexDir = INDEXES.get(name);
+        if (indexDir == null) {
+            if (root == null) {
+                root = Files.createTempDirectory("clavin-sample-index").toFile();
+                final File rootDir = root;
+                Runtime.getRuntime().addShutdownHook(new Thread() {
+                    @Override
+                    public void run() {
+                        FileUtils.deleteQuietly(rootDir);
+                    }
+                });
+            }
+            indexDir = new File(root, name);
+            builder.build().buildIndex(indexDir, GAZETTEER_FILES, null);
+            INDEXES.put(name, indexDir);
+        }
+        return indexDir;
+    }
+
+    /**
+     * Asserts that two lists of results match the same GeoNames, with the same ancestry,
+     * in the same order and through the same names.
+     * @param message the message reported if the results differ
+     * @param expected the expected results
+     * @param actual the actual results
+     */
+    public static void assertSameResults(final String message, final List<ResolvedLocation> expected,
+            final List<ResolvedLocation> actual) {
+        assertEquals(message, describe(expected), describe(actual));
+    }
+
+    /**
+     * Describes each result by its GeoName, matched name, fuzziness and preferred name.
+     * @param locations the results
+     * @return the descriptions of the results
+     */
+    public static List<String> describe(final List<ResolvedLocation> locations) {
+        List<String> descriptions = new ArrayList<String>();
+        for (ResolvedLocation location : locations) {
+            descriptions.add(String.format("%s|%s|%s|%s", describe(location.getGeoname()), location.getMatchedName(),
+                    location.isFuzzy(), location.getGeoname().getPreferredName()));
+        }
+        return descriptions;
+    }
+
+    /**
+     * Describes a GeoName by its geonameID followed by the IDs of its ancestors,
+     * such as <code>4781530&gt;4758041&gt;6254928&gt;6252001</code>.  Lazily loaded
+     * ancestry is loaded.
+     * @param geoname the GeoName
+     * @return the description or <code>null</code> if the GeoName is <code>null</code>
+     */
+    public static String describe(final GeoName geoname) {
+        if (geoname == null) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder().append(geoname.getGeonameID());
+        for (GeoName parent = geoname.getParent(); parent != null; parent = parent.getParent()) {
+            builder.append('>').append(parent.getGeonameID());
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,109 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * WhitespaceLowerCaseAnalyzerTest.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.index;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.junit.Test;
+
+/**
+ * Ensures the static tokenization methods of {@link WhitespaceLowerCaseAnalyzer}
+ * produce the same tokens as the analyzer.
+ */
+public class WhitespaceLowerCaseAnalyzerTest {
+    private static final String[] INPUTS = {
+        "Reston",
+        "  Gun Barrel   City ",
+        "NEW\tYORK\ncity",
+        "Straßenhaus Airport",
+        "Рестон",
+        "Bandaríki Norður-Ameríku",
+        "𐐀bc",
+        "",
+        " \t\n "
+    };
+
+    @Test
+    public void testTokenize() throws IOException {
+        WhitespaceLowerCaseAnalyzer analyzer = new WhitespaceLowerCaseAnalyzer();
+        for (String input : INPUTS) {
+            assertEquals("tokens differ for [" + input + "]", analyze(analyzer, input),
+                    WhitespaceLowerCaseAnalyzer.tokenize(input));
+        }
+        analyzer.close();
+    }
+
+    @Test
+    public void testLongTokens() throws IOException {
+        int max = WhitespaceLowerCaseAnalyzer.MAX_TOKEN_LENGTH;
+        String[] inputs = {
+            StringUtils.repeat("A", max),
+            StringUtils.repeat("A", max + 1),
+            StringUtils.repeat("Ab", max) + " City",
+            "Gun " + StringUtils.repeat("b", max - 1) + "𐐀c Barrel",
+            StringUtils.repeat("Рестон ", 2) + StringUtils.repeat("Р", 3 * max + 7)
+        };
+        WhitespaceLowerCaseAnalyzer analyzer = new WhitespaceLowerCaseAnalyzer();
+        for (String input : inputs) {
+            List<String> expected = analyze(analyzer, input);
+            assertEquals("tokens differ for input of length " + input.length(), expected,
+                    WhitespaceLowerCaseAnalyzer.tokenize(input));
+        }
+        analyzer.close();
+        assertEquals(Arrays.asList(StringUtils.repeat("a", max), "a"),
+                WhitespaceLowerCaseAnalyzer.tokenize(StringUtils.repeat("A", max + 1)));
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("gun barrel city", WhitespaceLowerCaseAnalyzer.normalize("  Gun Barrel\tCITY "));
+        assertEquals("", WhitespaceLowerCaseAnalyzer.normalize(" \t\n "));
+        assertEquals(Arrays.asList("gun", "barrel"), WhitespaceLowerCaseAnalyzer.tokenize("Gun Barrel"));
+    }
+
+    private static List<String> analyze(final WhitespaceLowerCaseAnalyzer analyzer, final String text) throws IOException {
+        List<String> tokens = new ArrayList<String>();
+        TokenStream stream = analyzer.tokenStream(IndexField.INDEX_NAME.key(), text);
+        CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+        stream.reset();
+        while (stream.incrementToken()) {
+            tokens.add(term.toString());
+        }
+        stream.end();
+        stream.close();
+        return tokens;
+    }
+}
@@ -8,9 +8,11 @@ import com.bericotech.clavin.extractor.LocationOccurrence;
 import com.bericotech.clavin.gazetteer.GeoName;
 import com.bericotech.clavin.gazetteer.query.AncestryMode;
 import com.bericotech.clavin.gazetteer.query.LuceneGazetteer;
+import com.bericotech.clavin.util.Deadline;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -257,6 +259,30 @@ public class ClavinLocationResolverTest {
         assertTrue("LocationResolver fuzzy on, no match", resolvedLocations.isEmpty());
     }
 
+    /**
+     * Ensure resolution stops with partial results once its deadline has passed and
+     * runs to completion when time remains.
+     */
+    @Test
+    public void testDeadline() throws ClavinException {
+        List<LocationOccurrence> locations = makeOccurrencesFromNames(new String[] {"Boston", "Reston", "Straßenhaus"});
+
+        Deadline expired = Deadline.after(0, TimeUnit.MILLISECONDS);
+        resolvedLocations = resolver.resolveLocations(locations, ClavinLocationResolver.DEFAULT_MAX_HIT_DEPTH,
+                ClavinLocationResolver.DEFAULT_MAX_CONTEXT_WINDOW, false, AncestryMode.LAZY, expired);
+        assertTrue("expected no matches after deadline", resolvedLocations.isEmpty());
+        assertTrue("expected deadline to be marked truncated", expired.isTruncated());
+
+        Deadline ample = Deadline.after(1, TimeUnit.MINUTES);
+        resolvedLocations = resolver.resolveLocations(locations, ClavinLocationResolver.DEFAULT_MAX_HIT_DEPTH,
+                ClavinLocationResolver.DEFAULT_MAX_CONTEXT_WINDOW, false, AncestryMode.LAZY, ample);
+        assertFalse("deadline should not be truncated", ample.isTruncated());
+        assertEquals(3, resolvedLocations.size());
+        assertEquals(BOSTON_MA, resolvedLocations.get(0).getGeoname().getGeonameID());
+        assertEquals(RESTON_VA, resolvedLocations.get(1).getGeoname().getGeonameID());
+        assertEquals(STRAßENHAUS_DE, resolvedLocations.get(2).getGeoname().getGeonameID());
+    }
+
     /**
      * Tests functionality of demonym filter.
      */
@@ -0,0 +1,88 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * DeadlineTest.java
+ *
+ *###################################################################*/
+
+
+package com.bericotech.clavin.util;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Tests for the deadline carried by queries and resolver calls.
+ */
+public class DeadlineTest {
+    /**
+     * Ensure a deadline reports the time remaining until it passes.
+     */
+    @Test
+    public void testRemaining() {
+        Deadline deadline = Deadline.after(1, TimeUnit.MINUTES);
+        assertFalse(deadline.isExpired());
+        assertTrue(deadline.remaining(TimeUnit.SECONDS) > 50);
+        assertTrue(deadline.remaining(TimeUnit.SECONDS) <= 60);
+        assertFalse("unexpired deadline marked truncated", deadline.checkExpired());
+        assertFalse(deadline.isTruncated());
+    }
+
+    /**
+     * Ensure a passed deadline reports no time remaining and is marked truncated
+     * when checked.
+     */
+    @Test
+    public void testExpired() {
+        Deadline deadline = Deadline.after(-5, TimeUnit.SECONDS);
+        assertTrue(deadline.isExpired());
+        assertEquals(0L, deadline.remaining(TimeUnit.NANOSECONDS));
+        assertFalse(deadline.isTruncated());
+        assertTrue(deadline.checkExpired());
+        assertTrue("expired deadline not marked truncated", deadline.isTruncated());
+    }
+
+    /**
+     * Ensure a forked deadline tracks its own truncation and reports it to the
+     * deadline it was forked from.
+     */
+    @Test
+    public void testFork() {
+        Deadline deadline = Deadline.after(1, TimeUnit.MINUTES);
+        deadline.markTruncated();
+        Deadline fork = deadline.fork();
+        assertFalse("fork inherited truncation", fork.isTruncated());
+        assertTrue(fork.remaining(TimeUnit.SECONDS) > 50);
+
+        Deadline shared = Deadline.after(-5, TimeUnit.SECONDS);
+        Deadline complete = shared.fork();
+        Deadline expired = shared.fork();
+        assertTrue(expired.checkExpired());
+        assertTrue(expired.isTruncated());
+        assertFalse("sibling fork marked truncated", complete.isTruncated());
+        assertTrue("truncation not reported to parent", shared.isTruncated());
+    }
+}
@@ -0,0 +1,118 @@
+/*#####################################################################
+ *
+ * CLAVIN (Cartographic Location And Vicinity INdexer)
+ * ---------------------------------------------------
+ *
+ * Copyright (C) 2012-2013 Berico Technologies
+ * http://clavin.bericotechnologies.com
+ *
+ * ====================================================================
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * ====================================================================
+ *
+ * LruCacheTest.java
+ *
+ *###################################################################*/
+
+package com.bericotech.clavin.util;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Tests for the bounded LRU cache.
+ */
+public class LruCacheTest {
+    /**
+     * Ensure the least recently used entry is evicted when the cache is full.
+     */
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        // fewer than 16 entries per segment forces a single segment
+        LruCache<String, Integer> cache = new LruCache<String, Integer>(3);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        assertEquals("expected cached value", Integer.valueOf(1), cache.get("a"));
+        cache.put("d", 4);
+
+        assertEquals("cache exceeded max size", 3, cache.size());
+        assertNull("least recently used entry not evicted", cache.get("b"));
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        assertEquals(Integer.valueOf(3), cache.get("c"));
+        assertEquals(Integer.valueOf(4), cache.get("d"));
+        assertEquals("wrong eviction count", 1, cache.getEvictionCount());
+    }
+
+    /**
+     * Ensure the cache never grows beyond its maximum size.
+     */
+    @Test
+    public void testBounded() {
+        LruCache<Integer, Integer> cache = new LruCache<Integer, Integer>(1000);
+        for (int i = 0; i < 5000; i++) {
+            cache.put(i, i);
+        }
+        assertTrue("cache exceeded max size", cache.size() <= 1000);
+        assertEquals("wrong eviction count", 5000 - cache.size(), cache.getEvictionCount());
+    }
+
+    /**
+     * Ensure hits and misses are counted.
+     */
+    @Test
+    public void testCounters() {
+        LruCache<String, String> cache = new LruCache<String, String>(10);
+        assertNull(cache.get("a"));
+        cache.put("a", "A");
+        assertEquals("A", cache.get("a"));
+        assertEquals("A", cache.get("a"));
+        cache.remove("a");
+        assertNull(cache.get("a"));
+
+        assertEquals("wrong hit count", 2, cache.getHitCount());
+        assertEquals("wrong miss count", 2, cache.getMissCount());
+        assertEquals("removal counted as eviction", 0, cache.getEvictionCount());
+    }
+
+    /**
+     * Ensure entries expire once their time to live has elapsed.
+     */
+    @Test
+    public void testExpiration() throws InterruptedException {
+        LruCache<String, String> cache = new LruCache<String, String>(10, 50, TimeUnit.MILLISECONDS);
+        cache.put("a", "A");
+        assertEquals("A", cache.get("a"));
+        Thread.sleep(100);
+        assertNull("entry did not expire", cache.get("a"));
+        assertEquals("expiration not counted as eviction", 1, cache.getEvictionCount());
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Ensure invalid arguments are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() {
+        new LruCache<String, String>(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullValue() {
+        new LruCache<String, String>(10).put("a", null);
+    }
+}